@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.filesystem.local;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.eclipse.core.filesystem.*;
+import org.eclipse.core.filesystem.provider.FileTree;
+import org.eclipse.core.runtime.*;
+
+/**
+ * A file tree for the local file system. The information about the children
+ * of each directory is fetched ahead of the caller on a pool of threads: once
+ * the children of a directory have been asked for, the children of its
+ * sub-directories are fetched in parallel, up to a bounded number of pending
+ * fetches. The entry of a directory is released when its children are
+ * returned, so that walking a large tree does not hold the information about
+ * every file at once.
+ * <p>
+ * Directories that are reached through symbolic links are not fetched ahead,
+ * to avoid following link cycles. Asking for the children of such a directory,
+ * of a directory whose children have already been returned, or of any other
+ * store that is not being fetched, falls back to querying the file system
+ * directly. Likewise, the information about stores other than the tree root
+ * is always fetched from the file system.
+ * </p>
+ */
+public class LocalFileTree extends FileTree {
+	private static final IFileInfo[] NO_CHILDREN = new IFileInfo[0];
+
+	/**
+	 * The maximum number of directories whose children are fetched ahead
+	 * of the caller at any time.
+	 */
+	private static final int MAX_PENDING_FETCHES = 1024;
+
+	/**
+	 * The pool fetching the children of directories, shared by all trees.
+	 */
+	private static ForkJoinPool pool;
+
+	/**
+	 * The pending or completed fetches of the children of directories in
+	 * the tree, that have not been returned yet.
+	 */
+	private final Map<IFileStore, Future<IFileInfo[]>> fetches = new ConcurrentHashMap<IFileStore, Future<IFileInfo[]>>();
+
+	private final IProgressMonitor monitor;
+
+	/**
+	 * The information about the tree root.
+	 */
+	private IFileInfo rootInfo;
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null)
+			pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		return pool;
+	}
+
+	/**
+	 * Creates a new file tree rooted at the given store, and starts fetching
+	 * the information about the children of the root.
+	 *
+	 * @param treeRoot the root of the tree
+	 * @param monitor a progress monitor, or <code>null</code>
+	 */
+	public LocalFileTree(IFileStore treeRoot, IProgressMonitor monitor) {
+		super(treeRoot);
+		this.monitor = monitor == null ? new NullProgressMonitor() : monitor;
+		rootInfo = treeRoot.fetchInfo();
+		if (rootInfo.isDirectory())
+			fetchChildren(treeRoot);
+	}
+
+	/**
+	 * Starts fetching the children of the given directory, unless the
+	 * fetch has been canceled or too many fetches are pending.
+	 */
+	private void fetchChildren(final IFileStore directory) {
+		if (monitor.isCanceled() || fetches.size() >= MAX_PENDING_FETCHES)
+			return;
+		fetches.put(directory, getPool().submit(new Callable<IFileInfo[]>() {
+			public IFileInfo[] call() throws CoreException {
+				return directory.childInfos(EFS.NONE, null);
+			}
+		}));
+	}
+
+	/**
+	 * Waits for the given fetch of children to complete, and returns its
+	 * result. Fetches the children on the calling thread if the fetch
+	 * failed or has been interrupted.
+	 */
+	private IFileInfo[] getFetchResult(Future<IFileInfo[]> fetch, IFileStore store) {
+		try {
+			return fetch.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			//fall through
+		}
+		return fetchChildInfos(store);
+	}
+
+	private IFileInfo[] fetchChildInfos(IFileStore store) {
+		try {
+			return store.childInfos(EFS.NONE, null);
+		} catch (CoreException e) {
+			//treat failure to access the directory as an empty directory
+			return NO_CHILDREN;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.filesystem.provider.FileTree#getChildInfos(org.eclipse.core.filesystem.IFileStore)
+	 */
+	public IFileInfo[] getChildInfos(IFileStore store) {
+		Future<IFileInfo[]> fetch = fetches.remove(store);
+		if (fetch == null)
+			return fetchChildInfos(store);
+		IFileInfo[] infos = getFetchResult(fetch, store);
+		for (int i = 0; i < infos.length; i++) {
+			IFileInfo info = infos[i];
+			if (info.isDirectory() && !info.getAttribute(EFS.ATTRIBUTE_SYMLINK))
+				fetchChildren(store.getChild(info.getName()));
+		}
+		return infos;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.filesystem.provider.FileTree#getChildStores(org.eclipse.core.filesystem.IFileStore)
+	 */
+	public IFileStore[] getChildStores(IFileStore store) {
+		IFileInfo[] infos = getChildInfos(store);
+		IFileStore[] result = new IFileStore[infos.length];
+		for (int i = 0; i < infos.length; i++)
+			result[i] = store.getChild(infos[i].getName());
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.filesystem.provider.FileTree#getFileInfo(org.eclipse.core.filesystem.IFileStore)
+	 */
+	public IFileInfo getFileInfo(IFileStore store) {
+		if (store.equals(treeRoot))
+			return rootInfo;
+		return store.fetchInfo();
+	}
+}
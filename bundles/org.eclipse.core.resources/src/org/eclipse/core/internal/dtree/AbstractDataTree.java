@@ -39,9 +39,10 @@ import org.eclipse.osgi.util.NLS;
 public abstract class AbstractDataTree {
 
 	/**
-	 * Whether modifications to the given source tree are allowed 
+	 * Whether modifications to the given source tree are allowed. Volatile so
+	 * that the contents of a tree are visible to any thread that sees it immutable.
 	 */
-	private boolean immutable = false;
+	private volatile boolean immutable = false;
 
 	/**
 	 * Singleton indicating no children
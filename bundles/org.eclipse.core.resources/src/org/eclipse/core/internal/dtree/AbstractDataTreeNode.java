@@ -26,7 +26,31 @@ public abstract class AbstractDataTreeNode {
 	 * Singleton indicating no children.
 	 */
 	static final AbstractDataTreeNode[] NO_CHILDREN = new AbstractDataTreeNode[0];
+
+	/**
+	 * Nodes with more children than this switch to a persistent child tree
+	 * when they are assembled with a delta that changes few of their children,
+	 * rather than copying their child array for every change.
+	 */
+	static final int MAX_ARRAY_CHILDREN = 512;
+
+	/**
+	 * The minimum number of children of a node below the root for them
+	 * to be compared concurrently in a parallel comparison.
+	 */
+	static final int MIN_PARALLEL_CHILDREN = 256;
+
+	/**
+	 * The children sorted by name, or <code>null</code> if they are kept in
+	 * the child tree.
+	 */
 	protected AbstractDataTreeNode children[];
+
+	/**
+	 * The children of a node with many children, or <code>null</code> if
+	 * they are kept in the child array.
+	 */
+	private ChildTree childTree;
 	protected String name;
 
 	/* Node types for comparison */
@@ -178,27 +202,49 @@ public abstract class AbstractDataTreeNode {
 			return node;
 		}
 
-		// node must be either a DataDeltaNode or a NoDataDeltaNode
-		if (node.hasData()) {
-			if (this.isDelta()) {
-				// keep deletions because they still need 
-				// to hide child nodes in the parent.
-				AbstractDataTreeNode[] assembledChildren = assembleWith(children, node.children, true);
-				return new DataDeltaNode(name, node.getData(), assembledChildren);
-			}
-			// This is a complete picture, so deletions 
-			// wipe out the child and are no longer useful
-			AbstractDataTreeNode[] assembledChildren = assembleWith(children, node.children, false);
-			return new DataTreeNode(name, node.getData(), assembledChildren);
+		// node must be either a DataDeltaNode or a NoDataDeltaNode.
+		// If the receiver is a delta, keep deletions because they still need
+		// to hide child nodes in the parent. Otherwise this is a complete
+		// picture, so deletions wipe out the child and are no longer useful.
+		boolean keepDeleted = this.isDelta();
+		AbstractDataTreeNode result;
+		if (node.hasData())
+			result = keepDeleted ? new DataDeltaNode(name, node.getData()) : new DataTreeNode(name, node.getData());
+		else if (!keepDeleted)
+			result = new DataTreeNode(name, this.getData());
+		else if (this.hasData())
+			result = new DataDeltaNode(name, this.getData());
+		else
+			result = new NoDataDeltaNode(name);
+		result.assembleChildren(this, node, keepDeleted);
+		return result;
+	}
+
+	/**
+	 * Sets the receiver's children to the result of assembling the children
+	 * of the given node with those of the given forward delta node. When the
+	 * node has many children and the delta changes few of them, the changes
+	 * are applied to a persistent child tree, sharing the unchanged children
+	 * with the given node.
+	 */
+	private void assembleChildren(AbstractDataTreeNode oldNode, AbstractDataTreeNode deltaNode, boolean keepDeleted) {
+		AbstractDataTreeNode[] newNodes = deltaNode.getChildren();
+		int oldSize = oldNode.size();
+		if (oldSize <= MAX_ARRAY_CHILDREN || newNodes.length > oldSize / (31 - Integer.numberOfLeadingZeros(oldSize))) {
+			setChildren(assembleWith(oldNode.getChildren(), newNodes, keepDeleted));
+			return;
 		}
-		if (this.isDelta()) {
-			AbstractDataTreeNode[] assembledChildren = assembleWith(children, node.children, true);
-			if (this.hasData())
-				return new DataDeltaNode(name, this.getData(), assembledChildren);
-			return new NoDataDeltaNode(name, assembledChildren);
+		ChildTree tree = oldNode.childTree != null ? oldNode.childTree : ChildTree.create(oldNode.children);
+		for (int i = 0; i < newNodes.length; i++) {
+			AbstractDataTreeNode newNode = newNodes[i];
+			AbstractDataTreeNode oldChild = tree.get(newNode.name);
+			AbstractDataTreeNode node = oldChild == null ? newNode : oldChild.assembleWith(newNode);
+			if (node != null && (!node.isDeleted() || keepDeleted))
+				tree = tree.put(node);
+			else if (oldChild != null)
+				tree = tree.remove(newNode.name);
 		}
-		AbstractDataTreeNode[] assembledChildren = assembleWith(children, node.children, false);
-		return new DataTreeNode(name, this.getData(), assembledChildren);
+		setChildren(tree);
 	}
 
 	/**
@@ -213,11 +259,20 @@ public abstract class AbstractDataTreeNode {
 		}
 
 		// non-leaf case
-		int childIndex = indexOfChild(key.segment(keyIndex));
-		if (childIndex >= 0) {
-			AbstractDataTreeNode copy = copy();
-			copy.children[childIndex] = children[childIndex].assembleWith(node, key, keyIndex + 1);
-			return copy;
+		if (childTree != null) {
+			AbstractDataTreeNode child = childTree.get(key.segment(keyIndex));
+			if (child != null) {
+				AbstractDataTreeNode copy = copy();
+				copy.childTree = childTree.put(child.assembleWith(node, key, keyIndex + 1));
+				return copy;
+			}
+		} else {
+			int childIndex = indexOfChild(key.segment(keyIndex));
+			if (childIndex >= 0) {
+				AbstractDataTreeNode copy = copy();
+				copy.children[childIndex] = children[childIndex].assembleWith(node, key, keyIndex + 1);
+				return copy;
+			}
 		}
 
 		// Child not found.  Build up NoDataDeltaNode hierarchy for rest of key
@@ -248,6 +303,8 @@ public abstract class AbstractDataTreeNode {
 	 *	name of child to retrieve
 	 */
 	AbstractDataTreeNode childAtOrNull(String localName) {
+		if (childTree != null)
+			return childTree.get(localName);
 		int index = indexOfChild(localName);
 		return index >= 0 ? children[index] : null;
 	}
@@ -262,6 +319,7 @@ public abstract class AbstractDataTreeNode {
 	 * @param localName name of child to retrieve
 	 */
 	AbstractDataTreeNode childAtIgnoreCase(String localName) {
+		AbstractDataTreeNode[] children = getChildren();
 		AbstractDataTreeNode result = null;
 		for (int i = 0; i < children.length; i++) {
 			if (children[i].getName().equalsIgnoreCase(localName)) {
@@ -347,12 +405,29 @@ public abstract class AbstractDataTreeNode {
 	/** 
 	 */
 	protected static AbstractDataTreeNode[] compareWithParent(AbstractDataTreeNode[] nodes, IPath key, DeltaDataTree parent, IComparator comparator) {
+		return compareWithParent(nodes, key, parent, comparator, false);
+	}
+
+	/**
+	 * Compares the given nodes with the parent tree.  If parallel is true,
+	 * the children of the root and of nodes with many children are compared
+	 * concurrently.
+	 */
+	static AbstractDataTreeNode[] compareWithParent(AbstractDataTreeNode[] nodes, IPath key, DeltaDataTree parent, IComparator comparator, boolean parallel) {
 
-		AbstractDataTreeNode[] comparedNodes = new AbstractDataTreeNode[nodes.length];
+		AbstractDataTreeNode[] comparedNodes;
+		if (parallel && nodes.length > 1 && (key.isRoot() || nodes.length >= MIN_PARALLEL_CHILDREN)) {
+			comparedNodes = ParallelComparison.compare(nodes, key, parent, comparator);
+		} else {
+			comparedNodes = new AbstractDataTreeNode[nodes.length];
+			for (int i = 0; i < nodes.length; ++i) {
+				AbstractDataTreeNode node = nodes[i];
+				comparedNodes[i] = node.compareWithParent(key.append(node.getName()), parent, comparator, parallel);
+			}
+		}
 		int count = 0;
-		for (int i = 0; i < nodes.length; ++i) {
-			AbstractDataTreeNode node = nodes[i];
-			AbstractDataTreeNode comparedNode = node.compareWithParent(key.append(node.getName()), parent, comparator);
+		for (int i = 0; i < comparedNodes.length; ++i) {
+			AbstractDataTreeNode comparedNode = comparedNodes[i];
 			NodeComparison comparison = (NodeComparison) comparedNode.getData();
 			// Skip it if it's an empty comparison (and no children).
 			if (!(comparison.isUnchanged() && comparedNode.size() == 0)) {
@@ -370,6 +445,14 @@ public abstract class AbstractDataTreeNode {
 
 	abstract AbstractDataTreeNode compareWithParent(IPath key, DeltaDataTree parent, IComparator comparator);
 
+	/**
+	 * Compares the receiver with the parent tree, comparing the children of
+	 * delta nodes concurrently if parallel is true.
+	 */
+	AbstractDataTreeNode compareWithParent(IPath key, DeltaDataTree parent, IComparator comparator, boolean parallel) {
+		return compareWithParent(key, parent, comparator);
+	}
+
 	static AbstractDataTreeNode convertToAddedComparisonNode(AbstractDataTreeNode newNode, int userComparison) {
 		AbstractDataTreeNode[] children = newNode.getChildren();
 		int n = children.length;
@@ -411,17 +494,28 @@ public abstract class AbstractDataTreeNode {
 	 * #replaceFrom:to:with:startingAt: method for copying children in data nodes
 	 */
 	protected void copyChildren(int from, int to, AbstractDataTreeNode otherNode, int start) {
+		AbstractDataTreeNode[] otherChildren = otherNode.getChildren();
 		int other = start;
 		for (int i = from; i <= to; i++, other++) {
-			this.children[i] = otherNode.children[other];
+			this.children[i] = otherChildren[other];
 		}
 	}
 
 	/**
-	 * Returns an array of the node's children
+	 * Returns an array of the node's children.  If the children are kept in
+	 * a child tree, the array is shared and must not be modified.
 	 */
 	public AbstractDataTreeNode[] getChildren() {
-		return children;
+		ChildTree tree = childTree;
+		return tree != null ? tree.toArray() : children;
+	}
+
+	/**
+	 * Returns the receiver's child tree, or <code>null</code> if its children
+	 * are kept in an array.  Used by copies of the receiver to share its children.
+	 */
+	ChildTree getChildTree() {
+		return childTree;
 	}
 
 	/**
@@ -450,14 +544,14 @@ public abstract class AbstractDataTreeNode {
 	 * false otherwise
 	 */
 	boolean includesChild(String localName) {
-		return indexOfChild(localName) != -1;
+		return childAtOrNull(localName) != null;
 	}
 
 	/**
 	 * Returns the index of the specified child's name in the receiver.
 	 */
 	protected int indexOfChild(String localName) {
-		AbstractDataTreeNode[] nodes = this.children;
+		AbstractDataTreeNode[] nodes = getChildren();
 		int left = 0;
 		int right = nodes.length - 1;
 		while (left <= right) {
@@ -500,6 +594,7 @@ public abstract class AbstractDataTreeNode {
 	 * Returns the local names of the receiver's children.
 	 */
 	String[] namesOfChildren() {
+		AbstractDataTreeNode[] children = getChildren();
 		String names[] = new String[children.length];
 		/* copy child names (Reverse loop optimized) */
 		for (int i = children.length; --i >= 0;)
@@ -511,6 +606,8 @@ public abstract class AbstractDataTreeNode {
 	 * Replaces the child with the given local name.
 	 */
 	void replaceChild(String localName, DataTreeNode node) {
+		if (childTree != null)
+			setChildren(getChildren().clone());
 		int i = indexOfChild(localName);
 		if (i >= 0) {
 			children[i] = node;
@@ -524,6 +621,15 @@ public abstract class AbstractDataTreeNode {
 	 */
 	protected void setChildren(AbstractDataTreeNode newChildren[]) {
 		children = newChildren;
+		childTree = null;
+	}
+
+	/**
+	 * Set the node's children to those of the given child tree
+	 */
+	void setChildren(ChildTree newChildren) {
+		childTree = newChildren;
+		children = null;
 	}
 
 	/**
@@ -565,7 +671,8 @@ public abstract class AbstractDataTreeNode {
 	 * Returns the number of children of the receiver
 	 */
 	int size() {
-		return children.length;
+		ChildTree tree = childTree;
+		return tree != null ? tree.size() : children.length;
 	}
 
 	/* (non-Javadoc
@@ -574,7 +681,7 @@ public abstract class AbstractDataTreeNode {
 	public void storeStrings(StringPool set) {
 		name = set.add(name);
 		//copy children pointer in case of concurrent modification
-		AbstractDataTreeNode[] nodes = children;
+		AbstractDataTreeNode[] nodes = getChildren();
 		if (nodes != null)
 			for (int i = nodes.length; --i >= 0;)
 				nodes[i].storeStrings(set);
@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.dtree;
+
+/**
+ * An immutable set of child nodes, sorted by name, used in place of a sorted
+ * array by nodes with many children. The children are kept in a B-tree of
+ * bounded pages. Adding, replacing or removing a child returns a new tree that
+ * shares all pages but those on the path to the child, so the cost of a change
+ * is logarithmic in the number of children rather than linear.
+ * <p>
+ * Pages are split when they overflow, but are not merged when they shrink:
+ * removals are much rarer than additions, and an empty page is dropped.
+ * </p>
+ * <p>
+ * Instances are immutable and can be shared freely between threads. The
+ * array form of the children is computed on demand and remembered.
+ * </p>
+ */
+final class ChildTree {
+	/**
+	 * The maximum number of entries of a page.
+	 */
+	private static final int MAX_PAGE_SIZE = 64;
+
+	/**
+	 * The number of entries of the pages created when building a tree from
+	 * an array, leaving room for additions.
+	 */
+	private static final int INITIAL_PAGE_SIZE = MAX_PAGE_SIZE * 3 / 4;
+
+	private static abstract class Page {
+		abstract AbstractDataTreeNode get(String name);
+
+		/**
+		 * Returns the first name in the page.
+		 */
+		abstract String first();
+
+		/**
+		 * Returns the pages replacing the receiver after adding or replacing the
+		 * given node: either one page, or two if the receiver overflows.
+		 */
+		abstract Page[] put(AbstractDataTreeNode node);
+
+		/**
+		 * Returns the page replacing the receiver after removing the child with
+		 * the given name, or <code>null</code> if the page becomes empty.
+		 */
+		abstract Page remove(String name);
+
+		/**
+		 * Copies the nodes of this page to the given array starting at the
+		 * given offset, and returns the offset following the last copied node.
+		 */
+		abstract int copyTo(AbstractDataTreeNode[] result, int offset);
+	}
+
+	private static final class Leaf extends Page {
+		final AbstractDataTreeNode[] nodes;
+
+		Leaf(AbstractDataTreeNode[] nodes) {
+			this.nodes = nodes;
+		}
+
+		private int search(String name) {
+			int left = 0;
+			int right = nodes.length - 1;
+			while (left <= right) {
+				int mid = (left + right) >>> 1;
+				int compare = name.compareTo(nodes[mid].name);
+				if (compare < 0)
+					right = mid - 1;
+				else if (compare > 0)
+					left = mid + 1;
+				else
+					return mid;
+			}
+			return -(left + 1);
+		}
+
+		int copyTo(AbstractDataTreeNode[] result, int offset) {
+			System.arraycopy(nodes, 0, result, offset, nodes.length);
+			return offset + nodes.length;
+		}
+
+		String first() {
+			return nodes[0].name;
+		}
+
+		AbstractDataTreeNode get(String name) {
+			int index = search(name);
+			return index >= 0 ? nodes[index] : null;
+		}
+
+		Page[] put(AbstractDataTreeNode node) {
+			int index = search(node.name);
+			if (index >= 0) {
+				AbstractDataTreeNode[] newNodes = nodes.clone();
+				newNodes[index] = node;
+				return new Page[] {new Leaf(newNodes)};
+			}
+			index = -index - 1;
+			AbstractDataTreeNode[] newNodes = new AbstractDataTreeNode[nodes.length + 1];
+			System.arraycopy(nodes, 0, newNodes, 0, index);
+			newNodes[index] = node;
+			System.arraycopy(nodes, index, newNodes, index + 1, nodes.length - index);
+			if (newNodes.length <= MAX_PAGE_SIZE)
+				return new Page[] {new Leaf(newNodes)};
+			int half = newNodes.length / 2;
+			AbstractDataTreeNode[] low = new AbstractDataTreeNode[half];
+			AbstractDataTreeNode[] high = new AbstractDataTreeNode[newNodes.length - half];
+			System.arraycopy(newNodes, 0, low, 0, low.length);
+			System.arraycopy(newNodes, half, high, 0, high.length);
+			return new Page[] {new Leaf(low), new Leaf(high)};
+		}
+
+		Page remove(String name) {
+			int index = search(name);
+			if (index < 0)
+				return this;
+			if (nodes.length == 1)
+				return null;
+			AbstractDataTreeNode[] newNodes = new AbstractDataTreeNode[nodes.length - 1];
+			System.arraycopy(nodes, 0, newNodes, 0, index);
+			System.arraycopy(nodes, index + 1, newNodes, index, newNodes.length - index);
+			return new Leaf(newNodes);
+		}
+	}
+
+	private static final class Branch extends Page {
+		/**
+		 * The first name of each page, the key of the first page being unused
+		 * by searches since it covers all names lower than the second key.
+		 */
+		final String[] keys;
+		final Page[] pages;
+
+		Branch(Page[] pages) {
+			this.pages = pages;
+			this.keys = new String[pages.length];
+			for (int i = 0; i < pages.length; i++)
+				keys[i] = pages[i].first();
+		}
+
+		/**
+		 * Returns the index of the page that holds or would hold the given name.
+		 */
+		private int search(String name) {
+			int left = 1;
+			int right = keys.length - 1;
+			while (left <= right) {
+				int mid = (left + right) >>> 1;
+				int compare = name.compareTo(keys[mid]);
+				if (compare < 0)
+					right = mid - 1;
+				else if (compare > 0)
+					left = mid + 1;
+				else
+					return mid;
+			}
+			return left - 1;
+		}
+
+		int copyTo(AbstractDataTreeNode[] result, int offset) {
+			for (int i = 0; i < pages.length; i++)
+				offset = pages[i].copyTo(result, offset);
+			return offset;
+		}
+
+		String first() {
+			return keys[0];
+		}
+
+		AbstractDataTreeNode get(String name) {
+			return pages[search(name)].get(name);
+		}
+
+		Page[] put(AbstractDataTreeNode node) {
+			int index = search(node.name);
+			Page[] replacement = pages[index].put(node);
+			Page[] newPages = new Page[pages.length + replacement.length - 1];
+			System.arraycopy(pages, 0, newPages, 0, index);
+			System.arraycopy(replacement, 0, newPages, index, replacement.length);
+			System.arraycopy(pages, index + 1, newPages, index + replacement.length, pages.length - index - 1);
+			if (newPages.length <= MAX_PAGE_SIZE)
+				return new Page[] {new Branch(newPages)};
+			int half = newPages.length / 2;
+			Page[] low = new Page[half];
+			Page[] high = new Page[newPages.length - half];
+			System.arraycopy(newPages, 0, low, 0, low.length);
+			System.arraycopy(newPages, half, high, 0, high.length);
+			return new Page[] {new Branch(low), new Branch(high)};
+		}
+
+		Page remove(String name) {
+			int index = search(name);
+			Page page = pages[index];
+			Page newPage = page.remove(name);
+			if (newPage == page)
+				return this;
+			if (newPage != null) {
+				Page[] newPages = pages.clone();
+				newPages[index] = newPage;
+				return new Branch(newPages);
+			}
+			if (pages.length == 1)
+				return null;
+			Page[] newPages = new Page[pages.length - 1];
+			System.arraycopy(pages, 0, newPages, 0, index);
+			System.arraycopy(pages, index + 1, newPages, index, newPages.length - index);
+			return new Branch(newPages);
+		}
+	}
+
+	private static final ChildTree EMPTY = new ChildTree(null, 0);
+
+	/**
+	 * The root page, or <code>null</code> if the tree is empty.
+	 */
+	private final Page root;
+	private final int size;
+
+	/**
+	 * The children in array form, or <code>null</code> if not computed yet.
+	 */
+	private volatile AbstractDataTreeNode[] array;
+
+	/**
+	 * Returns a tree holding the given nodes, which must be sorted by name.
+	 */
+	static ChildTree create(AbstractDataTreeNode[] nodes) {
+		if (nodes.length == 0)
+			return EMPTY;
+		int count = (nodes.length + INITIAL_PAGE_SIZE - 1) / INITIAL_PAGE_SIZE;
+		Page[] pages = new Page[count];
+		for (int i = 0; i < count; i++) {
+			int start = i * INITIAL_PAGE_SIZE;
+			AbstractDataTreeNode[] pageNodes = new AbstractDataTreeNode[Math.min(INITIAL_PAGE_SIZE, nodes.length - start)];
+			System.arraycopy(nodes, start, pageNodes, 0, pageNodes.length);
+			pages[i] = new Leaf(pageNodes);
+		}
+		while (pages.length > 1) {
+			count = (pages.length + INITIAL_PAGE_SIZE - 1) / INITIAL_PAGE_SIZE;
+			Page[] branches = new Page[count];
+			for (int i = 0; i < count; i++) {
+				int start = i * INITIAL_PAGE_SIZE;
+				Page[] branchPages = new Page[Math.min(INITIAL_PAGE_SIZE, pages.length - start)];
+				System.arraycopy(pages, start, branchPages, 0, branchPages.length);
+				branches[i] = new Branch(branchPages);
+			}
+			pages = branches;
+		}
+		return new ChildTree(pages[0], nodes.length);
+	}
+
+	private ChildTree(Page root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Returns the child with the given name, or <code>null</code> if there is none.
+	 */
+	AbstractDataTreeNode get(String name) {
+		return root == null ? null : root.get(name);
+	}
+
+	/**
+	 * Returns a tree with the given node in addition to the receiver's children,
+	 * replacing the child with the same name if any.
+	 */
+	ChildTree put(AbstractDataTreeNode node) {
+		if (root == null)
+			return new ChildTree(new Leaf(new AbstractDataTreeNode[] {node}), 1);
+		int newSize = root.get(node.name) == null ? size + 1 : size;
+		Page[] pages = root.put(node);
+		return new ChildTree(pages.length == 1 ? pages[0] : new Branch(pages), newSize);
+	}
+
+	/**
+	 * Returns a tree without the child with the given name.
+	 */
+	ChildTree remove(String name) {
+		if (root == null)
+			return this;
+		Page newRoot = root.remove(name);
+		if (newRoot == root)
+			return this;
+		if (newRoot == null)
+			return EMPTY;
+		// collapse branches that are left with a single page
+		while (newRoot instanceof Branch && ((Branch) newRoot).pages.length == 1)
+			newRoot = ((Branch) newRoot).pages[0];
+		return new ChildTree(newRoot, size - 1);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the children sorted by name. The result is shared and must
+	 * not be modified.
+	 */
+	AbstractDataTreeNode[] toArray() {
+		AbstractDataTreeNode[] result = array;
+		if (result == null) {
+			if (size == 0) {
+				result = AbstractDataTreeNode.NO_CHILDREN;
+			} else {
+				result = new AbstractDataTreeNode[size];
+				root.copyTo(result, 0);
+			}
+			array = result;
+		}
+		return result;
+	}
+}
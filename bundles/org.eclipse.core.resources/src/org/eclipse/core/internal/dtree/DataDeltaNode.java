@@ -38,6 +38,7 @@ public class DataDeltaNode extends DataTreeNode {
 	 * @see AbstractDataTreeNode#asBackwardDelta(DeltaDataTree, DeltaDataTree, IPath)
 	 */
 	AbstractDataTreeNode asBackwardDelta(DeltaDataTree myTree, DeltaDataTree parentTree, IPath key) {
+		AbstractDataTreeNode[] children = getChildren();
 		AbstractDataTreeNode[] newChildren;
 		if (children.length == 0) {
 			newChildren = NO_CHILDREN;
@@ -51,7 +52,14 @@ public class DataDeltaNode extends DataTreeNode {
 	}
 
 	AbstractDataTreeNode compareWithParent(IPath key, DeltaDataTree parent, IComparator comparator) {
-		AbstractDataTreeNode[] comparedChildren = compareWithParent(children, key, parent, comparator);
+		return compareWithParent(key, parent, comparator, false);
+	}
+
+	/**
+	 * @see AbstractDataTreeNode#compareWithParent(IPath, DeltaDataTree, IComparator, boolean)
+	 */
+	AbstractDataTreeNode compareWithParent(IPath key, DeltaDataTree parent, IComparator comparator, boolean parallel) {
+		AbstractDataTreeNode[] comparedChildren = compareWithParent(getChildren(), key, parent, comparator, parallel);
 		Object oldData = parent.getData(key);
 		Object newData = data;
 		/* don't compare data of root */
@@ -68,6 +76,11 @@ public class DataDeltaNode extends DataTreeNode {
 	 * children, but a shallow copy of name and data.
 	 */
 	AbstractDataTreeNode copy() {
+		if (getChildTree() != null) {
+			DataDeltaNode copy = new DataDeltaNode(name, data);
+			copy.setChildren(getChildTree());
+			return copy;
+		}
 		AbstractDataTreeNode[] childrenCopy;
 		if (children.length == 0) {
 			childrenCopy = NO_CHILDREN;
@@ -90,7 +103,7 @@ public class DataDeltaNode extends DataTreeNode {
 	 * Simplifies the given node, and answers its replacement.
 	 */
 	AbstractDataTreeNode simplifyWithParent(IPath key, DeltaDataTree parent, IComparator comparer) {
-		AbstractDataTreeNode[] simplifiedChildren = simplifyWithParent(children, key, parent, comparer);
+		AbstractDataTreeNode[] simplifiedChildren = simplifyWithParent(getChildren(), key, parent, comparer);
 		/* don't compare root nodes */
 		if (!key.isRoot() && comparer.compare(parent.getData(key), data) == 0) 
 			return new NoDataDeltaNode(name, simplifiedChildren);
@@ -67,6 +67,8 @@ public class DataTreeNode extends AbstractDataTreeNode {
 			Assert.isTrue(false, Messages.dtree_reverse);
 		}
 
+		if (getChildTree() != null)
+			setChildren(getChildren().clone());
 		int nextChild = 0;
 		for (int i = 0; i < children.length; i++) {
 			AbstractDataTreeNode child = children[i].asReverseComparisonNode(comparator);
@@ -94,7 +96,7 @@ public class DataTreeNode extends AbstractDataTreeNode {
 	}
 
 	AbstractDataTreeNode compareWith(DataTreeNode other, IComparator comparator) {
-		AbstractDataTreeNode[] comparedChildren = compareWith(children, other.children, comparator);
+		AbstractDataTreeNode[] comparedChildren = compareWith(getChildren(), other.getChildren(), comparator);
 		Object oldData = data;
 		Object newData = other.data;
 
@@ -118,6 +120,11 @@ public class DataTreeNode extends AbstractDataTreeNode {
 	 * Creates and returns a new copy of the receiver.
 	 */
 	AbstractDataTreeNode copy() {
+		if (getChildTree() != null) {
+			DataTreeNode copy = new DataTreeNode(name, data);
+			copy.setChildren(getChildTree());
+			return copy;
+		}
 		if (children.length > 0) {
 			AbstractDataTreeNode[] childrenCopy = new AbstractDataTreeNode[children.length];
 			System.arraycopy(children, 0, childrenCopy, 0, children.length);
@@ -137,7 +144,7 @@ public class DataTreeNode extends AbstractDataTreeNode {
 	 */
 	DataTreeNode copyWithNewChild(String localName, DataTreeNode childNode) {
 
-		AbstractDataTreeNode[] children = this.children;
+		AbstractDataTreeNode[] children = getChildren();
 		int left = 0;
 		int right = children.length - 1;
 		while (left <= right) {
@@ -284,7 +291,7 @@ public class DataTreeNode extends AbstractDataTreeNode {
 	 * Although typed as abstract nodes, the given nodes must be complete.
 	 */
 	protected static AbstractDataTreeNode forwardDeltaWithOrNullIfEqual(AbstractDataTreeNode oldNode, AbstractDataTreeNode newNode, IComparator comparer) {
-		AbstractDataTreeNode[] childDeltas = forwardDeltaWith(oldNode.children, newNode.children, comparer);
+		AbstractDataTreeNode[] childDeltas = forwardDeltaWith(oldNode.getChildren(), newNode.getChildren(), comparer);
 		Object newData = newNode.getData();
 		if (comparer.compare(oldNode.getData(), newData) == 0) {
 			if (childDeltas.length == 0) {
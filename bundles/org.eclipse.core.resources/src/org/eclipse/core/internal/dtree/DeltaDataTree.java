@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.internal.dtree;
 
+import java.util.*;
 import org.eclipse.core.internal.utils.Messages;
 import org.eclipse.core.internal.utils.StringPool;
 import org.eclipse.core.runtime.*;
@@ -36,8 +37,46 @@ import org.eclipse.core.runtime.*;
  */
 
 public class DeltaDataTree extends AbstractDataTree {
-	private AbstractDataTreeNode rootNode;
-	private DeltaDataTree parent;
+	/**
+	 * Orders paths by comparing their segments like the names of sibling
+	 * nodes, so that the paths below a given node are contiguous.
+	 */
+	private static final Comparator<IPath> PATH_ORDER = new Comparator<IPath>() {
+		public int compare(IPath path1, IPath path2) {
+			int count1 = path1.segmentCount();
+			int count2 = path2.segmentCount();
+			for (int i = 0, count = Math.min(count1, count2); i < count; i++) {
+				int compare = path1.segment(i).compareTo(path2.segment(i));
+				if (compare != 0)
+					return compare;
+			}
+			return count1 - count2;
+		}
+	};
+
+	/**
+	 * The root node and parent of a tree. They are replaced together, so that
+	 * immutable trees, whose representation still changes when they are
+	 * collapsed or rerooted, can be read without synchronization.
+	 */
+	private static final class Layer {
+		final AbstractDataTreeNode rootNode;
+		final DeltaDataTree parent;
+
+		Layer(AbstractDataTreeNode rootNode, DeltaDataTree parent) {
+			this.rootNode = rootNode;
+			this.parent = parent;
+		}
+
+		/**
+		 * Returns the current layer of the parent tree, or <code>null</code>.
+		 */
+		Layer next() {
+			return parent == null ? null : parent.layer;
+		}
+	}
+
+	private volatile Layer layer;
 
 	/**
 	 * Creates a new empty tree.
@@ -52,13 +91,11 @@ public class DeltaDataTree extends AbstractDataTree {
 	 *	root node of new tree.
 	 */
 	public DeltaDataTree(AbstractDataTreeNode rootNode) {
-		this.rootNode = rootNode;
-		this.parent = null;
+		this.layer = new Layer(rootNode, null);
 	}
 
 	protected DeltaDataTree(AbstractDataTreeNode rootNode, DeltaDataTree parent) {
-		this.rootNode = rootNode;
-		this.parent = parent;
+		this.layer = new Layer(rootNode, parent);
 	}
 
 	/**
@@ -96,6 +133,7 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * as opposed to making a copy.
 	 */
 	public DeltaDataTree asReverseComparisonTree(IComparator comparator) {
+		AbstractDataTreeNode rootNode = getRootNode();
 		/* don't reverse the root node if it's the absolute root (name==null) */
 		if (rootNode.getName() == null) {
 			AbstractDataTreeNode[] children = rootNode.getChildren();
@@ -127,7 +165,8 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * @param deltaNode delta node to use to assemble the new node.
 	 */
 	protected void assembleNode(IPath key, AbstractDataTreeNode deltaNode) {
-		rootNode = rootNode.assembleWith(deltaNode, key, 0);
+		Layer current = layer;
+		layer = new Layer(current.rootNode.assembleWith(deltaNode, key, 0), current.parent);
 	}
 
 	/**
@@ -159,6 +198,15 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * tree and other tree must contain the given path.
 	 */
 	protected DeltaDataTree basicCompare(DeltaDataTree other, IComparator comparator, IPath path) {
+		return basicCompare(other, comparator, path, false);
+	}
+
+	/**
+	 * Compares this tree with another tree, starting from the given path,
+	 * comparing independent subtrees concurrently if parallel is true.
+	 * @see #basicCompare(DeltaDataTree, IComparator, IPath)
+	 */
+	private DeltaDataTree basicCompare(DeltaDataTree other, IComparator comparator, IPath path, boolean parallel) {
 		DeltaDataTree newTree;
 		if (this == other) {
 			newTree = new DeltaDataTree();
@@ -175,7 +223,7 @@ public class DeltaDataTree extends AbstractDataTree {
 					assembled = treeNode.assembleWith(assembled);
 				}
 			}
-			AbstractDataTreeNode comparedRoot = assembled.compareWithParent(path, this, comparator);
+			AbstractDataTreeNode comparedRoot = assembled.compareWithParent(path, this, comparator, parallel);
 			newTree = new DeltaDataTree(comparedRoot);
 		} else if (this.hasAncestor(other)) {
 			AbstractDataTreeNode assembled = this.asBackwardDelta().searchNodeAt(path);
@@ -185,7 +233,7 @@ public class DeltaDataTree extends AbstractDataTree {
 			while ((tree = tree.getParent()) != other) {
 				assembled = assembled.assembleWith(tree.asBackwardDelta().searchNodeAt(path));
 			}
-			AbstractDataTreeNode comparedRoot = assembled.compareWithParent(path, this, comparator);
+			AbstractDataTreeNode comparedRoot = assembled.compareWithParent(path, this, comparator, parallel);
 			newTree = new DeltaDataTree(comparedRoot);
 		} else {
 			//revert to naive comparison
@@ -221,8 +269,7 @@ public class DeltaDataTree extends AbstractDataTree {
 		DeltaDataTree c = collapseTo.forwardDeltaWith(this, comparator);
 
 		//update my internal root node and parent pointers.
-		this.parent = collapseTo;
-		this.rootNode = c.rootNode;
+		setLayer(c.getRootNode(), collapseTo);
 		return this;
 	}
 
@@ -233,6 +280,18 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * between the two trees.
 	 */
 	public DeltaDataTree compareWith(DeltaDataTree other, IComparator comparator) {
+		return compareWith(other, comparator, false);
+	}
+
+	/**
+	 * Returns a DeltaDataTree that describes the differences between
+	 * this tree and "other" tree.  If parallel is true, the subtrees of
+	 * the children of the root, and of nodes with many children, are
+	 * compared concurrently.  The comparator must then be safe to use
+	 * from multiple threads.
+	 * @see #compareWith(DeltaDataTree, IComparator)
+	 */
+	public DeltaDataTree compareWith(DeltaDataTree other, IComparator comparator, boolean parallel) {
 
 		DeltaDataTree newTree;
 		if (this == other) {
@@ -247,7 +306,7 @@ public class DeltaDataTree extends AbstractDataTree {
 			while ((tree = tree.getParent()) != this) {
 				assembled = tree.getRootNode().assembleWith(assembled);
 			}
-			AbstractDataTreeNode comparedRoot = assembled.compareWithParent(rootKey(), this, comparator);
+			AbstractDataTreeNode comparedRoot = assembled.compareWithParent(rootKey(), this, comparator, parallel);
 			newTree = new DeltaDataTree(comparedRoot);
 		} else if (this.hasAncestor(other)) {
 			AbstractDataTreeNode assembled = this.asBackwardDelta().getRootNode();
@@ -257,7 +316,7 @@ public class DeltaDataTree extends AbstractDataTree {
 			while ((tree = tree.getParent()) != other) {
 				assembled = assembled.assembleWith(tree.asBackwardDelta().getRootNode());
 			}
-			AbstractDataTreeNode comparedRoot = assembled.compareWithParent(rootKey(), this, comparator);
+			AbstractDataTreeNode comparedRoot = assembled.compareWithParent(rootKey(), this, comparator, parallel);
 			newTree = new DeltaDataTree(comparedRoot);
 		} else {
 			//revert to naive comparison if trees have no common ancestry
@@ -275,10 +334,19 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * given path will be the root node of the returned tree.
 	 */
 	public DeltaDataTree compareWith(DeltaDataTree other, IComparator comparator, IPath path) {
+		return compareWith(other, comparator, path, false);
+	}
+
+	/**
+	 * Compares this tree with another tree, starting from the given path,
+	 * comparing independent subtrees concurrently if parallel is true.
+	 * @see #compareWith(DeltaDataTree, IComparator, boolean)
+	 */
+	public DeltaDataTree compareWith(DeltaDataTree other, IComparator comparator, IPath path, boolean parallel) {
 		/* need to figure out if trees really contain the given path */
 		if (this.includes(path)) {
 			if (other.includes(path))
-				return basicCompare(other, comparator, path);
+				return basicCompare(other, comparator, path, parallel);
 			/* only exists in this tree */
 			return new DeltaDataTree(AbstractDataTreeNode.convertToRemovedComparisonNode(this.copyCompleteSubtree(path), comparator.compare(this.getData(path), null)));
 		}
@@ -289,11 +357,123 @@ public class DeltaDataTree extends AbstractDataTree {
 		return DeltaDataTree.createEmptyDelta();
 	}
 
+	/**
+	 * Compares this tree with another tree, starting from the given path, when
+	 * the trees are known to only differ at the given paths.  The data of the
+	 * nodes at the changed node paths, and the subtrees at the changed subtree
+	 * paths, are compared; all other nodes are assumed to be identical in both
+	 * trees.  The result is the same as for
+	 * {@link #compareWith(DeltaDataTree, IComparator, IPath)}, but is computed in
+	 * time proportional to the number of changes, rather than to the size of the
+	 * trees or to the number of layers between them.
+	 */
+	public DeltaDataTree compareWith(DeltaDataTree other, IComparator comparator, IPath path, Set<IPath> changedNodes, Set<IPath> changedSubtrees) {
+		if (this == other || !this.includes(path) || !other.includes(path))
+			return compareWith(other, comparator, path);
+		for (IPath subtree : changedSubtrees)
+			if (subtree.isPrefixOf(path))
+				return basicCompare(other, comparator, path);
+		List<IPath> changes = new ArrayList<IPath>(changedNodes.size() + changedSubtrees.size());
+		int pathLength = path.segmentCount();
+		for (IPath node : changedNodes)
+			if (node.segmentCount() > pathLength && path.isPrefixOf(node))
+				changes.add(node);
+		for (IPath subtree : changedSubtrees)
+			if (subtree.segmentCount() > pathLength && path.isPrefixOf(subtree))
+				changes.add(subtree);
+		IPath[] sorted = changes.toArray(new IPath[changes.size()]);
+		Arrays.sort(sorted, PATH_ORDER);
+		AbstractDataTreeNode[] comparedChildren = compareChanges(other, comparator, path, sorted, 0, sorted.length, changedNodes, changedSubtrees);
+		Object oldData = getData(path);
+		Object newData = oldData;
+		int userComparison = 0;
+		/* don't compare data of root */
+		if (!path.isRoot() && changedNodes.contains(path)) {
+			newData = other.getData(path);
+			userComparison = comparator.compare(oldData, newData);
+		}
+		DeltaDataTree newTree = new DeltaDataTree(new DataTreeNode(path.lastSegment(), new NodeComparison(oldData, newData, NodeComparison.K_CHANGED, userComparison), comparedChildren));
+		newTree.immutable();
+		return newTree;
+	}
+
+	/**
+	 * Compares the children of the given key at which the given sorted changes,
+	 * between the given indices, were made.  Unchanged children are omitted.
+	 */
+	private AbstractDataTreeNode[] compareChanges(DeltaDataTree other, IComparator comparator, IPath key, IPath[] changes, int start, int end, Set<IPath> changedNodes, Set<IPath> changedSubtrees) {
+		if (start == end)
+			return AbstractDataTreeNode.NO_CHILDREN;
+		List<AbstractDataTreeNode> comparedChildren = new ArrayList<AbstractDataTreeNode>();
+		int keyLength = key.segmentCount();
+		int next = start;
+		while (next < end) {
+			//the changes below the same child are contiguous
+			String childName = changes[next].segment(keyLength);
+			int childEnd = next + 1;
+			while (childEnd < end && childName.equals(changes[childEnd].segment(keyLength)))
+				childEnd++;
+			AbstractDataTreeNode compared = compareChange(other, comparator, key.append(childName), changes, next, childEnd, changedNodes, changedSubtrees);
+			if (compared != null)
+				comparedChildren.add(compared);
+			next = childEnd;
+		}
+		return comparedChildren.toArray(new AbstractDataTreeNode[comparedChildren.size()]);
+	}
+
+	/**
+	 * Compares the node at the given key, given the sorted changes, between the
+	 * given indices, that were made at or below that key.  Returns
+	 * <code>null</code> if the node did not change.
+	 */
+	private AbstractDataTreeNode compareChange(DeltaDataTree other, IComparator comparator, IPath key, IPath[] changes, int start, int end, Set<IPath> changedNodes, Set<IPath> changedSubtrees) {
+		DataTreeLookup lookup = this.lookup(key);
+		boolean inThis = lookup.isPresent;
+		Object oldData = lookup.data;
+		lookup = other.lookup(key);
+		boolean inOther = lookup.isPresent;
+		Object newData = lookup.data;
+		if (!inThis) {
+			if (!inOther)
+				return null;
+			/* only exists in other tree */
+			return AbstractDataTreeNode.convertToAddedComparisonNode(other.copyCompleteSubtree(key), comparator.compare(null, newData));
+		}
+		if (!inOther)
+			/* only exists in this tree */
+			return AbstractDataTreeNode.convertToRemovedComparisonNode(this.copyCompleteSubtree(key), comparator.compare(oldData, null));
+		if (changedSubtrees.contains(key)) {
+			//the subtree was replaced, so compare it naively
+			DataTreeNode thisCompleteNode = (DataTreeNode) this.copyCompleteSubtree(key);
+			DataTreeNode otherCompleteNode = (DataTreeNode) other.copyCompleteSubtree(key);
+			AbstractDataTreeNode comparedNode = thisCompleteNode.compareWith(otherCompleteNode, comparator);
+			//skip it if it's an empty comparison (and no children)
+			if (((NodeComparison) comparedNode.getData()).isUnchanged() && comparedNode.size() == 0)
+				return null;
+			return comparedNode;
+		}
+		//skip the changes at the key itself, which sort before the changes below it
+		int keyLength = key.segmentCount();
+		int childStart = start;
+		while (childStart < end && changes[childStart].segmentCount() == keyLength)
+			childStart++;
+		AbstractDataTreeNode[] comparedChildren = compareChanges(other, comparator, key, changes, childStart, end, changedNodes, changedSubtrees);
+		int userComparison = 0;
+		if (changedNodes.contains(key))
+			userComparison = comparator.compare(oldData, newData);
+		else
+			newData = oldData;
+		if (userComparison == 0 && comparedChildren.length == 0)
+			return null;
+		return new DataTreeNode(key.lastSegment(), new NodeComparison(oldData, newData, NodeComparison.K_CHANGED, userComparison), comparedChildren);
+	}
+
 	/**
 	 * Returns a copy of the tree which shares its instance variables.
 	 */
 	protected AbstractDataTree copy() {
-		return new DeltaDataTree(rootNode, parent);
+		Layer current = layer;
+		return new DeltaDataTree(current.rootNode, current.parent);
 	}
 
 	/**
@@ -382,8 +562,7 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * @see AbstractDataTree#empty()
 	 */
 	public void empty() {
-		rootNode = new DataTreeNode(null, null);
-		parent = null;
+		layer = new Layer(new DataTreeNode(null, null), null);
 	}
 
 	/**
@@ -392,7 +571,7 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * it introduces no changes).  The parent is left unchanged.
 	 */
 	void emptyDelta() {
-		rootNode = new NoDataDeltaNode(null);
+		setRootNode(new NoDataDeltaNode(null));
 	}
 
 	/**
@@ -402,7 +581,7 @@ public class DeltaDataTree extends AbstractDataTree {
 	 *	key of node to find
 	 */
 	public AbstractDataTreeNode findNodeAt(IPath key) {
-		AbstractDataTreeNode node = rootNode;
+		AbstractDataTreeNode node = getRootNode();
 		int segmentCount = key.segmentCount();
 		for (int i = 0; i < segmentCount; i++) {
 			node = node.childAtOrNull(key.segment(i));
@@ -484,8 +663,8 @@ public class DeltaDataTree extends AbstractDataTree {
 
 		AbstractDataTreeNode[] childNodes = null;
 		int keyLength = parentKey.segmentCount();
-		for (DeltaDataTree tree = this; tree != null; tree = tree.parent) {
-			AbstractDataTreeNode node = tree.rootNode;
+		for (Layer current = layer; current != null; current = current.next()) {
+			AbstractDataTreeNode node = current.rootNode;
 			boolean complete = !node.isDelta();
 			for (int i = 0; i < keyLength; i++) {
 				node = node.childAtOrNull(parentKey.segment(i));
@@ -501,11 +680,11 @@ public class DeltaDataTree extends AbstractDataTree {
 					break;
 				}
 				if (childNodes == null) {
-					childNodes = node.children;
+					childNodes = node.getChildren();
 				} else {
 					// Be sure to assemble(old, new) rather than (new, old).
 					// Keep deleted nodes if we haven't encountered the complete node yet.
-					childNodes = AbstractDataTreeNode.assembleWith(node.children, childNodes, !complete);
+					childNodes = AbstractDataTreeNode.assembleWith(node.getChildren(), childNodes, !complete);
 				}
 			}
 			if (complete) {
@@ -558,8 +737,8 @@ public class DeltaDataTree extends AbstractDataTree {
 		 */
 
 		int keyLength = key.segmentCount();
-		for (DeltaDataTree tree = this; tree != null; tree = tree.parent) {
-			AbstractDataTreeNode node = tree.rootNode;
+		for (Layer current = layer; current != null; current = current.next()) {
+			AbstractDataTreeNode node = current.rootNode;
 			boolean complete = !node.isDelta();
 			for (int i = 0; i < keyLength; i++) {
 				node = node.childAtOrNull(key.segment(i));
@@ -608,18 +787,58 @@ public class DeltaDataTree extends AbstractDataTree {
 		return namesOfChildren;
 	}
 
+	/**
+	 * Adds to the given sets the paths at which this tree differs from its
+	 * parent: the paths of the nodes whose data differs, and the paths of the
+	 * subtrees that were added, removed or replaced.  Runs in time proportional
+	 * to the size of this delta, and stops once the sets hold more than the
+	 * given number of paths.  Has no effect if this tree has no parent.
+	 * 
+	 * @return <code>false</code> if the sets hold more than the given number
+	 * of paths, in which case not all changes were added, and <code>true</code>
+	 * otherwise
+	 */
+	public boolean collectChanges(Set<IPath> changedNodes, Set<IPath> changedSubtrees, int limit) {
+		Layer current = layer;
+		if (current.parent == null)
+			return changedNodes.size() + changedSubtrees.size() <= limit;
+		//the data of the root node is not compared
+		AbstractDataTreeNode[] children = current.rootNode.getChildren();
+		for (int i = 0; i < children.length; i++)
+			if (!collectChanges(children[i], rootKey().append(children[i].getName()), changedNodes, changedSubtrees, limit))
+				return false;
+		return true;
+	}
+
+	private static boolean collectChanges(AbstractDataTreeNode node, IPath key, Set<IPath> changedNodes, Set<IPath> changedSubtrees, int limit) {
+		if (node.isDeleted() || !node.isDelta()) {
+			changedSubtrees.add(key);
+			return changedNodes.size() + changedSubtrees.size() <= limit;
+		}
+		if (node.hasData()) {
+			changedNodes.add(key);
+			if (changedNodes.size() + changedSubtrees.size() > limit)
+				return false;
+		}
+		AbstractDataTreeNode[] children = node.getChildren();
+		for (int i = 0; i < children.length; i++)
+			if (!collectChanges(children[i], key.append(children[i].getName()), changedNodes, changedSubtrees, limit))
+				return false;
+		return true;
+	}
+
 	/** 
 	 * Returns the parent of the tree.
 	 */
 	public DeltaDataTree getParent() {
-		return parent;
+		return layer.parent;
 	}
 
 	/**
 	 * Returns the root node of the tree.
 	 */
 	protected AbstractDataTreeNode getRootNode() {
-		return rootNode;
+		return layer.rootNode;
 	}
 
 	/**
@@ -646,7 +865,7 @@ public class DeltaDataTree extends AbstractDataTree {
 	}
 	
 	public boolean isEmptyDelta() {
-		return rootNode.getChildren().length == 0;
+		return getRootNode().getChildren().length == 0;
 	}
 
 	/**
@@ -659,8 +878,9 @@ public class DeltaDataTree extends AbstractDataTree {
 	 */
 	public DataTreeLookup lookup(IPath key) {
 		int keyLength = key.segmentCount();
-		for (DeltaDataTree tree = this; tree != null; tree = tree.parent) {
-			AbstractDataTreeNode node = tree.rootNode;
+		Layer first = layer;
+		for (Layer current = first; current != null; current = current.next()) {
+			AbstractDataTreeNode node = current.rootNode;
 			boolean complete = !node.isDelta();
 			for (int i = 0; i < keyLength; i++) {
 				node = node.childAtOrNull(key.segment(i));
@@ -671,7 +891,7 @@ public class DeltaDataTree extends AbstractDataTree {
 			}
 			if (node != null) {
 				if (node.hasData()) {
-					return DataTreeLookup.newLookup(key, true, node.getData(), tree == this);
+					return DataTreeLookup.newLookup(key, true, node.getData(), current == first);
 				} else if (node.isDeleted()) {
 					break;
 				}
@@ -697,8 +917,9 @@ public class DeltaDataTree extends AbstractDataTree {
 	 */
 	public DataTreeLookup lookupIgnoreCase(IPath key) {
 		int keyLength = key.segmentCount();
-		for (DeltaDataTree tree = this; tree != null; tree = tree.parent) {
-			AbstractDataTreeNode node = tree.rootNode;
+		Layer first = layer;
+		for (Layer current = first; current != null; current = current.next()) {
+			AbstractDataTreeNode node = current.rootNode;
 			boolean complete = !node.isDelta();
 			for (int i = 0; i < keyLength; i++) {
 				node = node.childAtIgnoreCase(key.segment(i));
@@ -709,7 +930,7 @@ public class DeltaDataTree extends AbstractDataTree {
 			}
 			if (node != null) {
 				if (node.hasData()) {
-					return DataTreeLookup.newLookup(key, true, node.getData(), tree == this);
+					return DataTreeLookup.newLookup(key, true, node.getData(), current == first);
 				} else if (node.isDeleted()) {
 					break;
 				}
@@ -734,8 +955,7 @@ public class DeltaDataTree extends AbstractDataTree {
 			assembled = myParent.getRootNode().assembleWith(assembled);
 			myParent = myParent.getParent();
 		}
-		setRootNode(assembled);
-		setParent(null);
+		setLayer(assembled, null);
 	}
 
 	/**
@@ -815,10 +1035,8 @@ public class DeltaDataTree extends AbstractDataTree {
 		this.reroot(sourceParent);
 		DeltaDataTree backwardDelta = sourceTree.asBackwardDelta();
 		DeltaDataTree complete = sourceParent.assembleWithForwardDelta(sourceTree);
-		sourceTree.setRootNode(complete.getRootNode());
-		sourceTree.setParent(null);
-		sourceParent.setRootNode(backwardDelta.getRootNode());
-		sourceParent.setParent(sourceTree);
+		sourceTree.setLayer(complete.getRootNode(), null);
+		sourceParent.setLayer(backwardDelta.getRootNode(), sourceTree);
 	}
 
 	/**
@@ -883,8 +1101,8 @@ public class DeltaDataTree extends AbstractDataTree {
 	 */
 	protected AbstractDataTreeNode searchNodeAt(IPath key) {
 		int keyLength = key.segmentCount();
-		for (DeltaDataTree tree = this; tree != null; tree = tree.parent) {
-			AbstractDataTreeNode node = tree.rootNode;
+		for (Layer current = layer; current != null; current = current.next()) {
+			AbstractDataTreeNode node = current.rootNode;
 			boolean complete = !node.isDelta();
 			for (int i = 0; i < keyLength; i++) {
 				node = node.childAtOrNull(key.segment(i));
@@ -923,14 +1141,22 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * Sets the parent of the tree.
 	 */
 	protected void setParent(DeltaDataTree aTree) {
-		parent = aTree;
+		setLayer(layer.rootNode, aTree);
+	}
+
+	/**
+	 * Sets the root node and the parent of the tree at once, so that
+	 * readers never see one without the other.
+	 */
+	private void setLayer(AbstractDataTreeNode aNode, DeltaDataTree aTree) {
+		layer = new Layer(aNode, aTree);
 	}
 
 	/**
 	 * Sets the root node of the tree
 	 */
 	void setRootNode(AbstractDataTreeNode aNode) {
-		rootNode = aNode;
+		setLayer(aNode, layer.parent);
 	}
 
 	/**
@@ -940,9 +1166,10 @@ public class DeltaDataTree extends AbstractDataTree {
 	 *	- removes any empty (leaf NoDataDelta) nodes
 	 */
 	protected void simplify(IComparator comparer) {
-		if (parent == null)
+		Layer current = layer;
+		if (current.parent == null)
 			return;
-		setRootNode(rootNode.simplifyWithParent(rootKey(), parent, comparer));
+		setLayer(current.rootNode.simplifyWithParent(rootKey(), current.parent, comparer), current.parent);
 	}
 	
 	/* (non-Javadoc)
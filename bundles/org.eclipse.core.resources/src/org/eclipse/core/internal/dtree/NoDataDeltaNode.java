@@ -51,6 +51,7 @@ public class NoDataDeltaNode extends AbstractDataTreeNode {
 	 * @see AbstractDataTreeNode#asBackwardDelta(DeltaDataTree, DeltaDataTree, IPath)
 	 */
 	AbstractDataTreeNode asBackwardDelta(DeltaDataTree myTree, DeltaDataTree parentTree, IPath key) {
+		AbstractDataTreeNode[] children = getChildren();
 		int numChildren = children.length;
 		if (numChildren == 0)
 			return new NoDataDeltaNode(name, NO_CHILDREN);
@@ -65,7 +66,14 @@ public class NoDataDeltaNode extends AbstractDataTreeNode {
 	 * @see AbstractDataTreeNode#compareWithParent(IPath, DeltaDataTree, IComparator)
 	 */
 	AbstractDataTreeNode compareWithParent(IPath key, DeltaDataTree parent, IComparator comparator) {
-		AbstractDataTreeNode[] comparedChildren = compareWithParent(children, key, parent, comparator);
+		return compareWithParent(key, parent, comparator, false);
+	}
+
+	/**
+	 * @see AbstractDataTreeNode#compareWithParent(IPath, DeltaDataTree, IComparator, boolean)
+	 */
+	AbstractDataTreeNode compareWithParent(IPath key, DeltaDataTree parent, IComparator comparator, boolean parallel) {
+		AbstractDataTreeNode[] comparedChildren = compareWithParent(getChildren(), key, parent, comparator, parallel);
 		Object oldData = parent.getData(key);
 		return new DataTreeNode(key.lastSegment(), new NodeComparison(oldData, oldData, NodeComparison.K_CHANGED, 0), comparedChildren);
 	}
@@ -75,6 +83,11 @@ public class NoDataDeltaNode extends AbstractDataTreeNode {
 	 * children, but a shallow copy of name and data.
 	 */
 	AbstractDataTreeNode copy() {
+		if (getChildTree() != null) {
+			NoDataDeltaNode copy = new NoDataDeltaNode(name);
+			copy.setChildren(getChildTree());
+			return copy;
+		}
 		AbstractDataTreeNode[] childrenCopy;
 		if (children.length == 0) {
 			childrenCopy = NO_CHILDREN;
@@ -104,7 +117,7 @@ public class NoDataDeltaNode extends AbstractDataTreeNode {
 	 * Simplifies the given node, and returns its replacement.
 	 */
 	AbstractDataTreeNode simplifyWithParent(IPath key, DeltaDataTree parent, IComparator comparer) {
-		AbstractDataTreeNode[] simplifiedChildren = simplifyWithParent(children, key, parent, comparer);
+		AbstractDataTreeNode[] simplifiedChildren = simplifyWithParent(getChildren(), key, parent, comparer);
 		return new NoDataDeltaNode(name, simplifiedChildren);
 	}
 
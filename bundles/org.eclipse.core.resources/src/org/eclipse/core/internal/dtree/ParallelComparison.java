@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.dtree;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * Compares a range of sibling delta nodes with their parent tree in a
+ * fork-join pool. The subtrees of siblings are independent, and the trees
+ * involved are immutable, so they can be compared concurrently. Ranges are
+ * split down to a single node at the workspace root, where each node is a
+ * project, and down to a fixed number of nodes elsewhere.
+ */
+class ParallelComparison extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The number of nodes below the root that are compared sequentially by a
+	 * single task.
+	 */
+	private static final int MIN_RANGE = 64;
+
+	private static ForkJoinPool comparePool;
+
+	private final IComparator comparator;
+	private final int end;
+	private final IPath key;
+	private final AbstractDataTreeNode[] nodes;
+	private final DeltaDataTree parent;
+	private final AbstractDataTreeNode[] results;
+	private final int start;
+
+	/**
+	 * Compares the given nodes, which are the children of the node at the given
+	 * key, with the parent tree. Returns the compared nodes, in the same order.
+	 */
+	static AbstractDataTreeNode[] compare(AbstractDataTreeNode[] nodes, IPath key, DeltaDataTree parent, IComparator comparator) {
+		AbstractDataTreeNode[] results = new AbstractDataTreeNode[nodes.length];
+		ParallelComparison task = new ParallelComparison(nodes, results, 0, nodes.length, key, parent, comparator);
+		//nested comparisons run in the pool of the enclosing one
+		if (ForkJoinTask.inForkJoinPool())
+			task.invoke();
+		else
+			getComparePool().invoke(task);
+		return results;
+	}
+
+	private static synchronized ForkJoinPool getComparePool() {
+		if (comparePool == null)
+			comparePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		return comparePool;
+	}
+
+	private ParallelComparison(AbstractDataTreeNode[] nodes, AbstractDataTreeNode[] results, int start, int end, IPath key, DeltaDataTree parent, IComparator comparator) {
+		this.nodes = nodes;
+		this.results = results;
+		this.start = start;
+		this.end = end;
+		this.key = key;
+		this.parent = parent;
+		this.comparator = comparator;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.RecursiveAction#compute()
+	 */
+	protected void compute() {
+		int minRange = key.isRoot() ? 1 : MIN_RANGE;
+		if (end - start <= minRange) {
+			for (int i = start; i < end; i++) {
+				AbstractDataTreeNode node = nodes[i];
+				results[i] = node.compareWithParent(key.append(node.getName()), parent, comparator, true);
+			}
+			return;
+		}
+		int mid = (start + end) >>> 1;
+		invokeAll(new ParallelComparison(nodes, results, start, mid, key, parent, comparator), new ParallelComparison(nodes, results, mid, end, key, parent, comparator));
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.events;
+
+import org.eclipse.core.internal.utils.Policy;
+
+/**
+ * Computes the delay before an autobuild. With the fixed policy, the delay is
+ * in the range (MIN_BUILD_DELAY, MAX_BUILD_DELAY). With the adaptive policy,
+ * it is stretched while the workspace keeps changing, based on the observed
+ * rate of changes, on the duration of recent builds, and on the number of
+ * builds interrupted in a row, up to MAX_ADAPTIVE_BUILD_DELAY.
+ * <p>
+ * Times are given by the caller, so that the policy does not depend on the
+ * clock. This class is not thread safe.
+ * </p>
+ * @see AutoBuildJob
+ */
+public class AutoBuildDelay {
+	/**
+	 * The weight of a new sample in the smoothed change interval and build duration.
+	 */
+	private static final double SMOOTHING = 0.25;
+	/**
+	 * The largest power of two by which consecutive interruptions stretch the delay.
+	 */
+	private static final int MAX_INTERRUPT_BACKOFF = 6;
+
+	/**
+	 * The smoothed duration of recent builds, in milliseconds, including
+	 * builds that were interrupted.
+	 */
+	private double buildDuration = 0;
+	/**
+	 * The smoothed interval between recent workspace changes, in milliseconds.
+	 * It is {@link Policy#MAX_ADAPTIVE_BUILD_DELAY} when the workspace is idle.
+	 */
+	private double changeInterval = Policy.MAX_ADAPTIVE_BUILD_DELAY;
+	/**
+	 * The number of builds interrupted since the last completed build.
+	 */
+	private int consecutiveInterrupts = 0;
+	private long lastChange = 0L;
+
+	/**
+	 * Returns the delay, in milliseconds, before an autobuild scheduled at
+	 * the given time.
+	 * @param now the current time, in milliseconds
+	 * @param lastBuild the time the last autobuild completed, in milliseconds
+	 * @param adaptive whether the adaptive delay policy is used
+	 */
+	public long computeDelay(long now, long lastBuild, boolean adaptive) {
+		// don't assume that the last build time is always less than the current system time
+		long maxDelay = Math.min(Policy.MAX_BUILD_DELAY, Policy.MAX_BUILD_DELAY + lastBuild - now);
+		long delay = Math.max(Policy.MIN_BUILD_DELAY, maxDelay);
+		if (!adaptive)
+			return delay;
+		//when changes keep coming, wait for a gap twice as long as the usual interval between them
+		if (changeInterval < Policy.MAX_BUILD_DELAY)
+			delay = Math.max(delay, (long) (2 * changeInterval));
+		//starting a long build that will be interrupted again is wasted work
+		if (consecutiveInterrupts > 0) {
+			delay = Math.max(delay, (long) (buildDuration / 2));
+			delay = Math.max(delay, Policy.MIN_BUILD_DELAY << Math.min(consecutiveInterrupts, MAX_INTERRUPT_BACKOFF));
+		}
+		return Math.min(delay, Policy.MAX_ADAPTIVE_BUILD_DELAY);
+	}
+
+	/**
+	 * Returns the smoothed duration of recent builds, in milliseconds.
+	 */
+	public long getBuildDuration() {
+		return (long) buildDuration;
+	}
+
+	/**
+	 * Records the duration of a build, in milliseconds, and whether it completed.
+	 */
+	public void recordBuild(long duration, boolean completed) {
+		buildDuration += SMOOTHING * (Math.max(duration, 0) - buildDuration);
+		if (completed)
+			consecutiveInterrupts = 0;
+		else
+			consecutiveInterrupts++;
+	}
+
+	/**
+	 * Records a workspace change requiring a build at the given time, in
+	 * milliseconds, updating the smoothed interval between changes.
+	 */
+	public void recordChange(long now) {
+		long interval = now - lastChange;
+		lastChange = now;
+		//an idle workspace, or a clock going backwards, starts a new burst of changes
+		if (interval < 0 || interval >= Policy.MAX_ADAPTIVE_BUILD_DELAY)
+			changeInterval = Policy.MAX_ADAPTIVE_BUILD_DELAY;
+		else
+			changeInterval += SMOOTHING * (interval - changeInterval);
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -25,10 +25,19 @@ import org.osgi.framework.Bundle;
  * The job for performing workspace auto-builds, and pre- and post- autobuild
  * notification.  This job is run whenever the workspace changes regardless 
  * of whether autobuild is on or off.
+ * <p>
+ * With the adaptive delay policy (see {@link PreferenceInitializer#PREF_AUTO_BUILD_DELAY_POLICY}),
+ * the delay before an autobuild is stretched while the workspace keeps changing,
+ * based on the observed rate of changes, on the duration of recent builds, and
+ * on the number of builds interrupted in a row, and shrinks back to the fixed
+ * delay once changes stop: see {@link AutoBuildDelay}.
+ * </p>
  */
 class AutoBuildJob extends Job implements Preferences.IPropertyChangeListener {
+	private boolean adaptiveDelay = false;
 	private boolean avoidBuild = false;
 	private boolean buildNeeded = false;
+	private final AutoBuildDelay buildDelay = new AutoBuildDelay();
 	private boolean forceBuild = false;
 	/**
 	 * Indicates that another thread tried to modify the workspace during
@@ -47,6 +56,7 @@ class AutoBuildJob extends Job implements Preferences.IPropertyChangeListener {
 		setRule(workspace.getRoot());
 		setPriority(BUILD);
 		isAutoBuilding = workspace.isAutoBuilding();
+		adaptiveDelay = PreferenceInitializer.AUTO_BUILD_DELAY_ADAPTIVE.equals(preferences.getString(PreferenceInitializer.PREF_AUTO_BUILD_DELAY_POLICY));
 		this.workspace = workspace;
 		this.preferences.addPropertyChangeListener(this);
 	}
@@ -71,10 +81,12 @@ class AutoBuildJob extends Job implements Preferences.IPropertyChangeListener {
 	 */
 	synchronized void build(boolean needsBuild) {
 		buildNeeded |= needsBuild;
-		long delay = computeScheduleDelay();
+		if (needsBuild)
+			buildDelay.recordChange(System.currentTimeMillis());
+		long scheduleDelay = computeScheduleDelay();
 		int state = getState();
 		if (Policy.DEBUG_BUILD_NEEDED)
-			Policy.debug("Auto-Build requested, needsBuild: " + needsBuild + " state: " + state + " delay: " + delay); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			Policy.debug("Auto-Build requested, needsBuild: " + needsBuild + " state: " + state + " delay: " + scheduleDelay); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 		if (needsBuild && Policy.DEBUG_BUILD_NEEDED_STACK && state != Job.RUNNING)
 			new RuntimeException("Build Needed").printStackTrace(); //$NON-NLS-1$
 		//don't mess with the interrupt flag if the job is still running
@@ -82,7 +94,7 @@ class AutoBuildJob extends Job implements Preferences.IPropertyChangeListener {
 			setInterrupted(false);
 		switch (state) {
 			case Job.SLEEPING :
-				wakeUp(delay);
+				wakeUp(scheduleDelay);
 				break;
 			case NONE :
 				try {
@@ -90,19 +102,18 @@ class AutoBuildJob extends Job implements Preferences.IPropertyChangeListener {
 				} catch (IllegalStateException e) {
 					//ignore - the job has been scheduled since we last checked its state
 				}
-				schedule(delay);
+				schedule(scheduleDelay);
 				break;
 		}
 	}
 
 	/**
 	 * Computes the delay time that autobuild should be scheduled with.  The
-	 * value will be in the range (MIN_BUILD_DELAY, MAX_BUILD_DELAY).
+	 * value will be in the range (MIN_BUILD_DELAY, MAX_BUILD_DELAY), or
+	 * up to MAX_ADAPTIVE_BUILD_DELAY with the adaptive delay policy.
 	 */
 	private long computeScheduleDelay() {
-		// don't assume that the last build time is always less than the current system time
-		long maxDelay = Math.min(Policy.MAX_BUILD_DELAY, Policy.MAX_BUILD_DELAY + lastBuild - System.currentTimeMillis());
-		return Math.max(Policy.MIN_BUILD_DELAY, maxDelay);
+		return buildDelay.computeDelay(System.currentTimeMillis(), lastBuild, adaptiveDelay);
 	}
 
 	/**
@@ -212,6 +223,12 @@ class AutoBuildJob extends Job implements Preferences.IPropertyChangeListener {
 	 * @see org.eclipse.core.runtime.Preferences.IPropertyChangeListener#propertyChange(org.eclipse.core.runtime.Preferences.PropertyChangeEvent)
 	 */
 	public void propertyChange(PropertyChangeEvent event) {
+		if (event.getProperty().equals(PreferenceInitializer.PREF_AUTO_BUILD_DELAY_POLICY)) {
+			synchronized (this) {
+				adaptiveDelay = PreferenceInitializer.AUTO_BUILD_DELAY_ADAPTIVE.equals(preferences.getString(PreferenceInitializer.PREF_AUTO_BUILD_DELAY_POLICY));
+			}
+			return;
+		}
 		if (!event.getProperty().equals(ResourcesPlugin.PREF_AUTO_BUILDING))
 			return;
 		// get the new value of auto-build directly from the preferences
@@ -237,19 +254,31 @@ class AutoBuildJob extends Job implements Preferences.IPropertyChangeListener {
 		//if the system is shutting down, don't build
 		if (systemBundle.getState() == Bundle.STOPPING)
 			return Status.OK_STATUS;
+		long start = System.currentTimeMillis();
 		try {
 			doBuild(monitor);
 			lastBuild = System.currentTimeMillis();
+			recordBuild(lastBuild - start, true);
 			//if the build was successful then it should not be recorded as interrupted
 			setInterrupted(false);
 			return Status.OK_STATUS;
 		} catch (OperationCanceledException e) {
+			recordBuild(System.currentTimeMillis() - start, false);
 			return canceled();
 		} catch (CoreException sig) {
 			return sig.getStatus();
 		}
 	}
 
+	/**
+	 * Records the duration of a build, in milliseconds, and whether it completed.
+	 */
+	private synchronized void recordBuild(long duration, boolean completed) {
+		buildDelay.recordBuild(duration, completed);
+		if (adaptiveDelay && Policy.DEBUG_BUILD_NEEDED)
+			Policy.debug("Auto-Build " + (completed ? "completed" : "interrupted") + " in: " + duration + "ms, smoothed build duration: " + buildDelay.getBuildDuration() + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+	}
+
 	/**
 	 * Sets or clears the interrupted flag.
 	 */
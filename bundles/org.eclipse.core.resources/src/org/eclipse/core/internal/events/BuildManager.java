@@ -15,8 +15,10 @@
 package org.eclipse.core.internal.events;
 
 import java.util.*;
+import java.util.concurrent.*;
 import org.eclipse.core.internal.dtree.DeltaDataTree;
 import org.eclipse.core.internal.resources.*;
+import org.eclipse.core.internal.utils.Cache;
 import org.eclipse.core.internal.utils.Messages;
 import org.eclipse.core.internal.utils.Policy;
 import org.eclipse.core.internal.watson.ElementTree;
@@ -29,41 +31,147 @@ import org.osgi.framework.Bundle;
 public class BuildManager implements ICoreConstants, IManager, ILifecycleListener {
 
 	/**
-	 * Cache used to optimize the common case of an autobuild against
-	 * a workspace where only a single project has changed (and hence
-	 * only a single delta is interesting).
+	 * The state of a single builder invocation, which only applies for the
+	 * lifetime of that invocation.
 	 */
-	class DeltaCache {
-		private Object delta;
-		private ElementTree newTree;
-		private ElementTree oldTree;
-		private IPath projectPath;
-
-		public void cache(IPath project, ElementTree anOldTree, ElementTree aNewTree, Object aDelta) {
-			this.projectPath = project;
-			this.oldTree = anOldTree;
-			this.newTree = aNewTree;
-			this.delta = aDelta;
+	static class BuilderInvocation {
+		final InternalBuilder builder;
+		DeltaDataTree delta;
+		ElementTree lastBuiltTree;
+		ElementTree tree;
+		//used for debug/trace timing
+		long timeStamp = -1;
+		//used for the builder metrics
+		long startTime = -1;
+		long startBytes;
+		int deltaNodes;
+
+		BuilderInvocation(InternalBuilder builder) {
+			this.builder = builder;
 		}
+	}
+
+	/**
+	 * Builds a unit of build configurations, one after the other, when build
+	 * configurations are built concurrently. The job adds itself to the done
+	 * queue once it is done, including when it is canceled before running.
+	 * @see BuildManager#parallelBuild(List, IBuildConfiguration[], IBuildConfiguration[], int, int, MultiStatus, IProgressMonitor, int)
+	 */
+	class BuildJob extends Job {
+		final IBuildConfiguration[] buildOrder;
+		volatile boolean canceled = false;
+		final IBuildConfiguration[] configs;
+		final IBuildConfiguration[] requestedConfigs;
+		final MultiStatus status = new MultiStatus(ResourcesPlugin.PI_RESOURCES, IResourceStatus.BUILD_FAILED, Messages.events_errors, null);
+		final int trigger;
+
+		BuildJob(IBuildConfiguration[] configs, IBuildConfiguration[] requestedConfigs, IBuildConfiguration[] buildOrder, int trigger, final Queue<BuildJob> done) {
+			super(NLS.bind(Messages.events_building_1, configs[0].getProject().getFullPath()));
+			this.configs = configs;
+			this.requestedConfigs = requestedConfigs;
+			this.buildOrder = buildOrder;
+			this.trigger = trigger;
+			setSystem(true);
+			addJobChangeListener(new JobChangeAdapter() {
+				public void done(IJobChangeEvent event) {
+					//a waiting job that is canceled is done without running
+					if (event.getResult().getSeverity() == IStatus.CANCEL)
+						canceled = true;
+					done.add(BuildJob.this);
+				}
+			});
+		}
+
+		/* (non-Javadoc)
+		 * @see org.eclipse.core.runtime.jobs.Job#run(org.eclipse.core.runtime.IProgressMonitor)
+		 */
+		protected IStatus run(IProgressMonitor monitor) {
+			monitor.beginTask(getName(), configs.length);
+			//builders expect to be called with the workspace lock, which they release while building
+			lock.acquire();
+			try {
+				for (int i = 0; i < configs.length; i++) {
+					if (configs[i].getProject().isAccessible()) {
+						IBuildContext context = new BuildContext(configs[i], requestedConfigs, buildOrder);
+						basicBuild(configs[i], trigger, context, status, Policy.subMonitorFor(monitor, 1));
+						builtProjects.add(configs[i].getProject());
+					}
+				}
+			} catch (OperationCanceledException e) {
+				canceled = true;
+			} finally {
+				lock.release();
+				monitor.done();
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * Cache of the deltas computed during a build, so that the builders of a
+	 * project sharing the same last built tree, and builders asking for the deltas
+	 * of the same referenced projects, compute each delta only once. The least
+	 * recently used deltas are discarded once the cache holds more than a given
+	 * number of deltas.
+	 */
+	static class DeltaCache {
+		/**
+		 * The key of a cached delta. Trees are compared by identity.
+		 */
+		static final class Key {
+			private final ElementTree newTree;
+			private final ElementTree oldTree;
+			private final IPath projectPath;
+
+			Key(IPath projectPath, ElementTree oldTree, ElementTree newTree) {
+				this.projectPath = projectPath;
+				this.oldTree = oldTree;
+				this.newTree = newTree;
+			}
+
+			public boolean equals(Object obj) {
+				if (!(obj instanceof Key))
+					return false;
+				Key other = (Key) obj;
+				if (oldTree != other.oldTree || newTree != other.newTree)
+					return false;
+				return projectPath == null ? other.projectPath == null : projectPath.equals(other.projectPath);
+			}
 
-		public void flush() {
-			this.projectPath = null;
-			this.oldTree = null;
-			this.newTree = null;
-			this.delta = null;
+			public int hashCode() {
+				int hash = 31 * System.identityHashCode(oldTree) + System.identityHashCode(newTree);
+				return projectPath == null ? hash : 31 * hash + projectPath.hashCode();
+			}
+		}
+
+		private final Cache deltas;
+
+		DeltaCache(int maximumCapacity) {
+			deltas = new Cache(Math.min(4, maximumCapacity), maximumCapacity, 0);
+		}
+
+		public synchronized void cache(IPath project, ElementTree anOldTree, ElementTree aNewTree, Object aDelta) {
+			if (aDelta == null)
+				return;
+			Key key = new Key(project, anOldTree, aNewTree);
+			Cache.Entry entry = deltas.getEntry(key);
+			if (entry == null)
+				deltas.addEntry(key, aDelta);
+			else
+				entry.setCached(aDelta);
+		}
+
+		public synchronized void flush() {
+			deltas.discardAll();
 		}
 
 		/**
 		 * Returns the cached resource delta for the given project and trees, or
 		 * null if there is no matching delta in the cache.
 		 */
-		public Object getDelta(IPath project, ElementTree anOldTree, ElementTree aNewTree) {
-			if (delta == null)
-				return null;
-			boolean pathsEqual = projectPath == null ? project == null : projectPath.equals(project);
-			if (pathsEqual && this.oldTree == anOldTree && this.newTree == aNewTree)
-				return delta;
-			return null;
+		public synchronized Object getDelta(IPath project, ElementTree anOldTree, ElementTree aNewTree) {
+			Cache.Entry entry = deltas.getEntry(new Key(project, anOldTree, aNewTree));
+			return entry == null ? null : entry.getCached();
 		}
 	}
 
@@ -91,37 +199,51 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 		}
 	}
 
+	/**
+	 * The maximum number of resource deltas kept by the delta cache.
+	 */
+	private static final int MAX_CACHED_DELTAS = 64;
+	/**
+	 * The maximum number of delta trees kept by the delta tree cache. Delta trees
+	 * span the whole workspace, so fewer of them are kept.
+	 */
+	private static final int MAX_CACHED_DELTA_TREES = 8;
 	private static final int TOTAL_BUILD_WORK = Policy.totalWork * 1000;
 
 	//the job for performing background autobuild
 	final AutoBuildJob autoBuildJob;
-	private boolean building = false;
-	private final Set<IProject> builtProjects = new HashSet<IProject>();
+	private volatile boolean building = false;
+	private final Set<IProject> builtProjects = Collections.synchronizedSet(new HashSet<IProject>());
+
+	/**
+	 * The builder invocation of the current thread. Builders of different
+	 * projects run in different threads when building concurrently.
+	 */
+	private final ThreadLocal<BuilderInvocation> currentInvocation = new ThreadLocal<BuilderInvocation>();
 
-	//the following four fields only apply for the lifetime of a single builder invocation.
-	protected InternalBuilder currentBuilder;
-	private DeltaDataTree currentDelta;
-	private ElementTree currentLastBuiltTree;
-	private ElementTree currentTree;
+	/**
+	 * Journals the changes made by each workspace tree, to compute build
+	 * deltas without comparing whole projects
+	 */
+	final private ChangeJournal changeJournal = new ChangeJournal();
 
 	/**
 	 * Caches the IResourceDelta for a pair of trees
 	 */
-	final private DeltaCache deltaCache = new DeltaCache();
+	final private DeltaCache deltaCache = new DeltaCache(MAX_CACHED_DELTAS);
 	/**
 	 * Caches the DeltaDataTree used to determine if a build is necessary
 	 */
-	final private DeltaCache deltaTreeCache = new DeltaCache();
+	final private DeltaCache deltaTreeCache = new DeltaCache(MAX_CACHED_DELTA_TREES);
 
 	private ILock lock;
 
 	//used for the build cycle looping mechanism
-	private boolean rebuildRequested = false;
+	private volatile boolean rebuildRequested = false;
 
 	private final Bundle systemBundle = Platform.getBundle("org.eclipse.osgi"); //$NON-NLS-1$
 
 	//used for debug/trace timing
-	private long timeStamp = -1;
 	private long overallTimeStamp = -1;
 	private Workspace workspace;
 
@@ -133,19 +255,20 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 	}
 
 	private void basicBuild(int trigger, IncrementalProjectBuilder builder, Map<String, String> args, MultiStatus status, IProgressMonitor monitor) {
+		BuilderInvocation current = new BuilderInvocation(builder);
+		currentInvocation.set(current);
 		try {
-			currentBuilder = builder;
 			//clear any old requests to forget built state
-			currentBuilder.clearLastBuiltStateRequests();
+			current.builder.clearLastBuiltStateRequests();
 			// Figure out want kind of build is needed
 			boolean clean = trigger == IncrementalProjectBuilder.CLEAN_BUILD;
-			currentLastBuiltTree = currentBuilder.getLastBuiltTree();
+			current.lastBuiltTree = current.builder.getLastBuiltTree();
 
 			// Does the build command respond to this trigger?
 			boolean isBuilding = builder.getCommand().isBuilding(trigger);
 
 			// If no tree is available we have to do a full build
-			if (!clean && currentLastBuiltTree == null) {
+			if (!clean && current.lastBuiltTree == null) {
 				// Bug 306746 - Don't promote build to FULL_BUILD if builder doesn't AUTO_BUILD
 				if (trigger == IncrementalProjectBuilder.AUTO_BUILD && !isBuilding)
 					return;
@@ -157,24 +280,24 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 			//don't build if this builder doesn't respond to the trigger
 			if (!isBuilding) {
 				if (clean)
-					currentBuilder.setLastBuiltTree(null);
+					current.builder.setLastBuiltTree(null);
 				return;
 			}
 
 			// For incremental builds, grab a pointer to the current state before computing the delta
-			currentTree = ((trigger == IncrementalProjectBuilder.FULL_BUILD) || clean) ? null : workspace.getElementTree();
+			current.tree = ((trigger == IncrementalProjectBuilder.FULL_BUILD) || clean) ? null : workspace.getElementTree();
 			int depth = -1;
 			ISchedulingRule rule = null;
 			try {
 				//short-circuit if none of the projects this builder cares about have changed.
-				if (!needsBuild(currentBuilder, trigger)) {
+				if (!needsBuild(current, trigger)) {
 					//use up the progress allocated for this builder
 					monitor.beginTask("", 1); //$NON-NLS-1$
 					monitor.done();
 					return;
 				}
 				rule = builder.getRule(trigger, args);
-				String name = currentBuilder.getLabel();
+				String name = current.builder.getLabel();
 				String message;
 				if (name != null)
 					message = NLS.bind(Messages.events_invoking_2, name, builder.getProject().getFullPath());
@@ -183,7 +306,7 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 				monitor.subTask(message);
 				hookStartBuild(builder, trigger);
 				// Make the current tree immutable before releasing the WS lock
-				if (rule != null && currentTree != null)
+				if (rule != null && current.tree != null)
 					workspace.newWorkingTree();
 				//release workspace lock while calling builders
 				depth = getWorkManager().beginUnprotected();
@@ -192,11 +315,11 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 					Job.getJobManager().beginRule(rule, monitor);
 					// Now that we've acquired the rule, changes may have been made concurrently, ensure we're pointing at the 
 					// correct currentTree so delta contains concurrent changes made in areas guarded by the scheduling rule
-					if (currentTree != null)
-						currentTree = workspace.getElementTree();
+					if (current.tree != null)
+						current.tree = workspace.getElementTree();
 				}
 				//do the build
-				SafeRunner.run(getSafeRunnable(trigger, args, status, monitor));
+				SafeRunner.run(getSafeRunnable(current.builder, trigger, args, status, monitor));
 			} finally {
 				// Re-acquire the WS lock, then release the scheduling rule
 				if (depth >= 0)
@@ -204,27 +327,24 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 				if (rule != null)
 					Job.getJobManager().endRule(rule);
 				// Be sure to clean up after ourselves.
-				if (clean || currentBuilder.wasForgetStateRequested()) {
-					currentBuilder.setLastBuiltTree(null);
-				} else if (currentBuilder.wasRememberStateRequested()) {
+				if (clean || current.builder.wasForgetStateRequested()) {
+					current.builder.setLastBuiltTree(null);
+				} else if (current.builder.wasRememberStateRequested()) {
 					// If remember last build state, and FULL_BUILD
 					// last tree must be set to => null for next build
 					if (trigger == IncrementalProjectBuilder.FULL_BUILD)
-						currentBuilder.setLastBuiltTree(null);
+						current.builder.setLastBuiltTree(null);
 					// else don't modify the last built tree
 				} else {
 					// remember the current state as the last built state.
 					ElementTree lastTree = workspace.getElementTree();
 					lastTree.immutable();
-					currentBuilder.setLastBuiltTree(lastTree);
+					current.builder.setLastBuiltTree(lastTree);
 				}
 				hookEndBuild(builder);
 			}
 		} finally {
-			currentBuilder = null;
-			currentTree = null;
-			currentLastBuiltTree = null;
-			currentDelta = null;
+			currentInvocation.remove();
 		}
 	}
 
@@ -338,18 +458,29 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 		int projectWork = configs.length;
 		if (projectWork > 0)
 			projectWork = TOTAL_BUILD_WORK / projectWork;
-		int maxIterations = workspace.getDescription().getMaxBuildIterations();
+		IWorkspaceDescription description = workspace.getDescription();
+		int maxIterations = description.getMaxBuildIterations();
 		if (maxIterations <= 0)
 			maxIterations = 1;
+		int maxConcurrentBuilds = description.getMaxConcurrentBuilds();
+		//builders can only acquire their own rules in other threads if this thread holds none,
+		//and a user defined build order must be followed strictly
+		List<IBuildConfiguration[][]> levels = null;
+		if (maxConcurrentBuilds > 1 && configs.length > 1 && description.getBuildOrder() == null && Job.getJobManager().currentRule() == null)
+			levels = computeBuildLevels(configs);
 		rebuildRequested = true;
 		for (int iter = 0; rebuildRequested && iter < maxIterations; iter++) {
 			rebuildRequested = false;
 			builtProjects.clear();
-			for (int i = 0; i < configs.length; i++) {
-				if (configs[i].getProject().isAccessible()) {
-					IBuildContext context = new BuildContext(configs[i], requestedConfigs, configs);
-					basicBuild(configs[i], trigger, context, status, Policy.subMonitorFor(monitor, projectWork));
-					builtProjects.add(configs[i].getProject());
+			if (levels != null) {
+				parallelBuild(levels, configs, requestedConfigs, trigger, maxConcurrentBuilds, status, monitor, projectWork);
+			} else {
+				for (int i = 0; i < configs.length; i++) {
+					if (configs[i].getProject().isAccessible()) {
+						IBuildContext context = new BuildContext(configs[i], requestedConfigs, configs);
+						basicBuild(configs[i], trigger, context, status, Policy.subMonitorFor(monitor, projectWork));
+						builtProjects.add(configs[i].getProject());
+					}
 				}
 			}
 			//subsequent builds should always be incremental
@@ -416,6 +547,106 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 			throw new OperationCanceledException();
 	}
 
+	/**
+	 * Splits the given build order into levels of build configurations that can
+	 * be built concurrently, following the references between build configurations.
+	 * Each level is an array of units, and each unit is an array of build configurations
+	 * that must be built one after the other, in build order. The configurations
+	 * of a unit only reference configurations of the same unit or of a previous level.
+	 * The configurations of a project, and the configurations involved in a reference
+	 * cycle, always belong to the same unit.
+	 */
+	private List<IBuildConfiguration[][]> computeBuildLevels(IBuildConfiguration[] configs) {
+		int count = configs.length;
+		Map<IBuildConfiguration, Integer> indexes = new HashMap<IBuildConfiguration, Integer>(count * 2);
+		for (int i = 0; i < count; i++)
+			indexes.put(configs[i], new Integer(i));
+		//union the configurations that must be built by the same unit
+		int[] units = new int[count];
+		for (int i = 0; i < count; i++)
+			units[i] = i;
+		Map<IProject, Integer> projects = new HashMap<IProject, Integer>(count * 2);
+		for (int i = 0; i < count; i++) {
+			Integer first = projects.get(configs[i].getProject());
+			if (first == null)
+				projects.put(configs[i].getProject(), new Integer(i));
+			else
+				union(units, first.intValue(), i);
+		}
+		IBuildConfiguration[][] knots = workspace.computeProjectBuildConfigOrder(configs).knots;
+		for (int i = 0; i < knots.length; i++) {
+			Integer first = null;
+			for (int j = 0; j < knots[i].length; j++) {
+				Integer index = indexes.get(knots[i][j]);
+				if (index == null)
+					continue;
+				if (first == null)
+					first = index;
+				else
+					union(units, first.intValue(), index.intValue());
+			}
+		}
+		//compute the units that each unit must wait for
+		Map<Integer, Set<Integer>> prerequisites = new LinkedHashMap<Integer, Set<Integer>>();
+		for (int i = 0; i < count; i++) {
+			Integer unit = new Integer(find(units, i));
+			Set<Integer> unitPrerequisites = prerequisites.get(unit);
+			if (unitPrerequisites == null) {
+				unitPrerequisites = new HashSet<Integer>();
+				prerequisites.put(unit, unitPrerequisites);
+			}
+			Project project = (Project) configs[i].getProject();
+			if (!project.isAccessible())
+				continue;
+			IBuildConfiguration[] references = project.internalGetReferencedBuildConfigs(configs[i].getName(), false);
+			for (int j = 0; j < references.length; j++) {
+				Integer index = indexes.get(references[j]);
+				if (index == null)
+					continue;
+				Integer referencedUnit = new Integer(find(units, index.intValue()));
+				if (!referencedUnit.equals(unit))
+					unitPrerequisites.add(referencedUnit);
+			}
+		}
+		//assign the units to levels, in topological order
+		Map<Integer, List<IBuildConfiguration>> members = new HashMap<Integer, List<IBuildConfiguration>>();
+		for (int i = 0; i < count; i++) {
+			Integer unit = new Integer(find(units, i));
+			List<IBuildConfiguration> unitMembers = members.get(unit);
+			if (unitMembers == null) {
+				unitMembers = new ArrayList<IBuildConfiguration>(1);
+				members.put(unit, unitMembers);
+			}
+			unitMembers.add(configs[i]);
+		}
+		List<IBuildConfiguration[][]> levels = new ArrayList<IBuildConfiguration[][]>();
+		Set<Integer> assigned = new HashSet<Integer>();
+		while (assigned.size() < prerequisites.size()) {
+			List<Integer> level = new ArrayList<Integer>();
+			for (Map.Entry<Integer, Set<Integer>> entry : prerequisites.entrySet()) {
+				if (!assigned.contains(entry.getKey()) && assigned.containsAll(entry.getValue()))
+					level.add(entry.getKey());
+			}
+			if (level.isEmpty()) {
+				//the units of a project form a cycle: build the remaining configurations as one unit
+				List<IBuildConfiguration> remaining = new ArrayList<IBuildConfiguration>();
+				for (int i = 0; i < count; i++)
+					if (!assigned.contains(new Integer(find(units, i))))
+						remaining.add(configs[i]);
+				levels.add(new IBuildConfiguration[][] {remaining.toArray(new IBuildConfiguration[remaining.size()])});
+				break;
+			}
+			IBuildConfiguration[][] levelUnits = new IBuildConfiguration[level.size()][];
+			for (int i = 0; i < levelUnits.length; i++) {
+				List<IBuildConfiguration> unitMembers = members.get(level.get(i));
+				levelUnits[i] = unitMembers.toArray(new IBuildConfiguration[unitMembers.size()]);
+			}
+			levels.add(levelUnits);
+			assigned.addAll(level);
+		}
+		return levels;
+	}
+
 	/**
 	 * Creates and returns an ArrayList of BuilderPersistentInfo.
 	 * The list includes entries for all builders for all configs that are
@@ -480,13 +711,15 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 	}
 
 	private String debugBuilder() {
-		return currentBuilder == null ? "<no builder>" : currentBuilder.getClass().getName(); //$NON-NLS-1$
+		BuilderInvocation current = currentInvocation.get();
+		return current == null ? "<no builder>" : current.builder.getClass().getName(); //$NON-NLS-1$
 	}
 
 	private String debugProject() {
-		if (currentBuilder == null)
+		BuilderInvocation current = currentInvocation.get();
+		if (current == null)
 			return "<no project>"; //$NON-NLS-1$
-		return currentBuilder.getProject().getFullPath().toString();
+		return current.builder.getProject().getFullPath().toString();
 	}
 
 	/**
@@ -507,6 +740,15 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 		}
 	}
 
+	/**
+	 * Discards the cached deltas. Called when the trees of the workspace are
+	 * collapsed, so that the caches do not keep discarded trees reachable.
+	 */
+	public void discardCachedDeltas() {
+		deltaCache.flush();
+		deltaTreeCache.flush();
+	}
+
 	/**
 	 * The outermost workspace operation has finished.  Do an autobuild if necessary.
 	 */
@@ -514,6 +756,17 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 		autoBuildJob.build(needsBuild);
 	}
 
+	/**
+	 * Returns the representative of the given element in the given union-find array.
+	 */
+	private static int find(int[] parents, int element) {
+		while (parents[element] != element) {
+			parents[element] = parents[parents[element]];
+			element = parents[element];
+		}
+		return element;
+	}
+
 	/**
 	 * Returns the value of the boolean configuration element attribute with the
 	 * given name, or <code>false</code> if the attribute is missing.
@@ -645,19 +898,20 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 	IResourceDelta getDelta(IProject project) {
 		try {
 			lock.acquire();
-			if (currentTree == null) {
+			BuilderInvocation current = currentInvocation.get();
+			if (current == null || current.tree == null) {
 				if (Policy.DEBUG_BUILD_FAILURE)
 					Policy.debug("Build: no tree for delta " + debugBuilder() + " [" + debugProject() + "]"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 				return null;
 			}
 			//check if this builder has indicated it cares about this project
-			if (!isInterestingProject(project)) {
+			if (!isInterestingProject(current.builder, project)) {
 				if (Policy.DEBUG_BUILD_FAILURE)
 					Policy.debug("Build: project not interesting for this builder " + debugBuilder() + " [" + debugProject() + "] " + project.getFullPath()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 				return null;
 			}
 			//check if this project has changed
-			if (currentDelta != null && currentDelta.findNodeAt(project.getFullPath()) == null) {
+			if (current.delta != null && current.delta.findNodeAt(project.getFullPath()) == null) {
 				//if the project never existed (not in delta and not in current tree), return null
 				if (!project.exists())
 					return null;
@@ -665,17 +919,27 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 				return ResourceDeltaFactory.newEmptyDelta(project);
 			}
 			//now check against the cache
-			IResourceDelta result = (IResourceDelta) deltaCache.getDelta(project.getFullPath(), currentLastBuiltTree, currentTree);
-			if (result != null)
+			IResourceDelta result = (IResourceDelta) deltaCache.getDelta(project.getFullPath(), current.lastBuiltTree, current.tree);
+			if (result != null) {
+				current.deltaNodes += ((ResourceDelta) result).getDeltaInfo().getNodeCount();
 				return result;
+			}
 
 			long startTime = 0L;
 			if (Policy.DEBUG_BUILD_DELTA) {
 				startTime = System.currentTimeMillis();
 				Policy.debug("Computing delta for project: " + project.getName()); //$NON-NLS-1$
 			}
-			result = ResourceDeltaFactory.computeDelta(workspace, currentLastBuiltTree, currentTree, project.getFullPath(), -1);
-			deltaCache.cache(project.getFullPath(), currentLastBuiltTree, currentTree, result);
+			current.tree.immutable();
+			changeJournal.append(current.tree);
+			ChangeJournal.Changes changes = changeJournal.getChanges(project.getName(), current.lastBuiltTree, current.tree);
+			if (changes != null)
+				result = ResourceDeltaFactory.computeDelta(workspace, current.lastBuiltTree, current.tree, project.getFullPath(), changes);
+			else
+				result = ResourceDeltaFactory.computeDelta(workspace, current.lastBuiltTree, current.tree, project.getFullPath(), -1, true);
+			deltaCache.cache(project.getFullPath(), current.lastBuiltTree, current.tree, result);
+			if (result != null)
+				current.deltaNodes += ((ResourceDelta) result).getDeltaInfo().getNodeCount();
 			if (Policy.DEBUG_BUILD_FAILURE && result == null)
 				Policy.debug("Build: no delta " + debugBuilder() + " [" + debugProject() + "] " + project.getFullPath()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			if (Policy.DEBUG_BUILD_DELTA) {
@@ -692,7 +956,7 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 	/**
 	 * Returns the safe runnable instance for invoking a builder
 	 */
-	private ISafeRunnable getSafeRunnable(final int trigger, final Map<String, String> args, final MultiStatus status, final IProgressMonitor monitor) {
+	private ISafeRunnable getSafeRunnable(final InternalBuilder builder, final int trigger, final Map<String, String> args, final MultiStatus status, final IProgressMonitor monitor) {
 		return new ISafeRunnable() {
 			public void handleException(Throwable e) {
 				if (e instanceof OperationCanceledException) {
@@ -700,18 +964,18 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 						Policy.debug("Build canceled"); //$NON-NLS-1$
 					//just discard built state when a builder cancels, to ensure
 					//that it is called again on the very next build.
-					currentBuilder.forgetLastBuiltState();
+					builder.forgetLastBuiltState();
 					throw (OperationCanceledException) e;
 				}
 				//ResourceStats.buildException(e);
 				// don't log the exception....it is already being logged in SafeRunner#run
 
 				//add a generic message to the MultiStatus
-				String builderName = currentBuilder.getLabel();
+				String builderName = builder.getLabel();
 				if (builderName == null || builderName.length() == 0)
-					builderName = currentBuilder.getClass().getName();
-				String pluginId = currentBuilder.getPluginId();
-				String message = NLS.bind(Messages.events_builderError, builderName, currentBuilder.getProject().getName());
+					builderName = builder.getClass().getName();
+				String pluginId = builder.getPluginId();
+				String message = NLS.bind(Messages.events_builderError, builderName, builder.getProject().getName());
 				status.add(new Status(IStatus.ERROR, pluginId, IResourceStatus.BUILD_FAILED, message, e));
 
 				//add the exception status to the MultiStatus
@@ -723,12 +987,12 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 				IProject[] prereqs = null;
 				//invoke the appropriate build method depending on the trigger
 				if (trigger != IncrementalProjectBuilder.CLEAN_BUILD)
-					prereqs = currentBuilder.build(trigger, args, monitor);
+					prereqs = builder.build(trigger, args, monitor);
 				else
-					currentBuilder.clean(monitor);
+					builder.clean(monitor);
 				if (prereqs == null)
 					prereqs = new IProject[0];
-				currentBuilder.setInterestingProjects(prereqs.clone());
+				builder.setInterestingProjects(prereqs.clone());
 			}
 		};
 	}
@@ -774,10 +1038,16 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 	private void hookEndBuild(IncrementalProjectBuilder builder) {
 		if (ResourceStats.TRACE_BUILDERS)
 			ResourceStats.endBuild();
-		if (!Policy.DEBUG_BUILD_INVOKING || timeStamp == -1)
+		BuilderInvocation current = currentInvocation.get();
+		if (current.startTime != -1) {
+			long allocated = current.startBytes < 0 ? -1 : ResourceMetrics.getAllocatedBytes() - current.startBytes;
+			workspace.getResourceMetrics().builderInvoked(current.builder.getCommand().getBuilderName(), System.nanoTime() - current.startTime, current.deltaNodes, allocated);
+			current.startTime = -1;
+		}
+		if (!Policy.DEBUG_BUILD_INVOKING || current.timeStamp == -1)
 			return; //builder wasn't called or we are not debugging
-		Policy.debug("Builder finished: " + toString(builder) + " time: " + (System.currentTimeMillis() - timeStamp) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-		timeStamp = -1;
+		Policy.debug("Builder finished: " + toString(builder) + " time: " + (System.currentTimeMillis() - current.timeStamp) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		current.timeStamp = -1;
 	}
 
 	/**
@@ -806,8 +1076,12 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 	private void hookStartBuild(IncrementalProjectBuilder builder, int trigger) {
 		if (ResourceStats.TRACE_BUILDERS)
 			ResourceStats.startBuild(builder);
+		BuilderInvocation current = currentInvocation.get();
+		current.startBytes = ResourceMetrics.getAllocatedBytes();
+		current.deltaNodes = 0;
+		current.startTime = System.nanoTime();
 		if (Policy.DEBUG_BUILD_INVOKING) {
-			timeStamp = System.currentTimeMillis();
+			current.timeStamp = System.currentTimeMillis();
 			Policy.debug("Invoking (" + debugTrigger(trigger) + ") on builder: " + toString(builder)); //$NON-NLS-1$ //$NON-NLS-2$
 		}
 	}
@@ -916,13 +1190,13 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 	}
 
 	/**
-	 * Returns true if the current builder is interested in changes
+	 * Returns true if the given builder is interested in changes
 	 * to the given project, and false otherwise.
 	 */
-	private boolean isInterestingProject(IProject project) {
-		if (project.equals(currentBuilder.getProject()))
+	private boolean isInterestingProject(InternalBuilder builder, IProject project) {
+		if (project.equals(builder.getProject()))
 			return true;
-		IProject[] interestingProjects = currentBuilder.getInterestingProjects();
+		IProject[] interestingProjects = builder.getInterestingProjects();
 		for (int i = 0; i < interestingProjects.length; i++) {
 			if (interestingProjects[i].equals(project)) {
 				return true;
@@ -942,7 +1216,8 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 	 * computing project deltas and invoking builders for projects that haven't
 	 * changed.
 	 */
-	private boolean needsBuild(InternalBuilder builder, int trigger) {
+	private boolean needsBuild(BuilderInvocation invocation, int trigger) {
+		InternalBuilder builder = invocation.builder;
 		//on some triggers we build regardless of the delta
 		switch (trigger) {
 			case IncrementalProjectBuilder.CLEAN_BUILD :
@@ -950,7 +1225,7 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 			case IncrementalProjectBuilder.FULL_BUILD :
 				return true;
 			case IncrementalProjectBuilder.INCREMENTAL_BUILD :
-				if (currentBuilder.callOnEmptyDelta())
+				if (builder.callOnEmptyDelta())
 					return true;
 				//fall through and check if there is a delta
 		}
@@ -959,20 +1234,20 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 		ElementTree oldTree = builder.getLastBuiltTree();
 		ElementTree newTree = workspace.getElementTree();
 		long start = System.currentTimeMillis();
-		currentDelta = (DeltaDataTree) deltaTreeCache.getDelta(null, oldTree, newTree);
-		if (currentDelta == null) {
+		invocation.delta = (DeltaDataTree) deltaTreeCache.getDelta(null, oldTree, newTree);
+		if (invocation.delta == null) {
 			if (Policy.DEBUG_BUILD_NEEDED) {
 				String message = "Checking if need to build. Starting delta computation between: " + oldTree.toString() + " and " + newTree.toString(); //$NON-NLS-1$ //$NON-NLS-2$
 				Policy.debug(message);
 			}
-			currentDelta = newTree.getDataTree().forwardDeltaWith(oldTree.getDataTree(), ResourceComparator.getBuildComparator());
+			invocation.delta = newTree.getDataTree().forwardDeltaWith(oldTree.getDataTree(), ResourceComparator.getBuildComparator());
 			if (Policy.DEBUG_BUILD_NEEDED)
 				Policy.debug("End delta computation. (" + (System.currentTimeMillis() - start) + "ms)."); //$NON-NLS-1$ //$NON-NLS-2$
-			deltaTreeCache.cache(null, oldTree, newTree, currentDelta);
+			deltaTreeCache.cache(null, oldTree, newTree, invocation.delta);
 		}
 
 		//search for the builder's project
-		if (currentDelta.findNodeAt(builder.getProject().getFullPath()) != null) {
+		if (invocation.delta.findNodeAt(builder.getProject().getFullPath()) != null) {
 			if (Policy.DEBUG_BUILD_NEEDED)
 				Policy.debug(toString(builder) + " needs building because of changes in: " + builder.getProject().getName()); //$NON-NLS-1$
 			return true;
@@ -981,7 +1256,7 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 		//search for builder's interesting projects
 		IProject[] projects = builder.getInterestingProjects();
 		for (int i = 0; i < projects.length; i++) {
-			if (currentDelta.findNodeAt(projects[i].getFullPath()) != null) {
+			if (invocation.delta.findNodeAt(projects[i].getFullPath()) != null) {
 				if (Policy.DEBUG_BUILD_NEEDED)
 					Policy.debug(toString(builder) + " needs building because of changes in: " + projects[i].getName()); //$NON-NLS-1$
 				return true;
@@ -990,6 +1265,58 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 		return false;
 	}
 
+	/**
+	 * Builds the given levels of build configurations once. The units of a level
+	 * are built concurrently by jobs, and a level is only built once all units of
+	 * the previous level have been built. The builders of each job acquire their
+	 * own scheduling rules, so builders with conflicting rules still run one after
+	 * the other.
+	 * @see #computeBuildLevels(IBuildConfiguration[])
+	 */
+	private void parallelBuild(List<IBuildConfiguration[][]> levels, IBuildConfiguration[] configs, IBuildConfiguration[] requestedConfigs, int trigger, int maxJobs, MultiStatus status, IProgressMonitor monitor, int projectWork) {
+		BlockingQueue<BuildJob> done = new LinkedBlockingQueue<BuildJob>();
+		//release the workspace lock, which the jobs acquire to run builders
+		int depth = getWorkManager().beginUnprotected();
+		try {
+			for (IBuildConfiguration[][] level : levels) {
+				checkCanceled(trigger, monitor);
+				List<BuildJob> running = new ArrayList<BuildJob>(maxJobs);
+				boolean canceled = false;
+				int next = 0;
+				while (running.size() > 0 || (next < level.length && !canceled)) {
+					if (next < level.length && !canceled && running.size() < maxJobs) {
+						BuildJob job = new BuildJob(level[next++], requestedConfigs, configs, trigger, done);
+						running.add(job);
+						job.schedule();
+						continue;
+					}
+					BuildJob job = null;
+					try {
+						job = done.poll(100, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						//ignore
+					}
+					if (job == null) {
+						if (!canceled && monitor.isCanceled()) {
+							canceled = true;
+							for (BuildJob runningJob : running)
+								runningJob.cancel();
+						}
+						continue;
+					}
+					running.remove(job);
+					status.addAll(job.status);
+					canceled |= job.canceled;
+					monitor.worked(projectWork * job.configs.length);
+				}
+				if (canceled)
+					throw new OperationCanceledException();
+			}
+		} finally {
+			getWorkManager().endUnprotected(depth);
+		}
+	}
+
 	/**
 	 * Removes all builders with the given ID from the build spec.
 	 * Does nothing if there were no such builders in the spec
@@ -1046,6 +1373,7 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 
 	public void shutdown(IProgressMonitor monitor) {
 		autoBuildJob.cancel();
+		changeJournal.clear();
 	}
 
 	public void startup(IProgressMonitor monitor) {
@@ -1062,6 +1390,13 @@ public class BuildManager implements ICoreConstants, IManager, ILifecycleListene
 		return name + "(" + builder.getBuildConfig() + ")"; //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
+	/**
+	 * Merges the sets of the given elements in the given union-find array.
+	 */
+	private static void union(int[] parents, int element1, int element2) {
+		parents[find(parents, element2)] = find(parents, element1);
+	}
+
 	/**
 	 * Returns true if the nature membership rules are satisfied for the given
 	 * builder extension on the given project, and false otherwise.  A builder that 
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.events;
+
+import java.util.*;
+import org.eclipse.core.internal.watson.ElementTree;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * A journal of the resources changed in each project by successive workspace
+ * trees, used to compute build deltas in time proportional to the number of
+ * changes rather than to the size of the projects.
+ * <p>
+ * Trees are identified by their tree stamp.  Each entry of the journal records
+ * the paths at which a tree differs from the tree of the previous entry, as
+ * found in the delta layers between them.  The journal is only extended when
+ * a build delta is requested, up to the tree being built.  When a tree cannot
+ * be reached from the last journaled tree, for instance because the workspace
+ * tree was replaced, or when too many paths changed since the last journaled
+ * tree, the journal starts over from that tree.  The oldest entries are
+ * discarded once the journal holds too many paths.  Deltas between trees that
+ * are not covered by the journal must be computed by comparing the trees.
+ * </p>
+ */
+public class ChangeJournal {
+	/**
+	 * The maximum number of paths held by the journal.
+	 */
+	private static final int MAX_CHANGES = 50000;
+
+	/**
+	 * The paths changed in a project.
+	 */
+	static class Changes {
+		/**
+		 * The paths of the resources whose info changed.
+		 */
+		final Set<IPath> nodes = new HashSet<IPath>();
+		/**
+		 * The paths of the resources that were added, removed or replaced,
+		 * along with their descendants.
+		 */
+		final Set<IPath> subtrees = new HashSet<IPath>();
+
+		void addAll(Changes changes) {
+			nodes.addAll(changes.nodes);
+			subtrees.addAll(changes.subtrees);
+		}
+	}
+
+	/**
+	 * The changes made by a tree, keyed by project name.
+	 */
+	private static class Entry {
+		final int stamp;
+		final Map<String, Changes> projects = new HashMap<String, Changes>();
+		int size;
+
+		Entry(int stamp) {
+			this.stamp = stamp;
+		}
+	}
+
+	private final LinkedList<Entry> entries = new LinkedList<Entry>();
+	/**
+	 * The stamp of the tree preceding the first entry.
+	 */
+	private int baseStamp = -1;
+	/**
+	 * The last journaled tree, or <code>null</code>.
+	 */
+	private ElementTree lastTree;
+	/**
+	 * The number of paths held by all entries.
+	 */
+	private int size;
+
+	/**
+	 * Journals the changes made up to the given immutable tree, since the last
+	 * journaled tree.  At most {@link #MAX_CHANGES} paths are collected.
+	 */
+	public synchronized void append(ElementTree tree) {
+		if (lastTree == null) {
+			reset(tree);
+			return;
+		}
+		//the journal only goes forward
+		if (tree.getTreeStamp() <= lastTree.getTreeStamp())
+			return;
+		//follow the chain of trees from the last journaled tree, whose deltas
+		//each describe the differences between a tree and its parent
+		List<ElementTree> chain = new ArrayList<ElementTree>();
+		for (ElementTree next = lastTree; next != tree;) {
+			chain.add(next);
+			next = next.getParent();
+			if (next == null || chain.size() > MAX_CHANGES) {
+				reset(tree);
+				return;
+			}
+		}
+		//collect all changes before journaling them, so that too many changes
+		//are found without journaling anything
+		List<Entry> added = new ArrayList<Entry>(chain.size());
+		int addedSize = 0;
+		for (ElementTree next : chain) {
+			Set<IPath> nodes = new HashSet<IPath>();
+			Set<IPath> subtrees = new HashSet<IPath>();
+			if (!next.getDataTree().collectChanges(nodes, subtrees, MAX_CHANGES - addedSize)) {
+				reset(tree);
+				return;
+			}
+			Entry entry = new Entry(next.getParent().getTreeStamp());
+			for (IPath node : nodes)
+				getChanges(entry, node).nodes.add(node);
+			for (IPath subtree : subtrees)
+				getChanges(entry, subtree).subtrees.add(subtree);
+			entry.size = nodes.size() + subtrees.size();
+			added.add(entry);
+			addedSize += entry.size;
+		}
+		entries.addAll(added);
+		size += addedSize;
+		lastTree = tree;
+		while (size > MAX_CHANGES && !entries.isEmpty()) {
+			Entry first = entries.removeFirst();
+			size -= first.size;
+			baseStamp = first.stamp;
+		}
+	}
+
+	/**
+	 * Discards all entries.
+	 */
+	public synchronized void clear() {
+		lastTree = null;
+		entries.clear();
+		baseStamp = -1;
+		size = 0;
+	}
+
+	private Changes getChanges(Entry entry, IPath path) {
+		String projectName = path.segment(0);
+		Changes changes = entry.projects.get(projectName);
+		if (changes == null) {
+			changes = new Changes();
+			entry.projects.put(projectName, changes);
+		}
+		return changes;
+	}
+
+	/**
+	 * Returns the changes made in the given project between the given journaled
+	 * trees, or <code>null</code> if the journal does not cover these trees.
+	 * The returned changes may include paths that did not actually change.
+	 */
+	public synchronized Changes getChanges(String projectName, ElementTree oldTree, ElementTree newTree) {
+		Changes result = new Changes();
+		if (oldTree == newTree)
+			return result;
+		int oldStamp = oldTree.getTreeStamp();
+		int newStamp = newTree.getTreeStamp();
+		boolean found = oldStamp == baseStamp;
+		for (Entry entry : entries) {
+			if (found) {
+				Changes changes = entry.projects.get(projectName);
+				if (changes != null)
+					result.addAll(changes);
+				if (entry.stamp == newStamp)
+					return result;
+			} else if (entry.stamp == oldStamp) {
+				found = true;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Starts the journal over from the given tree.
+	 */
+	private void reset(ElementTree tree) {
+		entries.clear();
+		size = 0;
+		baseStamp = tree.getTreeStamp();
+		lastTree = tree;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2005 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,68 +10,156 @@
  *******************************************************************************/
 package org.eclipse.core.internal.events;
 
+import java.util.Arrays;
 import org.eclipse.core.runtime.IPath;
 
 /**
  * A specialized map that maps Node IDs to their old and new paths.
  * Used for calculating moves during resource change notification.
+ * <p>
+ * The map uses open addressing with linear probing in tables whose size is
+ * a power of two. Node IDs are never zero, so zero marks a free slot.
+ * </p>
+ * <p>
+ * The map also holds a Bloom filter of the node IDs that have been removed,
+ * which is used to only add entries for nodes that may have been moved. Maps
+ * are reused across notifications: see {@link #acquire()} and {@link #release()}.
+ * </p>
  */
 public class NodeIDMap {
-	//using prime table sizes improves our hash function
-	private static final int[] SIZES = new int[] {13, 29, 71, 173, 349, 733, 1511, 3079, 6133, 16381, 32653, 65543, 131111, 262139, 524287, 1051601};
-	private static final double LOAD_FACTOR = 0.75;
-	//2^32 * golden ratio
-	private static final long LARGE_NUMBER = 2654435761L;
+	private static final int INITIAL_CAPACITY = 16;
+	/**
+	 * The largest map kept for reuse once released.
+	 */
+	private static final int MAX_POOLED_CAPACITY = 1 << 14;
+	//2^64 / golden ratio
+	private static final long LARGE_NUMBER = 0x9E3779B97F4A7C15L;
+	/**
+	 * The number of bits of the filter of removed IDs, a power of two.
+	 */
+	private static final int FILTER_BITS = 1 << 16;
+
+	/**
+	 * A released map, ready for reuse, or <code>null</code>.
+	 */
+	private static NodeIDMap spare;
 
-	int sizeOffset = 0;
 	protected int elementCount = 0;
+	/**
+	 * The filter of removed node IDs, or <code>null</code> if none were added.
+	 */
+	private long[] filter;
+	private boolean filtered;
 	protected long[] ids;
 	protected IPath[] oldPaths;
 	protected IPath[] newPaths;
 
+	/**
+	 * Returns an empty map, reusing a released one if possible.
+	 */
+	public static NodeIDMap acquire() {
+		synchronized (NodeIDMap.class) {
+			NodeIDMap result = spare;
+			if (result != null) {
+				spare = null;
+				return result;
+			}
+		}
+		return new NodeIDMap();
+	}
+
 	/**
 	 * Creates a new node ID map of default capacity.
 	 */
 	public NodeIDMap() {
-		this.sizeOffset = 0;
-		this.ids = new long[SIZES[sizeOffset]];
-		this.oldPaths = new IPath[SIZES[sizeOffset]];
-		this.newPaths = new IPath[SIZES[sizeOffset]];
+		this(INITIAL_CAPACITY);
 	}
 
 	/**
-	 * The array isn't large enough so double its size and rehash
-	 * all its current values.
+	 * Creates a new node ID map of the given capacity, a power of two.
 	 */
-	protected void expand() {
-		int newLength;
-		try {
-			newLength = SIZES[++sizeOffset];
-		} catch (ArrayIndexOutOfBoundsException e) {
-			//will only occur if there are > 1 million elements in delta
-			newLength = ids.length * 2;
+	private NodeIDMap(int capacity) {
+		this.ids = new long[capacity];
+		this.oldPaths = new IPath[capacity];
+		this.newPaths = new IPath[capacity];
+	}
+
+	/**
+	 * Adds the given ID to the filter of removed node IDs.
+	 */
+	public void addRemovedID(long id) {
+		if (filter == null)
+			filter = new long[FILTER_BITS / 64];
+		long hash = id * LARGE_NUMBER;
+		int bit1 = (int) (hash >>> 48);
+		int bit2 = (int) (hash >>> 32) & (FILTER_BITS - 1);
+		filter[bit1 >>> 6] |= 1L << bit1;
+		filter[bit2 >>> 6] |= 1L << bit2;
+		filtered = true;
+	}
+
+	/**
+	 * Empties the map and the filter of removed IDs, keeping the tables.
+	 */
+	private void clear() {
+		if (elementCount > 0) {
+			Arrays.fill(ids, 0);
+			Arrays.fill(oldPaths, null);
+			Arrays.fill(newPaths, null);
+			elementCount = 0;
 		}
-		long[] grownIds = new long[newLength];
-		IPath[] grownOldPaths = new IPath[newLength];
-		IPath[] grownNewPaths = new IPath[newLength];
-		int maxArrayIndex = newLength - 1;
+		if (filtered) {
+			Arrays.fill(filter, 0);
+			filtered = false;
+		}
+	}
+
+	/**
+	 * Returns a map with the same entries as this one, sized for them. The
+	 * filter of removed IDs is not copied.
+	 */
+	public NodeIDMap copy() {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < elementCount * 2)
+			capacity *= 2;
+		NodeIDMap result = new NodeIDMap(capacity);
 		for (int i = 0; i < ids.length; i++) {
-			long id = ids[i];
+			if (ids[i] != 0)
+				result.put(ids[i], oldPaths[i], newPaths[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns whether there is an entry for the given ID.
+	 */
+	public boolean containsID(long id) {
+		return elementCount > 0 && getIndex(id) >= 0;
+	}
+
+	/**
+	 * The table is getting full so double its size and rehash
+	 * all its current values.
+	 */
+	protected void expand() {
+		long[] oldIds = ids;
+		IPath[] oldOldPaths = oldPaths;
+		IPath[] oldNewPaths = newPaths;
+		int newLength = oldIds.length * 2;
+		ids = new long[newLength];
+		oldPaths = new IPath[newLength];
+		newPaths = new IPath[newLength];
+		for (int i = 0; i < oldIds.length; i++) {
+			long id = oldIds[i];
 			if (id != 0) {
-				int hash = hashFor(id, newLength);
-				while (grownIds[hash] != 0) {
-					hash++;
-					if (hash > maxArrayIndex)
-						hash = 0;
-				}
-				grownIds[hash] = id;
-				grownOldPaths[hash] = oldPaths[i];
-				grownNewPaths[hash] = newPaths[i];
+				int index = hashFor(id);
+				while (ids[index] != 0)
+					index = (index + 1) & (newLength - 1);
+				ids[index] = id;
+				oldPaths[index] = oldOldPaths[i];
+				newPaths[index] = oldNewPaths[i];
 			}
 		}
-		ids = grownIds;
-		oldPaths = grownOldPaths;
-		newPaths = grownNewPaths;
 	}
 
 	/**
@@ -79,28 +167,14 @@ public class NodeIDMap {
 	 * found, returns -1.
 	 */
 	private int getIndex(long searchID) {
-		final int len = ids.length;
-		int hash = hashFor(searchID, len);
-
-		// search the last half of the array
-		for (int i = hash; i < len; i++) {
-			if (ids[i] == searchID)
-				return i;
-			// marker info not found so return -1
-			if (ids[i] == 0)
-				return -1;
-		}
-
-		// search the beginning of the array
-		for (int i = 0; i < hash - 1; i++) {
-			if (ids[i] == searchID)
+		int mask = ids.length - 1;
+		for (int i = hashFor(searchID);; i = (i + 1) & mask) {
+			long id = ids[i];
+			if (id == searchID)
 				return i;
-			// marker info not found so return -1
-			if (ids[i] == 0)
+			if (id == 0)
 				return -1;
 		}
-		// marker info not found so return -1
-		return -1;
 	}
 
 	/**
@@ -125,9 +199,16 @@ public class NodeIDMap {
 		return oldPaths[index];
 	}
 
-	private int hashFor(long id, int size) {
-		//Knuth's hash function from Art of Computer Programming section 6.4
-		return (int) Math.abs((id * LARGE_NUMBER) % size);
+	/**
+	 * Returns whether any ID has been added to the filter of removed IDs.
+	 */
+	public boolean hasRemovedIDs() {
+		return filtered;
+	}
+
+	private int hashFor(long id) {
+		//multiplicative hashing, keeping the high bits of the product
+		return (int) ((id * LARGE_NUMBER) >>> (64 - Integer.numberOfTrailingZeros(ids.length)));
 	}
 
 	/**
@@ -138,6 +219,19 @@ public class NodeIDMap {
 		return elementCount == 0;
 	}
 
+	/**
+	 * Returns whether the given ID may have been added to the filter of
+	 * removed IDs. May return <code>true</code> for IDs that were not added.
+	 */
+	public boolean mayBeRemovedID(long id) {
+		if (!filtered)
+			return false;
+		long hash = id * LARGE_NUMBER;
+		int bit1 = (int) (hash >>> 48);
+		int bit2 = (int) (hash >>> 32) & (FILTER_BITS - 1);
+		return (filter[bit1 >>> 6] & (1L << bit1)) != 0 && (filter[bit2 >>> 6] & (1L << bit2)) != 0;
+	}
+
 	/**
 	 * Adds the given path mappings to the map.  If either oldPath
 	 * or newPath is null, they are ignored (old map values are not overwritten).
@@ -145,60 +239,22 @@ public class NodeIDMap {
 	private void put(long id, IPath oldPath, IPath newPath) {
 		if (oldPath == null && newPath == null)
 			return;
-		int hash = hashFor(id, ids.length);
-
-		// search for an empty slot at the end of the array
-		for (int i = hash; i < ids.length; i++) {
-			if (ids[i] == id) {
-				//replace value for existing entry
-				if (oldPath != null)
-					oldPaths[i] = oldPath;
-				if (newPath != null)
-					newPaths[i] = newPath;
-				return;
-			}
-			if (ids[i] == 0) {
-				//add a new entry to the map
-				ids[i] = id;
-				if (oldPath != null)
-					oldPaths[i] = oldPath;
-				if (newPath != null)
-					newPaths[i] = newPath;
-				elementCount++;
-				// grow if necessary
-				if (shouldGrow())
-					expand();
-				return;
-			}
+		int mask = ids.length - 1;
+		int index = hashFor(id);
+		while (ids[index] != 0 && ids[index] != id)
+			index = (index + 1) & mask;
+		if (ids[index] == 0) {
+			//add a new entry to the map
+			ids[index] = id;
+			elementCount++;
 		}
-
-		// search for an empty slot at the beginning of the array
-		for (int i = 0; i < hash - 1; i++) {
-			if (ids[i] == id) {
-				//replace value for existing entry
-				if (oldPath != null)
-					oldPaths[i] = oldPath;
-				if (newPath != null)
-					newPaths[i] = newPath;
-				return;
-			}
-			if (ids[i] == 0) {
-				//add a new entry to the map
-				ids[i] = id;
-				if (oldPath != null)
-					oldPaths[i] = oldPath;
-				if (newPath != null)
-					newPaths[i] = newPath;
-				elementCount++;
-				// grow if necessary
-				if (shouldGrow())
-					expand();
-				return;
-			}
-		}
-		// if we didn't find a free slot, then try again with the expanded set
-		expand();
-		put(id, oldPath, newPath);
+		if (oldPath != null)
+			oldPaths[index] = oldPath;
+		if (newPath != null)
+			newPaths[index] = newPath;
+		// grow if more than half full, keeping probe sequences short
+		if (elementCount * 2 > ids.length)
+			expand();
 	}
 
 	/**
@@ -215,7 +271,16 @@ public class NodeIDMap {
 		put(id, null, path);
 	}
 
-	private boolean shouldGrow() {
-		return elementCount > ids.length * LOAD_FACTOR;
+	/**
+	 * Empties this map and makes it available for reuse. The map must not be
+	 * used anymore by the caller.
+	 */
+	public void release() {
+		if (ids.length > MAX_POOLED_CAPACITY)
+			return;
+		clear();
+		synchronized (NodeIDMap.class) {
+			spare = this;
+		}
 	}
 }
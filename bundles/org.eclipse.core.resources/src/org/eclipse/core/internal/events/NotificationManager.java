@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,8 +12,10 @@
 package org.eclipse.core.internal.events;
 
 import java.util.*;
+import java.util.concurrent.*;
 import org.eclipse.core.internal.resources.*;
 import org.eclipse.core.internal.utils.Messages;
+import org.eclipse.core.internal.utils.Policy;
 import org.eclipse.core.internal.watson.ElementTree;
 import org.eclipse.core.resources.*;
 import org.eclipse.core.runtime.*;
@@ -45,6 +47,67 @@ public class NotificationManager implements IManager, ILifecycleListener {
 		}
 	}
 
+	/**
+	 * A thread notifying concurrent listeners. The workspace tree is locked
+	 * for these threads while the notification that they are part of runs.
+	 */
+	private static class ListenerThread extends Thread {
+		ListenerThread(Runnable runnable) {
+			super(runnable, "Resource change notification"); //$NON-NLS-1$
+			setDaemon(true);
+		}
+	}
+
+	/**
+	 * Notifies a concurrent listener of an event, and records how long the
+	 * listener took.
+	 */
+	private static class ConcurrentNotification implements Runnable {
+		final IResourceChangeEvent event;
+		final IResourceChangeListener listener;
+		final ResourceMetrics metrics;
+		final boolean scoped;
+		long duration;
+
+		ConcurrentNotification(IResourceChangeListener listener, IResourceChangeEvent event, ResourceMetrics metrics, boolean scoped) {
+			this.listener = listener;
+			this.event = event;
+			this.metrics = metrics;
+			this.scoped = scoped;
+		}
+
+		public void run() {
+			long start = System.currentTimeMillis();
+			long startTime = System.nanoTime();
+			long startBytes = ResourceMetrics.getAllocatedBytes();
+			PerformanceStats stats = null;
+			if (ResourceStats.TRACE_LISTENERS) {
+				stats = PerformanceStats.getStats(ResourceStats.EVENT_LISTENERS, listener);
+				stats.startRun();
+			}
+			SafeRunner.run(new ISafeRunnable() {
+				public void handleException(Throwable e) {
+					// exception logged in SafeRunner#run
+				}
+
+				public void run() throws Exception {
+					listener.resourceChanged(event);
+				}
+			});
+			if (stats != null)
+				stats.endRun();
+			long time = System.nanoTime() - startTime;
+			long allocated = startBytes < 0 ? -1 : ResourceMetrics.getAllocatedBytes() - startBytes;
+			metrics.listenerNotified(listener.getClass().getName(), time, countDeltaNodes(event, scoped), allocated);
+			duration = System.currentTimeMillis() - start;
+		}
+	}
+
+	/**
+	 * The maximum number of threads notifying concurrent listeners.
+	 */
+	private static final int MAX_LISTENER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
 	private static final long NOTIFICATION_DELAY = 1500;
 	/**
 	 * The Threads that are currently avoiding notification.
@@ -92,6 +155,11 @@ public class NotificationManager implements IManager, ILifecycleListener {
 	 */
 	private ElementTree lastPostChangeTree;
 
+	/**
+	 * The executor notifying concurrent listeners, created on demand.
+	 */
+	private ThreadPoolExecutor listenerExecutor;
+
 	private ResourceChangeListenerList listeners;
 
 	protected boolean notificationRequested = false;
@@ -105,7 +173,15 @@ public class NotificationManager implements IManager, ILifecycleListener {
 	}
 
 	public void addListener(IResourceChangeListener listener, int eventMask) {
-		listeners.add(listener, eventMask);
+		addListener(listener, eventMask, null);
+	}
+
+	/**
+	 * Adds a listener for changes to the resources in the given scope, or to
+	 * the whole workspace if the scope is <code>null</code>.
+	 */
+	public void addListener(IResourceChangeListener listener, int eventMask, ResourceChangeScope scope) {
+		listeners.add(listener, eventMask, scope);
 		if (ResourceStats.TRACE_LISTENERS)
 			ResourceStats.listenerAdded(listener);
 	}
@@ -173,6 +249,9 @@ public class NotificationManager implements IManager, ILifecycleListener {
 				lastPostBuildId = id;
 			}
 			workspace.getMarkerManager().resetMarkerDeltas(Math.min(lastPostBuildId, lastPostChangeId));
+			//the delta is only valid during the notification, so its move map can be reused
+			if (lastDelta != null)
+				lastDelta.getDeltaInfo().releaseNodeIDMap();
 			lastDelta = null;
 			lastDeltaState = lastState;
 		}
@@ -228,7 +307,7 @@ public class NotificationManager implements IManager, ILifecycleListener {
 			// We don't have a delta or something changed so recompute the whole deal.
 			ElementTree oldTree = postChange ? lastPostChangeTree : lastPostBuildTree;
 			long markerId = postChange ? lastPostChangeId : lastPostBuildId;
-			lastDelta = ResourceDeltaFactory.computeDelta(workspace, oldTree, tree, Path.ROOT, markerId + 1);
+			lastDelta = ResourceDeltaFactory.computeDelta(workspace, oldTree, tree, Path.ROOT, markerId + 1, true);
 		}
 		// remember the state of the world when this delta was consistent
 		lastDeltaState = tree;
@@ -236,10 +315,36 @@ public class NotificationManager implements IManager, ILifecycleListener {
 		return lastDelta;
 	}
 
+	private synchronized ExecutorService getListenerExecutor() {
+		if (listenerExecutor == null) {
+			listenerExecutor = new ThreadPoolExecutor(MAX_LISTENER_THREADS, MAX_LISTENER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					return new ListenerThread(runnable);
+				}
+			});
+			listenerExecutor.allowCoreThreadTimeOut(true);
+		}
+		return listenerExecutor;
+	}
+
 	protected ResourceChangeListenerList.ListenerEntry[] getListeners() {
 		return listeners.getListeners();
 	}
 
+	/**
+	 * Returns the trees kept to compute the deltas of later notifications.
+	 */
+	public List<ElementTree> getTrees() {
+		List<ElementTree> result = new ArrayList<ElementTree>(3);
+		if (lastDeltaState != null)
+			result.add(lastDeltaState);
+		if (lastPostBuildTree != null)
+			result.add(lastPostBuildTree);
+		if (lastPostChangeTree != null)
+			result.add(lastPostChangeTree);
+		return result;
+	}
+
 	public void handleEvent(LifecycleEvent event) {
 		switch (event.kind) {
 			case LifecycleEvent.PRE_PROJECT_CLOSE :
@@ -276,31 +381,129 @@ public class NotificationManager implements IManager, ILifecycleListener {
 		boolean oldLock = workspace.isTreeLocked();
 		if (lockTree)
 			workspace.setTreeLocked(true);
+		//concurrent listeners are only notified concurrently when the tree is locked
+		boolean concurrent = lockTree && type == IResourceChangeEvent.POST_CHANGE;
+		List<ConcurrentNotification> notifications = null;
+		List<Future<?>> pending = null;
+		ResourceMetrics metrics = workspace.getResourceMetrics();
 		try {
 			for (int i = 0; i < resourceListeners.length; i++) {
 				if ((type & resourceListeners[i].eventMask) != 0) {
 					final IResourceChangeListener listener = resourceListeners[i].listener;
+					ResourceChangeScope scope = resourceListeners[i].scope;
+					final IResourceChangeEvent listenerEvent = scope == null ? event : scopedEvent(event, scope);
+					//skip listeners that have no interest in the changes
+					if (listenerEvent == null)
+						continue;
+					if (concurrent && resourceListeners[i].concurrent) {
+						if (notifications == null) {
+							notifications = new ArrayList<ConcurrentNotification>();
+							pending = new ArrayList<Future<?>>();
+						}
+						ConcurrentNotification notification = new ConcurrentNotification(listener, listenerEvent, metrics, listenerEvent != event);
+						notifications.add(notification);
+						pending.add(getListenerExecutor().submit(notification));
+						continue;
+					}
 					if (ResourceStats.TRACE_LISTENERS)
 						ResourceStats.startNotify(listener);
+					long startTime = System.nanoTime();
+					long startBytes = ResourceMetrics.getAllocatedBytes();
 					SafeRunner.run(new ISafeRunnable() {
 						public void handleException(Throwable e) {
 							// exception logged in SafeRunner#run
 						}
 
 						public void run() throws Exception {
-							listener.resourceChanged(event);
+							listener.resourceChanged(listenerEvent);
 						}
 					});
+					long time = System.nanoTime() - startTime;
+					long allocated = startBytes < 0 ? -1 : ResourceMetrics.getAllocatedBytes() - startBytes;
+					metrics.listenerNotified(listener.getClass().getName(), time, countDeltaNodes(listenerEvent, listenerEvent != event), allocated);
 					if (ResourceStats.TRACE_LISTENERS)
 						ResourceStats.endNotify();
 				}
 			}
 		} finally {
+			if (pending != null)
+				waitFor(notifications, pending);
 			if (lockTree)
 				workspace.setTreeLocked(oldLock);
 		}
 	}
 
+	/**
+	 * Waits for the given notifications of concurrent listeners to complete.
+	 */
+	private void waitFor(List<ConcurrentNotification> notifications, List<Future<?>> pending) {
+		boolean interrupted = false;
+		for (int i = 0; i < pending.size(); i++) {
+			Future<?> future = pending.get(i);
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					//the tree must stay locked until all listeners are done
+					interrupted = true;
+				} catch (ExecutionException e) {
+					//exceptions of listeners are handled by the safe runner
+					Policy.log(e.getCause());
+					break;
+				}
+			}
+			if (Policy.DEBUG_NOTIFICATION) {
+				ConcurrentNotification notification = notifications.get(i);
+				Policy.debug("Notified concurrently: " + notification.listener.getClass().getName() + " in " + notification.duration + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Returns whether the current thread is notifying a concurrent listener.
+	 */
+	public static boolean isListenerThread() {
+		return Thread.currentThread() instanceof ListenerThread;
+	}
+
+	/**
+	 * Returns the number of nodes of the delta given to a listener with the
+	 * given event, which is counted once the listener has been notified. The
+	 * count of the whole delta is shared by the listeners without a scope,
+	 * while the part of the delta given to a scoped listener is counted on
+	 * its own.
+	 */
+	static int countDeltaNodes(IResourceChangeEvent event, boolean scoped) {
+		IResourceDelta delta = event.getDelta();
+		if (!(delta instanceof ResourceDelta))
+			return 0;
+		ResourceDelta resourceDelta = (ResourceDelta) delta;
+		return scoped ? resourceDelta.countNodes() : resourceDelta.getDeltaInfo().getNodeCount();
+	}
+
+	/**
+	 * Returns the event to send to a listener interested in the given scope,
+	 * or <code>null</code> if the event does not concern the scope.
+	 */
+	private IResourceChangeEvent scopedEvent(IResourceChangeEvent event, ResourceChangeScope scope) {
+		IResource resource = event.getResource();
+		IResourceDelta delta = event.getDelta();
+		if (resource != null)
+			return scope.includes(resource) ? event : null;
+		//the workspace is being refreshed
+		if (event.getType() == IResourceChangeEvent.PRE_REFRESH)
+			return event;
+		ResourceDelta selected = scope.select((ResourceDelta) delta);
+		if (selected == null)
+			return null;
+		if (selected == delta)
+			return event;
+		return new ResourceChangeEvent(event.getSource(), event.getType(), event.getBuildKind(), selected);
+	}
+
 	public void removeListener(IResourceChangeListener listener) {
 		listeners.remove(listener);
 		if (ResourceStats.TRACE_LISTENERS)
@@ -319,6 +522,11 @@ public class NotificationManager implements IManager, ILifecycleListener {
 	public void shutdown(IProgressMonitor monitor) {
 		//wipe out any existing listeners
 		listeners = new ResourceChangeListenerList();
+		synchronized (this) {
+			if (listenerExecutor != null)
+				listenerExecutor.shutdown();
+			listenerExecutor = null;
+		}
 	}
 
 	public void startup(IProgressMonitor monitor) {
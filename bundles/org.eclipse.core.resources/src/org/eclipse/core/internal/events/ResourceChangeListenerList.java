@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.internal.events;
 
+import org.eclipse.core.resources.IConcurrentResourceChangeListener;
 import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.runtime.Assert;
 
@@ -32,10 +33,25 @@ public class ResourceChangeListenerList {
 	static class ListenerEntry {
 		int eventMask;
 		IResourceChangeListener listener;
+		/**
+		 * The resources the listener is interested in, or <code>null</code>
+		 * if it is interested in the whole workspace.
+		 */
+		ResourceChangeScope scope;
+		/**
+		 * Whether the listener can be notified concurrently with others.
+		 */
+		boolean concurrent;
 
 		ListenerEntry(IResourceChangeListener listener, int eventMask) {
+			this(listener, eventMask, null);
+		}
+
+		ListenerEntry(IResourceChangeListener listener, int eventMask, ResourceChangeScope scope) {
 			this.listener = listener;
 			this.eventMask = eventMask;
+			this.scope = scope;
+			this.concurrent = listener instanceof IConcurrentResourceChangeListener;
 		}
 	}
 
@@ -64,12 +80,25 @@ public class ResourceChangeListenerList {
 	 * @param mask event types
 	 */
 	public synchronized void add(IResourceChangeListener listener, int mask) {
+		add(listener, mask, null);
+	}
+
+	/**
+	 * Adds the given listener to this list, for changes to the resources in the
+	 * given scope. Has no effect if an identical listener is already registered.
+	 *
+	 * @param listener the listener
+	 * @param mask event types
+	 * @param scope the resources of interest, or <code>null</code> for the
+	 * whole workspace
+	 */
+	public synchronized void add(IResourceChangeListener listener, int mask, ResourceChangeScope scope) {
 		Assert.isNotNull(listener);
 		if (mask == 0) {
 			remove(listener);
 			return;
 		}
-		ResourceChangeListenerList.ListenerEntry entry = new ResourceChangeListenerList.ListenerEntry(listener, mask);
+		ResourceChangeListenerList.ListenerEntry entry = new ResourceChangeListenerList.ListenerEntry(listener, mask, scope);
 		final int oldSize = listeners.length;
 		// check for duplicates using identity
 		for (int i = 0; i < oldSize; ++i) {
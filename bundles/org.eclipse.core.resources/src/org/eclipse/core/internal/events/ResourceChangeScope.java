@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.events;
+
+import java.util.*;
+import org.eclipse.core.resources.*;
+import org.eclipse.core.runtime.Assert;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * The resources whose changes are of interest to a resource change listener,
+ * and the types of resources and kinds of changes that warrant notifying it.
+ * <p>
+ * A scope selects the part of a resource delta that concerns its resources.
+ * The selected delta shares the deltas of the resources in scope with the
+ * original delta, and copies the deltas of their ancestors, so that it can be
+ * computed without visiting the rest of the original delta.
+ * </p>
+ */
+public class ResourceChangeScope {
+	/**
+	 * Orders paths segment by segment, like the children of a delta, so that
+	 * the descendents of a path immediately follow it.
+	 */
+	private static final Comparator<IPath> PATH_ORDER = new Comparator<IPath>() {
+		public int compare(IPath path1, IPath path2) {
+			int count = Math.min(path1.segmentCount(), path2.segmentCount());
+			for (int i = 0; i < count; i++) {
+				int compare = path1.segment(i).compareTo(path2.segment(i));
+				if (compare != 0)
+					return compare;
+			}
+			return path1.segmentCount() - path2.segmentCount();
+		}
+	};
+
+	private final int kindMask;
+	/**
+	 * The full paths of the resources in scope, sorted by PATH_ORDER, none of
+	 * them being a prefix of another.
+	 */
+	private final IPath[] paths;
+	private final int typeMask;
+
+	public ResourceChangeScope(IResource[] resources, int typeMask, int kindMask) {
+		Assert.isNotNull(resources);
+		IPath[] sorted = new IPath[resources.length];
+		for (int i = 0; i < resources.length; i++)
+			sorted[i] = resources[i].getFullPath();
+		Arrays.sort(sorted, PATH_ORDER);
+		// drop the paths that are covered by another one
+		List<IPath> result = new ArrayList<IPath>(sorted.length);
+		for (int i = 0; i < sorted.length; i++) {
+			if (result.isEmpty() || !result.get(result.size() - 1).isPrefixOf(sorted[i]))
+				result.add(sorted[i]);
+		}
+		this.paths = result.toArray(new IPath[result.size()]);
+		this.typeMask = typeMask;
+		this.kindMask = kindMask;
+	}
+
+	/**
+	 * Returns the child of a delta with the given name, or <code>null</code>.
+	 */
+	private static ResourceDelta findChild(ResourceDelta[] children, String name) {
+		for (int i = 0; i < children.length; i++) {
+			if (children[i].getFullPath().lastSegment().equals(name))
+				return children[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Returns whether the given resource is in scope, or is an ancestor of a
+	 * resource in scope.
+	 */
+	public boolean includes(IResource resource) {
+		IPath path = resource.getFullPath();
+		for (int i = 0; i < paths.length; i++) {
+			if (paths[i].isPrefixOf(path) || path.isPrefixOf(paths[i]))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether the given delta or one of its descendents is of a kind
+	 * and for a resource type of interest.
+	 */
+	private boolean matches(ResourceDelta delta) {
+		if ((delta.getKind() & kindMask) != 0 && (delta.getResource().getType() & typeMask) != 0)
+			return true;
+		ResourceDelta[] children = delta.getChildren();
+		for (int i = 0; i < children.length; i++) {
+			if (matches(children[i]))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the part of the given delta that concerns the resources in
+	 * scope, or <code>null</code> if it has no changes of interest.
+	 */
+	public ResourceDelta select(ResourceDelta delta) {
+		if (delta == null || paths.length == 0)
+			return null;
+		return select(delta, 0, 0, paths.length);
+	}
+
+	/**
+	 * Selects the part of the given delta that concerns the paths in the given
+	 * range, which all start with the path of the delta.
+	 */
+	private ResourceDelta select(ResourceDelta delta, int depth, int start, int end) {
+		if (paths[start].segmentCount() == depth)
+			return matches(delta) ? delta : null;
+		ResourceDelta[] children = delta.getChildren();
+		List<ResourceDelta> selected = null;
+		while (start < end) {
+			// the paths through the same child are next to each other
+			String name = paths[start].segment(depth);
+			int next = start + 1;
+			while (next < end && name.equals(paths[next].segment(depth)))
+				next++;
+			ResourceDelta child = findChild(children, name);
+			if (child != null)
+				child = select(child, depth + 1, start, next);
+			if (child != null) {
+				if (selected == null)
+					selected = new ArrayList<ResourceDelta>(next - start);
+				selected.add(child);
+			}
+			start = next;
+		}
+		if (selected == null)
+			return null;
+		return delta.copyWithChildren(selected.toArray(new ResourceDelta[selected.size()]));
+	}
+}
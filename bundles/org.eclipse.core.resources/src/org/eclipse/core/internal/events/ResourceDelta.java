@@ -13,6 +13,7 @@ package org.eclipse.core.internal.events;
 
 import java.util.Iterator;
 import java.util.Map;
+import org.eclipse.core.internal.dtree.DataTreeNode;
 import org.eclipse.core.internal.resources.*;
 import org.eclipse.core.internal.watson.ElementTree;
 import org.eclipse.core.resources.*;
@@ -22,6 +23,11 @@ import org.eclipse.core.runtime.*;
  * Concrete implementation of the IResourceDelta interface.  Each ResourceDelta
  * object represents changes that have occurred between two states of the
  * resource tree.
+ * <p>
+ * Deltas are created lazily from the delta tree describing the changes: the
+ * children of a delta are only created when first asked for, and moves are
+ * only computed when the flags or move paths of a delta are first asked for.
+ * </p>
  */
 public class ResourceDelta extends PlatformObject implements IResourceDelta {
 	protected IPath path;
@@ -29,7 +35,11 @@ public class ResourceDelta extends PlatformObject implements IResourceDelta {
 	protected int status;
 	protected ResourceInfo oldInfo;
 	protected ResourceInfo newInfo;
-	protected ResourceDelta[] children;
+	protected volatile ResourceDelta[] children;
+	// the node of the delta tree to create the children from, until they are created
+	private DataTreeNode deltaNode;
+	// whether the flags have been fixed up to reflect moves
+	private volatile boolean movesChecked;
 	// don't aggressively set this, but cache it if called once
 	protected IResource cachedResource;
 
@@ -68,6 +78,7 @@ public class ResourceDelta extends PlatformObject implements IResourceDelta {
 			return;
 		if (!visitor.visit(this))
 			return;
+		ResourceDelta[] children = getChildren();
 		for (int i = 0; i < children.length; i++) {
 			ResourceDelta childDelta = children[i];
 			// quietly exclude team-private, hidden and phantom members unless explicitly included
@@ -102,6 +113,41 @@ public class ResourceDelta extends PlatformObject implements IResourceDelta {
 		}
 	}
 
+	/**
+	 * Returns a copy of this delta with the given children in place of its own.
+	 */
+	protected ResourceDelta copyWithChildren(ResourceDelta[] newChildren) {
+		ResourceDelta copy = new ResourceDelta(path, deltaInfo);
+		copy.oldInfo = oldInfo;
+		copy.newInfo = newInfo;
+		copy.cachedResource = cachedResource;
+		copy.children = newChildren;
+		synchronized (this) {
+			copy.status = status;
+			copy.movesChecked = movesChecked;
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns the number of deltas in the tree rooted at this delta, without
+	 * creating the children that have not been created yet.
+	 */
+	protected int countNodes() {
+		ResourceDelta[] created;
+		DataTreeNode node;
+		synchronized (this) {
+			created = children;
+			node = deltaNode;
+		}
+		if (created == null)
+			return node == null ? 1 : ResourceDeltaInfo.countNodes(node);
+		int count = 1;
+		for (int i = 0; i < created.length; i++)
+			count += created[i].countNodes();
+		return count;
+	}
+
 	/**
 	 * @see IResourceDelta#findMember(IPath)
 	 */
@@ -113,7 +159,7 @@ public class ResourceDelta extends PlatformObject implements IResourceDelta {
 		//iterate over the path and find matching child delta
 		ResourceDelta current = this;
 		segments: for (int i = 0; i < segmentCount; i++) {
-			IResourceDelta[] currentChildren = current.children;
+			IResourceDelta[] currentChildren = current.getChildren();
 			for (int j = 0, jmax = currentChildren.length; j < jmax; j++) {
 				if (currentChildren[j].getFullPath().lastSegment().equals(path.segment(i))) {
 					current = (ResourceDelta) currentChildren[j];
@@ -127,55 +173,66 @@ public class ResourceDelta extends PlatformObject implements IResourceDelta {
 	}
 
 	/**
-	 * Delta information on moves and on marker deltas can only be computed after
-	 * the delta has been built.  This method fixes up the delta to accurately
-	 * reflect moves (setting MOVED_FROM and MOVED_TO), and marker changes on
-	 * added and removed resources.
+	 * Delta information on moves can only be computed once the whole delta is
+	 * known.  This method fixes up the delta to accurately reflect moves (setting
+	 * MOVED_FROM and MOVED_TO).  It is called on demand, the first time the flags
+	 * or the move paths of this delta are asked for.
 	 */
-	protected void fixMovesAndMarkers(ElementTree oldTree) {
-		NodeIDMap nodeIDMap = deltaInfo.getNodeIDMap();
-		if (!path.isRoot() && !nodeIDMap.isEmpty()) {
-			int kind = getKind();
-			switch (kind) {
-				case CHANGED :
-				case ADDED :
-					IPath oldPath = nodeIDMap.getOldPath(newInfo.getNodeId());
-					if (oldPath != null && !oldPath.equals(path)) {
-						//get the old info from the old tree
-						ResourceInfo actualOldInfo = (ResourceInfo) oldTree.getElementData(oldPath);
-						// Replace change flags by comparing old info with new info,
-						// Note that we want to retain the kind flag, but replace all other flags
-						// This is done only for MOVED_FROM, not MOVED_TO, since a resource may be both.
-						status = (status & KIND_MASK) | (deltaInfo.getComparator().compare(actualOldInfo, newInfo) & ~KIND_MASK);
-						status |= MOVED_FROM;
-						//our API states that MOVED_FROM must be in conjunction with ADDED | (CHANGED + REPLACED)
-						if (kind == CHANGED)
-							status = status | REPLACED | CONTENT;
-						//check for gender change
-						if (oldInfo != null && newInfo != null && oldInfo.getType() != newInfo.getType())
-							status |= TYPE;
-					}
-			}
-			switch (kind) {
-				case REMOVED :
-				case CHANGED :
-					IPath newPath = nodeIDMap.getNewPath(oldInfo.getNodeId());
-					if (newPath != null && !newPath.equals(path)) {
-						status |= MOVED_TO;
-						//our API states that MOVED_TO must be in conjunction with REMOVED | (CHANGED + REPLACED)
-						if (kind == CHANGED)
-							status = status | REPLACED | CONTENT;
-					}
-			}
+	protected void checkForMoves() {
+		if (movesChecked)
+			return;
+		synchronized (this) {
+			if (movesChecked)
+				return;
+			fixMoves();
+			movesChecked = true;
 		}
+	}
 
-		//check for marker deltas -- this is affected by move computation
-		//so must happen afterwards
-		checkForMarkerDeltas();
-
-		//recurse on children
-		for (int i = 0; i < children.length; i++)
-			children[i].fixMovesAndMarkers(oldTree);
+	private void fixMoves() {
+		if (path.isRoot())
+			return;
+		int kind = getKind();
+		if (kind != CHANGED && kind != ADDED && kind != REMOVED)
+			return;
+		NodeIDMap nodeIDMap = deltaInfo.getNodeIDMap();
+		if (nodeIDMap.isEmpty())
+			return;
+		switch (kind) {
+			case CHANGED :
+			case ADDED :
+				IPath oldPath = nodeIDMap.getOldPath(newInfo.getNodeId());
+				if (oldPath != null && !oldPath.equals(path)) {
+					//get the old info from the old tree
+					ResourceInfo actualOldInfo = (ResourceInfo) deltaInfo.getOldTree().getElementData(oldPath);
+					// Replace change flags by comparing old info with new info,
+					// Note that we want to retain the kind flag, but replace all other flags
+					// This is done only for MOVED_FROM, not MOVED_TO, since a resource may be both.
+					status = (status & KIND_MASK) | (deltaInfo.getComparator().compare(actualOldInfo, newInfo) & ~KIND_MASK);
+					status |= MOVED_FROM;
+					//our API states that MOVED_FROM must be in conjunction with ADDED | (CHANGED + REPLACED)
+					if (kind == CHANGED)
+						status = status | REPLACED | CONTENT;
+					//check for gender change
+					if (oldInfo != null && newInfo != null && oldInfo.getType() != newInfo.getType())
+						status |= TYPE;
+					//the flags set after the delta was created have been replaced, so check again
+					checkForMarkerDeltas();
+					if (path.segmentCount() == 1)
+						ResourceDeltaFactory.checkForOpen(this, 1);
+				}
+		}
+		switch (kind) {
+			case REMOVED :
+			case CHANGED :
+				IPath newPath = nodeIDMap.getNewPath(oldInfo.getNodeId());
+				if (newPath != null && !newPath.equals(path)) {
+					status |= MOVED_TO;
+					//our API states that MOVED_TO must be in conjunction with REMOVED | (CHANGED + REPLACED)
+					if (kind == CHANGED)
+						status = status | REPLACED | CONTENT;
+				}
+		}
 	}
 
 	/**
@@ -196,6 +253,7 @@ public class ResourceDelta extends PlatformObject implements IResourceDelta {
 	 * @see IResourceDelta#getAffectedChildren(int, int)
 	 */
 	public IResourceDelta[] getAffectedChildren(int kindMask, int memberFlags) {
+		ResourceDelta[] children = getChildren();
 		int numChildren = children.length;
 		//if there are no children, they all match
 		if (numChildren == 0)
@@ -243,6 +301,22 @@ public class ResourceDelta extends PlatformObject implements IResourceDelta {
 		return result;
 	}
 
+	/**
+	 * Returns the children of this delta, creating them if necessary.
+	 */
+	protected ResourceDelta[] getChildren() {
+		ResourceDelta[] result = children;
+		if (result != null)
+			return result;
+		synchronized (this) {
+			if (children == null) {
+				children = ResourceDeltaFactory.createChildren(this, deltaNode);
+				deltaNode = null;
+			}
+			return children;
+		}
+	}
+
 	protected ResourceDeltaInfo getDeltaInfo() {
 		return deltaInfo;
 	}
@@ -251,6 +325,7 @@ public class ResourceDelta extends PlatformObject implements IResourceDelta {
 	 * @see IResourceDelta#getFlags()
 	 */
 	public int getFlags() {
+		checkForMoves();
 		return status & ~KIND_MASK;
 	}
 
@@ -291,6 +366,7 @@ public class ResourceDelta extends PlatformObject implements IResourceDelta {
 	 * @see IResourceDelta#getMovedFromPath()
 	 */
 	public IPath getMovedFromPath() {
+		checkForMoves();
 		if ((status & MOVED_FROM) != 0) {
 			return deltaInfo.getNodeIDMap().getOldPath(newInfo.getNodeId());
 		}
@@ -301,6 +377,7 @@ public class ResourceDelta extends PlatformObject implements IResourceDelta {
 	 * @see IResourceDelta#getMovedToPath()
 	 */
 	public IPath getMovedToPath() {
+		checkForMoves();
 		if ((status & MOVED_TO) != 0) {
 			return deltaInfo.getNodeIDMap().getNewPath(oldInfo.getNodeId());
 		}
@@ -381,6 +458,14 @@ public class ResourceDelta extends PlatformObject implements IResourceDelta {
 		this.children = children;
 	}
 
+	/**
+	 * Sets the node of the delta tree to create the children of this delta from.
+	 */
+	protected void setDeltaNode(DataTreeNode node) {
+		this.deltaNode = node;
+		this.children = null;
+	}
+
 	protected void setNewInfo(ResourceInfo newInfo) {
 		this.newInfo = newInfo;
 	}
@@ -410,6 +495,7 @@ public class ResourceDelta extends PlatformObject implements IResourceDelta {
 	public String toDeepDebugString() {
 		final StringBuffer buffer = new StringBuffer("\n"); //$NON-NLS-1$
 		writeDebugString(buffer);
+		ResourceDelta[] children = getChildren();
 		for (int i = 0; i < children.length; ++i)
 			buffer.append(children[i].toDeepDebugString());
 		return buffer.toString();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,8 +12,7 @@
 package org.eclipse.core.internal.events;
 
 import java.util.Map;
-import org.eclipse.core.internal.dtree.DeltaDataTree;
-import org.eclipse.core.internal.dtree.NodeComparison;
+import org.eclipse.core.internal.dtree.*;
 import org.eclipse.core.internal.resources.*;
 import org.eclipse.core.internal.watson.ElementTree;
 import org.eclipse.core.resources.IProject;
@@ -38,31 +37,64 @@ public class ResourceDeltaFactory {
 	 * if marker deltas should not be provided.
 	 */
 	public static ResourceDelta computeDelta(Workspace workspace, ElementTree oldTree, ElementTree newTree, IPath root, long markerGeneration) {
+		return computeDelta(workspace, oldTree, newTree, root, markerGeneration, false);
+	}
+
+	/**
+	 * Returns the resource delta representing the changes made between the given old and new trees,
+	 * starting from the given root element. If parallel is true, the trees of separate projects,
+	 * and of folders with many members, are compared concurrently.
+	 * @param markerGeneration the start generation for which deltas should be computed, or -1
+	 * if marker deltas should not be provided.
+	 */
+	public static ResourceDelta computeDelta(Workspace workspace, ElementTree oldTree, ElementTree newTree, IPath root, long markerGeneration, boolean parallel) {
 		//compute the underlying delta tree.
 		ResourceComparator comparator = markerGeneration >= 0 ? ResourceComparator.getNotificationComparator() : ResourceComparator.getBuildComparator();
 		newTree.immutable();
 		DeltaDataTree delta = null;
 		if (Path.ROOT.equals(root))
-			delta = newTree.getDataTree().compareWith(oldTree.getDataTree(), comparator);
+			delta = newTree.getDataTree().compareWith(oldTree.getDataTree(), comparator, parallel);
 		else
-			delta = newTree.getDataTree().compareWith(oldTree.getDataTree(), comparator, root);
-
-		delta = delta.asReverseComparisonTree(comparator);
-		IPath pathInTree = root.isRoot() ? Path.ROOT : root;
-		IPath pathInDelta = Path.ROOT;
+			delta = newTree.getDataTree().compareWith(oldTree.getDataTree(), comparator, root, parallel);
 
 		// get the marker deltas for the delta info object....if needed
 		Map<IPath, MarkerSet> allMarkerDeltas = null;
 		if (markerGeneration >= 0)
 			allMarkerDeltas = workspace.getMarkerManager().getMarkerDeltas(markerGeneration);
+		return createDelta(workspace, oldTree, newTree, root, delta, comparator, allMarkerDeltas);
+	}
 
-		//recursively walk the delta and create a tree of ResourceDelta objects.
-		ResourceDeltaInfo deltaInfo = new ResourceDeltaInfo(workspace, allMarkerDeltas, comparator);
-		ResourceDelta result = createDelta(workspace, delta, deltaInfo, pathInTree, pathInDelta);
+	/**
+	 * Returns the resource delta representing the changes made between the given old and new trees,
+	 * starting from the given project, for build purposes. The trees are only compared at the given
+	 * changed paths, which must include all the paths at which the trees differ in that project.
+	 */
+	public static ResourceDelta computeDelta(Workspace workspace, ElementTree oldTree, ElementTree newTree, IPath root, ChangeJournal.Changes changes) {
+		ResourceComparator comparator = ResourceComparator.getBuildComparator();
+		newTree.immutable();
+		DeltaDataTree delta = newTree.getDataTree().compareWith(oldTree.getDataTree(), comparator, root, changes.nodes, changes.subtrees);
+		return createDelta(workspace, oldTree, newTree, root, delta, comparator, null);
+	}
+
+	/**
+	 * Returns the resource delta for the given comparison of the new tree with the old tree.
+	 */
+	private static ResourceDelta createDelta(Workspace workspace, ElementTree oldTree, ElementTree newTree, IPath root, DeltaDataTree delta, ResourceComparator comparator, Map<IPath, MarkerSet> allMarkerDeltas) {
+		delta = delta.asReverseComparisonTree(comparator);
+		IPath pathInTree = root.isRoot() ? Path.ROOT : root;
 
-		//compute node ID map and fix up moves
-		deltaInfo.setNodeIDMap(computeNodeIDMap(result, new NodeIDMap()));
-		result.fixMovesAndMarkers(oldTree);
+		//create the root of the tree of ResourceDelta objects. Child deltas are created on
+		//demand from the underlying delta tree, and moves are only computed when asked for
+		DataTreeNode rootNode = (DataTreeNode) delta.findNodeAt(Path.ROOT);
+		ResourceDeltaInfo deltaInfo = new ResourceDeltaInfo(workspace, allMarkerDeltas, comparator);
+		deltaInfo.setTrees(oldTree, rootNode, pathInTree);
+		ResourceDelta result = createDelta(deltaInfo, rootNode, pathInTree);
+		if (pathInTree.isRoot()) {
+			//the delta tree has no data for the workspace root
+			ResourceInfo info = (ResourceInfo) newTree.getTreeData();
+			result.setOldInfo(info);
+			result.setNewInfo(info);
+		}
 
 		// check all the projects and if they were added and opened then tweek the flags
 		// so the delta reports both.
@@ -85,87 +117,168 @@ public class ResourceDeltaFactory {
 		if (segmentCount == 1)
 			return;
 		// recurse for ROOT
-		IResourceDelta[] children = delta.children;
+		ResourceDelta[] children = delta.getChildren();
 		for (int i = 0; i < children.length; i++)
-			checkForOpen((ResourceDelta) children[i], 1);
+			checkForOpen(children[i], 1);
 	}
 
 	/**
-	 * Creates the map from node id to element id for the old and new states.
+	 * Creates the map from node id to element id for the old and new states,
+	 * for the descendents of the given node of a delta tree at the given path.
 	 * Used for recognizing moves.  Returns the map.
+	 * <p>
+	 * Only nodes that have been both removed and added can have been moved, so
+	 * the removed node IDs are gathered in a filter first, and only the nodes
+	 * that pass the filter are added to the map.  Nothing is added to the map
+	 * if no node has been removed.
+	 * </p>
 	 */
-	protected static NodeIDMap computeNodeIDMap(ResourceDelta delta, NodeIDMap nodeIDMap) {
-		IResourceDelta[] children = delta.children;
+	protected static NodeIDMap computeNodeIDMap(AbstractDataTreeNode node, IPath path, NodeIDMap nodeIDMap) {
+		addRemovedIDs(node, nodeIDMap);
+		if (!nodeIDMap.hasRemovedIDs())
+			return nodeIDMap;
+		String[] names = addPaths(node, path, new String[8], 0, nodeIDMap, true);
+		if (!nodeIDMap.isEmpty())
+			addPaths(node, path, names, 0, nodeIDMap, false);
+		return nodeIDMap;
+	}
+
+	/**
+	 * Adds the IDs of the removed descendents of the given node to the filter
+	 * of the given map.
+	 */
+	private static void addRemovedIDs(AbstractDataTreeNode node, NodeIDMap nodeIDMap) {
+		AbstractDataTreeNode[] children = node.getChildren();
+		for (int i = 0; i < children.length; i++) {
+			AbstractDataTreeNode child = children[i];
+			NodeComparison compare = (NodeComparison) ((DataTreeNode) child).getData();
+			switch (compare.getUserComparison() & ResourceDelta.KIND_MASK) {
+				case IResourceDelta.REMOVED :
+					nodeIDMap.addRemovedID(((ResourceInfo) compare.getOldData()).getNodeId());
+					break;
+				case IResourceDelta.CHANGED :
+					long oldID = ((ResourceInfo) compare.getOldData()).getNodeId();
+					if (oldID != ((ResourceInfo) compare.getNewData()).getNodeId())
+						nodeIDMap.addRemovedID(oldID);
+					break;
+			}
+			addRemovedIDs(child, nodeIDMap);
+		}
+	}
+
+	/**
+	 * Adds the paths of the descendents of the given node to the given map:
+	 * the new paths of the added nodes that may have been removed, or the old
+	 * paths of the removed nodes that have a new path. The names of the nodes
+	 * from the given path to the given node are held in the given array, which
+	 * is returned, grown if needed.
+	 */
+	private static String[] addPaths(AbstractDataTreeNode node, IPath path, String[] names, int depth, NodeIDMap nodeIDMap, boolean newPaths) {
+		AbstractDataTreeNode[] children = node.getChildren();
+		if (children.length == 0)
+			return names;
+		if (depth == names.length) {
+			String[] grown = new String[depth * 2];
+			System.arraycopy(names, 0, grown, 0, depth);
+			names = grown;
+		}
 		for (int i = 0; i < children.length; i++) {
-			ResourceDelta child = (ResourceDelta) children[i];
-			IPath path = child.getFullPath();
-			switch (child.getKind()) {
+			AbstractDataTreeNode child = children[i];
+			names[depth] = child.getName();
+			NodeComparison compare = (NodeComparison) ((DataTreeNode) child).getData();
+			long id = 0;
+			switch (compare.getUserComparison() & ResourceDelta.KIND_MASK) {
 				case IResourceDelta.ADDED :
-					nodeIDMap.putNewPath(child.newInfo.getNodeId(), path);
+					if (newPaths)
+						id = ((ResourceInfo) compare.getNewData()).getNodeId();
 					break;
 				case IResourceDelta.REMOVED :
-					nodeIDMap.putOldPath(child.oldInfo.getNodeId(), path);
+					if (!newPaths)
+						id = ((ResourceInfo) compare.getOldData()).getNodeId();
 					break;
 				case IResourceDelta.CHANGED :
-					long oldID = child.oldInfo.getNodeId();
-					long newID = child.newInfo.getNodeId();
+					long oldID = ((ResourceInfo) compare.getOldData()).getNodeId();
+					long newID = ((ResourceInfo) compare.getNewData()).getNodeId();
 					//don't add entries to the map if nothing has changed.
-					if (oldID != newID) {
-						nodeIDMap.putOldPath(oldID, path);
-						nodeIDMap.putNewPath(newID, path);
-					}
+					if (oldID != newID)
+						id = newPaths ? newID : oldID;
 					break;
 			}
+			if (id != 0) {
+				if (newPaths && nodeIDMap.mayBeRemovedID(id))
+					nodeIDMap.putNewPath(id, pathOf(path, names, depth + 1));
+				else if (!newPaths && nodeIDMap.containsID(id))
+					nodeIDMap.putOldPath(id, pathOf(path, names, depth + 1));
+			}
 			//recurse
-			computeNodeIDMap(child, nodeIDMap);
+			names = addPaths(child, path, names, depth + 1, nodeIDMap, newPaths);
 		}
-		return nodeIDMap;
+		return names;
 	}
 
 	/**
-	 * Recursively creates the tree of ResourceDelta objects rooted at
-	 * the given path.
+	 * Returns the given path with the given number of names appended.
 	 */
-	protected static ResourceDelta createDelta(Workspace workspace, DeltaDataTree delta, ResourceDeltaInfo deltaInfo, IPath pathInTree, IPath pathInDelta) {
+	private static IPath pathOf(IPath path, String[] names, int count) {
+		for (int i = 0; i < count; i++)
+			path = path.append(names[i]);
+		return path;
+	}
+
+	/**
+	 * Creates the ResourceDelta object for the given node of a delta tree, at
+	 * the given path. The children of the delta are created on demand.
+	 */
+	protected static ResourceDelta createDelta(ResourceDeltaInfo deltaInfo, DataTreeNode node, IPath path) {
 		// create the delta and fill it with information
-		ResourceDelta result = new ResourceDelta(pathInTree, deltaInfo);
+		ResourceDelta result = new ResourceDelta(path, deltaInfo);
 
 		// fill the result with information
-		NodeComparison compare = (NodeComparison) delta.getData(pathInDelta);
+		NodeComparison compare = (NodeComparison) node.getData();
 		int comparison = compare.getUserComparison();
 		result.setStatus(comparison);
-		if (comparison == IResourceDelta.NO_CHANGE || Path.ROOT.equals(pathInTree)) {
-			ResourceInfo info = workspace.getResourceInfo(pathInTree, true, false);
+		if (comparison == IResourceDelta.NO_CHANGE) {
+			//the delta tree holds the infos, so the trees are not read when
+			//children are created later, by which time the new tree may have changed
+			ResourceInfo info = (ResourceInfo) compare.getNewData();
 			result.setOldInfo(info);
 			result.setNewInfo(info);
 		} else {
 			result.setOldInfo((ResourceInfo) compare.getOldData());
 			result.setNewInfo((ResourceInfo) compare.getNewData());
 		}
-		// recurse over the children
-		IPath[] childKeys = delta.getChildren(pathInDelta);
-		int numChildren = childKeys.length;
-		if (numChildren == 0) {
+		int numChildren = node.getChildren().length;
+		if (numChildren == 0)
 			result.setChildren(NO_CHILDREN);
-		} else {
-			ResourceDelta[] children = new ResourceDelta[numChildren];
-			for (int i = 0; i < numChildren; i++) {
-				//reuse the delta path if tree-relative and delta-relative are the same
-				IPath newTreePath = pathInTree == pathInDelta ? childKeys[i] : pathInTree.append(childKeys[i].lastSegment());
-				children[i] = createDelta(workspace, delta, deltaInfo, newTreePath, childKeys[i]);
-			}
-			result.setChildren(children);
-		}
+		else
+			result.setDeltaNode(node);
 
 		// if this delta has children but no other changes, mark it as changed
 		int status = result.status;
 		if ((status & IResourceDelta.ALL_WITH_PHANTOMS) == 0 && numChildren != 0)
 			result.setStatus(status |= IResourceDelta.CHANGED);
 
-		// return the delta
+		//check for marker deltas -- moves are computed later, and will check again
+		result.checkForMarkerDeltas();
 		return result;
 	}
 
+	/**
+	 * Creates the ResourceDelta objects for the children of the given node of
+	 * a delta tree, which is the node of the given delta.
+	 */
+	protected static ResourceDelta[] createChildren(ResourceDelta delta, DataTreeNode node) {
+		AbstractDataTreeNode[] childNodes = node.getChildren();
+		int numChildren = childNodes.length;
+		if (numChildren == 0)
+			return NO_CHILDREN;
+		IPath path = delta.getFullPath();
+		ResourceDelta[] children = new ResourceDelta[numChildren];
+		for (int i = 0; i < numChildren; i++)
+			children[i] = createDelta(delta.getDeltaInfo(), (DataTreeNode) childNodes[i], path.append(childNodes[i].getName()));
+		return children;
+	}
+
 	/**
 	 * Returns an empty build delta describing the fact that no
 	 * changes occurred in the given project.  The returned delta
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,8 +12,11 @@
 package org.eclipse.core.internal.events;
 
 import java.util.Map;
+import org.eclipse.core.internal.dtree.AbstractDataTreeNode;
+import org.eclipse.core.internal.dtree.DataTreeNode;
 import org.eclipse.core.internal.resources.MarkerSet;
 import org.eclipse.core.internal.resources.Workspace;
+import org.eclipse.core.internal.watson.ElementTree;
 import org.eclipse.core.runtime.IPath;
 
 public class ResourceDeltaInfo {
@@ -21,6 +24,22 @@ public class ResourceDeltaInfo {
 	protected Map<IPath, MarkerSet> allMarkerDeltas;
 	protected NodeIDMap nodeIDMap;
 	protected ResourceComparator comparator;
+	protected ElementTree oldTree;
+	/**
+	 * The root of the delta tree the deltas are created from, and its path.
+	 * Used to compute the node ID map on demand.
+	 */
+	protected DataTreeNode rootNode;
+	protected IPath rootPath;
+	/**
+	 * Whether the map used for recognizing moves has been released: a map
+	 * computed from now on is not taken from the pool.
+	 */
+	private boolean released;
+	/**
+	 * The number of nodes of the delta tree, or -1 if not counted yet.
+	 */
+	private int nodeCount = -1;
 
 	public ResourceDeltaInfo(Workspace workspace, Map<IPath, MarkerSet> markerDeltas, ResourceComparator comparator) {
 		super();
@@ -40,10 +59,44 @@ public class ResourceDeltaInfo {
 		return allMarkerDeltas;
 	}
 
-	public NodeIDMap getNodeIDMap() {
+	/**
+	 * Returns the map used for recognizing moves, computing it from the
+	 * delta tree on first access.
+	 */
+	public synchronized NodeIDMap getNodeIDMap() {
+		if (nodeIDMap == null) {
+			nodeIDMap = released ? new NodeIDMap() : NodeIDMap.acquire();
+			if (rootNode != null)
+				ResourceDeltaFactory.computeNodeIDMap(rootNode, rootPath, nodeIDMap);
+		}
 		return nodeIDMap;
 	}
 
+	/**
+	 * Returns the number of nodes of the delta tree, counting them on first
+	 * access.
+	 */
+	public synchronized int getNodeCount() {
+		if (nodeCount < 0)
+			nodeCount = rootNode == null ? 0 : countNodes(rootNode);
+		return nodeCount;
+	}
+
+	/**
+	 * Returns the number of nodes of the delta tree rooted at the given node.
+	 */
+	static int countNodes(AbstractDataTreeNode node) {
+		int count = 1;
+		AbstractDataTreeNode[] children = node.getChildren();
+		for (int i = 0; i < children.length; i++)
+			count += countNodes(children[i]);
+		return count;
+	}
+
+	public ElementTree getOldTree() {
+		return oldTree;
+	}
+
 	public Workspace getWorkspace() {
 		return workspace;
 	}
@@ -52,7 +105,34 @@ public class ResourceDeltaInfo {
 		allMarkerDeltas = value;
 	}
 
-	public void setNodeIDMap(NodeIDMap map) {
+	public synchronized void setNodeIDMap(NodeIDMap map) {
 		nodeIDMap = map;
 	}
+
+	/**
+	 * Releases the map used for recognizing moves, if it has been computed,
+	 * for reuse by other deltas. Clients may keep the deltas after the
+	 * notification, so the entries of the map are kept in a copy sized for
+	 * them, and a map is still computed if the moves are asked for later.
+	 */
+	public synchronized void releaseNodeIDMap() {
+		released = true;
+		if (nodeIDMap != null) {
+			NodeIDMap map = nodeIDMap;
+			nodeIDMap = map.copy();
+			map.release();
+		}
+	}
+
+	/**
+	 * Sets the old tree compared by the delta, and the root of the delta tree
+	 * describing the differences, at the given path. The new tree is not kept,
+	 * since it may still be modified while the delta is in use: the delta tree
+	 * holds the resource infos of both trees.
+	 */
+	public void setTrees(ElementTree oldTree, DataTreeNode rootNode, IPath rootPath) {
+		this.oldTree = oldTree;
+		this.rootNode = rootNode;
+		this.rootPath = rootPath;
+	}
 }
@@ -0,0 +1,435 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.events;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.*;
+import org.eclipse.core.internal.resources.IManager;
+import org.eclipse.core.internal.utils.Policy;
+import org.eclipse.core.internal.watson.ElementTree;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Always-on counters of the invocations of builders, keyed by builder ID, and
+ * of resource change listeners, keyed by listener class name. Unlike
+ * {@link ResourceStats}, which needs tracing options, the counters are kept
+ * at all times, so that slow builders and listeners can be found in
+ * production.
+ * <p>
+ * For each builder and listener, the number of invocations, their total and
+ * maximum duration, a histogram of their durations in fixed buckets, the
+ * number of delta nodes they were given, and the bytes they allocated are
+ * counted. Allocations are only counted when the virtual machine supports
+ * measuring the memory allocated by a thread.
+ * </p>
+ * <p>
+ * The hits and misses of the caches of element tree lookups, which are
+ * counted by {@link ElementTree}, are also reported, as are the depths of the
+ * delta chains of the trees kept by the workspace, and their compactions.
+ * </p>
+ * <p>
+ * The counters are also registered as a JMX MBean named
+ * {@value #OBJECT_NAME} when the system property {@value #PROP_JMX} is
+ * <code>true</code>.
+ * </p>
+ */
+public class ResourceMetrics implements IManager, ResourceMetricsMBean {
+	/**
+	 * The counters of a builder or listener.
+	 */
+	public static class Counters {
+		private final String name;
+		private long count;
+		private long totalTime;
+		private long maxTime;
+		private long deltaNodes;
+		private long allocatedBytes = -1;
+		private final long[] histogram = new long[BUCKET_BOUNDS.length + 1];
+
+		Counters(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Returns the number of bytes allocated by all invocations, or -1 if
+		 * allocations are not measured.
+		 */
+		public synchronized long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * Returns the number of invocations.
+		 */
+		public synchronized long getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the number of delta nodes given to all invocations.
+		 */
+		public synchronized long getDeltaNodes() {
+			return deltaNodes;
+		}
+
+		/**
+		 * Returns the number of invocations in each bucket of durations.
+		 * @see ResourceMetrics#getBucketBounds()
+		 */
+		public synchronized long[] getHistogram() {
+			return histogram.clone();
+		}
+
+		/**
+		 * Returns the maximum duration of an invocation, in milliseconds.
+		 */
+		public synchronized long getMaxTime() {
+			return maxTime / 1000000;
+		}
+
+		/**
+		 * Returns the builder ID or listener class name these counters are for.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the total duration of all invocations, in milliseconds.
+		 */
+		public synchronized long getTotalTime() {
+			return totalTime / 1000000;
+		}
+
+		synchronized void record(long time, int nodes, long bytes) {
+			count++;
+			totalTime += time;
+			maxTime = Math.max(maxTime, time);
+			deltaNodes += nodes;
+			if (bytes >= 0)
+				allocatedBytes = Math.max(allocatedBytes, 0) + bytes;
+			long millis = time / 1000000;
+			int bucket = 0;
+			while (bucket < BUCKET_BOUNDS.length && millis >= BUCKET_BOUNDS[bucket])
+				bucket++;
+			histogram[bucket]++;
+		}
+
+		public synchronized String toString() {
+			StringBuffer buffer = new StringBuffer(name);
+			buffer.append(": count=").append(count); //$NON-NLS-1$
+			buffer.append(" time=").append(totalTime / 1000000).append("ms"); //$NON-NLS-1$ //$NON-NLS-2$
+			buffer.append(" max=").append(maxTime / 1000000).append("ms"); //$NON-NLS-1$ //$NON-NLS-2$
+			buffer.append(" deltaNodes=").append(deltaNodes); //$NON-NLS-1$
+			if (allocatedBytes >= 0)
+				buffer.append(" allocated=").append(allocatedBytes); //$NON-NLS-1$
+			buffer.append(" histogram=").append(Arrays.toString(histogram)); //$NON-NLS-1$
+			return buffer.toString();
+		}
+	}
+
+	/**
+	 * The exclusive upper bounds, in milliseconds, of the buckets of the
+	 * histograms of durations. The last bucket has no upper bound.
+	 */
+	static final long[] BUCKET_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+	/**
+	 * The name of the MBean of the counters.
+	 */
+	public static final String OBJECT_NAME = "org.eclipse.core.resources:type=ResourceMetrics"; //$NON-NLS-1$
+
+	/**
+	 * The system property enabling the registration of the MBean.
+	 */
+	public static final String PROP_JMX = "org.eclipse.core.resources.metrics.jmx"; //$NON-NLS-1$
+
+	/**
+	 * The thread bean, and its method measuring the memory allocated by a
+	 * thread, or <code>null</code> if not supported by this virtual machine.
+	 */
+	private static final ThreadMXBean threadBean;
+	private static final Method threadAllocatedBytes;
+
+	static {
+		ThreadMXBean bean = null;
+		Method method = null;
+		try {
+			bean = ManagementFactory.getThreadMXBean();
+			Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean"); //$NON-NLS-1$
+			if (beanClass.isInstance(bean)) {
+				Method supported = beanClass.getMethod("isThreadAllocatedMemorySupported"); //$NON-NLS-1$
+				Method enabled = beanClass.getMethod("isThreadAllocatedMemoryEnabled"); //$NON-NLS-1$
+				if (((Boolean) supported.invoke(bean)).booleanValue() && ((Boolean) enabled.invoke(bean)).booleanValue())
+					method = beanClass.getMethod("getThreadAllocatedBytes", long.class); //$NON-NLS-1$
+			}
+		} catch (Exception e) {
+			//allocations are not measured
+		} catch (LinkageError e) {
+			//allocations are not measured
+		}
+		threadBean = bean;
+		threadAllocatedBytes = method;
+	}
+
+	private final ConcurrentMap<String, Counters> builders = new ConcurrentHashMap<String, Counters>();
+	private final ConcurrentMap<String, Counters> listeners = new ConcurrentHashMap<String, Counters>();
+	/**
+	 * The name of the registered MBean, or <code>null</code>.
+	 */
+	private ObjectName registeredName;
+
+	/**
+	 * The counters of the depths of the delta chains of kept trees, guarded
+	 * by <code>treeCounters</code>. The depths are those of the deepest kept
+	 * tree.
+	 */
+	private final Object treeCounters = new Object();
+	private long treeChecks;
+	private int lastTreeDepth;
+	private int maxTreeDepth;
+	private long treeCompactions;
+	private long compactedTrees;
+	private int compactedTreeDepth;
+	private long compactionTime;
+
+	/**
+	 * Returns the exclusive upper bounds, in milliseconds, of the buckets of
+	 * the histograms of durations. The last bucket has no upper bound.
+	 */
+	public static long[] getBucketBounds() {
+		return BUCKET_BOUNDS.clone();
+	}
+
+	/**
+	 * Returns the number of bytes allocated so far by the current thread, or
+	 * -1 if allocations are not measured.
+	 */
+	public static long getAllocatedBytes() {
+		if (threadAllocatedBytes == null)
+			return -1;
+		try {
+			return ((Long) threadAllocatedBytes.invoke(threadBean, Long.valueOf(Thread.currentThread().getId()))).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Records an invocation of the builder with the given ID.
+	 * @param time the duration of the invocation, in nanoseconds
+	 * @param deltaNodes the number of delta nodes given to the builder
+	 * @param allocatedBytes the number of bytes allocated, or -1
+	 */
+	public void builderInvoked(String builderId, long time, int deltaNodes, long allocatedBytes) {
+		getCounters(builders, builderId).record(time, deltaNodes, allocatedBytes);
+	}
+
+	/**
+	 * Returns the counters of the builder with the given ID, or <code>null</code>
+	 * if it has not been invoked.
+	 */
+	public Counters getBuilderCounters(String builderId) {
+		return builders.get(builderId);
+	}
+
+	/**
+	 * Returns the counters of all builders that have been invoked.
+	 */
+	public Collection<Counters> getBuilderCounters() {
+		return Collections.unmodifiableCollection(builders.values());
+	}
+
+	/* (non-Javadoc)
+	 * @see ResourceMetricsMBean#getBuilderMetrics()
+	 */
+	public String[] getBuilderMetrics() {
+		return toStrings(builders);
+	}
+
+	private static Counters getCounters(ConcurrentMap<String, Counters> map, String name) {
+		Counters counters = map.get(name);
+		if (counters == null) {
+			counters = new Counters(name);
+			Counters existing = map.putIfAbsent(name, counters);
+			if (existing != null)
+				counters = existing;
+		}
+		return counters;
+	}
+
+	/**
+	 * Returns the counters of the listeners of the given class, or
+	 * <code>null</code> if none has been notified.
+	 */
+	public Counters getListenerCounters(String listenerClass) {
+		return listeners.get(listenerClass);
+	}
+
+	/**
+	 * Returns the counters of all listener classes that have been notified.
+	 */
+	public Collection<Counters> getListenerCounters() {
+		return Collections.unmodifiableCollection(listeners.values());
+	}
+
+	/* (non-Javadoc)
+	 * @see ResourceMetricsMBean#getListenerMetrics()
+	 */
+	public String[] getListenerMetrics() {
+		return toStrings(listeners);
+	}
+
+	/* (non-Javadoc)
+	 * @see ResourceMetricsMBean#getLookupCacheStatistics()
+	 */
+	public String getLookupCacheStatistics() {
+		long hits = ElementTree.getLookupCacheHits();
+		long misses = ElementTree.getLookupCacheMisses();
+		long total = hits + misses;
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("hits=").append(hits); //$NON-NLS-1$
+		buffer.append(" misses=").append(misses); //$NON-NLS-1$
+		buffer.append(" hitRate=").append(total == 0 ? 0 : hits * 100 / total).append('%'); //$NON-NLS-1$
+		return buffer.toString();
+	}
+
+	/**
+	 * Returns the number of compactions of the delta chains of kept trees.
+	 */
+	public long getTreeCompactions() {
+		synchronized (treeCounters) {
+			return treeCompactions;
+		}
+	}
+
+	/**
+	 * Returns the depth of the deepest kept tree when last checked or compacted.
+	 */
+	public int getTreeDepth() {
+		synchronized (treeCounters) {
+			return lastTreeDepth;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see ResourceMetricsMBean#getTreeCompactionStatistics()
+	 */
+	public String getTreeCompactionStatistics() {
+		synchronized (treeCounters) {
+			StringBuffer buffer = new StringBuffer();
+			buffer.append("checks=").append(treeChecks); //$NON-NLS-1$
+			buffer.append(" depth=").append(lastTreeDepth); //$NON-NLS-1$
+			buffer.append(" maxDepth=").append(maxTreeDepth); //$NON-NLS-1$
+			buffer.append(" compactions=").append(treeCompactions); //$NON-NLS-1$
+			buffer.append(" trees=").append(compactedTrees); //$NON-NLS-1$
+			buffer.append(" depthAfterCompaction=").append(compactedTreeDepth); //$NON-NLS-1$
+			buffer.append(" time=").append(compactionTime / 1000000).append("ms"); //$NON-NLS-1$ //$NON-NLS-2$
+			return buffer.toString();
+		}
+	}
+
+	/**
+	 * Records a notification of a listener of the given class.
+	 * @param time the duration of the notification, in nanoseconds
+	 * @param deltaNodes the number of nodes of the delta given to the listener
+	 * @param allocatedBytes the number of bytes allocated, or -1
+	 */
+	public void listenerNotified(String listenerClass, long time, int deltaNodes, long allocatedBytes) {
+		getCounters(listeners, listenerClass).record(time, deltaNodes, allocatedBytes);
+	}
+
+	/* (non-Javadoc)
+	 * @see ResourceMetricsMBean#reset()
+	 */
+	public void reset() {
+		builders.clear();
+		listeners.clear();
+		ElementTree.resetLookupCacheStatistics();
+		synchronized (treeCounters) {
+			treeChecks = treeCompactions = compactedTrees = compactionTime = 0;
+			lastTreeDepth = maxTreeDepth = compactedTreeDepth = 0;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see IManager#shutdown(IProgressMonitor)
+	 */
+	public void shutdown(IProgressMonitor monitor) {
+		if (registeredName == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+		} catch (JMException e) {
+			Policy.log(e);
+		}
+		registeredName = null;
+	}
+
+	/* (non-Javadoc)
+	 * @see IManager#startup(IProgressMonitor)
+	 */
+	public void startup(IProgressMonitor monitor) {
+		if (!Boolean.getBoolean(PROP_JMX))
+			return;
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+			registeredName = name;
+		} catch (JMException e) {
+			Policy.log(e);
+		}
+	}
+
+	/**
+	 * Records a check of the depths of the delta chains of kept trees.
+	 * @param depth the depth of the deepest kept tree
+	 */
+	public void treeDepthChecked(int depth) {
+		synchronized (treeCounters) {
+			treeChecks++;
+			lastTreeDepth = depth;
+			maxTreeDepth = Math.max(maxTreeDepth, depth);
+		}
+	}
+
+	/**
+	 * Records a compaction of the delta chains of kept trees.
+	 * @param trees the number of trees that were collapsed
+	 * @param depth the depth of the deepest kept tree after the compaction
+	 * @param time the duration of the compaction, in nanoseconds
+	 */
+	public void treesCompacted(int trees, int depth, long time) {
+		synchronized (treeCounters) {
+			treeCompactions++;
+			compactedTrees += trees;
+			compactedTreeDepth = depth;
+			lastTreeDepth = depth;
+			compactionTime += time;
+		}
+	}
+
+	private static String[] toStrings(Map<String, Counters> map) {
+		List<String> result = new ArrayList<String>(map.size());
+		for (Counters counters : map.values())
+			result.add(counters.toString());
+		Collections.sort(result);
+		return result.toArray(new String[result.size()]);
+	}
+}
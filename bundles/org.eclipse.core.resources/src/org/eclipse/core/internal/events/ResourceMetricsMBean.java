@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.events;
+
+/**
+ * The management interface of the counters of builders, listeners and
+ * element tree lookups.
+ * @see ResourceMetrics
+ */
+public interface ResourceMetricsMBean {
+	/**
+	 * Returns a description of the counters of each builder.
+	 */
+	public String[] getBuilderMetrics();
+
+	/**
+	 * Returns a description of the counters of each listener class.
+	 */
+	public String[] getListenerMetrics();
+
+	/**
+	 * Returns a description of the hits and misses of the caches of element
+	 * tree lookups.
+	 */
+	public String getLookupCacheStatistics();
+
+	/**
+	 * Returns a description of the depths of the delta chains of kept trees,
+	 * and of their compactions.
+	 */
+	public String getTreeCompactionStatistics();
+
+	/**
+	 * Discards all counters.
+	 */
+	public void reset();
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,22 +10,140 @@
  *******************************************************************************/
 package org.eclipse.core.internal.localstore;
 
-import java.io.InputStream;
-import java.util.Set;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.*;
+import java.util.*;
+import java.util.zip.*;
 import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.filesystem.IFileStore;
-import org.eclipse.core.internal.utils.UniversalUniqueIdentifier;
-import org.eclipse.core.runtime.Assert;
-import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.internal.resources.ResourceException;
+import org.eclipse.core.internal.resources.ResourceStatus;
+import org.eclipse.core.internal.utils.*;
+import org.eclipse.core.internal.utils.Policy;
+import org.eclipse.core.resources.IResourceStatus;
+import org.eclipse.core.runtime.*;
+import org.eclipse.osgi.util.NLS;
 
 /**
  * Blob store which maps UUIDs to blobs on disk. The UUID is mapped
  * to a file in the file-system and the blob is the file contents. For scalability,
  * the blobs are split among 255 directories with the names 00 to FF.
+ * <p>
+ * Blobs are content addressed: the UUID of a blob is the first 16 bytes of
+ * the SHA-256 digest of its contents, so identical contents are stored only
+ * once. Each blob is implicitly referenced once; additional references are
+ * counted, and a blob is only deleted once all its references have been
+ * deleted. Blobs added by earlier versions have random UUIDs and a single
+ * reference. The counts are kept in memory, and only written to disk when
+ * {@link #save()} is called, typically along with the history buckets that 
+ * hold the references. If the counts change and are not saved, as after a
+ * crash, they are reported as stale the next time they are read, so that the
+ * references can be counted again (see {@link #hasStaleReferences()}).
+ * </p>
+ * <p>
+ * When compression is enabled, blobs are stored deflated. In addition, when
+ * a blob for a new state of a text file is added, the blob of the previous
+ * state can be replaced by a reverse delta against the new one, so that only
+ * the newest state of a file is stored in full. A delta blob holds a 
+ * reference to its base blob, and the number of deltas chained to a full blob
+ * is limited. Verbatim blobs are stored in a file named after their UUID,
+ * and encoded blobs in a file with the {@value #ENCODED_SUFFIX} suffix added:
+ * <pre>
+ * RAW ::= byte* (the verbatim contents)
+ * ENCODED ::= FULL RUN DEFLATED | DELTA BASE DEFLATED
+ * RUN ::= int (length of the delta chain ending at this blob)
+ * BASE ::= byte[16] (UUID of the blob the delta applies to)
+ * DEFLATED ::= the deflated contents, or for deltas: PREFIX SUFFIX LENGTH byte*
+ * PREFIX, SUFFIX ::= int (bytes shared with the start and end of the base contents)
+ * LENGTH ::= int (number of bytes in between)
+ * </pre>
+ * </p>
  */
 public class BlobStore {
+	private static final String DIGEST_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+
+	/**
+	 * The name of the file holding the additional blob references, as of the
+	 * last save.
+	 * <pre>
+	 * FILE ::= RECORD*
+	 * RECORD ::= UUID COUNT
+	 * UUID ::= byte[16]
+	 * COUNT ::= int (number of additional references)
+	 * </pre>
+	 */
+	private static final String REFERENCES_FILE_NAME = ".references"; //$NON-NLS-1$
+
+	/**
+	 * The name of the file that exists while the references have changed
+	 * since the reference file was written.
+	 */
+	private static final String STALE_REFERENCES_FILE_NAME = ".references.stale"; //$NON-NLS-1$
+
+	private static final String TEMP_FILE_PREFIX = ".tmp"; //$NON-NLS-1$
+
+	/**
+	 * The suffix of the name of encoded blob files.
+	 */
+	public static final String ENCODED_SUFFIX = ".z"; //$NON-NLS-1$
+
+	private static final byte FORMAT_RAW = 0;
+	private static final byte FORMAT_FULL = 1;
+	private static final byte FORMAT_DELTA = 2;
+
+	/**
+	 * Contents larger than this are never delta encoded, since deltas
+	 * are computed and applied in memory.
+	 */
+	private static final int MAX_DELTA_SIZE = 1024 * 1024;
+
+	/**
+	 * The number of leading bytes checked for a NUL character when
+	 * deciding whether contents are text.
+	 */
+	private static final int TEXT_CHECK_LENGTH = 8000;
+
+	/**
+	 * The deflater level used for new blobs, or <code>0</code> to store 
+	 * them verbatim.
+	 */
+	private int compressionLevel = 0;
+
+	/**
+	 * The maximum number of delta blobs chained to a full blob, or <code>0</code>
+	 * to never store deltas.
+	 */
+	private int maxDeltaChain = 0;
+
 	protected IFileStore localStore;
 
+	/**
+	 * The number of additional references to each shared blob, or 
+	 * <code>null</code> if not read yet.
+	 */
+	private Map<UniversalUniqueIdentifier, Integer> references;
+
+	/**
+	 * Whether the references have changed since they were last saved.
+	 */
+	private boolean referencesChanged;
+
+	/**
+	 * Whether the references were read from a reference file that was not
+	 * up to date, and have not been replaced since.
+	 */
+	private boolean referencesStale;
+
+	/**
+	 * The header of a blob.
+	 */
+	private static class Header {
+		byte format = FORMAT_RAW;
+		int run;
+		UniversalUniqueIdentifier base;
+	}
+
 	/** Limits the range of directories' names. */
 	protected byte mask;
 
@@ -46,17 +164,174 @@ public class BlobStore {
 		mask = (byte) (limit - 1);
 	}
 
+	/**
+	 * Adds the contents of the given file to the store, and returns the UUID of
+	 * the blob. If there already is a blob with the same contents, a reference 
+	 * to it is added instead.
+	 */
 	public UniversalUniqueIdentifier addBlob(IFileStore target, boolean moveContents) throws CoreException {
-		UniversalUniqueIdentifier uuid = new UniversalUniqueIdentifier();
-		folderFor(uuid).mkdir(EFS.NONE, null);
-		IFileStore destination = fileFor(uuid);
+		return addBlob(target, moveContents, null);
+	}
+
+	/**
+	 * Adds the contents of the given file to the store, and returns the UUID of
+	 * the blob. If there already is a blob with the same contents, a reference 
+	 * to it is added instead. If delta encoding is enabled and a previous blob
+	 * is given, typically the blob of the previous state of the same file, 
+	 * the previous blob may be replaced by a delta against the new one.
+	 */
+	public UniversalUniqueIdentifier addBlob(IFileStore target, boolean moveContents, UniversalUniqueIdentifier previous) throws CoreException {
+		if (compressionLevel <= 0)
+			return addRawBlob(target, moveContents);
+		if (previous != null && maxDeltaChain > 0 && target.fetchInfo().getLength() <= MAX_DELTA_SIZE)
+			return addBlob(target, moveContents, readContents(target.openInputStream(EFS.NONE, null), target.toString()), previous);
+		// compress the contents, computing their digest as we go
+		IFileStore temp = localStore.getChild(TEMP_FILE_PREFIX + new UniversalUniqueIdentifier());
+		boolean moved = false;
+		UniversalUniqueIdentifier uuid;
+		try {
+			MessageDigest digest = createDigest();
+			InputStream input = new DigestInputStream(target.openInputStream(EFS.NONE, null), digest);
+			FileUtil.transferStreams(input, openBlob(temp, getFullHeader(0)), target.toString(), null);
+			uuid = new UniversalUniqueIdentifier(digest.digest());
+			if (exists(uuid)) {
+				addReference(uuid);
+			} else {
+				folderFor(uuid).mkdir(EFS.NONE, null);
+				temp.move(encodedFileFor(uuid), EFS.NONE, null);
+				moved = true;
+			}
+		} finally {
+			if (!moved)
+				deleteTemporary(temp);
+		}
 		if (moveContents)
-			target.move(destination, EFS.NONE, null);
-		else
-			target.copy(destination, EFS.NONE, null);
+			target.delete(EFS.NONE, null);
+		return uuid;
+	}
+
+	/**
+	 * Adds a blob with the given contents, and tries to replace the previous
+	 * blob by a delta against it.
+	 */
+	private UniversalUniqueIdentifier addBlob(IFileStore target, boolean moveContents, byte[] contents, UniversalUniqueIdentifier previous) throws CoreException {
+		UniversalUniqueIdentifier uuid = new UniversalUniqueIdentifier(createDigest().digest(contents));
+		if (exists(uuid)) {
+			addReference(uuid);
+		} else {
+			// only the newest blob of a chain is stored in full
+			byte[] delta = null;
+			int run = 0;
+			IFileStore previousFile = fileFor(previous);
+			try {
+				Header header = readHeader(previousFile);
+				if (header.format != FORMAT_DELTA && header.run < maxDeltaChain && isText(contents) && previousFile.fetchInfo().getLength() <= MAX_DELTA_SIZE) {
+					byte[] previousContents = readContents(getBlob(previous), previousFile.toString());
+					if (isText(previousContents))
+						delta = computeDelta(previousContents, contents);
+					if (delta != null)
+						run = header.run + 1;
+				}
+			} catch (CoreException e) {
+				// the previous blob is gone or unreadable, just store the new one
+			}
+			IFileStore temp = localStore.getChild(TEMP_FILE_PREFIX + new UniversalUniqueIdentifier());
+			boolean moved = false;
+			try {
+				writeBlob(temp, getFullHeader(run), contents);
+				folderFor(uuid).mkdir(EFS.NONE, null);
+				temp.move(encodedFileFor(uuid), EFS.NONE, null);
+				moved = true;
+			} finally {
+				if (!moved)
+					deleteTemporary(temp);
+			}
+			if (delta != null)
+				replaceByDelta(previous, uuid, delta);
+		}
+		if (moveContents)
+			target.delete(EFS.NONE, null);
 		return uuid;
 	}
 
+	/**
+	 * Adds the contents of the given file to the store verbatim.
+	 */
+	private UniversalUniqueIdentifier addRawBlob(IFileStore target, boolean moveContents) throws CoreException {
+		MessageDigest digest = createDigest();
+		InputStream input = new DigestInputStream(target.openInputStream(EFS.NONE, null), digest);
+		if (moveContents) {
+			try {
+				byte[] buffer = new byte[8192];
+				while (input.read(buffer) != -1) {
+					// only reading for the digest
+				}
+			} catch (IOException e) {
+				throw readFailed(target, e);
+			} finally {
+				FileUtil.safeClose(input);
+			}
+			UniversalUniqueIdentifier uuid = new UniversalUniqueIdentifier(digest.digest());
+			if (exists(uuid)) {
+				addReference(uuid);
+				target.delete(EFS.NONE, null);
+			} else {
+				folderFor(uuid).mkdir(EFS.NONE, null);
+				target.move(rawFileFor(uuid), EFS.NONE, null);
+			}
+			return uuid;
+		}
+		// copy the contents, computing their digest as we go
+		IFileStore temp = localStore.getChild(TEMP_FILE_PREFIX + new UniversalUniqueIdentifier());
+		boolean moved = false;
+		try {
+			FileUtil.transferStreams(input, temp.openOutputStream(EFS.NONE, null), target.toString(), null);
+			UniversalUniqueIdentifier uuid = new UniversalUniqueIdentifier(digest.digest());
+			if (exists(uuid)) {
+				addReference(uuid);
+			} else {
+				folderFor(uuid).mkdir(EFS.NONE, null);
+				temp.move(rawFileFor(uuid), EFS.NONE, null);
+				moved = true;
+			}
+			return uuid;
+		} finally {
+			FileUtil.safeClose(input);
+			if (!moved)
+				deleteTemporary(temp);
+		}
+	}
+
+	/**
+	 * Describes the given target contents in terms of the given base contents,
+	 * as the bytes they have in common at the start and at the end, and the
+	 * bytes in between. Returns <code>null</code> if the delta would not be
+	 * much smaller than the target.
+	 */
+	private static byte[] computeDelta(byte[] target, byte[] base) {
+		int limit = Math.min(target.length, base.length);
+		int prefix = 0;
+		while (prefix < limit && target[prefix] == base[prefix])
+			prefix++;
+		int suffix = 0;
+		while (suffix < limit - prefix && target[target.length - 1 - suffix] == base[base.length - 1 - suffix])
+			suffix++;
+		int length = target.length - prefix - suffix;
+		if (length > target.length / 2)
+			return null;
+		return ByteBuffer.allocate(12 + length).putInt(prefix).putInt(suffix).putInt(length).put(target, prefix, length).array();
+	}
+
+	/**
+	 * Records an additional reference to an existing blob.
+	 */
+	public void addReference(UniversalUniqueIdentifier uuid) {
+		Map<UniversalUniqueIdentifier, Integer> counts = getReferences();
+		Integer count = counts.get(uuid);
+		counts.put(uuid, new Integer(count == null ? 1 : count.intValue() + 1));
+		referencesChanged();
+	}
+
 	/* (non-Javadoc)
 	 * @see UniversalUniqueIdentifier#appendByteString(StringBuffer, byte)
 	 */
@@ -71,6 +346,23 @@ public class BlobStore {
 		buffer.append(hexString);
 	}
 
+	/**
+	 * Reconstructs contents from the given base contents and a delta, as 
+	 * computed by #computeDelta.
+	 */
+	private static byte[] applyDelta(byte[] base, DataInputStream delta) throws IOException {
+		int prefix = delta.readInt();
+		int suffix = delta.readInt();
+		int length = delta.readInt();
+		if (prefix < 0 || suffix < 0 || length < 0 || prefix + suffix > base.length)
+			throw new IOException();
+		byte[] result = new byte[prefix + length + suffix];
+		System.arraycopy(base, 0, result, 0, prefix);
+		delta.readFully(result, prefix, length);
+		System.arraycopy(base, base.length - suffix, result, prefix + length, suffix);
+		return result;
+	}
+
 	/* (non-Javadoc)
 	 * Converts an array of bytes into a String.
 	 *
@@ -83,29 +375,90 @@ public class BlobStore {
 		return buffer.toString();
 	}
 
+	private MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// all Java platforms are required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
 	/**
-	 * Deletes a blobFile.
+	 * Deletes a reference to a blob, and deletes the blobFile if it was the 
+	 * last reference.
 	 */
 	public void deleteBlob(UniversalUniqueIdentifier uuid) {
 		Assert.isNotNull(uuid);
+		Map<UniversalUniqueIdentifier, Integer> counts = getReferences();
+		Integer count = counts.get(uuid);
+		if (count != null) {
+			if (count.intValue() == 1)
+				counts.remove(uuid);
+			else
+				counts.put(uuid, new Integer(count.intValue() - 1));
+			referencesChanged();
+			return;
+		}
+		// a crash may have left both files behind while replacing a blob by a delta
+		IFileStore encoded = encodedFileFor(uuid);
+		UniversalUniqueIdentifier base = getBase(encoded);
 		try {
-			fileFor(uuid).delete(EFS.NONE, null);
+			rawFileFor(uuid).delete(EFS.NONE, null);
+			encoded.delete(EFS.NONE, null);
 		} catch (CoreException e) {
 			//ignore
 		}
+		// a delta holds a reference to its base
+		if (base != null)
+			deleteBlob(base);
 	}
 
 	/**
-	 * Delete all of the blobs in the given set.
+	 * Deletes one reference to a blob for each occurrence of its UUID in the given 
+	 * collection.
 	 */
-	public void deleteBlobs(Set<UniversalUniqueIdentifier> set) {
-		for (UniversalUniqueIdentifier id : set)
+	public void deleteBlobs(Collection<UniversalUniqueIdentifier> uuids) {
+		for (UniversalUniqueIdentifier id : uuids)
 			deleteBlob(id);
 	}
 
+	/**
+	 * Deletes a temporary file that could not be moved to its destination.
+	 */
+	private static void deleteTemporary(IFileStore temp) {
+		try {
+			temp.delete(EFS.NONE, null);
+		} catch (CoreException e) {
+			//ignore
+		}
+	}
+
+	/**
+	 * Returns the file of the blob with the given UUID. If there is no such
+	 * blob, returns the file a verbatim blob would be stored in.
+	 */
 	public IFileStore fileFor(UniversalUniqueIdentifier uuid) {
-		IFileStore root = folderFor(uuid);
-		return root.getChild(bytesToHexString(uuid.toBytes()));
+		IFileStore raw = rawFileFor(uuid);
+		if (raw.fetchInfo().exists())
+			return raw;
+		IFileStore encoded = encodedFileFor(uuid);
+		return encoded.fetchInfo().exists() ? encoded : raw;
+	}
+
+	private IFileStore encodedFileFor(UniversalUniqueIdentifier uuid) {
+		return folderFor(uuid).getChild(bytesToHexString(uuid.toBytes()) + ENCODED_SUFFIX);
+	}
+
+	/**
+	 * Returns whether there is a blob with the given UUID.
+	 */
+	private boolean exists(UniversalUniqueIdentifier uuid) {
+		return rawFileFor(uuid).fetchInfo().exists() || encodedFileFor(uuid).fetchInfo().exists();
+	}
+
+	private IFileStore rawFileFor(UniversalUniqueIdentifier uuid) {
+		return folderFor(uuid).getChild(bytesToHexString(uuid.toBytes()));
 	}
 
 	/**
@@ -118,9 +471,96 @@ public class BlobStore {
 		return localStore.getChild(dirName);
 	}
 
+	/**
+	 * Returns the UUID of the base of the given blob if it is a delta, and
+	 * <code>null</code> otherwise.
+	 */
+	private UniversalUniqueIdentifier getBase(IFileStore file) {
+		try {
+			return readHeader(file).base;
+		} catch (CoreException e) {
+			// the blob does not exist or cannot be read
+			return null;
+		}
+	}
+
+	private static byte[] getDeltaHeader(UniversalUniqueIdentifier base) {
+		return ByteBuffer.allocate(1 + UniversalUniqueIdentifier.BYTES_SIZE).put(FORMAT_DELTA).put(base.toBytes()).array();
+	}
+
+	private static byte[] getFullHeader(int run) {
+		return ByteBuffer.allocate(5).put(FORMAT_FULL).putInt(run).array();
+	}
+
+	private IFileStore getReferencesFile() {
+		return localStore.getChild(REFERENCES_FILE_NAME);
+	}
+
+	private Map<UniversalUniqueIdentifier, Integer> getReferences() {
+		if (references != null)
+			return references;
+		references = new HashMap<UniversalUniqueIdentifier, Integer>();
+		// the marker is only deleted once up to date references have been saved
+		referencesStale = localStore.getChild(STALE_REFERENCES_FILE_NAME).fetchInfo().exists();
+		referencesChanged = referencesStale;
+		IFileStore file = getReferencesFile();
+		if (!file.fetchInfo().exists())
+			return references;
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(file.openInputStream(EFS.NONE, null)));
+			byte[] bytes = new byte[UniversalUniqueIdentifier.BYTES_SIZE];
+			while (true) {
+				input.readFully(bytes);
+				int delta = input.readInt();
+				UniversalUniqueIdentifier uuid = new UniversalUniqueIdentifier(bytes);
+				Integer count = references.get(uuid);
+				int newCount = (count == null ? 0 : count.intValue()) + delta;
+				if (newCount > 0)
+					references.put(uuid, new Integer(newCount));
+				else
+					references.remove(uuid);
+			}
+		} catch (EOFException e) {
+			// end of file, or a record that was not completely written
+		} catch (IOException e) {
+			String message = NLS.bind(Messages.localstore_couldNotRead, file.toString());
+			Policy.log(new ResourceStatus(IResourceStatus.FAILED_READ_METADATA, null, message, e));
+		} catch (CoreException e) {
+			Policy.log(e.getStatus());
+		} finally {
+			FileUtil.safeClose(input);
+		}
+		return references;
+	}
+
+	/**
+	 * Returns the contents of a blob, decoding them if necessary.
+	 */
 	public InputStream getBlob(UniversalUniqueIdentifier uuid) throws CoreException {
 		IFileStore blobFile = fileFor(uuid);
-		return blobFile.openInputStream(EFS.NONE, null);
+		InputStream input = new BufferedInputStream(blobFile.openInputStream(EFS.NONE, null));
+		if (!isEncoded(blobFile))
+			return input;
+		Header header;
+		try {
+			header = readHeader(input);
+		} catch (IOException e) {
+			FileUtil.safeClose(input);
+			throw readFailed(blobFile, e);
+		}
+		input = new InflaterInputStream(input);
+		if (header.format == FORMAT_FULL)
+			return input;
+		// reconstruct the contents of a delta from its base
+		try {
+			byte[] base = readContents(getBlob(header.base), blobFile.toString());
+			return new ByteArrayInputStream(applyDelta(base, new DataInputStream(input)));
+		} catch (IOException e) {
+			throw readFailed(blobFile, e);
+		} finally {
+			FileUtil.safeClose(input);
+		}
 	}
 
 	/**
@@ -134,4 +574,248 @@ public class BlobStore {
 			hash ^= randomArray[bytes[i] + 128]; // +128 makes sure the index is >0
 		return hash;
 	}
+
+	/**
+	 * Returns whether the given blob file is encoded.
+	 */
+	private static boolean isEncoded(IFileStore file) {
+		return file.getName().endsWith(ENCODED_SUFFIX);
+	}
+
+	/**
+	 * Returns whether the references were found not to be up to date when
+	 * they were read, typically after a crash, and have not been replaced
+	 * since. Stale references must be recounted with {@link #setReferences(Map)}
+	 * before any blob is deleted.
+	 */
+	public boolean hasStaleReferences() {
+		getReferences();
+		return referencesStale;
+	}
+
+	/**
+	 * Returns whether the given contents look like text, that is, do not
+	 * contain NUL characters.
+	 */
+	private static boolean isText(byte[] contents) {
+		int length = Math.min(contents.length, TEXT_CHECK_LENGTH);
+		for (int i = 0; i < length; i++)
+			if (contents[i] == 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Opens a stream writing a blob with the given header, which deflates 
+	 * the contents written to it.
+	 */
+	private OutputStream openBlob(IFileStore file, byte[] header) throws CoreException {
+		OutputStream output = new BufferedOutputStream(file.openOutputStream(EFS.NONE, null));
+		try {
+			output.write(header);
+		} catch (IOException e) {
+			FileUtil.safeClose(output);
+			String message = NLS.bind(Messages.localstore_couldNotWrite, file.toString());
+			throw new ResourceException(IResourceStatus.FAILED_WRITE_LOCAL, null, message, e);
+		}
+		final Deflater deflater = new Deflater(compressionLevel);
+		return new DeflaterOutputStream(output, deflater) {
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					deflater.end();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Reads the given stream to its end, and closes it.
+	 */
+	private static byte[] readContents(InputStream input, String path) throws CoreException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		FileUtil.transferStreams(input, output, path, null);
+		return output.toByteArray();
+	}
+
+	private ResourceException readFailed(IFileStore file, IOException e) {
+		String message = NLS.bind(Messages.localstore_couldNotRead, file.toString());
+		return new ResourceException(IResourceStatus.FAILED_READ_LOCAL, null, message, e);
+	}
+
+	private Header readHeader(IFileStore file) throws CoreException {
+		if (!isEncoded(file))
+			return new Header();
+		InputStream input = new BufferedInputStream(file.openInputStream(EFS.NONE, null), 1 + UniversalUniqueIdentifier.BYTES_SIZE);
+		try {
+			return readHeader(input);
+		} catch (IOException e) {
+			throw readFailed(file, e);
+		} finally {
+			FileUtil.safeClose(input);
+		}
+	}
+
+	/**
+	 * Reads the header of an encoded blob. The stream is left at the start 
+	 * of the deflated contents.
+	 */
+	private static Header readHeader(InputStream input) throws IOException {
+		Header header = new Header();
+		DataInputStream data = new DataInputStream(input);
+		header.format = data.readByte();
+		if (header.format == FORMAT_FULL) {
+			header.run = data.readInt();
+		} else if (header.format == FORMAT_DELTA) {
+			byte[] base = new byte[UniversalUniqueIdentifier.BYTES_SIZE];
+			data.readFully(base);
+			header.base = new UniversalUniqueIdentifier(base);
+		} else {
+			throw new IOException();
+		}
+		return header;
+	}
+
+	/**
+	 * Replaces a full blob by a delta against the given base blob, which has
+	 * the same contents as the delta once applied.
+	 */
+	private void replaceByDelta(UniversalUniqueIdentifier uuid, UniversalUniqueIdentifier base, byte[] delta) {
+		// reference the base before the delta depends on it
+		addReference(base);
+		IFileStore temp = localStore.getChild(TEMP_FILE_PREFIX + new UniversalUniqueIdentifier());
+		try {
+			writeBlob(temp, getDeltaHeader(base), delta);
+			temp.move(encodedFileFor(uuid), EFS.OVERWRITE, null);
+		} catch (CoreException e) {
+			// keep the full blob
+			Policy.log(e.getStatus());
+			deleteBlob(base);
+			deleteTemporary(temp);
+			return;
+		}
+		// the full blob may have been stored verbatim
+		IFileStore raw = rawFileFor(uuid);
+		try {
+			raw.delete(EFS.NONE, null);
+		} catch (CoreException e) {
+			//ignore, the blob is read from the verbatim file as long as it exists
+		}
+	}
+
+	/**
+	 * Records that the references have changed since they were last saved.
+	 * The first change marks the reference file as stale, until the next save.
+	 */
+	private void referencesChanged() {
+		if (referencesChanged)
+			return;
+		referencesChanged = true;
+		IFileStore marker = localStore.getChild(STALE_REFERENCES_FILE_NAME);
+		OutputStream output = null;
+		try {
+			output = marker.openOutputStream(EFS.NONE, null);
+			output.close();
+		} catch (IOException e) {
+			String message = NLS.bind(Messages.localstore_couldNotWrite, marker.toString());
+			Policy.log(new ResourceStatus(IResourceStatus.FAILED_WRITE_METADATA, null, message, e));
+		} catch (CoreException e) {
+			Policy.log(e.getStatus());
+		} finally {
+			FileUtil.safeClose(output);
+		}
+	}
+
+	/**
+	 * Writes the reference counts if they have changed. This should be called
+	 * once the history that holds the references has been saved as well.
+	 * Stale references are not written, so that they are recounted.
+	 */
+	public void save() {
+		if (references == null || !referencesChanged || referencesStale)
+			return;
+		IFileStore temp = localStore.getChild(TEMP_FILE_PREFIX + REFERENCES_FILE_NAME);
+		DataOutputStream output = null;
+		boolean moved = false;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(temp.openOutputStream(EFS.NONE, null)));
+			for (Iterator<Map.Entry<UniversalUniqueIdentifier, Integer>> i = references.entrySet().iterator(); i.hasNext();) {
+				Map.Entry<UniversalUniqueIdentifier, Integer> entry = i.next();
+				output.write(entry.getKey().toBytes());
+				output.writeInt(entry.getValue().intValue());
+			}
+			output.close();
+			temp.move(getReferencesFile(), EFS.OVERWRITE, null);
+			moved = true;
+			localStore.getChild(STALE_REFERENCES_FILE_NAME).delete(EFS.NONE, null);
+			referencesChanged = false;
+		} catch (IOException e) {
+			String message = NLS.bind(Messages.localstore_couldNotWrite, temp.toString());
+			Policy.log(new ResourceStatus(IResourceStatus.FAILED_WRITE_METADATA, null, message, e));
+		} catch (CoreException e) {
+			Policy.log(e.getStatus());
+		} finally {
+			FileUtil.safeClose(output);
+			if (!moved)
+				deleteTemporary(temp);
+		}
+	}
+
+	/**
+	 * Replaces the reference counts with the given numbers of references to
+	 * each blob, as found by a full scan of the history. Blobs not in the
+	 * map are considered to have one reference. The references held by deltas
+	 * on their base blobs are added to the given map. The new counts are saved
+	 * right away.
+	 */
+	public void setReferences(Map<UniversalUniqueIdentifier, Integer> counts) {
+		// add the references held by deltas on their bases
+		List<UniversalUniqueIdentifier> pending = new ArrayList<UniversalUniqueIdentifier>(counts.keySet());
+		while (!pending.isEmpty()) {
+			UniversalUniqueIdentifier base = getBase(encodedFileFor(pending.remove(pending.size() - 1)));
+			if (base == null)
+				continue;
+			Integer count = counts.get(base);
+			counts.put(base, new Integer(count == null ? 1 : count.intValue() + 1));
+			if (count == null)
+				pending.add(base);
+		}
+		references = new HashMap<UniversalUniqueIdentifier, Integer>();
+		for (Iterator<Map.Entry<UniversalUniqueIdentifier, Integer>> i = counts.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<UniversalUniqueIdentifier, Integer> entry = i.next();
+			if (entry.getValue().intValue() > 1)
+				references.put(entry.getKey(), new Integer(entry.getValue().intValue() - 1));
+		}
+		referencesStale = false;
+		referencesChanged = true;
+		save();
+	}
+
+	/**
+	 * Sets how new blobs are stored. A compression level of <code>0</code>
+	 * stores blobs verbatim, and levels up to 9 deflate them. Deltas are 
+	 * only stored when compressing, and the length of delta chains is
+	 * limited to the given number.
+	 */
+	public void setCompression(int level, int maxDeltas) {
+		compressionLevel = Math.max(0, Math.min(level, Deflater.BEST_COMPRESSION));
+		maxDeltaChain = compressionLevel > 0 ? Math.max(0, maxDeltas) : 0;
+	}
+
+	/**
+	 * Writes a blob with the given header and the given contents deflated.
+	 */
+	private void writeBlob(IFileStore file, byte[] header, byte[] contents) throws CoreException {
+		OutputStream output = openBlob(file, header);
+		try {
+			output.write(contents);
+			output.close();
+		} catch (IOException e) {
+			String message = NLS.bind(Messages.localstore_couldNotWrite, file.toString());
+			throw new ResourceException(IResourceStatus.FAILED_WRITE_LOCAL, null, message, e);
+		} finally {
+			FileUtil.safeClose(output);
+		}
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2011 IBM Corporation and others.
+ * Copyright (c) 2004, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@
 package org.eclipse.core.internal.localstore;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import org.eclipse.core.internal.resources.ResourceException;
 import org.eclipse.core.internal.resources.ResourceStatus;
@@ -140,7 +141,7 @@ public abstract class Bucket {
 	/**
 	 * The segment name for the root directory for index files.
 	 */
-	static final String INDEXES_DIR_NAME = ".indexes"; //$NON-NLS-1$	
+	public static final String INDEXES_DIR_NAME = ".indexes"; //$NON-NLS-1$
 
 	/**
 	 * Map of the history entries in this bucket. Maps (String -> byte[][] or String[][]),
@@ -148,6 +149,12 @@ public abstract class Bucket {
 	 * the value is the history entry data (UUID,timestamp) pairs.
 	 */
 	private final Map<String,Object> entries;
+	/**
+	 * The index of the bucket file contents, or <code>null</code> if all entries
+	 * have been decoded into the <code>entries</code> map. Entries are decoded 
+	 * from the index on demand, and as a whole before the first modification.
+	 */
+	private BucketIndex index;
 	/**
 	 * The file system location of this bucket index file.
 	 */
@@ -174,6 +181,9 @@ public abstract class Bucket {
 	 * @exception CoreException
 	 */
 	public final int accept(Visitor visitor, IPath filter, int depth) throws CoreException {
+		if (index != null && depth == 0)
+			return acceptOne(visitor, filter);
+		materialize();
 		if (entries.isEmpty())
 			return Visitor.CONTINUE;
 		try {
@@ -208,6 +218,31 @@ public abstract class Bucket {
 		}
 	}
 
+	/**
+	 * Applies the given visitor to the single entry for the given path,
+	 * looking it up in the index without decoding any other entry.
+	 */
+	private int acceptOne(Visitor visitor, IPath path) throws CoreException {
+		String key = path.toString();
+		Object value = getEntryValue(key);
+		if (value == null)
+			return Visitor.CONTINUE;
+		try {
+			Entry bucketEntry = createEntry(path, value);
+			int outcome = visitor.visit(bucketEntry);
+			bucketEntry.visited();
+			if (bucketEntry.isDeleted())
+				setEntryValue(key, null);
+			else if (bucketEntry.isDirty())
+				setEntryValue(key, bucketEntry.getValue());
+			return outcome;
+		} finally {
+			visitor.beforeSaving(this);
+			save();
+			visitor.afterSaving(this);
+		}
+	}
+
 	/**
 	 * Tries to delete as many empty levels as possible.
 	 */
@@ -235,6 +270,7 @@ public abstract class Bucket {
 		projectName = null;
 		location = null;
 		entries.clear();
+		index = null;
 		needSaving = false;
 	}
 
@@ -242,14 +278,46 @@ public abstract class Bucket {
 	 * Returns how many entries there are in this bucket.
 	 */
 	public final int getEntryCount() {
-		return entries.size();
+		return index != null ? index.getEntryCount() : entries.size();
+	}
+
+	/**
+	 * Returns the directory this bucket has been loaded from, or <code>null</code>
+	 * if it is not loaded.
+	 */
+	File getBaseLocation() {
+		return location == null ? null : location.getParentFile();
 	}
 
 	/**
 	 * Returns the value for entry corresponding to the given path (null if none found). 
 	 */
-	public final Object getEntryValue(String path) {
-		return entries.get(path);
+	public final Object getEntryValue(String path) throws CoreException {
+		if (index == null)
+			return entries.get(path);
+		String key = toStoredKey(path);
+		if (key == null)
+			return null;
+		try {
+			int found = index.find(key);
+			if (found < 0)
+				return null;
+			DataInputStream source = index.openEntry(found);
+			source.readUTF();
+			return readEntryValue(source);
+		} catch (IOException ioe) {
+			throw readFailed(ioe);
+		}
+	}
+
+	/**
+	 * Returns the bucket specific header of the file whose entries are being
+	 * read, or <code>null</code> if entries are not read from an index.
+	 * @see #readHeader(DataInputStream)
+	 */
+	protected final Object getIndexHeader() {
+		BucketIndex current = index;
+		return current == null ? null : current.getHeader();
 	}
 
 	/**
@@ -262,6 +330,16 @@ public abstract class Bucket {
 	 */
 	protected abstract byte getVersion();
 
+	/**
+	 * Returns the version number of the stream based file format that was 
+	 * used before buckets were indexed, or <code>-1</code> if there is none.
+	 * Buckets found in that format are read sequentially, and rewritten in the
+	 * current format the next time they are saved.
+	 */
+	protected byte getPreviousVersion() {
+		return -1;
+	}
+
 	/**
 	 * Returns the file name to be used to store bucket version information
 	 */
@@ -291,30 +369,72 @@ public abstract class Bucket {
 			this.projectName = newProjectName;
 			this.location = new File(baseLocation, getIndexFileName());
 			this.entries.clear();
+			this.index = null;
 			if (!this.location.isFile())
 				return;
-			DataInputStream source = new DataInputStream(new BufferedInputStream(new FileInputStream(location), 8192));
-			try {
-				int version = source.readByte();
-				if (version != getVersion()) {
-					// unknown version
-					String message = NLS.bind(Messages.resources_readMetaWrongVersion, location.getAbsolutePath(), Integer.toString(version));
-					ResourceStatus status = new ResourceStatus(IResourceStatus.FAILED_READ_METADATA, message);
-					throw new ResourceException(status);
-				}
+			ByteBuffer buffer = BucketIndex.read(location);
+			DataInputStream source = new DataInputStream(new BucketIndex.BufferInputStream(buffer));
+			int version = source.readByte();
+			if (version == getVersion()) {
+				int entryCount = source.readInt();
+				Object header = readHeader(source);
+				index = new BucketIndex(buffer, entryCount, header);
+			} else if (version == getPreviousVersion() && version != -1) {
 				int entryCount = source.readInt();
 				for (int i = 0; i < entryCount; i++)
 					this.entries.put(readEntryKey(source), readEntryValue(source));
-			} finally {
-				source.close();
+				// migrate to the current format on next save
+				needSaving = true;
+			} else {
+				// unknown version
+				String message = NLS.bind(Messages.resources_readMetaWrongVersion, location.getAbsolutePath(), Integer.toString(version));
+				ResourceStatus status = new ResourceStatus(IResourceStatus.FAILED_READ_METADATA, message);
+				throw new ResourceException(status);
 			}
 		} catch (IOException ioe) {
-			String message = NLS.bind(Messages.resources_readMeta, location.getAbsolutePath());
-			ResourceStatus status = new ResourceStatus(IResourceStatus.FAILED_READ_METADATA, null, message, ioe);
-			throw new ResourceException(status);
+			throw readFailed(ioe);
 		}
 	}
 
+	/**
+	 * Decodes all entries from the index, so that they can be modified.
+	 */
+	private void materialize() throws CoreException {
+		if (index == null)
+			return;
+		try {
+			int entryCount = index.getEntryCount();
+			if (entryCount > 0) {
+				// entries are laid out consecutively, so a single stream reads them all
+				DataInputStream source = index.openEntry(0);
+				for (int i = 0; i < entryCount; i++)
+					entries.put(readEntryKey(source), readEntryValue(source));
+			}
+			index = null;
+		} catch (IOException ioe) {
+			entries.clear();
+			throw readFailed(ioe);
+		}
+	}
+
+	/**
+	 * Returns a new, empty bucket of the same kind as this one, or <code>null</code>
+	 * if a bucket tree over this kind of bucket must only ever use a single bucket
+	 * instance. Subclasses that can have several buckets loaded at the same time
+	 * should override.
+	 * 
+	 * @see BucketTree
+	 */
+	protected Bucket newBucket() {
+		return null;
+	}
+
+	private ResourceException readFailed(IOException ioe) {
+		String message = NLS.bind(Messages.resources_readMeta, location.getAbsolutePath());
+		ResourceStatus status = new ResourceStatus(IResourceStatus.FAILED_READ_METADATA, null, message, ioe);
+		return new ResourceException(status);
+	}
+
 	private String readEntryKey(DataInputStream source) throws IOException {
 		if (projectName == null)
 			return source.readUTF();
@@ -326,6 +446,17 @@ public abstract class Bucket {
 	 */
 	protected abstract Object readEntryValue(DataInputStream source) throws IOException, CoreException;
 
+	/**
+	 * Reads the bucket specific header written by {@link #writeHeader(DataOutputStream, Collection)},
+	 * and returns it decoded. The header is kept with the index of the file, and
+	 * is available through {@link #getIndexHeader()} while entries of that file
+	 * are read. Subclasses may override.
+	 */
+	protected Object readHeader(DataInputStream source) throws IOException, CoreException {
+		// no header by default
+		return null;
+	}
+
 	/**
 	 * Saves this bucket's contents back to its location.
 	 */
@@ -343,19 +474,45 @@ public abstract class Bucket {
 			if (parent == null)
 				throw new IOException();//caught and rethrown below
 			parent.mkdirs();
-			DataOutputStream destination = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(location), 8192));
+			// keys are sorted so that they can be binary searched when loaded
+			SortedMap<String, Object> sorted = new TreeMap<String, Object>();
+			for (Iterator<Map.Entry<String,Object>> i = entries.entrySet().iterator(); i.hasNext();) {
+				Map.Entry<String,Object> entry = i.next();
+				sorted.put(toStoredKey(entry.getKey()), entry.getValue());
+			}
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			DataOutputStream headerOutput = new DataOutputStream(header);
+			headerOutput.write(getVersion());
+			headerOutput.writeInt(sorted.size());
+			writeHeader(headerOutput, sorted.values());
+			int dataStart = header.size() + 4 * sorted.size();
+			int[] offsets = new int[sorted.size()];
+			ByteArrayOutputStream data = new ByteArrayOutputStream(sorted.size() * 64);
+			DataOutputStream dataOutput = new DataOutputStream(data);
+			int count = 0;
+			for (Iterator<Map.Entry<String,Object>> i = sorted.entrySet().iterator(); i.hasNext();) {
+				Map.Entry<String,Object> entry = i.next();
+				offsets[count++] = dataStart + data.size();
+				dataOutput.writeUTF(entry.getKey());
+				writeEntryValue(dataOutput, entry.getValue());
+			}
+			// write to a new file and rename it, so that any mapping of the old file stays valid
+			File temp = new File(location.getParentFile(), location.getName() + ".new"); //$NON-NLS-1$
+			DataOutputStream destination = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 8192));
 			try {
-				destination.write(getVersion());
-				destination.writeInt(entries.size());
-				for (Iterator<Map.Entry<String,Object>> i = entries.entrySet().iterator(); i.hasNext();) {
-					Map.Entry<String,Object> entry = i.next();
-					writeEntryKey(destination, entry.getKey());
-					writeEntryValue(destination, entry.getValue());
-				}
+				header.writeTo(destination);
+				for (int i = 0; i < offsets.length; i++)
+					destination.writeInt(offsets[i]);
+				data.writeTo(destination);
 				destination.close();
 			} finally {
 				FileUtil.safeClose(destination);
 			}
+			if (!temp.renameTo(location)) {
+				location.delete();
+				if (!temp.renameTo(location))
+					throw new IOException();//caught and rethrown below
+			}
 			needSaving = false;
 		} catch (IOException ioe) {
 			String message = NLS.bind(Messages.resources_writeMeta, location.getAbsolutePath());
@@ -368,7 +525,8 @@ public abstract class Bucket {
 	 * Sets the value for the entry with the given path. If <code>value</code> is <code>null</code>,
 	 * removes the entry. 
 	 */
-	public final void setEntryValue(String path, Object value) {
+	public final void setEntryValue(String path, Object value) throws CoreException {
+		materialize();
 		if (value == null)
 			entries.remove(path);
 		else
@@ -376,16 +534,28 @@ public abstract class Bucket {
 		needSaving = true;
 	}
 
-	private void writeEntryKey(DataOutputStream destination, String path) throws IOException {
-		if (projectName == null) {
-			destination.writeUTF(path);
-			return;
-		}
-		// omit the project name
+	/**
+	 * Returns the key under which the entry for the given path is stored in
+	 * the bucket file, which omits the project name. Returns <code>null</code>
+	 * if the path does not belong to this bucket.
+	 */
+	private String toStoredKey(String path) {
+		if (projectName == null)
+			return path;
 		int pathLength = path.length();
 		int projectLength = projectName.length();
-		String key = (pathLength == projectLength + 1) ? "" : path.substring(projectLength + 1); //$NON-NLS-1$
-		destination.writeUTF(key);
+		if (pathLength <= projectLength || !path.startsWith(projectName, 1))
+			return null;
+		return (pathLength == projectLength + 1) ? "" : path.substring(projectLength + 1); //$NON-NLS-1$
+	}
+
+	/**
+	 * Writes a bucket specific header, given all values about to be written.
+	 * The header is written once per file, before any entry. Subclasses may
+	 * override, and must then also override {@link #readHeader(DataInputStream)}.
+	 */
+	protected void writeHeader(DataOutputStream destination, Collection<Object> values) throws IOException, CoreException {
+		// no header by default
 	}
 
 	/**
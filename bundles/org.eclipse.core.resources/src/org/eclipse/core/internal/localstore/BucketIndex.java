@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.localstore;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.eclipse.core.runtime.Platform;
+
+/**
+ * A read-only view on the contents of an indexed bucket file. The file
+ * is either memory-mapped or, for small files, read in a single operation.
+ * Keys are stored in sorted order and can be looked up by binary search
+ * through a table of entry offsets. Values are only decoded on request.
+ * <p>
+ * Indexed bucket files have the following layout:
+ * <pre>
+ * FILE ::= VERSION_ID ENTRY_COUNT HEADER OFFSET* ENTRY*
+ * ENTRY_COUNT ::= int
+ * HEADER ::= bucket specific, see Bucket#writeHeader
+ * OFFSET ::= int (position of an ENTRY in the file, in key order)
+ * ENTRY ::= KEY VALUE
+ * KEY ::= string (does not include project name)
+ * VALUE ::= bucket specific, see Bucket#writeEntryValue
+ * </pre>
+ * </p>
+ *
+ * @since 3.9
+ */
+class BucketIndex {
+	/**
+	 * Files smaller than this are read into the heap rather than mapped,
+	 * since mapping has a relatively high fixed cost.
+	 */
+	private static final int MAP_THRESHOLD = 64 * 1024;
+
+	/**
+	 * Mapped files cannot be replaced on Windows while the mapping is alive,
+	 * which is until the buffer is garbage collected.
+	 */
+	private static final boolean CAN_MAP = !Platform.OS_WIN32.equals(Platform.getOS());
+
+	/**
+	 * An input stream reading from a byte buffer, starting at its current position.
+	 */
+	static class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int available() {
+			return buffer.remaining();
+		}
+
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		public long skip(long n) {
+			int skipped = (int) Math.min(n, buffer.remaining());
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+	}
+
+	private final ByteBuffer buffer;
+	private final int entryCount;
+	/**
+	 * The bucket specific header read before the offsets, or <code>null</code>.
+	 */
+	private final Object header;
+	private final int offsetsStart;
+
+	/**
+	 * Reads the whole given file into a buffer.
+	 */
+	static ByteBuffer read(File location) throws IOException {
+		FileInputStream input = new FileInputStream(location);
+		try {
+			FileChannel channel = input.getChannel();
+			long size = channel.size();
+			if (CAN_MAP && size >= MAP_THRESHOLD)
+				// the mapping remains valid after the channel is closed
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			ByteBuffer result = ByteBuffer.allocate((int) size);
+			while (result.hasRemaining())
+				if (channel.read(result) < 0)
+					throw new EOFException();
+			result.flip();
+			return result;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Creates an index on the given buffer. The buffer's position must be
+	 * right after the bucket header, at the beginning of the offset table.
+	 * The decoded header is kept with the index, since entries may refer to it.
+	 */
+	BucketIndex(ByteBuffer buffer, int entryCount, Object header) {
+		this.buffer = buffer;
+		this.entryCount = entryCount;
+		this.header = header;
+		this.offsetsStart = buffer.position();
+	}
+
+	/**
+	 * Returns the bucket specific header read with this index, or <code>null</code>.
+	 */
+	Object getHeader() {
+		return header;
+	}
+
+	/**
+	 * Returns the index of the entry with the given key, or <code>-1</code>
+	 * if there is none.
+	 */
+	int find(String key) throws IOException {
+		int low = 0;
+		int high = entryCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int comparison = readKey(mid).compareTo(key);
+			if (comparison < 0)
+				low = mid + 1;
+			else if (comparison > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * Returns a stream positioned at the entry with the given index. Entries
+	 * are laid out consecutively, so the stream can be used to read all
+	 * entries starting from the given one.
+	 */
+	DataInputStream openEntry(int entry) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(buffer.getInt(offsetsStart + 4 * entry));
+		return new DataInputStream(new BufferInputStream(view));
+	}
+
+	/**
+	 * Returns the key of the entry with the given index, as stored in the file.
+	 */
+	String readKey(int entry) throws IOException {
+		return openEntry(entry).readUTF();
+	}
+}
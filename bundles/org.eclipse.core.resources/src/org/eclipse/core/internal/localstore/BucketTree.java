@@ -12,6 +12,7 @@
 package org.eclipse.core.internal.localstore;
 
 import java.io.*;
+import java.util.*;
 import org.eclipse.core.internal.localstore.Bucket.Visitor;
 import org.eclipse.core.internal.resources.ResourceException;
 import org.eclipse.core.internal.resources.Workspace;
@@ -23,6 +24,15 @@ import org.eclipse.osgi.util.NLS;
 
 
 /**
+ * A tree of buckets mirroring the resource tree, one bucket per folder.
+ * <p>
+ * If the bucket kind supports it (see {@link Bucket#newBucket()}), recently
+ * used buckets are kept loaded, so that alternating between a few folders does
+ * not read and write the bucket files on every switch. Modified buckets are
+ * written when they are evicted from the cache, or when the tree is saved or
+ * closed. Clients must therefore always obtain the bucket to work with from
+ * {@link #getCurrent()} after loading, rather than keeping a reference around.
+ * </p>
  * @since 3,1
  */
 public class BucketTree {
@@ -30,6 +40,17 @@ public class BucketTree {
 	public static final int DEPTH_ONE = 1;
 	public static final int DEPTH_ZERO = 0;
 
+	/**
+	 * The maximum number of buckets kept loaded.
+	 */
+	private final static int MAX_CACHED_BUCKETS = 32;
+
+	/**
+	 * The maximum number of entries in all loaded buckets together. The current
+	 * bucket is kept loaded even if it alone exceeds this limit.
+	 */
+	private final static int MAX_CACHED_ENTRIES = 16384;
+
 	private final static int SEGMENT_QUOTA = 256; //two hex characters
 	
 	/**
@@ -43,6 +64,12 @@ public class BucketTree {
 			HEX_STRINGS[i] = Integer.toHexString(i).toCharArray();
 	}
 
+	/**
+	 * Loaded buckets by the directory they were loaded from, least recently 
+	 * used first. <code>null</code> if buckets cannot be cached.
+	 */
+	private final Map<File, Bucket> cache;
+
 	protected Bucket current;
 
 	private Workspace workspace;
@@ -50,6 +77,7 @@ public class BucketTree {
 	public BucketTree(Workspace workspace, Bucket bucket) {
 		this.current = bucket;
 		this.workspace = workspace;
+		this.cache = bucket.newBucket() == null ? null : new LinkedHashMap<File, Bucket>(MAX_CACHED_BUCKETS, 0.75f, true);
 	}
 
 	/**
@@ -60,7 +88,7 @@ public class BucketTree {
 	 */
 	public void accept(Bucket.Visitor visitor, IPath base, int depth) throws CoreException {
 		if (Path.ROOT.equals(base)) {
-			current.load(null, locationFor(Path.ROOT));
+			load(null, locationFor(Path.ROOT));
 			if (current.accept(visitor, base, DEPTH_ZERO) != Visitor.CONTINUE)
 				return;
 			if (depth == DEPTH_ZERO)
@@ -76,11 +104,73 @@ public class BucketTree {
 			internalAccept(visitor, base, locationFor(base), depth, 0);
 	}
 
+	/**
+	 * Visits all entries of a single bucket, and returns the directories of
+	 * its child buckets. This allows visiting the tree one bucket at a time,
+	 * starting with the buckets for the workspace root and for each project 
+	 * (see {@link #locationFor(IPath)}).
+	 * 
+	 * @param visitor the visitor
+	 * @param projectName the project the bucket belongs to, or <code>null</code>
+	 * for the bucket of the workspace root
+	 * @param bucketDir the directory of the bucket
+	 */
+	public File[] acceptBucket(Bucket.Visitor visitor, String projectName, File bucketDir) throws CoreException {
+		load(projectName, bucketDir);
+		if (projectName == null) {
+			// the root bucket only holds the entry for the root itself 
+			current.accept(visitor, Path.ROOT, DEPTH_ZERO);
+			return new File[0];
+		}
+		current.accept(visitor, Path.ROOT.append(projectName), DEPTH_INFINITE);
+		File[] subDirs = bucketDir.listFiles();
+		if (subDirs == null)
+			return new File[0];
+		List<File> result = new ArrayList<File>(subDirs.length);
+		for (int i = 0; i < subDirs.length; i++)
+			if (subDirs[i].isDirectory())
+				result.add(subDirs[i]);
+		return result.toArray(new File[result.size()]);
+	}
+
 	public void close() throws CoreException {
-		current.save();
+		save();
 		saveVersion();
 	}
 
+	/**
+	 * Evicts the least recently used buckets until the cache is within its limits.
+	 */
+	private void evict() throws CoreException {
+		int entryCount = 0;
+		for (Iterator<Bucket> i = cache.values().iterator(); i.hasNext();)
+			entryCount += i.next().getEntryCount();
+		for (Iterator<Bucket> i = cache.values().iterator(); i.hasNext();) {
+			if (cache.size() <= MAX_CACHED_BUCKETS && entryCount <= MAX_CACHED_ENTRIES)
+				return;
+			Bucket bucket = i.next();
+			if (bucket == current)
+				continue;
+			i.remove();
+			entryCount -= bucket.getEntryCount();
+			bucket.save();
+		}
+	}
+
+	/**
+	 * Saves all modified buckets and discards all loaded state. This must be
+	 * called when the bucket files of a project are about to go away.
+	 */
+	public void flush() throws CoreException {
+		try {
+			save();
+		} finally {
+			if (cache != null)
+				cache.clear();
+			current.flush();
+		}
+	}
+
 	public Bucket getCurrent() {
 		return current;
 	}
@@ -95,7 +185,7 @@ public class BucketTree {
 	 * @return whether to continue visiting other branches 
 	 */
 	private boolean internalAccept(Bucket.Visitor visitor, IPath base, File bucketDir, int depthRequested, int currentDepth) throws CoreException {
-		current.load(base.segment(0), bucketDir);
+		load(base.segment(0), bucketDir);
 		int outcome = current.accept(visitor, base, depthRequested);
 		if (outcome != Visitor.CONTINUE)
 			return outcome == Visitor.RETURN;
@@ -111,11 +201,38 @@ public class BucketTree {
 		return true;
 	}
 
+	/**
+	 * Makes the bucket for the given directory the current one.
+	 */
+	private void load(String projectName, File bucketDir) throws CoreException {
+		if (cache == null || bucketDir.equals(current.getBaseLocation())) {
+			current.load(projectName, bucketDir);
+			return;
+		}
+		Bucket cached = cache.get(bucketDir);
+		// ignore buckets that have been flushed since they were cached
+		if (cached != null && bucketDir.equals(cached.getBaseLocation())) {
+			current = cached;
+			return;
+		}
+		Bucket bucket;
+		if (current.getBaseLocation() == null) {
+			// reuse the flushed bucket
+			bucket = current;
+			cache.values().removeAll(Collections.singleton(bucket));
+		} else
+			bucket = current.newBucket();
+		bucket.load(projectName, bucketDir);
+		current = bucket;
+		cache.put(bucketDir, bucket);
+		evict();
+	}
+
 	public void loadBucketFor(IPath path) throws CoreException {
-		current.load(Path.ROOT.equals(path) ? null : path.segment(0), locationFor(path));
+		load(Path.ROOT.equals(path) ? null : path.segment(0), locationFor(path));
 	}
 
-	private File locationFor(IPath resourcePath) {
+	File locationFor(IPath resourcePath) {
 		//optimized to avoid string and path creations
 		IPath baseLocation = workspace.getMetaArea().locationFor(resourcePath).removeTrailingSeparator();
 		int segmentCount = resourcePath.segmentCount();
@@ -133,6 +250,20 @@ public class BucketTree {
 		return new File(locationBuffer.toString());
 	}
 
+	/**
+	 * Writes all modified buckets to disk.
+	 */
+	public void save() throws CoreException {
+		if (cache == null) {
+			current.save();
+			return;
+		}
+		for (Iterator<Bucket> i = cache.values().iterator(); i.hasNext();)
+			i.next().save();
+		// the current bucket may have been flushed and reloaded independently
+		current.save();
+	}
+
 	/**
 	 * Writes the version tag to a file on disk.
 	 */
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -712,6 +712,7 @@ public class FileSystemResourceManager implements ICoreConstants, IManager, Pref
 		}
 		IsSynchronizedVisitor visitor = new IsSynchronizedVisitor(Policy.monitorFor(null));
 		UnifiedTree tree = new UnifiedTree(target);
+		tree.setParallel(depth == IResource.DEPTH_INFINITE);
 		try {
 			tree.accept(visitor, depth);
 		} catch (CoreException e) {
@@ -914,9 +915,13 @@ public class FileSystemResourceManager implements ICoreConstants, IManager, Pref
 			monitor.beginTask(title, totalWork);
 			RefreshLocalVisitor visitor = updateAliases ? new RefreshLocalAliasVisitor(monitor) : new RefreshLocalVisitor(monitor);
 			IFileStore fileStore = ((Resource) target).getStore();
-			//try to get all info in one shot, if file system supports it
-			IFileTree fileTree = fileStore.getFileSystem().fetchFileTree(fileStore, new SubProgressMonitor(monitor, 0));
+			//try to get all info in one shot, if file system supports it and the whole subtree is needed
+			IFileTree fileTree = null;
+			if (depth == IResource.DEPTH_INFINITE && target.getType() != IResource.FILE && !hasFilters(target))
+				fileTree = fileStore.getFileSystem().fetchFileTree(fileStore, new SubProgressMonitor(monitor, 0));
 			UnifiedTree tree = fileTree == null ? new UnifiedTree(target) : new UnifiedTree(target, fileTree);
+			//a file tree already fetches ahead of the visitor
+			tree.setParallel(depth == IResource.DEPTH_INFINITE && fileTree == null);
 			tree.accept(visitor, depth);
 			IStatus result = visitor.getErrorStatus();
 			if (!result.isOK())
@@ -927,6 +932,19 @@ public class FileSystemResourceManager implements ICoreConstants, IManager, Pref
 		}
 	}
 
+	/**
+	 * Returns whether the project of the given resource has resource filters.
+	 * The file tree of such a project is not fetched ahead, since it would
+	 * include the folders hidden by the filters.
+	 */
+	private boolean hasFilters(IResource target) {
+		ProjectDescription description = ((Project) target.getProject()).internalGetDescription();
+		if (description == null)
+			return false;
+		HashMap<IPath, LinkedList<FilterDescription>> filters = description.getFilters();
+		return filters != null && !filters.isEmpty();
+	}
+
 	/**
 	 * Synchronizes the entire workspace with the local file system.
 	 * The current implementation does this by synchronizing each of the
@@ -1097,11 +1115,28 @@ public class FileSystemResourceManager implements ICoreConstants, IManager, Pref
 				getHistoryStore().addState(target.getFullPath(), store, fileInfo, false);
 			if (!fileInfo.exists())
 				store.getParent().mkdir(EFS.NONE, null);
-			int options = append ? EFS.APPEND : EFS.NONE;
-			OutputStream out = store.openOutputStream(options, Policy.subMonitorFor(monitor, 0));
-			FileUtil.transferStreams(content, out, store.toString(), monitor);
-			// get the new last modified time and stash in the info
-			lastModified = store.fetchInfo().getLastModified();
+			// Writing the contents of a file that is already local changes nothing in the tree,
+			// so the workspace lock is released meanwhile, and operations on other resources
+			// may run. The scheduling rule of this operation excludes those on this file.
+			boolean unprotected = fileInfo.exists() && target.isLocal(IResource.DEPTH_ZERO) && workspace.getAliasManager().computeAliases(target, store) == null;
+			WorkManager workManager = workspace.getWorkManager();
+			int depth = -1;
+			try {
+				if (unprotected)
+					depth = workManager.beginUnprotected();
+				int options = append ? EFS.APPEND : EFS.NONE;
+				OutputStream out = store.openOutputStream(options, Policy.subMonitorFor(monitor, 0));
+				FileUtil.transferStreams(content, out, store.toString(), monitor);
+				// get the new last modified time and stash in the info
+				lastModified = store.fetchInfo().getLastModified();
+			} finally {
+				if (depth >= 0) {
+					workManager.endUnprotected(depth);
+					// other operations may have ended meanwhile, so open the tree
+					if (workspace.getElementTree().isImmutable())
+						workspace.newWorkingTree();
+				}
+			}
 			ResourceInfo info = ((Resource) target).getResourceInfo(false, true);
 			updateLocalSync(info, lastModified);
 			info.incrementContentId();
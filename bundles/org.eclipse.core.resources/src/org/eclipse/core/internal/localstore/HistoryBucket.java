@@ -15,6 +15,7 @@ import java.io.*;
 import java.util.Arrays;
 import java.util.Comparator;
 import org.eclipse.core.internal.utils.UniversalUniqueIdentifier;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 
 public class HistoryBucket extends Bucket {
@@ -218,6 +219,13 @@ public class HistoryBucket extends Bucket {
 	/** 
 	 * Version number for the current implementation file's format.
 	 * <p>
+	 * Version 3 (3.9, indexed, see {@link Bucket}):
+	 * <pre>
+	 * FILE ::= VERSION_ID ENTRY_COUNT OFFSET* ENTRY*
+	 * ENTRY ::= PATH STATE_COUNT STATE+
+	 * </pre>
+	 * </p>
+	 * <p>
 	 * Version 2 (3.1 M5):
 	 * <pre>
 	 * FILE ::= VERSION_ID ENTRY+
@@ -242,27 +250,34 @@ public class HistoryBucket extends Bucket {
 	 * </pre>
 	 * </p>
 	 */
-	public final static byte VERSION = 2;
+	public final static byte VERSION = 3;
+
+	private final static byte PREVIOUS_VERSION = 2;
 
 	public HistoryBucket() {
 		super();
 	}
 
-	public void addBlob(IPath path, UniversalUniqueIdentifier uuid, long lastModified) {
+	/**
+	 * Adds a state to the entry for the given path. Returns <code>false</code>
+	 * if the entry already had that state.
+	 */
+	public boolean addBlob(IPath path, UniversalUniqueIdentifier uuid, long lastModified) throws CoreException {
 		byte[] state = HistoryEntry.getState(uuid, lastModified);
 		String pathAsString = path.toString();
 		byte[][] existing = (byte[][]) getEntryValue(pathAsString);
 		if (existing == null) {
 			setEntryValue(pathAsString, new byte[][] {state});
-			return;
+			return true;
 		}
 		byte[][] newValue = HistoryEntry.insert(existing, state);
 		if (newValue == null)
-			return;
+			return false;
 		setEntryValue(pathAsString, newValue);
+		return true;
 	}
 
-	public void addBlobs(HistoryEntry fileEntry) {
+	public void addBlobs(HistoryEntry fileEntry) throws CoreException {
 		IPath path = fileEntry.getPath();
 		byte[][] additions = fileEntry.getData();
 		String pathAsString = path.toString();
@@ -278,7 +293,7 @@ public class HistoryBucket extends Bucket {
 		return new HistoryEntry(path, (byte[][]) value);
 	}
 
-	public HistoryEntry getEntry(IPath path) {
+	public HistoryEntry getEntry(IPath path) throws CoreException {
 		String pathAsString = path.toString();
 		byte[][] existing = (byte[][]) getEntryValue(pathAsString);
 		if (existing == null)
@@ -290,6 +305,10 @@ public class HistoryBucket extends Bucket {
 		return "history.index"; //$NON-NLS-1$
 	}
 	
+	protected byte getPreviousVersion() {
+		return PREVIOUS_VERSION;
+	}
+
 	protected byte getVersion() {
 		return VERSION;
 	}
@@ -298,6 +317,13 @@ public class HistoryBucket extends Bucket {
 		return "history.version"; //$NON-NLS-1$
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.internal.localstore.Bucket#newBucket()
+	 */
+	protected Bucket newBucket() {
+		return new HistoryBucket();
+	}
+
 	protected Object readEntryValue(DataInputStream source) throws IOException {
 		int length = source.readUnsignedShort();
 		byte[][] uuids = new byte[length][HistoryEntry.DATA_LENGTH];
@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.localstore;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.core.filesystem.EFS;
+import org.eclipse.core.filesystem.IFileStore;
+import org.eclipse.core.internal.resources.ResourceStatus;
+import org.eclipse.core.internal.utils.*;
+import org.eclipse.core.internal.utils.Policy;
+import org.eclipse.core.resources.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Applies the history store clean-up policy incrementally, one bucket at a
+ * time. When scheduled, the cleaner runs in slices of bounded duration, like
+ * the polling refresh monitor, and only holds the history store lock while
+ * cleaning a single bucket. Each pass visits the bucket of the workspace root,
+ * then the buckets of each project in depth-first order. The buckets still to
+ * be visited are remembered between slices, and across sessions in a file in
+ * the history store, so a pass resumes where it left off.
+ */
+public class HistoryCleaner extends Job {
+	/**
+	 * The maximum duration of a single slice.
+	 */
+	private static final long MAX_DURATION = 250;
+
+	/**
+	 * The minimum delay between slices.
+	 */
+	private static final long MIN_DELAY = 1000;
+
+	/**
+	 * The delay before resuming a pass left unfinished in an earlier session.
+	 */
+	private static final long RESUME_DELAY = 60000;
+
+	/**
+	 * The name of the file recording the buckets still to be visited.
+	 * <pre>
+	 * FILE ::= COUNT BUCKET*
+	 * COUNT ::= int
+	 * BUCKET ::= PROJECT DIRECTORY
+	 * PROJECT ::= string (empty for the workspace root)
+	 * DIRECTORY ::= string
+	 * </pre>
+	 */
+	private static final String STATE_FILE_NAME = ".cleaner"; //$NON-NLS-1$
+
+	/**
+	 * A bucket still to be visited in the current pass.
+	 */
+	private static class PendingBucket {
+		final File directory;
+		final String projectName;
+
+		PendingBucket(String projectName, File directory) {
+			this.projectName = projectName;
+			this.directory = directory;
+		}
+	}
+
+	/**
+	 * The buckets still to be visited in the current pass, the next one last.
+	 * Guarded by the cleaner, which is never locked while cleaning a bucket.
+	 */
+	private final List<PendingBucket> pending = new ArrayList<PendingBucket>();
+
+	/**
+	 * The file to remember unfinished passes in, or <code>null</code>.
+	 */
+	private final IFileStore stateFile;
+
+	private final HistoryStore2 store;
+
+	/**
+	 * Creates a cleaner for the given store. If a location is given, passes
+	 * that do not finish before shutdown are resumed in the next session.
+	 */
+	public HistoryCleaner(HistoryStore2 store, IFileStore location) {
+		super(Messages.resources_pruningHistory);
+		this.store = store;
+		this.stateFile = location == null ? null : location.getChild(STATE_FILE_NAME);
+		setPriority(Job.DECORATE);
+		setSystem(true);
+	}
+
+	/**
+	 * Starts a new pass over all buckets, unless one is in progress.
+	 */
+	public synchronized void begin() {
+		if (!pending.isEmpty())
+			return;
+		IProject[] projects = store.workspace.getRoot().getProjects(IContainer.INCLUDE_HIDDEN);
+		for (int i = projects.length; --i >= 0;) {
+			IPath projectPath = projects[i].getFullPath();
+			pending.add(new PendingBucket(projectPath.segment(0), store.tree.locationFor(projectPath)));
+		}
+		pending.add(new PendingBucket(null, store.tree.locationFor(Path.ROOT)));
+	}
+
+	/**
+	 * Starts a new pass unless one is in progress, and schedules the cleaner
+	 * to run it in the background.
+	 */
+	void start() {
+		begin();
+		schedule();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.Job#belongsTo(java.lang.Object)
+	 */
+	public boolean belongsTo(Object family) {
+		return family == HistoryCleaner.class;
+	}
+
+	/**
+	 * Cleans the next bucket of the current pass. Returns <code>false</code>
+	 * if the pass is complete.
+	 */
+	boolean cleanNext() throws CoreException {
+		PendingBucket next;
+		synchronized (this) {
+			if (pending.isEmpty())
+				return false;
+			next = pending.remove(pending.size() - 1);
+		}
+		File[] children = store.cleanBucket(next.projectName, next.directory);
+		synchronized (this) {
+			for (int i = children.length; --i >= 0;)
+				pending.add(new PendingBucket(next.projectName, children[i]));
+		}
+		return true;
+	}
+
+	/**
+	 * Cleans buckets of the current pass until the pass is complete, the given
+	 * duration has elapsed or the monitor is canceled. At least one bucket is
+	 * cleaned, and the history store is only locked while a bucket is being
+	 * cleaned. Returns whether the pass is complete.
+	 */
+	public boolean cleanSlice(long maxDuration, IProgressMonitor monitor) throws CoreException {
+		long start = System.currentTimeMillis();
+		int count = 0;
+		boolean done = false;
+		while (!monitor.isCanceled()) {
+			if (!cleanNext()) {
+				store.cleanDone();
+				done = true;
+				break;
+			}
+			count++;
+			if (System.currentTimeMillis() - start >= maxDuration)
+				break;
+		}
+		if (Policy.DEBUG_HISTORY)
+			Policy.debug("History: cleaned " + count + " buckets in " + (System.currentTimeMillis() - start) + "ms."); //$NON-NLS-1$ //$NON-NLS-2$
+		return done;
+	}
+
+	/**
+	 * Reads the buckets left to be visited by a pass that did not finish in
+	 * the previous session, and schedules the cleaner to resume it.
+	 */
+	public void restore() {
+		if (stateFile == null || !stateFile.fetchInfo().exists())
+			return;
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(stateFile.openInputStream(EFS.NONE, null)));
+			int count = input.readInt();
+			for (int i = 0; i < count; i++) {
+				String projectName = input.readUTF();
+				File directory = new File(input.readUTF());
+				// the metadata area may have been moved or the project deleted
+				if (directory.isDirectory())
+					pending.add(new PendingBucket(projectName.length() == 0 ? null : projectName, directory));
+			}
+		} catch (IOException e) {
+			// start over with the next pass
+			pending.clear();
+		} catch (CoreException e) {
+			pending.clear();
+		} finally {
+			FileUtil.safeClose(input);
+		}
+		if (!pending.isEmpty())
+			schedule(RESUME_DELAY);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.Job#run(org.eclipse.core.runtime.IProgressMonitor)
+	 */
+	protected IStatus run(IProgressMonitor monitor) {
+		long start = System.currentTimeMillis();
+		try {
+			if (!cleanSlice(MAX_DURATION, monitor) && !monitor.isCanceled())
+				// make sure it doesn't run more than 20% of the time
+				schedule(Math.max(MIN_DELAY, (System.currentTimeMillis() - start) * 4));
+		} catch (CoreException e) {
+			synchronized (this) {
+				pending.clear();
+			}
+			return new ResourceStatus(IResourceStatus.FAILED_DELETE_LOCAL, null, Messages.history_problemsCleaning, e);
+		}
+		return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+	}
+
+	/**
+	 * Cancels the cleaner, waits for it to stop, and remembers the buckets
+	 * left to be visited in the current pass for the next session.
+	 */
+	public void shutdown() {
+		cancel();
+		try {
+			join();
+		} catch (InterruptedException e) {
+			// save what we have
+		}
+		if (stateFile == null)
+			return;
+		synchronized (this) {
+			save();
+		}
+	}
+
+	/**
+	 * Writes the buckets left to be visited to the state file, or deletes
+	 * it if there are none.
+	 */
+	private void save() {
+		try {
+			if (pending.isEmpty()) {
+				stateFile.delete(EFS.NONE, null);
+				return;
+			}
+		} catch (CoreException e) {
+			Policy.log(e.getStatus());
+			return;
+		}
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(stateFile.openOutputStream(EFS.NONE, null)));
+			output.writeInt(pending.size());
+			for (PendingBucket bucket : pending) {
+				output.writeUTF(bucket.projectName == null ? "" : bucket.projectName); //$NON-NLS-1$
+				output.writeUTF(bucket.directory.getAbsolutePath());
+			}
+			output.close();
+		} catch (IOException e) {
+			String message = NLS.bind(Messages.localstore_couldNotWrite, stateFile.toString());
+			Policy.log(new ResourceStatus(IResourceStatus.FAILED_WRITE_METADATA, null, message, e));
+		} catch (CoreException e) {
+			Policy.log(e.getStatus());
+		} finally {
+			FileUtil.safeClose(output);
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2010 IBM Corporation and others.
+ * Copyright (c) 2004, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.internal.localstore;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.*;
 import org.eclipse.core.filesystem.*;
@@ -20,7 +21,7 @@ import org.eclipse.core.internal.utils.*;
 import org.eclipse.core.resources.*;
 import org.eclipse.core.runtime.*;
 
-public class HistoryStore2 implements IHistoryStore {
+public class HistoryStore2 implements IHistoryStore, Preferences.IPropertyChangeListener {
 
 	class HistoryCopyVisitor extends Bucket.Visitor {
 		private List<HistoryEntry> changes = new ArrayList<HistoryEntry>();
@@ -45,12 +46,22 @@ public class HistoryStore2 implements IHistoryStore {
 			HistoryEntry entry = i.next();
 			tree.loadBucketFor(entry.getPath());
 			HistoryBucket bucket = (HistoryBucket) tree.getCurrent();
-			bucket.addBlobs(entry);
+			addStates(bucket, entry);
 			while (i.hasNext())
-				bucket.addBlobs(i.next());
+				addStates(bucket, i.next());
 			bucket.save();
 		}
 
+		/**
+		 * Adds the states of the given entry to the bucket. The blobs of new
+		 * states are shared with the source, so they gain a reference.
+		 */
+		private void addStates(HistoryBucket bucket, HistoryEntry entry) throws CoreException {
+			for (int i = 0; i < entry.getOccurrences(); i++)
+				if (bucket.addBlob(entry.getPath(), entry.getUUID(i), entry.getTimestamp(i)))
+					blobStore.addReference(entry.getUUID(i));
+		}
+
 		public int visit(Entry sourceEntry) {
 			IPath destinationPath = destination.append(sourceEntry.getPath().removeFirstSegments(source.segmentCount()));
 			HistoryEntry destinationEntry = new HistoryEntry(destinationPath, (HistoryEntry) sourceEntry);
@@ -62,9 +73,16 @@ public class HistoryStore2 implements IHistoryStore {
 	}
 
 	private BlobStore blobStore;
-	private Set<UniversalUniqueIdentifier> blobsToRemove = new HashSet<UniversalUniqueIdentifier>();
+	/**
+	 * Applies the clean-up policy in the background.
+	 */
+	private final HistoryCleaner cleaner;
+	/**
+	 * Blobs to remove one reference from, once per state that was removed.
+	 */
+	private List<UniversalUniqueIdentifier> blobsToRemove = new ArrayList<UniversalUniqueIdentifier>();
 	final BucketTree tree;
-	private Workspace workspace;
+	final Workspace workspace;
 
 	public HistoryStore2(Workspace workspace, IFileStore store, int limit) {
 		this.workspace = workspace;
@@ -76,6 +94,11 @@ public class HistoryStore2 implements IHistoryStore {
 		}
 		this.blobStore = new BlobStore(store, limit);
 		this.tree = new BucketTree(workspace, new HistoryBucket());
+		this.cleaner = new HistoryCleaner(this, store);
+		cleaner.restore();
+		Preferences preferences = ResourcesPlugin.getPlugin().getPluginPreferences();
+		preferences.addPropertyChangeListener(this);
+		updateCompression(preferences);
 	}
 
 	/**
@@ -89,10 +112,17 @@ public class HistoryStore2 implements IHistoryStore {
 			return null;
 		UniversalUniqueIdentifier uuid = null;
 		try {
-			uuid = blobStore.addBlob(localFile, moveContents);
 			tree.loadBucketFor(key);
 			HistoryBucket currentBucket = (HistoryBucket) tree.getCurrent();
-			currentBucket.addBlob(key, uuid, lastModified);
+			// the previous state may be stored as a delta against the new one
+			HistoryEntry fileEntry = currentBucket.getEntry(key);
+			UniversalUniqueIdentifier previous = fileEntry == null || fileEntry.isEmpty() ? null : fileEntry.getUUID(0);
+			uuid = blobStore.addBlob(localFile, moveContents, previous);
+			if (!currentBucket.addBlob(key, uuid, lastModified)) {
+				// the identical state was already there, release the new reference
+				checkReferences();
+				blobStore.deleteBlob(uuid);
+			}
 			//			currentBucket.save();
 		} catch (CoreException e) {
 			log(e);
@@ -142,36 +172,62 @@ public class HistoryStore2 implements IHistoryStore {
 				return CONTINUE;
 			}
 		}, root, BucketTree.DEPTH_INFINITE);
-		tree.getCurrent().save();
+		tree.save();
+		blobStore.save();
+	}
+
+	/**
+	 * Recounts the references to each blob from the buckets if the counts
+	 * of the blob store are stale, as after a crash. This must be done before
+	 * any blob is deleted.
+	 */
+	private void checkReferences() throws CoreException {
+		if (blobStore.hasStaleReferences())
+			countReferences();
+	}
+
+	/**
+	 * Counts the references to each blob held by the states in the buckets,
+	 * and replaces the counts of the blob store with them.
+	 */
+	private Map<UniversalUniqueIdentifier, Integer> countReferences() throws CoreException {
+		final Map<UniversalUniqueIdentifier, Integer> references = new HashMap<UniversalUniqueIdentifier, Integer>();
+		tree.accept(new Bucket.Visitor() {
+			public int visit(Entry fileEntry) {
+				for (int i = 0; i < fileEntry.getOccurrences(); i++) {
+					UniversalUniqueIdentifier uuid = ((HistoryEntry) fileEntry).getUUID(i);
+					Integer count = references.get(uuid);
+					references.put(uuid, new Integer(count == null ? 1 : count.intValue() + 1));
+				}
+				return CONTINUE;
+			}
+		}, Path.ROOT, BucketTree.DEPTH_INFINITE);
+		blobStore.setReferences(references);
+		return references;
 	}
 
-	public synchronized void clean(final IProgressMonitor monitor) {
+	/**
+	 * Applies the clean-up policy in a full pass over the store. The store is
+	 * only locked while a single bucket is being cleaned.
+	 */
+	public void clean(final IProgressMonitor monitor) {
 		long start = System.currentTimeMillis();
 		try {
 			monitor.beginTask(Messages.resources_pruningHistory, IProgressMonitor.UNKNOWN);
-			IWorkspaceDescription description = workspace.internalGetDescription();
-			final long minimumTimestamp = System.currentTimeMillis() - description.getFileStateLongevity();
-			final int maxStates = description.getMaxFileStates();
-			final int[] entryCount = new int[1];
-			if (description.isApplyFileStatePolicy()) {
-				tree.accept(new Bucket.Visitor() {
-					public int visit(Entry fileEntry) {
-						if (monitor.isCanceled())
-							return STOP;
-						entryCount[0] += fileEntry.getOccurrences();
-						applyPolicy((HistoryEntry) fileEntry, maxStates, minimumTimestamp);
-						// remove unreferenced blobs, when blobsToRemove size is greater than 100
-						removeUnreferencedBlobs(100);
-						return monitor.isCanceled() ? STOP : CONTINUE;
-					}
-				}, Path.ROOT, BucketTree.DEPTH_INFINITE);
+			int bucketCount = 0;
+			if (workspace.internalGetDescription().isApplyFileStatePolicy()) {
+				HistoryCleaner pass = new HistoryCleaner(this, null);
+				pass.begin();
+				while (!monitor.isCanceled() && pass.cleanNext()) {
+					bucketCount++;
+					monitor.worked(1);
+				}
 			}
 			if (Policy.DEBUG_HISTORY) {
 				Policy.debug("Time to apply history store policies: " + (System.currentTimeMillis() - start) + "ms."); //$NON-NLS-1$ //$NON-NLS-2$
-				Policy.debug("Total number of history store entries: " + entryCount[0]); //$NON-NLS-1$
+				Policy.debug("Total number of history store buckets: " + bucketCount); //$NON-NLS-1$
 			}
-			// remove all remaining unreferenced blobs
-			removeUnreferencedBlobs(0);
+			cleanDone();
 		} catch (Exception e) {
 			String message = Messages.history_problemsCleaning;
 			ResourceStatus status = new ResourceStatus(IResourceStatus.FAILED_DELETE_LOCAL, null, message, e);
@@ -181,19 +237,68 @@ public class HistoryStore2 implements IHistoryStore {
 		}
 	}
 	
+	/**
+	 * Applies the clean-up policy to the entries of a single bucket, and
+	 * returns the directories of its child buckets.
+	 * 
+	 * @see BucketTree#acceptBucket(Bucket.Visitor, String, File)
+	 */
+	synchronized File[] cleanBucket(String projectName, File bucketDir) throws CoreException {
+		IWorkspaceDescription description = workspace.internalGetDescription();
+		final long minimumTimestamp = System.currentTimeMillis() - description.getFileStateLongevity();
+		final int maxStates = description.getMaxFileStates();
+		File[] children = tree.acceptBucket(new Bucket.Visitor() {
+			public int visit(Entry fileEntry) {
+				applyPolicy((HistoryEntry) fileEntry, maxStates, minimumTimestamp);
+				return CONTINUE;
+			}
+		}, projectName, bucketDir);
+		// the bucket has been saved, the removed states' blobs can go
+		removeUnreferencedBlobs(0);
+		blobStore.save();
+		return children;
+	}
+
+	/**
+	 * Finishes cleaning the store: writes any states added or removed since the
+	 * last save, and then removes the blobs of all states removed since.
+	 */
+	synchronized void cleanDone() throws CoreException {
+		tree.save();
+		removeUnreferencedBlobs(0);
+		blobStore.save();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.internal.localstore.IHistoryStore#cleanInBackground()
+	 */
+	public void cleanInBackground() {
+		if (workspace.internalGetDescription().isApplyFileStatePolicy()) {
+			cleaner.start();
+			return;
+		}
+		try {
+			cleanDone();
+		} catch (CoreException e) {
+			log(e);
+		}
+	}
+
 	/*
 	 * Remove blobs from the blobStore. When the size of blobsToRemove exceeds the limit,
 	 * remove the given blobs from blobStore. If the limit is zero or negative, remove blobs
-	 * regardless of the limit.
+	 * regardless of the limit. The buckets that held the removed states must have been
+	 * saved.
 	 */
-	void removeUnreferencedBlobs(int limit) {
+	void removeUnreferencedBlobs(int limit) throws CoreException {
 		if (limit <= 0 || limit <= blobsToRemove.size()) {
+			checkReferences();
 			long start = System.currentTimeMillis();
 			// remove unreferenced blobs
 			blobStore.deleteBlobs(blobsToRemove);
 			if (Policy.DEBUG_HISTORY)
 				Policy.debug("Time to remove " + blobsToRemove.size() + " unreferenced blobs: " + (System.currentTimeMillis() - start) + "ms."); //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$			
-			blobsToRemove = new HashSet<UniversalUniqueIdentifier>();
+			blobsToRemove = new ArrayList<UniversalUniqueIdentifier>();
 		}
 	}
 
@@ -202,8 +307,7 @@ public class HistoryStore2 implements IHistoryStore {
 	 */
 	public void closeHistoryStore(IResource resource) {
 		try {
-			tree.getCurrent().save();
-			tree.getCurrent().flush();
+			tree.flush();
 		} catch (CoreException e) {
 			log(e);
 		}
@@ -239,9 +343,7 @@ public class HistoryStore2 implements IHistoryStore {
 			// special case: we are moving a project
 			if (moving && sourceResource.getType() == IResource.PROJECT) {
 				// flush the tree to avoid confusion if another project is created with the same name
-				final Bucket bucket = tree.getCurrent();
-				bucket.save();
-				bucket.flush();
+				tree.flush();
 				return;
 			}
 			// copy history by visiting the source tree
@@ -258,6 +360,9 @@ public class HistoryStore2 implements IHistoryStore {
 		return blobStore.fileFor(((FileState) target).getUUID()).fetchInfo().exists();
 	}
 
+	/**
+	 * Returns the cleaner applying the clean-up policy in the background.
+	 */
 	public InputStream getContents(IFileState target) throws CoreException {
 		if (!target.exists()) {
 			String message = Messages.history_notValid;
@@ -273,7 +378,17 @@ public class HistoryStore2 implements IHistoryStore {
 			HistoryEntry fileEntry = currentBucket.getEntry(filePath);
 			if (fileEntry == null || fileEntry.isEmpty())
 				return new IFileState[0];
-			IFileState[] states = new IFileState[fileEntry.getOccurrences()];
+			// hide the states the cleaner has not removed yet
+			int count = fileEntry.getOccurrences();
+			WorkspaceDescription description = workspace.internalGetDescription();
+			if (description.isApplyFileStatePolicy()) {
+				long minimumTimestamp = System.currentTimeMillis() - description.getFileStateLongevity();
+				count = Math.min(count, description.getMaxFileStates());
+				// states are sorted from the newest to the oldest
+				while (count > 0 && fileEntry.getTimestamp(count - 1) < minimumTimestamp)
+					count--;
+			}
+			IFileState[] states = new IFileState[count];
 			for (int i = 0; i < states.length; i++)
 				states[i] = new FileState(this, fileEntry.getPath(), fileEntry.getTimestamp(i), fileEntry.getUUID(i));
 			return states;
@@ -320,9 +435,18 @@ public class HistoryStore2 implements IHistoryStore {
 		Policy.log(status);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.Preferences.IPropertyChangeListener#propertyChange(org.eclipse.core.runtime.Preferences.PropertyChangeEvent)
+	 */
+	public void propertyChange(Preferences.PropertyChangeEvent event) {
+		String property = event.getProperty();
+		if (PreferenceInitializer.PREF_HISTORY_COMPRESSION_LEVEL.equals(property) || PreferenceInitializer.PREF_MAX_HISTORY_DELTA_CHAIN.equals(property))
+			updateCompression(ResourcesPlugin.getPlugin().getPluginPreferences());
+	}
+
 	public synchronized void remove(IPath root, IProgressMonitor monitor) {
 		try {
-			final Set<UniversalUniqueIdentifier> tmpBlobsToRemove = blobsToRemove;
+			final List<UniversalUniqueIdentifier> tmpBlobsToRemove = blobsToRemove;
 			tree.accept(new Bucket.Visitor() {
 				public int visit(Entry fileEntry) {
 					for (int i = 0; i < fileEntry.getOccurrences(); i++)
@@ -342,17 +466,13 @@ public class HistoryStore2 implements IHistoryStore {
 	 */
 	public synchronized void removeGarbage() {
 		try {
-			final Set<UniversalUniqueIdentifier> tmpBlobsToRemove = blobsToRemove;
-			tree.accept(new Bucket.Visitor() {
-				public int visit(Entry fileEntry) {
-					for (int i = 0; i < fileEntry.getOccurrences(); i++)
-						// remember we need to delete the files later
-						tmpBlobsToRemove.remove(((HistoryEntry) fileEntry).getUUID(i));
-					return CONTINUE;
-				}
-			}, Path.ROOT, BucketTree.DEPTH_INFINITE);
-			blobStore.deleteBlobs(blobsToRemove);
-			blobsToRemove = new HashSet<UniversalUniqueIdentifier>();
+			Map<UniversalUniqueIdentifier, Integer> references = countReferences();
+			// the counts already account for all removed states, only delete the unreferenced blobs
+			for (Iterator<UniversalUniqueIdentifier> i = blobsToRemove.iterator(); i.hasNext();)
+				if (references.containsKey(i.next()))
+					i.remove();
+			blobStore.deleteBlobs(new HashSet<UniversalUniqueIdentifier>(blobsToRemove));
+			blobsToRemove = new ArrayList<UniversalUniqueIdentifier>();
 		} catch (Exception e) {
 			String message = Messages.history_problemsCleaning;
 			ResourceStatus status = new ResourceStatus(IResourceStatus.FAILED_DELETE_LOCAL, null, message, e);
@@ -360,11 +480,26 @@ public class HistoryStore2 implements IHistoryStore {
 		}
 	}
 
-	public synchronized void shutdown(IProgressMonitor monitor) throws CoreException {
-		tree.close();
+	public void shutdown(IProgressMonitor monitor) throws CoreException {
+		ResourcesPlugin.getPlugin().getPluginPreferences().removePropertyChangeListener(this);
+		// a pass still in progress is resumed in the next session
+		cleaner.shutdown();
+		synchronized (this) {
+			tree.close();
+			blobStore.save();
+		}
 	}
 
 	public void startup(IProgressMonitor monitor) {
 		// nothing to be done
 	}
+
+	/**
+	 * Applies the compression preferences to the blob store. They are read
+	 * from the preferences rather than from the workspace description, which
+	 * may not be synchronized yet when the change is notified.
+	 */
+	private synchronized void updateCompression(Preferences preferences) {
+		blobStore.setCompression(preferences.getInt(PreferenceInitializer.PREF_HISTORY_COMPRESSION_LEVEL), preferences.getInt(PreferenceInitializer.PREF_MAX_HISTORY_DELTA_CHAIN));
+	}
 }
@@ -93,6 +93,14 @@ public interface IHistoryStore extends IManager {
 	 */
 	public void clean(IProgressMonitor monitor);
 
+	/**
+	 * Cleans this store applying the current policies, like {@link #clean(IProgressMonitor)},
+	 * but in the background. Depending on the implementation, cleaning may
+	 * be spread over time, and resumed in the next session if the workspace
+	 * is shut down before it is complete.
+	 */
+	public void cleanInBackground();
+
 	/**
 	 * Closes the history store for the given resource.
 	 */
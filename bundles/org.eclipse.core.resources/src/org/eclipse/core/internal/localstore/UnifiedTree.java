@@ -17,6 +17,7 @@ package org.eclipse.core.internal.localstore;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Pattern;
 import org.eclipse.core.filesystem.*;
 import org.eclipse.core.internal.refresh.RefreshJob;
@@ -41,6 +42,16 @@ public class UnifiedTree {
 
 	private static final IFileInfo[] NO_CHILDREN = new IFileInfo[0];
 
+	/**
+	 * The maximum number of folders whose children are fetched ahead of the
+	 * visitor in parallel mode. This bounds the memory held by fetched lists
+	 * that the visitor has not consumed yet.
+	 */
+	private static final int MAX_PENDING_FETCHES = 1024;
+
+	/** The pool fetching local children in parallel mode, shared by all trees */
+	private static ForkJoinPool fetchPool;
+
 	/** Singleton to indicate no local children */
 	private static final IResource[] NO_RESOURCES = new IResource[0];
 
@@ -55,8 +66,15 @@ public class UnifiedTree {
 
 	/** Spare node objects available for reuse */
 	protected ArrayList<UnifiedTreeNode> freeNodes = new ArrayList<UnifiedTreeNode>();
+	/** the depth requested for the current traversal */
+	protected int depth;
 	/** tree's actual level */
 	protected int level;
+	/**
+	 * Local children being fetched ahead of the visitor, keyed by the folder's
+	 * store, or <code>null</code> if the tree does not run in parallel mode.
+	 */
+	protected Map<IFileStore, Future<IFileInfo[]>> pendingFetches;
 	/** our queue */
 	protected Queue<UnifiedTreeNode> queue;
 
@@ -89,35 +107,65 @@ public class UnifiedTree {
 		accept(visitor, IResource.DEPTH_INFINITE);
 	}
 
+	/**
+	 * Turns the parallel mode of this tree on or off. In parallel mode, the
+	 * children of local folders are fetched from the file system on a pool of
+	 * threads as soon as the folders are added to the queue, ahead of the
+	 * visitor. The visitor itself, and therefore all workspace tree
+	 * modifications, still runs serially on the calling thread in
+	 * breadth-first order.
+	 * <p>
+	 * Only stores of the local file system are fetched in parallel, since
+	 * other file system implementations are not required to be thread safe.
+	 * Stores that are part of the file tree of this unified tree are not
+	 * fetched either, since the file tree provides their children.
+	 * </p>
+	 */
+	public void setParallel(boolean parallel) {
+		if (!parallel) {
+			cancelPendingFetches();
+			pendingFetches = null;
+		} else if (pendingFetches == null)
+			pendingFetches = new HashMap<IFileStore, Future<IFileInfo[]>>();
+	}
+
 	/**
 	 * Performs a breadth-first traversal of the unified tree, passing each
 	 * node to the provided visitor.
 	 */
 	public void accept(IUnifiedTreeVisitor visitor, int depth) throws CoreException {
 		Assert.isNotNull(root);
+		this.depth = depth;
 		initializeQueue();
 		setLevel(0, depth);
-		while (!queue.isEmpty()) {
-			UnifiedTreeNode node = queue.remove();
-			if (isChildrenMarker(node))
-				continue;
-			if (isLevelMarker(node)) {
-				if (!setLevel(getLevel() + 1, depth))
-					break;
-				continue;
-			}
-			if (visitor.visit(node))
-				addNodeChildrenToQueue(node);
-			else
-				removeNodeChildrenFromQueue(node);
-			//allow reuse of the node, but don't let the freeNodes list grow infinitely
-			if (freeNodes.size() < 32767) {
-				//free memory-consuming elements of the node for garbage collection
-				node.releaseForGc();
-				freeNodes.add(node);
+		try {
+			while (!queue.isEmpty()) {
+				UnifiedTreeNode node = queue.remove();
+				if (isChildrenMarker(node))
+					continue;
+				if (isLevelMarker(node)) {
+					if (!setLevel(getLevel() + 1, depth))
+						break;
+					continue;
+				}
+				if (visitor.visit(node))
+					addNodeChildrenToQueue(node);
+				else {
+					removeNodeChildrenFromQueue(node);
+					cancelPendingFetch(node);
+				}
+				//allow reuse of the node, but don't let the freeNodes list grow infinitely
+				if (freeNodes.size() < 32767) {
+					//free memory-consuming elements of the node for garbage collection
+					node.releaseForGc();
+					freeNodes.add(node);
+				}
+				//else, the whole node will be garbage collected since there is no
+				//reference to it any more.
 			}
-			//else, the whole node will be garbage collected since there is no
-			//reference to it any more.
+		} finally {
+			//don't leave fetches running for nodes that will never be visited
+			cancelPendingFetches();
 		}
 	}
 
@@ -133,6 +181,9 @@ public class UnifiedTree {
 		if (!parent.getProject().isAccessible())
 			return;
 
+		//the children are added at the tail of the queue
+		int queueSize = queue.isEmpty() ? 0 : queue.size();
+
 		// get the list of resources in the file system
 		// don't ask for local children if we know it doesn't exist locally
 		IFileInfo[] list = node.existsInFileSystem() ? getLocalList(node) : NO_CHILDREN;
@@ -207,8 +258,11 @@ public class UnifiedTree {
 		}
 
 		/* if we added children, add the childMarker separator */
-		if (node.getFirstChild() != null)
+		if (node.getFirstChild() != null) {
+			int childCount = queue.size() - queueSize;
 			addChildrenMarker();
+			fetchChildrenAhead(queue.indexFromTail(childCount + 1));
+		}
 	}
 
 	protected void addChildrenFromFileSystem(UnifiedTreeNode node, IFileInfo[] childInfos, int index) {
@@ -304,6 +358,60 @@ public class UnifiedTree {
 		return new UnifiedTreeNode(this, resource, store, info, existsWorkspace);
 	}
 
+	/**
+	 * Cancels the fetch of local children of the given node, if any, because
+	 * the visitor is not interested in them.
+	 */
+	private void cancelPendingFetch(UnifiedTreeNode node) {
+		if (pendingFetches == null || pendingFetches.isEmpty() || !node.existsInFileSystem() || !node.isFolder())
+			return;
+		Future<IFileInfo[]> fetch = pendingFetches.remove(node.getStore());
+		if (fetch != null)
+			fetch.cancel(false);
+	}
+
+	private void cancelPendingFetches() {
+		if (pendingFetches == null)
+			return;
+		for (Iterator<Future<IFileInfo[]>> it = pendingFetches.values().iterator(); it.hasNext();)
+			it.next().cancel(false);
+		pendingFetches.clear();
+	}
+
+	/**
+	 * In parallel mode, starts fetching the local children of all local
+	 * folders among the children of a node, starting at the given index
+	 * of the queue. Does nothing if those children will never be visited
+	 * at the requested depth.
+	 */
+	protected void fetchChildrenAhead(int index) {
+		if (pendingFetches == null || !isValidLevel(level + 2, depth))
+			return;
+		while (pendingFetches.size() < MAX_PENDING_FETCHES) {
+			UnifiedTreeNode child = queue.elementAt(index);
+			if (child == null || isChildrenMarker(child) || isLevelMarker(child))
+				break;
+			index = queue.increment(index);
+			if (!child.existsInFileSystem() || !child.isFolder())
+				continue;
+			final IFileStore store = child.getStore();
+			if (!EFS.SCHEME_FILE.equals(store.getFileSystem().getScheme()) || isInFileTree(store) || pendingFetches.containsKey(store))
+				continue;
+			pendingFetches.put(store, getFetchPool().submit(new Callable<IFileInfo[]>() {
+				public IFileInfo[] call() throws CoreException {
+					//sorted by getLocalList once filtered
+					return store.childInfos(EFS.NONE, null);
+				}
+			}));
+		}
+	}
+
+	private static synchronized ForkJoinPool getFetchPool() {
+		if (fetchPool == null)
+			fetchPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		return fetchPool;
+	}
+
 	protected Iterator<UnifiedTreeNode> getChildren(UnifiedTreeNode node) {
 		/* if first child is null we need to add node's children to queue */
 		if (node.getFirstChild() == null)
@@ -340,7 +448,10 @@ public class UnifiedTree {
 		try {
 			final IFileStore store = node.getStore();
 			IFileInfo[] list;
-			if (fileTree != null && (fileTree.getTreeRoot().equals(store) || fileTree.getTreeRoot().isParentOf(store)))
+			Future<IFileInfo[]> fetch = pendingFetches == null ? null : pendingFetches.remove(store);
+			if (fetch != null)
+				list = getFetchResult(fetch, store);
+			else if (isInFileTree(store))
 				list = fileTree.getChildInfos(store);
 			else
 				list = store.childInfos(EFS.NONE, null);
@@ -358,6 +469,26 @@ public class UnifiedTree {
 		}
 	}
 
+	/**
+	 * Waits for the given fetch of local children to complete, and returns
+	 * its result. Fetches the children on the calling thread if the fetch 
+	 * has been interrupted.
+	 */
+	private IFileInfo[] getFetchResult(Future<IFileInfo[]> fetch, IFileStore store) throws CoreException {
+		try {
+			return fetch.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CoreException)
+				throw (CoreException) e.getCause();
+			return store.childInfos(EFS.NONE, null);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return store.childInfos(EFS.NONE, null);
+		} catch (CancellationException e) {
+			return store.childInfos(EFS.NONE, null);
+		}
+	}
+
 	protected Workspace getWorkspace() {
 		return (Workspace) root.getWorkspace();
 	}
@@ -377,6 +508,10 @@ public class UnifiedTree {
 		addElementToQueue(levelMarker);
 	}
 
+	private boolean isInFileTree(IFileStore store) {
+		return fileTree != null && (fileTree.getTreeRoot().equals(store) || fileTree.getTreeRoot().isParentOf(store));
+	}
+
 	protected boolean isChildrenMarker(UnifiedTreeNode node) {
 		return node == childrenMarker;
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2010 IBM Corporation and others.
+ * Copyright (c) 2004, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -207,9 +207,26 @@ public class PropertyBucket extends Bucket {
 	 * LAST_MODIFIED ::= byte[8]
 	 * </pre>
 	 * </p>
+	 * <p>
+	 * Version 2 (indexed, see {@link Bucket}):
+	 * <pre>
+	 * FILE ::= VERSION_ID ENTRY_COUNT HEADER OFFSET* ENTRY*
+	 * HEADER ::= QUALIFIER_COUNT string*
+	 * ENTRY ::= PATH PROPERTY_COUNT PROPERTY+
+	 * QUALIFIER ::= INDEX (into the qualifiers in the header)
+	 * </pre>
+	 * </p>
 	 */
-	private static final byte VERSION = 1;
+	private static final byte VERSION = 2;
 
+	private static final byte PREVIOUS_VERSION = 1;
+
+	/**
+	 * The qualifiers seen so far while reading a file in the previous format
+	 * or while writing a file. The qualifiers of an indexed file are in the
+	 * header kept with its index instead.
+	 * @see #readHeader(DataInputStream)
+	 */
 	private final List<String> qualifierIndex = new ArrayList<String>();
 
 	public PropertyBucket() {
@@ -220,7 +237,7 @@ public class PropertyBucket extends Bucket {
 		return new PropertyEntry(path, (String[][]) value);
 	}
 
-	private PropertyEntry getEntry(IPath path) {
+	private PropertyEntry getEntry(IPath path) throws CoreException {
 		String pathAsString = path.toString();
 		String[][] existing = (String[][]) getEntryValue(pathAsString);
 		if (existing == null)
@@ -235,13 +252,29 @@ public class PropertyBucket extends Bucket {
 		return "properties.index"; //$NON-NLS-1$
 	}
 
-	public String getProperty(IPath path, QualifiedName name) {
+	/**
+	 * Returns a copy of all properties of the resource with the given path, as 
+	 * an array of {qualifier, local name, value} triples sorted by name, or
+	 * <code>null</code> if the resource has no properties.
+	 */
+	public String[][] getProperties(IPath path) throws CoreException {
+		PropertyEntry entry = getEntry(path);
+		if (entry == null)
+			return null;
+		return new PropertyEntry(path, entry).value;
+	}
+
+	public String getProperty(IPath path, QualifiedName name) throws CoreException {
 		PropertyEntry entry = getEntry(path);
 		if (entry == null)
 			return null;
 		return entry.getProperty(name);
 	}
 
+	protected byte getPreviousVersion() {
+		return PREVIOUS_VERSION;
+	}
+
 	protected byte getVersion() {
 		return VERSION;
 	}
@@ -253,9 +286,11 @@ public class PropertyBucket extends Bucket {
 		return "properties.version"; //$NON-NLS-1$
 	}
 
-	public void load(String newProjectName, File baseLocation, boolean force) throws CoreException {
-		qualifierIndex.clear();
-		super.load(newProjectName, baseLocation, force);
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.internal.localstore.Bucket#newBucket()
+	 */
+	protected Bucket newBucket() {
+		return new PropertyBucket();
 	}
 
 	protected Object readEntryValue(DataInputStream source) throws IOException, CoreException {
@@ -270,7 +305,9 @@ public class PropertyBucket extends Bucket {
 					qualifierIndex.add(properties[j][0]);
 					break;
 				case INDEX :
-					properties[j][0] = qualifierIndex.get(source.readInt());
+					String[] qualifiers = (String[]) getIndexHeader();
+					int index = source.readInt();
+					properties[j][0] = qualifiers != null ? qualifiers[index] : qualifierIndex.get(index);
 					break;
 				default :
 					//if we get here the properties file is corrupt
@@ -286,12 +323,33 @@ public class PropertyBucket extends Bucket {
 		return properties;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.internal.localstore.Bucket#readHeader(java.io.DataInputStream)
+	 */
+	protected Object readHeader(DataInputStream source) throws IOException {
+		String[] qualifiers = new String[source.readInt()];
+		for (int i = 0; i < qualifiers.length; i++)
+			qualifiers[i] = source.readUTF();
+		return qualifiers;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.internal.localstore.Bucket#load(String, File, boolean)
+	 */
+	public void load(String newProjectName, File baseLocation, boolean force) throws CoreException {
+		// a file in the previous format is read as a whole, starting with an empty table
+		qualifierIndex.clear();
+		super.load(newProjectName, baseLocation, force);
+	}
+
 	public void save() throws CoreException {
 		qualifierIndex.clear();
 		super.save();
+		// the table only applies to the file just written
+		qualifierIndex.clear();
 	}
 
-	public void setProperties(PropertyEntry entry) {
+	public void setProperties(PropertyEntry entry) throws CoreException {
 		IPath path = entry.getPath();
 		String[][] additions = (String[][]) entry.getValue();
 		String pathAsString = path.toString();
@@ -303,7 +361,7 @@ public class PropertyBucket extends Bucket {
 		setEntryValue(pathAsString, PropertyEntry.merge(existing, additions));
 	}
 
-	public void setProperty(IPath path, QualifiedName name, String value) {
+	public void setProperty(IPath path, QualifiedName name, String value) throws CoreException {
 		String pathAsString = path.toString();
 		String[][] existing = (String[][]) getEntryValue(pathAsString);
 		if (existing == null) {
@@ -320,6 +378,22 @@ public class PropertyBucket extends Bucket {
 		setEntryValue(pathAsString, newValue);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.internal.localstore.Bucket#writeHeader(java.io.DataOutputStream, java.util.Collection)
+	 */
+	protected void writeHeader(DataOutputStream destination, Collection<Object> values) throws IOException {
+		// entries may be decoded individually, so all qualifiers go in a table up front
+		for (Iterator<Object> i = values.iterator(); i.hasNext();) {
+			String[][] properties = (String[][]) i.next();
+			for (int j = 0; j < properties.length; j++)
+				if (!qualifierIndex.contains(properties[j][0]))
+					qualifierIndex.add(properties[j][0]);
+		}
+		destination.writeInt(qualifierIndex.size());
+		for (Iterator<String> i = qualifierIndex.iterator(); i.hasNext();)
+			destination.writeUTF(i.next());
+	}
+
 	protected void writeEntryValue(DataOutputStream destination, Object entryValue) throws IOException {
 		String[][] properties = (String[][]) entryValue;
 		destination.writeShort(properties.length);
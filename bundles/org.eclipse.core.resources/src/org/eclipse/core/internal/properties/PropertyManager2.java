@@ -1,56 +1,101 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2012 IBM Corporation and others.
+ * Copyright (c) 2004, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
  * http://www.eclipse.org/legal/epl-v10.html
- * 
+ *
  * Contributors:
  *     IBM Corporation - initial API and implementation
  *******************************************************************************/
 package org.eclipse.core.internal.properties;
 
+import java.io.*;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.core.internal.localstore.*;
 import org.eclipse.core.internal.localstore.Bucket.Entry;
 import org.eclipse.core.internal.properties.PropertyBucket.PropertyEntry;
 import org.eclipse.core.internal.resources.*;
+import org.eclipse.core.internal.utils.FileUtil;
 import org.eclipse.core.internal.utils.Messages;
-import org.eclipse.core.resources.IResource;
-import org.eclipse.core.resources.IResourceStatus;
+import org.eclipse.core.internal.utils.Policy;
+import org.eclipse.core.resources.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.osgi.util.NLS;
 
 /**
+ * The persistent properties of each project, and of the workspace root, are
+ * kept in a separate stripe with its own lock, so that operations on different
+ * projects do not contend with each other.
+ * <p>
+ * Reads are answered from per-stripe snapshots of the properties of recently
+ * used resources without taking any lock. Setting a property only appends a
+ * record to the stripe's log; the modified bucket is written later, when it is
+ * evicted from the bucket tree or when the stripe is checkpointed. The log is
+ * replayed when a stripe is first used after a crash.
+ * </p>
+ * <p>
+ * The memory used does not grow with the number of projects: only the most
+ * recently used stripes keep buckets loaded, and the snapshots of all stripes
+ * share a single budget.
+ * </p>
+ *
  * @see org.eclipse.core.internal.properties.IPropertyManager
  */
 public class PropertyManager2 implements IPropertyManager {
-	
+
 	private static final int MAX_VALUE_SIZE = 2 * 1024;
 
+	/**
+	 * The number of log records after which a stripe is checkpointed.
+	 */
+	private static final int MAX_LOG_RECORDS = 1000;
+
+	/**
+	 * The maximum number of snapshots kept by all stripes together.
+	 */
+	private static final int MAX_SNAPSHOTS = 4096;
+
+	/**
+	 * The maximum number of stripes whose bucket tree keeps buckets loaded.
+	 */
+	private static final int MAX_USED_STRIPES = 8;
+
+	/**
+	 * Snapshot of a resource without properties.
+	 */
+	private static final String[][] NO_PROPERTIES = new String[0][];
+
+	private static final String LOG_FILE_NAME = "properties.log"; //$NON-NLS-1$
+
 	class PropertyCopyVisitor extends Bucket.Visitor {
 		private List<PropertyEntry> changes = new ArrayList<PropertyEntry>();
 		private IPath destination;
+		private BucketTree destinationTree;
 		private IPath source;
 
-		public PropertyCopyVisitor(IPath source, IPath destination) {
+		public PropertyCopyVisitor(IPath source, IPath destination, BucketTree destinationTree) {
 			this.source = source;
 			this.destination = destination;
+			this.destinationTree = destinationTree;
 		}
 
 		public void afterSaving(Bucket bucket) throws CoreException {
-			saveChanges((PropertyBucket) bucket);
+			saveChanges();
 			changes.clear();
 		}
 
-		private void saveChanges(PropertyBucket bucket) throws CoreException {
+		private void saveChanges() throws CoreException {
 			if (changes.isEmpty())
 				return;
 			// make effective all changes collected
 			Iterator<PropertyEntry> i = changes.iterator();
 			PropertyEntry entry = i.next();
-			tree.loadBucketFor(entry.getPath());
+			destinationTree.loadBucketFor(entry.getPath());
+			PropertyBucket bucket = (PropertyBucket) destinationTree.getCurrent();
 			bucket.setProperties(entry);
 			while (i.hasNext())
 				bucket.setProperties(i.next());
@@ -66,21 +111,177 @@ public class PropertyManager2 implements IPropertyManager {
 		}
 	}
 
-	BucketTree tree;
+	/**
+	 * The properties of a single project, or of the workspace root. All fields
+	 * except the snapshots must only be accessed while holding the stripe's lock.
+	 */
+	class Stripe {
+		/**
+		 * The log of changes not yet known to be written to the bucket files.
+		 * <pre>
+		 * LOG ::= RECORD*
+		 * RECORD ::= PATH QUALIFIER LOCAL_NAME HAS_VALUE VALUE?
+		 * PATH ::= string (full path of the resource)
+		 * HAS_VALUE ::= boolean
+		 * </pre>
+		 */
+		final File log;
+		/**
+		 * The number of records in the log, or <code>-1</code> if the log has
+		 * not been replayed yet.
+		 */
+		int logRecords = -1;
+		/**
+		 * The path of the project, or the root path.
+		 */
+		final IPath path;
+		/**
+		 * Properties of recently used resources, by resource path.
+		 */
+		final Map<IPath, String[][]> snapshots = new ConcurrentHashMap<IPath, String[][]>();
+		final BucketTree tree;
+
+		Stripe(IPath path) {
+			this.path = path;
+			this.tree = new BucketTree(workspace, new PropertyBucket());
+			this.log = workspace.getMetaArea().locationFor(path).append(Bucket.INDEXES_DIR_NAME).append(LOG_FILE_NAME).toFile();
+		}
+
+		/**
+		 * Writes all changes to the bucket files, and discards the log.
+		 */
+		void checkpoint() throws CoreException {
+			tree.save();
+			if (logRecords > 0 || log.exists())
+				log.delete();
+			logRecords = 0;
+		}
+
+		/**
+		 * Replays the log if this is the first time the stripe is used, and
+		 * records the stripe as recently used.
+		 */
+		void open() throws CoreException {
+			synchronized (usedStripes) {
+				usedStripes.put(this, this);
+			}
+			if (logRecords >= 0)
+				return;
+			logRecords = 0;
+			if (!log.isFile())
+				return;
+			DataInputStream input = null;
+			try {
+				input = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+				while (true) {
+					IPath resourcePath = new Path(input.readUTF());
+					QualifiedName name = new QualifiedName(input.readUTF(), input.readUTF());
+					String value = input.readBoolean() ? input.readUTF() : null;
+					tree.loadBucketFor(resourcePath);
+					((PropertyBucket) tree.getCurrent()).setProperty(resourcePath, name, value);
+				}
+			} catch (EOFException e) {
+				// end of log, or a record that was not completely written
+			} catch (IOException e) {
+				String message = NLS.bind(Messages.properties_readProperties, path.toString());
+				Policy.log(new ResourceStatus(IResourceStatus.FAILED_READ_METADATA, path, message, e));
+			} finally {
+				FileUtil.safeClose(input);
+			}
+			checkpoint();
+		}
+
+		/**
+		 * Writes all changes to the bucket files, and discards all loaded buckets
+		 * and snapshots.
+		 */
+		void release() throws CoreException {
+			try {
+				checkpoint();
+				tree.flush();
+			} finally {
+				snapshots.clear();
+			}
+		}
+
+		/**
+		 * Appends a change to the log, and forces it to disk. Returns whether
+		 * it succeeded.
+		 */
+		boolean writeLog(IPath resourcePath, QualifiedName name, String value) {
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			OutputStream output = null;
+			try {
+				DataOutputStream recordOutput = new DataOutputStream(record);
+				recordOutput.writeUTF(resourcePath.toString());
+				recordOutput.writeUTF(name.getQualifier());
+				recordOutput.writeUTF(name.getLocalName());
+				recordOutput.writeBoolean(value != null);
+				if (value != null)
+					recordOutput.writeUTF(value);
+				if (!log.getParentFile().exists())
+					log.getParentFile().mkdirs();
+				FileOutputStream fileOutput = new FileOutputStream(log, true);
+				output = fileOutput;
+				// a single write, so that a crash leaves at most one partial record
+				record.writeTo(fileOutput);
+				// the change is only committed once the record is on disk
+				fileOutput.getFD().sync();
+				output.close();
+				logRecords++;
+				return true;
+			} catch (IOException e) {
+				return false;
+			} finally {
+				FileUtil.safeClose(output);
+			}
+		}
+	}
+
+	/**
+	 * The stripes by project name. The workspace root stripe has the empty
+	 * string as key.
+	 */
+	private final Map<String, Stripe> stripes = new ConcurrentHashMap<String, Stripe>();
+
+	/**
+	 * The number of snapshots taken since all snapshots were last discarded.
+	 * Snapshots discarded by a single stripe are not deducted, so this is an
+	 * upper bound of the number of snapshots kept.
+	 */
+	private final AtomicInteger snapshotCount = new AtomicInteger();
+
+	/**
+	 * The stripes that have been used since they were last released, least
+	 * recently used first. The lock of a stripe must never be acquired while
+	 * holding the lock of this map.
+	 */
+	final Map<Stripe, Stripe> usedStripes = new LinkedHashMap<Stripe, Stripe>(16, 0.75f, true);
+
+	final Workspace workspace;
 
 	public PropertyManager2(Workspace workspace) {
-		this.tree = new BucketTree(workspace, new PropertyBucket());
+		this.workspace = workspace;
 	}
 
 	public void closePropertyStore(IResource target) throws CoreException {
-		// ensure any uncommitted are written to disk
-		tree.getCurrent().save();
-		// flush in-memory state to avoid confusion if another project is later
-		// created with the same name
-		tree.getCurrent().flush();
+		Stripe stripe = getStripe(target.getFullPath());
+		synchronized (stripe) {
+			// ensure any uncommitted are written to disk, and flush in-memory
+			// state to avoid confusion if another project is later created with
+			// the same name
+			try {
+				stripe.release();
+			} finally {
+				stripe.logRecords = -1;
+				synchronized (usedStripes) {
+					usedStripes.remove(stripe);
+				}
+			}
+		}
 	}
 
-	public synchronized void copy(IResource source, IResource destination, int depth) throws CoreException {
+	public void copy(IResource source, IResource destination, int depth) throws CoreException {
 		copyProperties(source.getFullPath(), destination.getFullPath(), depth);
 	}
 
@@ -92,64 +293,127 @@ public class PropertyManager2 implements IPropertyManager {
 		Assert.isLegal(destination.segmentCount() > 0);
 		Assert.isLegal(source.segmentCount() > 1 || destination.segmentCount() == 1);
 
-		// copy history by visiting the source tree
-		PropertyCopyVisitor copyVisitor = new PropertyCopyVisitor(source, destination);
-		tree.accept(copyVisitor, source, BucketTree.DEPTH_INFINITE);
+		Stripe sourceStripe = getStripe(source);
+		Stripe destinationStripe = getStripe(destination);
+		// always lock stripes in the same order to avoid deadlock
+		boolean sourceFirst = sourceStripe.path.toString().compareTo(destinationStripe.path.toString()) <= 0;
+		Stripe first = sourceFirst ? sourceStripe : destinationStripe;
+		Stripe second = sourceFirst ? destinationStripe : sourceStripe;
+		synchronized (first) {
+			synchronized (second) {
+				sourceStripe.open();
+				destinationStripe.open();
+				// the copy is written directly, so older log records must not be replayed over it
+				destinationStripe.checkpoint();
+				try {
+					// copy history by visiting the source tree
+					PropertyCopyVisitor copyVisitor = new PropertyCopyVisitor(source, destination, destinationStripe.tree);
+					sourceStripe.tree.accept(copyVisitor, source, BucketTree.DEPTH_INFINITE);
+				} finally {
+					destinationStripe.snapshots.clear();
+				}
+			}
+		}
+		releaseStripes();
+	}
+
+	public void deleteProperties(IResource target, int depth) throws CoreException {
+		IPath targetPath = target.getFullPath();
+		if (targetPath.isRoot() && depth != IResource.DEPTH_ZERO) {
+			// the root and each project belong to different stripes
+			deleteProperties(targetPath, BucketTree.DEPTH_ZERO);
+			int projectDepth = depth == IResource.DEPTH_INFINITE ? BucketTree.DEPTH_INFINITE : BucketTree.DEPTH_ZERO;
+			IProject[] projects = workspace.getRoot().getProjects(IContainer.INCLUDE_HIDDEN);
+			for (int i = 0; i < projects.length; i++)
+				deleteProperties(projects[i].getFullPath(), projectDepth);
+			return;
+		}
+		deleteProperties(targetPath, depth == IResource.DEPTH_INFINITE ? BucketTree.DEPTH_INFINITE : depth);
 	}
 
-	public synchronized void deleteProperties(IResource target, int depth) throws CoreException {
-		tree.accept(new PropertyBucket.Visitor() {
-			public int visit(Entry entry) {
-				entry.delete();
-				return CONTINUE;
+	private void deleteProperties(IPath targetPath, int depth) throws CoreException {
+		Stripe stripe = getStripe(targetPath);
+		synchronized (stripe) {
+			stripe.open();
+			// the deletion is written directly, so older log records must not be replayed over it
+			stripe.checkpoint();
+			try {
+				stripe.tree.accept(new PropertyBucket.Visitor() {
+					public int visit(Entry entry) {
+						entry.delete();
+						return CONTINUE;
+					}
+				}, targetPath, depth);
+			} finally {
+				stripe.snapshots.clear();
 			}
-		}, target.getFullPath(), depth == IResource.DEPTH_INFINITE ? BucketTree.DEPTH_INFINITE : depth);
+		}
+		releaseStripes();
 	}
 
 	public void deleteResource(IResource target) throws CoreException {
 		deleteProperties(target, IResource.DEPTH_INFINITE);
 	}
 
-	public synchronized Map<QualifiedName, String> getProperties(IResource target) throws CoreException {
+	public Map<QualifiedName, String> getProperties(IResource target) throws CoreException {
+		IPath resourcePath = target.getFullPath();
+		String[][] properties = getSnapshot(getStripe(resourcePath), resourcePath);
 		final Map<QualifiedName, String> result = new HashMap<QualifiedName, String>();
-		tree.accept(new PropertyBucket.Visitor() {
-			public int visit(Entry entry) {
-				PropertyEntry propertyEntry = (PropertyEntry) entry;
-				int propertyCount = propertyEntry.getOccurrences();
-				for (int i = 0; i < propertyCount; i++)
-					result.put(propertyEntry.getPropertyName(i), propertyEntry.getPropertyValue(i));
-				return CONTINUE;
-			}
-		}, target.getFullPath(), BucketTree.DEPTH_ZERO);
+		for (int i = 0; i < properties.length; i++)
+			result.put(new QualifiedName(properties[i][0], properties[i][1]), properties[i][2]);
 		return result;
 	}
 
-	public synchronized String getProperty(IResource target, QualifiedName name) throws CoreException {
+	public String getProperty(IResource target, QualifiedName name) throws CoreException {
 		if (name.getQualifier() == null) {
 			String message = Messages.properties_qualifierIsNull;
 			throw new ResourceException(IResourceStatus.FAILED_READ_METADATA, target.getFullPath(), message, null);
 		}
 		IPath resourcePath = target.getFullPath();
-		PropertyBucket current = (PropertyBucket) tree.getCurrent();
-		tree.loadBucketFor(resourcePath);
-		return current.getProperty(resourcePath, name);
+		String[][] properties = getSnapshot(getStripe(resourcePath), resourcePath);
+		return new PropertyEntry(resourcePath, properties).getProperty(name);
 	}
 
-	public BucketTree getTree() {
-		return tree;
+	/**
+	 * Returns the properties of the resource with the given path. The returned
+	 * array must not be modified.
+	 */
+	private String[][] getSnapshot(Stripe stripe, IPath resourcePath) throws CoreException {
+		String[][] snapshot = stripe.snapshots.get(resourcePath);
+		if (snapshot != null)
+			return snapshot;
+		synchronized (stripe) {
+			stripe.open();
+			stripe.tree.loadBucketFor(resourcePath);
+			snapshot = updateSnapshot(stripe, resourcePath);
+		}
+		releaseStripes();
+		return snapshot;
+	}
+
+	/**
+	 * Returns the stripe holding the properties of the resource with the given path.
+	 */
+	private Stripe getStripe(IPath resourcePath) {
+		String key = resourcePath.segmentCount() == 0 ? "" : resourcePath.segment(0); //$NON-NLS-1$
+		Stripe stripe = stripes.get(key);
+		if (stripe != null)
+			return stripe;
+		synchronized (stripes) {
+			stripe = stripes.get(key);
+			if (stripe == null) {
+				stripe = new Stripe(resourcePath.uptoSegment(1));
+				stripes.put(key, stripe);
+			}
+			return stripe;
+		}
 	}
 
 	public File getVersionFile() {
-		return tree.getVersionFile();
+		return getStripe(Path.ROOT).tree.getVersionFile();
 	}
 
-	public synchronized void setProperty(IResource target, QualifiedName name, String value) throws CoreException {
-		//resource may have been deleted concurrently
-		//must check for existence within synchronized method
-		Resource resource = (Resource) target;
-		ResourceInfo info = resource.getResourceInfo(false, false);
-		int flags = resource.getFlags(info);
-		resource.checkAccessible(flags);
+	public void setProperty(IResource target, QualifiedName name, String value) throws CoreException {
 		// enforce the limit stated by the spec
 		if (value != null && value.length() > MAX_VALUE_SIZE) {
 			String message = NLS.bind(Messages.properties_valueTooLong, new Object[] {name.getQualifier(), name.getLocalName(), new Integer(MAX_VALUE_SIZE).toString()});
@@ -161,17 +425,83 @@ public class PropertyManager2 implements IPropertyManager {
 		}
 
 		IPath resourcePath = target.getFullPath();
-		tree.loadBucketFor(resourcePath);
-		PropertyBucket current = (PropertyBucket) tree.getCurrent();
-		current.setProperty(resourcePath, name, value);
-		current.save();
+		Stripe stripe = getStripe(resourcePath);
+		synchronized (stripe) {
+			//resource may have been deleted concurrently
+			//must check for existence while holding the lock
+			Resource resource = (Resource) target;
+			ResourceInfo info = resource.getResourceInfo(false, false);
+			int flags = resource.getFlags(info);
+			resource.checkAccessible(flags);
+
+			stripe.open();
+			stripe.tree.loadBucketFor(resourcePath);
+			PropertyBucket current = (PropertyBucket) stripe.tree.getCurrent();
+			current.setProperty(resourcePath, name, value);
+			if (!stripe.writeLog(resourcePath, name, value))
+				// could not log the change, write it through instead
+				current.save();
+			updateSnapshot(stripe, resourcePath);
+			if (stripe.logRecords >= MAX_LOG_RECORDS)
+				stripe.checkpoint();
+		}
+		releaseStripes();
+	}
+
+	/**
+	 * Releases the least recently used stripes until no more than
+	 * {@link #MAX_USED_STRIPES} stripes keep buckets loaded. Must not be
+	 * called while holding the lock of a stripe.
+	 */
+	private void releaseStripes() throws CoreException {
+		while (true) {
+			Stripe stripe;
+			synchronized (usedStripes) {
+				if (usedStripes.size() <= MAX_USED_STRIPES)
+					return;
+				Iterator<Stripe> i = usedStripes.keySet().iterator();
+				stripe = i.next();
+				i.remove();
+			}
+			synchronized (stripe) {
+				stripe.release();
+			}
+		}
 	}
 
 	public void shutdown(IProgressMonitor monitor) throws CoreException {
-		tree.close();
+		for (Iterator<Stripe> i = stripes.values().iterator(); i.hasNext();) {
+			Stripe stripe = i.next();
+			synchronized (stripe) {
+				stripe.checkpoint();
+			}
+		}
+		// all stripes share the version file, which is written even if no stripe was used
+		Stripe root = getStripe(Path.ROOT);
+		synchronized (root) {
+			root.tree.close();
+		}
 	}
 
 	public void startup(IProgressMonitor monitor) {
 		// nothing to do
 	}
+
+	/**
+	 * Takes a new snapshot of the properties of the resource with the given path,
+	 * from the bucket that has been loaded for it.
+	 */
+	private String[][] updateSnapshot(Stripe stripe, IPath resourcePath) throws CoreException {
+		String[][] snapshot = ((PropertyBucket) stripe.tree.getCurrent()).getProperties(resourcePath);
+		if (snapshot == null)
+			snapshot = NO_PROPERTIES;
+		if (!stripe.snapshots.containsKey(resourcePath) && snapshotCount.incrementAndGet() > MAX_SNAPSHOTS) {
+			// over budget, start again from scratch
+			snapshotCount.set(1);
+			for (Iterator<Stripe> i = stripes.values().iterator(); i.hasNext();)
+				i.next().snapshots.clear();
+		}
+		stripe.snapshots.put(resourcePath, snapshot);
+		return snapshot;
+	}
 }
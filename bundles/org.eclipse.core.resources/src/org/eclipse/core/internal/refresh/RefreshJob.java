@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2004, 2011 IBM Corporation and others.
+ *  Copyright (c) 2004, 2014 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -36,6 +36,13 @@ public class RefreshJob extends WorkspaceJob {
 	 */
 	private final List<IResource> fRequests;
 
+	/**
+	 * The subset of requests that only need to be refreshed to depth one.
+	 * Such requests come from native monitors that know exactly which
+	 * folder changed, and are not expanded into their children.
+	 */
+	private final Set<IResource> fShallowRequests;
+
 	/**
 	 * The history of path prefixes visited during this refresh job invocation.
 	 * This is used to prevent infinite refresh loops caused by symbolic links in the file system.
@@ -45,6 +52,7 @@ public class RefreshJob extends WorkspaceJob {
 	public RefreshJob() {
 		super(Messages.refresh_jobName);
 		fRequests = new ArrayList<IResource>(1);
+		fShallowRequests = new HashSet<IResource>();
 	}
 
 	/**
@@ -55,18 +63,40 @@ public class RefreshJob extends WorkspaceJob {
 	private synchronized void addRequest(IResource resource) {
 		IPath toAdd = resource.getFullPath();
 		for (Iterator<IResource> it = fRequests.iterator(); it.hasNext();) {
-			IPath request = it.next().getFullPath();
+			IResource request = it.next();
+			IPath requestPath = request.getFullPath();
 			//discard any existing requests the same or below the resource to be added
-			if (toAdd.isPrefixOf(request))
+			if (toAdd.isPrefixOf(requestPath)) {
 				it.remove();
-			//nothing to do if the resource to be added is a child of an existing request
-			else if (request.isPrefixOf(toAdd))
+				fShallowRequests.remove(request);
+			}
+			//nothing to do if the resource to be added is a child of an existing deep request
+			else if (requestPath.isPrefixOf(toAdd) && !fShallowRequests.contains(request))
 				return;
 		}
 		//finally add the new request to the front of the queue
 		fRequests.add(resource);
 	}
 
+	/**
+	 * Adds the given resource to the set of resources that need refreshing
+	 * to depth one. Synchronized in order to protect the collection during add.
+	 * @param resource
+	 */
+	private synchronized void addShallowRequest(IResource resource) {
+		IPath toAdd = resource.getFullPath();
+		for (Iterator<IResource> it = fRequests.iterator(); it.hasNext();) {
+			IResource request = it.next();
+			//nothing to do if an equivalent or deeper request already covers the resource
+			if (request.equals(resource))
+				return;
+			if (request.getFullPath().isPrefixOf(toAdd) && !fShallowRequests.contains(request))
+				return;
+		}
+		fRequests.add(resource);
+		fShallowRequests.add(resource);
+	}
+
 	private synchronized void addRequests(List<IResource> list) {
 		//add requests to the end of the queue
 		fRequests.addAll(0, list);
@@ -122,6 +152,14 @@ public class RefreshJob extends WorkspaceJob {
 		return rootPathHistory;
 	}
 
+	/**
+	 * Returns whether the given request only needs a refresh to depth one,
+	 * and forgets about it.
+	 */
+	private synchronized boolean isShallowRequest(IResource resource) {
+		return fShallowRequests.remove(resource);
+	}
+
 	/**
 	 * Returns the next item to refresh, or <code>null</code> if there are no requests
 	 */
@@ -143,6 +181,22 @@ public class RefreshJob extends WorkspaceJob {
 		schedule(UPDATE_DELAY);
 	}
 
+	/**
+	 * Requests a refresh of the given resource to the given depth. Only 
+	 * <code>IResource.DEPTH_ONE</code> is handled specially: the resource
+	 * and its direct members are refreshed, without descending into the 
+	 * member folders. Any other depth behaves like {@link #refresh(IResource)}.
+	 */
+	public void refresh(IResource resource, int depth) {
+		if (resource == null)
+			return;
+		if (depth == IResource.DEPTH_ONE)
+			addShallowRequest(resource);
+		else
+			addRequest(resource);
+		schedule(UPDATE_DELAY);
+	}
+
 	/* (non-Javadoc)
 	 * @see WorkspaceJob#runInWorkspace
 	 */
@@ -163,6 +217,10 @@ public class RefreshJob extends WorkspaceJob {
 					throw new OperationCanceledException();
 				try {
 					refreshCount++;
+					if (isShallowRequest(toRefresh)) {
+						toRefresh.refreshLocal(IResource.DEPTH_ONE, Policy.subMonitorFor(monitor, 0));
+						continue;
+					}
 					long refreshTime = -System.currentTimeMillis();
 					toRefresh.refreshLocal(1000 + depth, Policy.subMonitorFor(monitor, 0));
 					refreshTime += System.currentTimeMillis();
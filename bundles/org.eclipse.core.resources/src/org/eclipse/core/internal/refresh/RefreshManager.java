@@ -86,6 +86,18 @@ public class RefreshManager implements IRefreshResult, IManager, Preferences.IPr
 			refreshJob.refresh(resource);
 	}
 
+	/**
+	 * Requests a refresh of the given resource to the given depth. This is
+	 * used by native monitors that know precisely which folder has changed,
+	 * in which case <code>IResource.DEPTH_ONE</code> avoids a rescan of the
+	 * whole subtree.
+	 */
+	public void refresh(IResource resource, int depth) {
+		//do nothing if we have already shutdown
+		if (refreshJob != null)
+			refreshJob.refresh(resource, depth);
+	}
+
 	/**
 	 * Shuts down the refresh manager.  This only happens when
 	 * the resources plugin is going away.
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2011 IBM Corporation and others.
+ * Copyright (c) 2004, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -22,6 +22,14 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 	// internal preference keys
 	public static final String PREF_OPERATIONS_PER_SNAPSHOT = "snapshots.operations"; //$NON-NLS-1$
 	public static final String PREF_DELTA_EXPIRATION = "delta.expiration";  //$NON-NLS-1$
+	public static final String PREF_HISTORY_COMPRESSION_LEVEL = "history.compressionLevel"; //$NON-NLS-1$
+	public static final String PREF_MAX_HISTORY_DELTA_CHAIN = "history.maxDeltaChain"; //$NON-NLS-1$
+	public static final String PREF_AUTO_BUILD_DELAY_POLICY = "autobuild.delayPolicy"; //$NON-NLS-1$
+	public static final String PREF_MAX_TREE_DELTA_DEPTH = "tree.maxDeltaDepth"; //$NON-NLS-1$
+
+	// values of PREF_AUTO_BUILD_DELAY_POLICY
+	public static final String AUTO_BUILD_DELAY_FIXED = "fixed"; //$NON-NLS-1$
+	public static final String AUTO_BUILD_DELAY_ADAPTIVE = "adaptive"; //$NON-NLS-1$
 
 	// DEFAULTS
 	public static final boolean PREF_AUTO_REFRESH_DEFAULT = false;
@@ -31,14 +39,19 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 	public static final boolean PREF_AUTO_BUILDING_DEFAULT = true;
 	public static final String PREF_BUILD_ORDER_DEFAULT = ""; //$NON-NLS-1$
 	public static final int PREF_MAX_BUILD_ITERATIONS_DEFAULT = 10;
+	public static final int PREF_MAX_CONCURRENT_BUILDS_DEFAULT = 1;
 	public static final boolean PREF_DEFAULT_BUILD_ORDER_DEFAULT = true;
+	public static final String PREF_AUTO_BUILD_DELAY_POLICY_DEFAULT = AUTO_BUILD_DELAY_FIXED;
 	public final static long PREF_SNAPSHOT_INTERVAL_DEFAULT = 5 * 60 * 1000l; // 5 min
 	public static final int PREF_OPERATIONS_PER_SNAPSHOT_DEFAULT = 100;
 	public static final boolean PREF_APPLY_FILE_STATE_POLICY_DEFAULT = true;
 	public static final long PREF_FILE_STATE_LONGEVITY_DEFAULT = 7 * 24 * 3600 * 1000l; // 7 days
 	public static final long PREF_MAX_FILE_STATE_SIZE_DEFAULT = 1024 * 1024l; // 1 MB
 	public static final int PREF_MAX_FILE_STATES_DEFAULT = 50;
+	public static final int PREF_HISTORY_COMPRESSION_LEVEL_DEFAULT = 0; // store verbatim
+	public static final int PREF_MAX_HISTORY_DELTA_CHAIN_DEFAULT = 10;
 	public static final long PREF_DELTA_EXPIRATION_DEFAULT = 30 * 24 * 3600 * 1000l; // 30 days
+	public static final int PREF_MAX_TREE_DELTA_DEPTH_DEFAULT = 32;
 
 	public PreferenceInitializer() {
 		super();
@@ -60,18 +73,23 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 		node.putBoolean(ResourcesPlugin.PREF_AUTO_BUILDING, PREF_AUTO_BUILDING_DEFAULT);
 		node.put(ResourcesPlugin.PREF_BUILD_ORDER, PREF_BUILD_ORDER_DEFAULT);
 		node.putInt(ResourcesPlugin.PREF_MAX_BUILD_ITERATIONS, PREF_MAX_BUILD_ITERATIONS_DEFAULT);
+		node.putInt(ResourcesPlugin.PREF_MAX_CONCURRENT_BUILDS, PREF_MAX_CONCURRENT_BUILDS_DEFAULT);
 		node.putBoolean(ResourcesPlugin.PREF_DEFAULT_BUILD_ORDER, PREF_DEFAULT_BUILD_ORDER_DEFAULT);
+		node.put(PREF_AUTO_BUILD_DELAY_POLICY, PREF_AUTO_BUILD_DELAY_POLICY_DEFAULT);
 
 		// history store defaults
 		node.putBoolean(ResourcesPlugin.PREF_APPLY_FILE_STATE_POLICY, PREF_APPLY_FILE_STATE_POLICY_DEFAULT);
 		node.putLong(ResourcesPlugin.PREF_FILE_STATE_LONGEVITY, PREF_FILE_STATE_LONGEVITY_DEFAULT);
 		node.putLong(ResourcesPlugin.PREF_MAX_FILE_STATE_SIZE, PREF_MAX_FILE_STATE_SIZE_DEFAULT);
 		node.putInt(ResourcesPlugin.PREF_MAX_FILE_STATES, PREF_MAX_FILE_STATES_DEFAULT);
+		node.putInt(PREF_HISTORY_COMPRESSION_LEVEL, PREF_HISTORY_COMPRESSION_LEVEL_DEFAULT);
+		node.putInt(PREF_MAX_HISTORY_DELTA_CHAIN, PREF_MAX_HISTORY_DELTA_CHAIN_DEFAULT);
 
 		// save manager defaults
 		node.putLong(ResourcesPlugin.PREF_SNAPSHOT_INTERVAL, PREF_SNAPSHOT_INTERVAL_DEFAULT);
 		node.putInt(PREF_OPERATIONS_PER_SNAPSHOT, PREF_OPERATIONS_PER_SNAPSHOT_DEFAULT);
 		node.putLong(PREF_DELTA_EXPIRATION, PREF_DELTA_EXPIRATION_DEFAULT);
+		node.putInt(PREF_MAX_TREE_DELTA_DEPTH, PREF_MAX_TREE_DELTA_DEPTH_DEFAULT);
 
 		// encoding defaults
 		node.put(ResourcesPlugin.PREF_ENCODING, PREF_ENCODING_DEFAULT);
@@ -507,6 +507,9 @@ public abstract class Resource extends PlatformObject implements IResource, ICor
 		//must allow notifications to nest in all resource rules
 		if (rule.getClass().equals(WorkManager.NotifyRule.class))
 			return true;
+		//read-only operations may nest in operations covering what they read
+		if (rule instanceof WorkManager.ReadRule)
+			return contains(((WorkManager.ReadRule) rule).rule);
 		if (rule instanceof MultiRule) {
 			MultiRule multi = (MultiRule) rule;
 			ISchedulingRule[] children = multi.getChildren();
@@ -1360,6 +1363,9 @@ public abstract class Resource extends PlatformObject implements IResource, ICor
 		//must not schedule at same time as notification
 		if (rule.getClass().equals(WorkManager.NotifyRule.class))
 			return true;
+		//must not modify resources while they are read
+		if (rule instanceof WorkManager.ReadRule)
+			return isConflicting(((WorkManager.ReadRule) rule).rule);
 		if (rule instanceof MultiRule)
 			return rule.isConflicting(this);
 		if (!(rule instanceof IResource))
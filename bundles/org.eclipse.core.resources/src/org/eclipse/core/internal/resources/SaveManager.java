@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2013 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -65,6 +65,12 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 	 */
 	private static final long MIN_SNAPSHOT_DELAY = 1000 * 30L; //30 seconds
 
+	/**
+	 * The delay, in milliseconds, between the end of an operation and the
+	 * compaction of the delta chains of kept trees.
+	 */
+	private static final long TREE_COMPACTION_DELAY = 1000 * 10L; //10 seconds
+
 	/**
 	 * The number of empty operations that are equivalent to a single non-
 	 * trivial operation.
@@ -117,6 +123,15 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 
 	protected final DelayedSnapshotJob snapshotJob;
 
+	/**
+	 * The job collapsing the delta chains of kept trees in the background.
+	 */
+	protected final TreeCompactionJob compactionJob;
+	/**
+	 * The depth of the deepest kept tree after the last compaction.
+	 */
+	private int compactedTreeDepth = 0;
+
 	protected boolean snapshotRequested;
 	protected Workspace workspace;
 	//declare debug messages as fields to get sharing
@@ -129,6 +144,7 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 	public SaveManager(Workspace workspace) {
 		this.workspace = workspace;
 		this.snapshotJob = new DelayedSnapshotJob(this);
+		this.compactionJob = new TreeCompactionJob(this);
 		snapshotRequested = false;
 		saveParticipants = Collections.synchronizedMap(new HashMap<String, ISaveParticipant>(10));
 	}
@@ -272,6 +288,54 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 			}
 		}
 
+		collapseTrees(collectKeptTrees());
+	}
+
+	/**
+	 * Collapses the given trees onto each other and onto the workspace tree, in
+	 * topological order, so that each tree is a single delta on the next newer
+	 * one. The workspace tree must be immutable.
+	 */
+	private void collapseTrees(ArrayList<ElementTree> trees) {
+		//no need to collapse if there are no trees at this point
+		if (trees.isEmpty())
+			return;
+
+		//the complete tree
+		trees.add(workspace.getElementTree());
+
+		//the cached build deltas refer to trees that may not be kept
+		workspace.getBuildManager().discardCachedDeltas();
+
+		//collapse the trees
+		//sort trees in topological order, and set the parent of each
+		//tree to its parent in the topological ordering.
+		ElementTree[] treeArray = new ElementTree[trees.size()];
+		trees.toArray(treeArray);
+		ElementTree[] sorted = sortTrees(treeArray);
+		// if there was a problem sorting the tree, bail on trying to collapse.  
+		// We will be able to GC the layers at a later time.
+		if (sorted == null)
+			return;
+		for (int i = 1; i < sorted.length; i++)
+			sorted[i].collapseTo(sorted[i - 1]);
+	}
+
+	/**
+	 * Returns the depth of the deepest of the given trees.
+	 * @see ElementTree#getDeltaDepth()
+	 */
+	private static int getMaxDeltaDepth(List<ElementTree> trees) {
+		int result = 0;
+		for (Iterator<ElementTree> i = trees.iterator(); i.hasNext();)
+			result = Math.max(result, i.next().getDeltaDepth());
+		return result;
+	}
+
+	/**
+	 * Returns the trees kept for plug-in saved states and builders.
+	 */
+	private ArrayList<ElementTree> collectKeptTrees() throws CoreException {
 		//trees for plugin saved states
 		ArrayList<ElementTree> trees = new ArrayList<ElementTree>();
 		synchronized (savedStates) {
@@ -297,26 +361,47 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 				}
 			}
 		}
+		return trees;
+	}
 
-		//no need to collapse if there are no trees at this point
-		if (trees.isEmpty())
+	/**
+	 * Collapses the trees kept for plug-in saved states, builders and
+	 * notifications if any of them is more than the given number of delta
+	 * layers away from a complete tree. The depth left by the previous
+	 * compaction is not counted, so that trees that cannot be collapsed any
+	 * further are not collapsed again and again. Must be called within an
+	 * operation.
+	 */
+	protected void compactTrees(int maxDepth) throws CoreException {
+		ArrayList<ElementTree> trees = collectKeptTrees();
+		trees.addAll(workspace.getNotificationManager().getTrees());
+		int depth = getMaxDeltaDepth(trees);
+		workspace.getResourceMetrics().treeDepthChecked(depth);
+		if (depth <= maxDepth + compactedTreeDepth)
 			return;
+		long start = System.nanoTime();
+		int count = trees.size();
+		//the tree must be immutable
+		workspace.getElementTree().immutable();
+		collapseTrees(trees);
+		compactedTreeDepth = getMaxDeltaDepth(trees);
+		long time = System.nanoTime() - start;
+		workspace.getResourceMetrics().treesCompacted(count, compactedTreeDepth, time);
+		if (Policy.DEBUG_SAVE_TREE)
+			System.out.println("Compacted " + count + " trees from depth " + depth + " to " + compactedTreeDepth + ": " + time / 1000000 + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
 
-		//the complete tree
-		trees.add(workspace.getElementTree());
-
-		//collapse the trees
-		//sort trees in topological order, and set the parent of each
-		//tree to its parent in the topological ordering.
-		ElementTree[] treeArray = new ElementTree[trees.size()];
-		trees.toArray(treeArray);
-		ElementTree[] sorted = sortTrees(treeArray);
-		// if there was a problem sorting the tree, bail on trying to collapse.  
-		// We will be able to GC the layers at a later time.
-		if (sorted == null)
+	/**
+	 * Schedules a compaction of the delta chains of kept trees, if none is
+	 * pending. This should be called at the end of every top level operation
+	 * that changed the tree.
+	 */
+	public void compactTreesLater() {
+		// never schedule a compaction while save is occurring.
+		if (isSaving)
 			return;
-		for (int i = 1; i < sorted.length; i++)
-			sorted[i].collapseTo(sorted[i - 1]);
+		if (compactionJob.getState() == Job.NONE)
+			compactionJob.schedule(TREE_COMPACTION_DELAY);
 	}
 
 	protected void commit(Map<String, SaveContext> contexts) throws CoreException {
@@ -1151,10 +1236,9 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 							removeUnusedSafeTables();
 							removeUnusedTreeFiles();
 
-							// history pruning can be always canceled
-							monitor.ignoreCancelState(false);
-							workspace.getFileSystemManager().getHistoryStore().clean(Policy.subMonitorFor(monitor, 1));
-							monitor.ignoreCancelState(keepConsistencyWhenCanceled);
+							// prune the history in the background, rather than stalling the save
+							workspace.getFileSystemManager().getHistoryStore().cleanInBackground();
+							monitor.worked(1);
 							
 							// write out all metainfo (e.g., workspace/project descriptions) 
 							saveMetaInfo(warnings, Policy.subMonitorFor(monitor, 1));
@@ -1393,6 +1477,7 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 			snapshotJob.run(Policy.monitorFor(monitor));
 		// cancel the snapshot job
 		snapshotJob.cancel();
+		compactionJob.cancel();
 	}
 
 	/**
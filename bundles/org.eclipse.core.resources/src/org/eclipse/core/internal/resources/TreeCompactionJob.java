@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.resources;
+
+import org.eclipse.core.internal.utils.Messages;
+import org.eclipse.core.internal.utils.Policy;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Collapses the delta chains of the trees kept by the workspace when they get
+ * deeper than the limit given by {@link PreferenceInitializer#PREF_MAX_TREE_DELTA_DEPTH}.
+ * A limit that is not positive disables the compaction.
+ * <p>
+ * The job runs with the lowest priority, so that it runs once the workspace
+ * is idle rather than delaying operations.
+ * </p>
+ * @see SaveManager#compactTrees(int)
+ */
+public class TreeCompactionJob extends Job {
+
+	private SaveManager saveManager;
+
+	public TreeCompactionJob(SaveManager manager) {
+		super(Messages.resources_compactingTrees);
+		this.saveManager = manager;
+		setRule(ResourcesPlugin.getWorkspace().getRoot());
+		setPriority(DECORATE);
+		setSystem(true);
+	}
+
+	/*
+	 * @see Job#run()
+	 */
+	public IStatus run(IProgressMonitor monitor) {
+		if (monitor.isCanceled())
+			return Status.CANCEL_STATUS;
+		int maxDepth = ResourcesPlugin.getPlugin().getPluginPreferences().getInt(PreferenceInitializer.PREF_MAX_TREE_DELTA_DEPTH);
+		if (maxDepth <= 0)
+			return Status.OK_STATUS;
+		Workspace workspace = saveManager.workspace;
+		ISchedulingRule rule = workspace.getRoot();
+		try {
+			try {
+				workspace.prepareOperation(rule, monitor);
+				workspace.beginOperation(false);
+				saveManager.compactTrees(maxDepth);
+			} catch (OperationCanceledException e) {
+				workspace.getWorkManager().operationCanceled();
+				return Status.CANCEL_STATUS;
+			} finally {
+				workspace.endOperation(rule, false, Policy.monitorFor(null));
+			}
+		} catch (CoreException e) {
+			return e.getStatus();
+		}
+		return Status.OK_STATUS;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -29,6 +29,11 @@ import org.eclipse.core.runtime.jobs.*;
  * This class also tracks operation state for each thread that is involved in an
  * operation. This includes prepared and running operation depth, auto-build
  * strategy and cancel state.
+ * 
+ * Read-only operations neither acquire the lock nor check in. They hold a
+ * {@link ReadRule}, which is shared with other read-only operations but exclusive
+ * with operations modifying the resources they read, and are not allowed to
+ * modify the workspace.
  */
 public class WorkManager implements IManager {
 	/**
@@ -45,7 +50,7 @@ public class WorkManager implements IManager {
 	 */
 	class NotifyRule implements ISchedulingRule {
 		public boolean contains(ISchedulingRule rule) {
-			return (rule instanceof IResource) || rule.getClass().equals(NotifyRule.class);
+			return (rule instanceof IResource) || (rule instanceof ReadRule) || rule.getClass().equals(NotifyRule.class);
 		}
 
 		public boolean isConflicting(ISchedulingRule rule) {
@@ -53,6 +58,37 @@ public class WorkManager implements IManager {
 		}
 	}
 
+	/**
+	 * Scheduling rule of a read-only operation, wrapping the scheduling rule
+	 * given to the operation. Read rules never conflict with each other, so
+	 * that read-only operations run concurrently, but conflict with any rule
+	 * conflicting with the wrapped rule.
+	 */
+	static class ReadRule implements ISchedulingRule {
+		final ISchedulingRule rule;
+
+		ReadRule(ISchedulingRule rule) {
+			this.rule = rule;
+		}
+
+		public boolean contains(ISchedulingRule other) {
+			if (this == other)
+				return true;
+			//only reads may nest in reads
+			if (other instanceof ReadRule)
+				return rule.contains(((ReadRule) other).rule);
+			return false;
+		}
+
+		public boolean isConflicting(ISchedulingRule other) {
+			if (this == other)
+				return true;
+			if (other instanceof ReadRule)
+				return false;
+			return rule.isConflicting(other);
+		}
+	}
+
 	/**
 	 * Indicates that the last checkIn failed, either due to cancelation or due to the
 	 * workspace tree being locked for modifications (during resource change events).
@@ -82,6 +118,14 @@ public class WorkManager implements IManager {
 	 * The current depth of prepared operations.
 	 */
 	private int preparedOperations = 0;
+	/**
+	 * The depth of nested read-only operations of each thread.
+	 */
+	private final ThreadLocal<int[]> readOnlyDepth = new ThreadLocal<int[]>() {
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
 	private Workspace workspace;
 
 	public WorkManager(Workspace workspace) {
@@ -104,6 +148,20 @@ public class WorkManager implements IManager {
 		return depth;
 	}
 
+	/**
+	 * A read-only operation calls this method and it only returns when no
+	 * operation modifying the resources covered by the given read rule is
+	 * running. Must be followed by endReadOnly, even if this method fails.
+	 * @param readRule the read rule of the operation, or <code>null</code>
+	 * @see #newReadRule(ISchedulingRule)
+	 * @see #endReadOnly(ISchedulingRule)
+	 */
+	public void beginReadOnly(ISchedulingRule readRule, IProgressMonitor monitor) {
+		readOnlyDepth.get()[0]++;
+		if (readRule != null)
+			jobManager.beginRule(readRule, monitor);
+	}
+
 	/**
 	 * An operation calls this method and it only returns when the operation is
 	 * free to run.
@@ -115,6 +173,10 @@ public class WorkManager implements IManager {
 				String msg = Messages.resources_cannotModify;
 				throw new ResourceException(IResourceStatus.WORKSPACE_LOCKED, null, msg, null);
 			}
+			if (isReadOnly()) {
+				String msg = Messages.resources_readOnlyOperation;
+				throw new ResourceException(IResourceStatus.WORKSPACE_LOCKED, null, msg, null);
+			}
 			jobManager.beginRule(rule, monitor);
 			lock.acquire();
 			incrementPreparedOperations();
@@ -139,7 +201,7 @@ public class WorkManager implements IManager {
 			//clear the failure flag for this thread
 			checkInFailed.set(null);
 			//must still end the rule even in the case of failure
-			if (!workspace.isTreeLocked())
+			if (!workspace.isTreeLocked() && !isReadOnly())
 				jobManager.endRule(rule);
 			return true;
 		}
@@ -174,6 +236,17 @@ public class WorkManager implements IManager {
 		preparedOperations--;
 	}
 
+	/**
+	 * Inform that a read-only operation has finished.
+	 * @param readRule the read rule given to beginReadOnly
+	 * @see #beginReadOnly(ISchedulingRule, IProgressMonitor)
+	 */
+	public void endReadOnly(ISchedulingRule readRule) {
+		readOnlyDepth.get()[0]--;
+		if (readRule != null)
+			jobManager.endRule(readRule);
+	}
+
 	/**
 	 * Re-acquires the workspace lock that was temporarily released during an
 	 * operation, and restores the old lock depth.
@@ -255,6 +328,21 @@ public class WorkManager implements IManager {
 		return result;
 	}
 
+	/**
+	 * Returns whether the current thread is running a read-only operation.
+	 */
+	public boolean isReadOnly() {
+		return readOnlyDepth.get()[0] > 0;
+	}
+
+	/**
+	 * Returns the scheduling rule of a read-only operation with the given
+	 * scheduling rule, or <code>null</code> if the given rule is <code>null</code>.
+	 */
+	public ISchedulingRule newReadRule(ISchedulingRule rule) {
+		return rule == null ? null : new ReadRule(rule);
+	}
+
 	/**
 	 * This method can only be safely called from inside a workspace
 	 * operation. Should NOT be called from outside a
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -89,6 +89,7 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 	protected WorkManager _workManager;
 	protected AliasManager aliasManager;
 	protected BuildManager buildManager;
+	protected ResourceMetrics resourceMetrics;
 	protected volatile IBuildConfiguration[] buildOrder = null;
 	protected CharsetManager charsetManager;
 	protected ContentDescriptionManager contentDescriptionManager;
@@ -342,6 +343,13 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 		notificationManager.addListener(listener, eventMask);
 	}
 
+	/* (non-Javadoc)
+	 * @see IWorkspace#addResourceChangeListener(IResourceChangeListener, int, IResource[], int, int)
+	 */
+	public void addResourceChangeListener(IResourceChangeListener listener, int eventMask, IResource[] resources, int typeMask, int kindMask) {
+		notificationManager.addListener(listener, eventMask, new ResourceChangeScope(resources, typeMask, kindMask));
+	}
+
 	/* (non-Javadoc)
 	 * @see IWorkspace#addSaveParticipant(Plugin, ISaveParticipant)
 	 */
@@ -443,10 +451,14 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 		monitor = Policy.monitorFor(monitor);
 		// Bug 343256 use a relaxed scheduling rule if the config we're building uses a relaxed rule.
 		// Otherwise fall-back to WR.
+		// Concurrent builds need a relaxed rule too, so check the build order of workspace builds in that case.
 		boolean relaxed = false;
-		if (Job.getJobManager().currentRule() == null && configs.length > 0) {
+		IBuildConfiguration[] ruleConfigs = configs;
+		if (configs.length == 0 && trigger != IncrementalProjectBuilder.CLEAN_BUILD && description.getMaxConcurrentBuilds() > 1)
+			ruleConfigs = getBuildOrder();
+		if (Job.getJobManager().currentRule() == null && ruleConfigs.length > 0) {
 			relaxed = true;
-			for (IBuildConfiguration config : configs) {
+			for (IBuildConfiguration config : ruleConfigs) {
 				ISchedulingRule requested = getBuildManager().getRule(config, trigger, null, null);
 				if (requested != null && requested.contains(getRoot())) {
 					relaxed = false;
@@ -1531,6 +1543,9 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 				broadcastPostChange();
 				// Request a snapshot if we are sufficiently out of date.
 				saveManager.snapshotIfNeeded(hasTreeChanges);
+				// Collapse the delta chains of kept trees once the workspace is idle.
+				if (hasTreeChanges)
+					saveManager.compactTreesLater();
 			} finally {
 				// make sure the tree is immutable if we are ending a top-level operation.
 				if (depthOne) {
@@ -1566,6 +1581,13 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 		return aliasManager;
 	}
 
+	/**
+	 * Returns the counters of the builders and listeners of this workspace
+	 */
+	public ResourceMetrics getResourceMetrics() {
+		return resourceMetrics;
+	}
+
 	/**
 	 * Returns this workspace's build manager
 	 */
@@ -1971,7 +1993,10 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 	 * @see IWorkspace#isTreeLocked()
 	 */
 	public boolean isTreeLocked() {
-		return treeLocked == Thread.currentThread();
+		if (treeLocked == Thread.currentThread())
+			return true;
+		//listeners notified concurrently run while the tree is locked by the notifying thread
+		return treeLocked != null && NotificationManager.isListenerThread();
 	}
 
 	/**
@@ -2334,6 +2359,10 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 		monitor = Policy.monitorFor(monitor);
 		try {
 			monitor.beginTask("", Policy.totalWork); //$NON-NLS-1$
+			if ((options & IWorkspace.READ_ONLY) != 0) {
+				runReadOnly(action, rule, Policy.subMonitorFor(monitor, Policy.totalWork, SubProgressMonitor.PREPEND_MAIN_LABEL_TO_SUBTASK));
+				return;
+			}
 			int depth = -1;
 			boolean avoidNotification = (options & IWorkspace.AVOID_UPDATE) != 0;
 			try {
@@ -2358,6 +2387,28 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 		}
 	}
 
+	/**
+	 * Runs the given read-only action. The action runs outside of the workspace
+	 * lock and without preparing an operation: no tree is layered, and no
+	 * notification or build happens when it ends. Its scheduling rule only
+	 * excludes operations modifying the workspace, so read-only operations run
+	 * concurrently with each other.
+	 */
+	private void runReadOnly(IWorkspaceRunnable action, ISchedulingRule rule, IProgressMonitor monitor) throws CoreException {
+		WorkManager workManager = getWorkManager();
+		ISchedulingRule readRule = workManager.newReadRule(rule);
+		try {
+			workManager.beginReadOnly(readRule, monitor);
+			if (!isOpen()) {
+				String message = Messages.resources_workspaceClosed;
+				throw new ResourceException(IResourceStatus.OPERATION_FAILED, null, message, null);
+			}
+			action.run(monitor);
+		} finally {
+			workManager.endReadOnly(readRule);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see IWorkspace#save(boolean, IProgressMonitor)
 	 */
@@ -2431,7 +2482,7 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 	protected void shutdown(IProgressMonitor monitor) throws CoreException {
 		monitor = Policy.monitorFor(monitor);
 		try {
-			IManager[] managers = {buildManager, propertyManager, pathVariableManager, charsetManager, fileSystemManager, markerManager, _workManager, aliasManager, refreshManager, contentDescriptionManager, natureManager, filterManager};
+			IManager[] managers = {buildManager, propertyManager, pathVariableManager, charsetManager, fileSystemManager, markerManager, _workManager, aliasManager, refreshManager, contentDescriptionManager, natureManager, filterManager, resourceMetrics};
 			monitor.beginTask("", managers.length); //$NON-NLS-1$
 			String message = Messages.resources_shutdownProblems;
 			MultiStatus status = new MultiStatus(ResourcesPlugin.PI_RESOURCES, IResourceStatus.INTERNAL_ERROR, message, null);
@@ -2462,6 +2513,7 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 			refreshManager = null;
 			charsetManager = null;
 			contentDescriptionManager = null;
+			resourceMetrics = null;
 			if (!status.isOK())
 				throw new CoreException(status);
 		} finally {
@@ -2492,6 +2544,8 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 			natureManager.startup(null);
 			filterManager = new FilterTypeManager();
 			filterManager.startup(null);
+			resourceMetrics = new ResourceMetrics();
+			resourceMetrics.startup(null);
 			buildManager = new BuildManager(this, getWorkManager().getLock());
 			buildManager.startup(null);
 			notificationManager = new NotificationManager(this);
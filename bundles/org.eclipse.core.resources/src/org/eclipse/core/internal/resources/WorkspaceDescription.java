@@ -23,9 +23,12 @@ public class WorkspaceDescription extends ModelObject implements IWorkspaceDescr
 	protected String[] buildOrder;
 	protected long fileStateLongevity;
 	protected int maxBuildIterations;
+	protected int maxConcurrentBuilds;
 	protected int maxFileStates;
 	protected long maxFileStateSize;
 	protected boolean applyFileStatePolicy;
+	protected int historyCompressionLevel;
+	protected int maxHistoryDeltaChain;
 	private long snapshotInterval;
 	protected int operationsPerSnapshot;
 	protected long deltaExpiration;
@@ -36,10 +39,13 @@ public class WorkspaceDescription extends ModelObject implements IWorkspaceDescr
 		IEclipsePreferences node = DefaultScope.INSTANCE.getNode(ResourcesPlugin.PI_RESOURCES);
 		autoBuilding = node.getBoolean(ResourcesPlugin.PREF_AUTO_BUILDING, PreferenceInitializer.PREF_AUTO_BUILDING_DEFAULT);
 		maxBuildIterations = node.getInt(ResourcesPlugin.PREF_MAX_BUILD_ITERATIONS, PreferenceInitializer.PREF_MAX_BUILD_ITERATIONS_DEFAULT);
+		maxConcurrentBuilds = node.getInt(ResourcesPlugin.PREF_MAX_CONCURRENT_BUILDS, PreferenceInitializer.PREF_MAX_CONCURRENT_BUILDS_DEFAULT);
 		applyFileStatePolicy = node.getBoolean(ResourcesPlugin.PREF_APPLY_FILE_STATE_POLICY, PreferenceInitializer.PREF_APPLY_FILE_STATE_POLICY_DEFAULT);
 		fileStateLongevity = node.getLong(ResourcesPlugin.PREF_FILE_STATE_LONGEVITY, PreferenceInitializer.PREF_FILE_STATE_LONGEVITY_DEFAULT);
 		maxFileStates = node.getInt(ResourcesPlugin.PREF_MAX_FILE_STATES, PreferenceInitializer.PREF_MAX_FILE_STATES_DEFAULT);
 		maxFileStateSize = node.getLong(ResourcesPlugin.PREF_MAX_FILE_STATE_SIZE, PreferenceInitializer.PREF_MAX_FILE_STATE_SIZE_DEFAULT);
+		historyCompressionLevel = node.getInt(PreferenceInitializer.PREF_HISTORY_COMPRESSION_LEVEL, PreferenceInitializer.PREF_HISTORY_COMPRESSION_LEVEL_DEFAULT);
+		maxHistoryDeltaChain = node.getInt(PreferenceInitializer.PREF_MAX_HISTORY_DELTA_CHAIN, PreferenceInitializer.PREF_MAX_HISTORY_DELTA_CHAIN_DEFAULT);
 		snapshotInterval = node.getLong(ResourcesPlugin.PREF_SNAPSHOT_INTERVAL, PreferenceInitializer.PREF_SNAPSHOT_INTERVAL_DEFAULT);
 		operationsPerSnapshot = node.getInt(PreferenceInitializer.PREF_OPERATIONS_PER_SNAPSHOT, PreferenceInitializer.PREF_OPERATIONS_PER_SNAPSHOT_DEFAULT);
 		deltaExpiration = node.getLong(PreferenceInitializer.PREF_DELTA_EXPIRATION, PreferenceInitializer.PREF_DELTA_EXPIRATION_DEFAULT);
@@ -73,6 +79,14 @@ public class WorkspaceDescription extends ModelObject implements IWorkspaceDescr
 		return fileStateLongevity;
 	}
 
+	/**
+	 * Returns the deflater level used for new local history blobs, where
+	 * <code>0</code> means that they are stored verbatim.
+	 */
+	public int getHistoryCompressionLevel() {
+		return historyCompressionLevel;
+	}
+
 	/**
 	 * @see IWorkspaceDescription#getMaxBuildIterations()
 	 */
@@ -80,6 +94,13 @@ public class WorkspaceDescription extends ModelObject implements IWorkspaceDescr
 		return maxBuildIterations;
 	}
 
+	/**
+	 * @see IWorkspaceDescription#getMaxConcurrentBuilds()
+	 */
+	public int getMaxConcurrentBuilds() {
+		return maxConcurrentBuilds;
+	}
+
 	/**
 	 * @see IWorkspaceDescription#getMaxFileStates()
 	 */
@@ -87,6 +108,14 @@ public class WorkspaceDescription extends ModelObject implements IWorkspaceDescr
 		return maxFileStates;
 	}
 
+	/**
+	 * Returns the maximum number of local history states stored as deltas
+	 * against a newer state before a state is stored in full.
+	 */
+	public int getMaxHistoryDeltaChain() {
+		return maxHistoryDeltaChain;
+	}
+
 	/**
 	 * @see IWorkspaceDescription#getMaxFileStateSize()
 	 */
@@ -148,6 +177,10 @@ public class WorkspaceDescription extends ModelObject implements IWorkspaceDescr
 		fileStateLongevity = time;
 	}
 
+	public void setHistoryCompressionLevel(int level) {
+		historyCompressionLevel = level;
+	}
+
 	/**
 	 * @see IWorkspaceDescription#setMaxBuildIterations(int)
 	 */
@@ -155,6 +188,13 @@ public class WorkspaceDescription extends ModelObject implements IWorkspaceDescr
 		maxBuildIterations = number;
 	}
 
+	/**
+	 * @see IWorkspaceDescription#setMaxConcurrentBuilds(int)
+	 */
+	public void setMaxConcurrentBuilds(int number) {
+		maxConcurrentBuilds = number;
+	}
+
 	/**
 	 * @see IWorkspaceDescription#setMaxFileStates(int)
 	 */
@@ -162,6 +202,10 @@ public class WorkspaceDescription extends ModelObject implements IWorkspaceDescr
 		maxFileStates = number;
 	}
 
+	public void setMaxHistoryDeltaChain(int number) {
+		maxHistoryDeltaChain = number;
+	}
+
 	/**
 	 * @see IWorkspaceDescription#setMaxFileStateSize(long)
 	 */
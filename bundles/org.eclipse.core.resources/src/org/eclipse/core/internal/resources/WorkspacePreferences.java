@@ -69,10 +69,13 @@ public class WorkspacePreferences extends WorkspaceDescription {
 		target.setAutoBuilding(source.isAutoBuilding());
 		target.setBuildOrder(source.getBuildOrder());
 		target.setMaxBuildIterations(source.getMaxBuildIterations());
+		target.setMaxConcurrentBuilds(source.getMaxConcurrentBuilds());
 		target.setApplyFileStatePolicy(source.isApplyFileStatePolicy());
 		target.setFileStateLongevity(source.getFileStateLongevity());
 		target.setMaxFileStates(source.getMaxFileStates());
 		target.setMaxFileStateSize(source.getMaxFileStateSize());
+		target.setHistoryCompressionLevel(source.getHistoryCompressionLevel());
+		target.setMaxHistoryDeltaChain(source.getMaxHistoryDeltaChain());
 		target.setSnapshotInterval(source.getSnapshotInterval());
 		target.setOperationsPerSnapshot(source.getOperationsPerSnapshot());
 		target.setDeltaExpiration(source.getDeltaExpiration());
@@ -90,10 +93,13 @@ public class WorkspacePreferences extends WorkspaceDescription {
 		super.setAutoBuilding(preferences.getBoolean(ResourcesPlugin.PREF_AUTO_BUILDING));
 		super.setSnapshotInterval(preferences.getInt(ResourcesPlugin.PREF_SNAPSHOT_INTERVAL));
 		super.setMaxBuildIterations(preferences.getInt(ResourcesPlugin.PREF_MAX_BUILD_ITERATIONS));
+		super.setMaxConcurrentBuilds(preferences.getInt(ResourcesPlugin.PREF_MAX_CONCURRENT_BUILDS));
 		super.setApplyFileStatePolicy(preferences.getBoolean(ResourcesPlugin.PREF_APPLY_FILE_STATE_POLICY));
 		super.setMaxFileStates(preferences.getInt(ResourcesPlugin.PREF_MAX_FILE_STATES));
 		super.setMaxFileStateSize(preferences.getLong(ResourcesPlugin.PREF_MAX_FILE_STATE_SIZE));
 		super.setFileStateLongevity(preferences.getLong(ResourcesPlugin.PREF_FILE_STATE_LONGEVITY));
+		super.setHistoryCompressionLevel(preferences.getInt(PreferenceInitializer.PREF_HISTORY_COMPRESSION_LEVEL));
+		super.setMaxHistoryDeltaChain(preferences.getInt(PreferenceInitializer.PREF_MAX_HISTORY_DELTA_CHAIN));
 		super.setOperationsPerSnapshot(preferences.getInt(PreferenceInitializer.PREF_OPERATIONS_PER_SNAPSHOT));
 		super.setDeltaExpiration(preferences.getLong(PreferenceInitializer.PREF_DELTA_EXPIRATION));
 
@@ -174,6 +180,10 @@ public class WorkspacePreferences extends WorkspaceDescription {
 		preferences.setValue(ResourcesPlugin.PREF_FILE_STATE_LONGEVITY, time);
 	}
 
+	public void setHistoryCompressionLevel(int level) {
+		preferences.setValue(PreferenceInitializer.PREF_HISTORY_COMPRESSION_LEVEL, level);
+	}
+
 	/**
 	 * @see org.eclipse.core.resources.IWorkspaceDescription#setMaxBuildIterations(int)
 	 */
@@ -181,6 +191,13 @@ public class WorkspacePreferences extends WorkspaceDescription {
 		preferences.setValue(ResourcesPlugin.PREF_MAX_BUILD_ITERATIONS, number);
 	}
 
+	/**
+	 * @see org.eclipse.core.resources.IWorkspaceDescription#setMaxConcurrentBuilds(int)
+	 */
+	public void setMaxConcurrentBuilds(int number) {
+		preferences.setValue(ResourcesPlugin.PREF_MAX_CONCURRENT_BUILDS, number);
+	}
+
 	/**
 	 * @see org.eclipse.core.resources.IWorkspaceDescription#setMaxFileStates(int)
 	 */
@@ -188,6 +205,10 @@ public class WorkspacePreferences extends WorkspaceDescription {
 		preferences.setValue(ResourcesPlugin.PREF_MAX_FILE_STATES, number);
 	}
 
+	public void setMaxHistoryDeltaChain(int number) {
+		preferences.setValue(PreferenceInitializer.PREF_MAX_HISTORY_DELTA_CHAIN, number);
+	}
+
 	/**
 	 * @see org.eclipse.core.resources.IWorkspaceDescription#setMaxFileStateSize(long)
 	 */
@@ -216,6 +237,8 @@ public class WorkspacePreferences extends WorkspaceDescription {
 			super.setSnapshotInterval(preferences.getLong(ResourcesPlugin.PREF_SNAPSHOT_INTERVAL));
 		else if (property.equals(ResourcesPlugin.PREF_MAX_BUILD_ITERATIONS))
 			super.setMaxBuildIterations(preferences.getInt(ResourcesPlugin.PREF_MAX_BUILD_ITERATIONS));
+		else if (property.equals(ResourcesPlugin.PREF_MAX_CONCURRENT_BUILDS))
+			super.setMaxConcurrentBuilds(preferences.getInt(ResourcesPlugin.PREF_MAX_CONCURRENT_BUILDS));
 		else if (property.equals(ResourcesPlugin.PREF_APPLY_FILE_STATE_POLICY))
 			super.setApplyFileStatePolicy(preferences.getBoolean(ResourcesPlugin.PREF_APPLY_FILE_STATE_POLICY));
 		else if (property.equals(ResourcesPlugin.PREF_MAX_FILE_STATES))
@@ -224,6 +247,10 @@ public class WorkspacePreferences extends WorkspaceDescription {
 			super.setMaxFileStateSize(preferences.getLong(ResourcesPlugin.PREF_MAX_FILE_STATE_SIZE));
 		else if (property.equals(ResourcesPlugin.PREF_FILE_STATE_LONGEVITY))
 			super.setFileStateLongevity(preferences.getLong(ResourcesPlugin.PREF_FILE_STATE_LONGEVITY));
+		else if (property.equals(PreferenceInitializer.PREF_HISTORY_COMPRESSION_LEVEL))
+			super.setHistoryCompressionLevel(preferences.getInt(PreferenceInitializer.PREF_HISTORY_COMPRESSION_LEVEL));
+		else if (property.equals(PreferenceInitializer.PREF_MAX_HISTORY_DELTA_CHAIN))
+			super.setMaxHistoryDeltaChain(preferences.getInt(PreferenceInitializer.PREF_MAX_HISTORY_DELTA_CHAIN));
 		else if (property.equals(PreferenceInitializer.PREF_OPERATIONS_PER_SNAPSHOT))
 			super.setOperationsPerSnapshot(preferences.getInt(PreferenceInitializer.PREF_OPERATIONS_PER_SNAPSHOT));
 		else if (property.equals(PreferenceInitializer.PREF_DELTA_EXPIRATION))
@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.resources.refresh.linux;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.core.internal.refresh.RefreshManager;
+import org.eclipse.core.internal.utils.Messages;
+import org.eclipse.core.internal.utils.Policy;
+import org.eclipse.core.resources.*;
+import org.eclipse.core.resources.refresh.IRefreshMonitor;
+import org.eclipse.core.resources.refresh.IRefreshResult;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.Bundle;
+
+/**
+ * A monitor that works on Linux platforms. Every folder below a monitored
+ * root is registered with a <code>WatchService</code>, which is backed by
+ * inotify on Linux. Kernel change events are turned into refresh requests
+ * of depth <code>DEPTH_ONE</code> on the folder that changed. When the kernel
+ * event queue overflows, the whole affected root is refreshed once instead.
+ */
+class LinuxMonitor extends Job implements IRefreshMonitor {
+	/**
+	 * The delay between invocations of the refresh job.
+	 */
+	private static final long RESCHEDULE_DELAY = 1000;
+	/**
+	 * The time to wait for the first key to be signaled in each invocation.
+	 */
+	private static final long WAIT_TIMEOUT = 1000;
+	private static final String DEBUG_PREFIX = "LinuxRefreshMonitor: "; //$NON-NLS-1$
+
+	@SuppressWarnings("unchecked")
+	private static final WatchEvent.Kind<Path>[] EVENT_KINDS = new WatchEvent.Kind[] {StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY};
+
+	/**
+	 * A registered watch on a single folder below a monitored root.
+	 */
+	private static class Watch {
+		final IContainer container;
+		final IResource root;
+		final Path rootLocation;
+
+		Watch(IContainer container, IResource root, Path rootLocation) {
+			this.container = container;
+			this.root = root;
+			this.rootLocation = rootLocation;
+		}
+	}
+
+	protected IRefreshResult refreshResult;
+	/**
+	 * The watch service, or <code>null</code> if no resources are currently monitored.
+	 */
+	private WatchService watchService;
+	/**
+	 * Mapping of watch keys to the folder they were registered for.
+	 */
+	private final Map<WatchKey, Watch> fKeyToWatch;
+	/**
+	 * Mapping of monitored roots to all watch keys registered below them.
+	 */
+	private final Map<IResource, Set<WatchKey>> fRootToKeys;
+
+	/*
+	 * Creates a new monitor. @param result A result that will receive refresh
+	 * callbacks and error notifications
+	 */
+	public LinuxMonitor(IRefreshResult result) {
+		super(Messages.LM_jobName);
+		this.refreshResult = result;
+		setPriority(Job.DECORATE);
+		setSystem(true);
+		fKeyToWatch = new HashMap<WatchKey, Watch>();
+		fRootToKeys = new HashMap<IResource, Set<WatchKey>>();
+	}
+
+	/**
+	 * Returns the container corresponding to the given folder below a monitored root.
+	 */
+	private IContainer containerFor(IResource root, Path rootLocation, Path folder) {
+		Path relative = rootLocation.relativize(folder);
+		if (relative.toString().length() == 0)
+			return (IContainer) root;
+		return ((IContainer) root).getFolder(new org.eclipse.core.runtime.Path(relative.toString()));
+	}
+
+	/**
+	 * Adds a resource to be monitored by this native monitor
+	 */
+	public boolean monitor(IResource resource) {
+		IPath location = resource.getLocation();
+		if (location == null) {
+			// cannot monitor remotely managed containers
+			return false;
+		}
+		Path rootLocation = location.toFile().toPath();
+		// synchronized: registration of the whole subtree must be atomic
+		synchronized (this) {
+			try {
+				if (watchService == null)
+					watchService = FileSystems.getDefault().newWatchService();
+				registerTree(resource, rootLocation, rootLocation);
+			} catch (IOException e) {
+				// typically the inotify watch limit has been reached; fall back to polling
+				if (RefreshManager.DEBUG)
+					System.out.println(DEBUG_PREFIX + NLS.bind(Messages.LM_errRegister, rootLocation, e.getMessage()));
+				removeRoot(resource);
+				return false;
+			}
+		}
+		//make sure the job is running
+		schedule(RESCHEDULE_DELAY);
+		if (RefreshManager.DEBUG)
+			System.out.println(DEBUG_PREFIX + " added monitor for: " + resource); //$NON-NLS-1$
+		return true;
+	}
+
+	/**
+	 * Posts a refresh request for the given resource to the given depth.
+	 */
+	private void postRefreshRequest(IResource resource, int depth) {
+		if (refreshResult instanceof RefreshManager)
+			((RefreshManager) refreshResult).refresh(resource, depth);
+		else
+			refreshResult.refresh(resource);
+	}
+
+	/**
+	 * Drains the events of the given key, and collects the folders that need
+	 * a shallow refresh, the folders that need a deep refresh, and the roots
+	 * whose events have been lost.
+	 */
+	private void processKey(WatchKey key, Set<IResource> shallow, Set<IResource> deep, Set<IResource> overflowed) {
+		Watch watch;
+		synchronized (this) {
+			watch = fKeyToWatch.get(key);
+		}
+		if (watch == null) {
+			key.cancel();
+			return;
+		}
+		Path folder = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				overflowed.add(watch.root);
+				continue;
+			}
+			shallow.add(watch.container);
+			if (event.kind() != StandardWatchEventKinds.ENTRY_CREATE)
+				continue;
+			Path child = folder.resolve((Path) event.context());
+			if (!Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS))
+				continue;
+			// start watching the new folder, and scan it since its contents
+			// may have been created before the watch was in place
+			synchronized (this) {
+				if (!fRootToKeys.containsKey(watch.root))
+					continue;
+				try {
+					registerTree(watch.root, watch.rootLocation, child);
+				} catch (IOException e) {
+					overflowed.add(watch.root);
+					continue;
+				}
+			}
+			deep.add(containerFor(watch.root, watch.rootLocation, child));
+		}
+		if (!key.reset()) {
+			// the folder is gone, or no longer accessible
+			synchronized (this) {
+				fKeyToWatch.remove(key);
+				Set<WatchKey> keys = fRootToKeys.get(watch.root);
+				if (keys != null)
+					keys.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Registers a watch on the given folder and all folders below it.
+	 * Symbolic links are not followed, they are monitored by polling
+	 * through the linked resources pointing at them, if any.
+	 */
+	private void registerTree(final IResource root, final Path rootLocation, Path start) throws IOException {
+		Set<WatchKey> keys = fRootToKeys.get(root);
+		if (keys == null) {
+			keys = new HashSet<WatchKey>();
+			fRootToKeys.put(root, keys);
+		}
+		final Set<WatchKey> rootKeys = keys;
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watchService, EVENT_KINDS);
+				rootKeys.add(key);
+				fKeyToWatch.put(key, new Watch(containerFor(root, rootLocation, dir), root, rootLocation));
+				return FileVisitResult.CONTINUE;
+			}
+
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				//the folder may have been deleted concurrently, or is not readable
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Cancels all watches registered for the given root. Must be called
+	 * while holding the monitor lock.
+	 */
+	private void removeRoot(IResource root) {
+		Set<WatchKey> keys = fRootToKeys.remove(root);
+		if (keys == null)
+			return;
+		for (Iterator<WatchKey> i = keys.iterator(); i.hasNext();) {
+			WatchKey key = i.next();
+			key.cancel();
+			fKeyToWatch.remove(key);
+		}
+	}
+
+	/*
+	 * @see org.eclipse.core.runtime.jobs.Job#run(IProgressMonitor)
+	 */
+	protected IStatus run(IProgressMonitor monitor) {
+		long start = -System.currentTimeMillis();
+		if (RefreshManager.DEBUG)
+			System.out.println(DEBUG_PREFIX + "job started."); //$NON-NLS-1$
+		try {
+			WatchService service;
+			synchronized (this) {
+				service = watchService;
+			}
+			if (service == null)
+				return Status.OK_STATUS;
+			Set<IResource> shallow = new LinkedHashSet<IResource>();
+			Set<IResource> deep = new LinkedHashSet<IResource>();
+			Set<IResource> overflowed = new HashSet<IResource>();
+			try {
+				WatchKey key = service.poll(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+				while (key != null) {
+					if (monitor.isCanceled())
+						return Status.CANCEL_STATUS;
+					processKey(key, shallow, deep, overflowed);
+					key = service.poll();
+				}
+			} catch (InterruptedException e) {
+				//ignore and process what we have so far
+			} catch (ClosedWatchServiceException e) {
+				//all resources have been unmonitored concurrently
+				return Status.OK_STATUS;
+			}
+			//an overflowed root gets one refresh of the whole subtree instead of targeted ones
+			for (Iterator<IResource> i = overflowed.iterator(); i.hasNext();) {
+				IResource root = i.next();
+				if (RefreshManager.DEBUG)
+					System.out.println(DEBUG_PREFIX + NLS.bind(Messages.LM_overflow, root));
+				postRefreshRequest(root, IResource.DEPTH_INFINITE);
+			}
+			for (Iterator<IResource> i = deep.iterator(); i.hasNext();) {
+				IResource resource = i.next();
+				if (!isOverflowed(resource, overflowed))
+					postRefreshRequest(resource, IResource.DEPTH_INFINITE);
+			}
+			for (Iterator<IResource> i = shallow.iterator(); i.hasNext();) {
+				IResource resource = i.next();
+				if (!isOverflowed(resource, overflowed))
+					postRefreshRequest(resource, IResource.DEPTH_ONE);
+			}
+		} finally {
+			monitor.done();
+			start += System.currentTimeMillis();
+			if (RefreshManager.DEBUG)
+				System.out.println(DEBUG_PREFIX + "job finished in: " + start + "ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		//always reschedule the job - so it will come back after errors or cancelation
+		final Bundle bundle = Platform.getBundle(ResourcesPlugin.PI_RESOURCES);
+		//if the bundle is null then the framework has shutdown - just bail out completely (bug 98219)
+		if (bundle == null)
+			return Status.OK_STATUS;
+		//don't reschedule the job if the resources plugin has been shut down
+		if (bundle.getState() == Bundle.ACTIVE)
+			schedule(RESCHEDULE_DELAY);
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Returns whether the given resource lies below one of the given overflowed roots.
+	 */
+	private boolean isOverflowed(IResource resource, Set<IResource> overflowed) {
+		if (overflowed.isEmpty())
+			return false;
+		for (Iterator<IResource> i = overflowed.iterator(); i.hasNext();)
+			if (i.next().getFullPath().isPrefixOf(resource.getFullPath()))
+				return true;
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.Job#shouldRun()
+	 */
+	public synchronized boolean shouldRun() {
+		return !fKeyToWatch.isEmpty();
+	}
+
+	/*
+	 * @see org.eclipse.core.resources.refresh.IRefreshMonitor#unmonitor(IContainer)
+	 */
+	public void unmonitor(IResource resource) {
+		synchronized (this) {
+			if (resource == null) {
+				// resource == null means stop monitoring all resources
+				for (Iterator<IResource> i = new ArrayList<IResource>(fRootToKeys.keySet()).iterator(); i.hasNext();)
+					removeRoot(i.next());
+			} else {
+				removeRoot(resource);
+			}
+			if (!fKeyToWatch.isEmpty())
+				return;
+			if (watchService != null) {
+				try {
+					watchService.close();
+				} catch (IOException e) {
+					Policy.log(IStatus.WARNING, null, e);
+				}
+				watchService = null;
+			}
+		}
+		//stop the job if there are no more watches
+		cancel();
+	}
+}
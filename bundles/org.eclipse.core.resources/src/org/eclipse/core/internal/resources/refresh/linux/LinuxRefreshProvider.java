@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.resources.refresh.linux;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.refresh.*;
+import org.eclipse.core.runtime.Platform;
+
+/**
+ * The <code>LinuxRefreshProvider</code> creates monitors that use the
+ * kernel's inotify facility (through <code>java.nio.file.WatchService</code>)
+ * to monitor local folders on Linux platforms.
+ *
+ * @see org.eclipse.core.resources.refresh.RefreshProvider
+ */
+public class LinuxRefreshProvider extends RefreshProvider {
+	private LinuxMonitor monitor;
+
+	/**
+	 * Creates a standard Linux monitor if the given resource is local.
+	 *
+	 * @see org.eclipse.core.resources.refresh.RefreshProvider#installMonitor(IResource,IRefreshResult)
+	 */
+	public IRefreshMonitor installMonitor(IResource resource, IRefreshResult result) {
+		if (!Platform.OS_LINUX.equals(Platform.getOS()))
+			return null;
+		if (resource.getLocation() == null || !resource.exists() || resource.getType() == IResource.FILE)
+			return null;
+		if (monitor == null)
+			monitor = new LinuxMonitor(result);
+		if (monitor.monitor(resource))
+			return monitor;
+		return null;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2011 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -160,6 +160,7 @@ public class Messages extends NLS {
 	public static String resources_charsetUpdating;
 	public static String resources_closing_0;
 	public static String resources_closing_1;
+	public static String resources_compactingTrees;
 	public static String resources_copyDestNotSub;
 	public static String resources_copying;
 	public static String resources_copying_0;
@@ -254,6 +255,7 @@ public class Messages extends NLS {
 	public static String resources_readMetaWrongVersion;
 	public static String resources_readOnly;
 	public static String resources_readOnly2;
+	public static String resources_readOnlyOperation;
 	public static String resources_readProjectMeta;
 	public static String resources_readProjectTree;
 	public static String resources_readSync;
@@ -312,6 +314,11 @@ public class Messages extends NLS {
 	public static String watson_nullArg;
 	public static String watson_unknown;
 
+	// auto-refresh linux native
+	public static String LM_errRegister;
+	public static String LM_jobName;
+	public static String LM_overflow;
+
 	// auto-refresh win32 native
 	public static String WM_beginTask;
 	public static String WM_errCloseHandle;
@@ -35,6 +35,7 @@ public class Policy {
 	public static boolean DEBUG_CONTENT_TYPE_CACHE = false;
 	public static boolean DEBUG_HISTORY = false;
 	public static boolean DEBUG_NATURES = false;
+	public static boolean DEBUG_NOTIFICATION = false;
 	public static boolean DEBUG_PREFERENCES = false;
 	// Get timing information for restoring data
 	public static boolean DEBUG_RESTORE = false;
@@ -56,6 +57,10 @@ public class Policy {
 	public static boolean DEBUG_STRINGS = false;
 	public static int endOpWork = 1;
 	public static final long MAX_BUILD_DELAY = 1000;
+	/**
+	 * The longest delay of an autobuild when the adaptive delay policy is used.
+	 */
+	public static final long MAX_ADAPTIVE_BUILD_DELAY = 5000;
 
 	public static final long MIN_BUILD_DELAY = 100;
 	public static int opWork = 99;
@@ -80,6 +85,7 @@ public class Policy {
 			DEBUG_CONTENT_TYPE_CACHE = sTrue.equalsIgnoreCase(Platform.getDebugOption(ResourcesPlugin.PI_RESOURCES + "/contenttype/cache")); //$NON-NLS-1$ 
 			DEBUG_HISTORY = sTrue.equalsIgnoreCase(Platform.getDebugOption(ResourcesPlugin.PI_RESOURCES + "/history")); //$NON-NLS-1$ 
 			DEBUG_NATURES = sTrue.equalsIgnoreCase(Platform.getDebugOption(ResourcesPlugin.PI_RESOURCES + "/natures")); //$NON-NLS-1$ 
+			DEBUG_NOTIFICATION = sTrue.equalsIgnoreCase(Platform.getDebugOption(ResourcesPlugin.PI_RESOURCES + "/notification")); //$NON-NLS-1$
 			DEBUG_PREFERENCES = sTrue.equalsIgnoreCase(Platform.getDebugOption(ResourcesPlugin.PI_RESOURCES + "/preferences")); //$NON-NLS-1$
 
 			DEBUG_RESTORE = sTrue.equalsIgnoreCase(Platform.getDebugOption(ResourcesPlugin.PI_RESOURCES + "/restore")); //$NON-NLS-1$ 
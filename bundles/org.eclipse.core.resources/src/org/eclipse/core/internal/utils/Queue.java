@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -123,6 +123,16 @@ public class Queue<T> {
 		return (index == (elements.length - 1)) ? 0 : index + 1;
 	}
 
+	/**
+	 * Returns the index of the element at the given position from the tail
+	 * of the queue, 1 being the last element. This method does not affect
+	 * the queue itself.
+	 */
+	public int indexFromTail(int position) {
+		int index = tail - position;
+		return index < 0 ? index + elements.length : index;
+	}
+
 	public int indexOf(T target) {
 		if (tail >= head) {
 			for (int i = head; i < tail; i++)
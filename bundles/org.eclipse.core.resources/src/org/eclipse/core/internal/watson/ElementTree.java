@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@
 package org.eclipse.core.internal.watson;
 
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.core.internal.dtree.*;
 import org.eclipse.core.internal.utils.Messages;
 import org.eclipse.core.internal.utils.StringPool;
@@ -66,6 +67,11 @@ import org.eclipse.osgi.util.NLS;
  * also be re-oriented in terms of the current element tree using the
  * <code>reroot()</code> operation.
  *
+ * Immutable trees are read without synchronization: their content never
+ * changes, and the underlying delta trees replace their representation
+ * atomically when they are collapsed or rerooted. Reads of a tree that is not
+ * yet immutable are synchronized with its modifications.
+ *
  * Classes are also available for tree serialization and navigation.
  * @see ElementTreeReader
  * @see ElementTreeWriter
@@ -84,17 +90,20 @@ public class ElementTree {
 			this.childPaths = childPaths;
 		}
 
-		IPath path;
-		IPath[] childPaths;
+		final IPath path;
+		final IPath[] childPaths;
 	}
 
 	private volatile ChildIDsCache childIDsCache = null;
 
-	private volatile DataTreeLookup lookupCache = null;
-
-	private volatile DataTreeLookup lookupCacheIgnoreCase = null;
+	/**
+	 * The number of modifications of this tree, which invalidate the lookups
+	 * of this tree cached by all threads.
+	 * @see LookupCache
+	 */
+	private volatile int modificationCount = 0;
 
-	private static int treeCounter = 0;
+	private static final AtomicInteger treeCounter = new AtomicInteger();
 	private int treeStamp;
 
 	/**
@@ -184,8 +193,7 @@ public class ElementTree {
 			elementNotFound(parent);
 		}
 		// Set the lookup to be this newly created object.
-		lookupCache = DataTreeLookup.newLookup(key, true, data, true);
-		lookupCacheIgnoreCase = null;
+		LookupCache.getCache().put(treeStamp, ++modificationCount, key, false, true, data, true);
 	}
 
 	/**
@@ -206,9 +214,9 @@ public class ElementTree {
 		// Clear the child IDs cache in case it's referring to this parent.
 		// This is conservative.
 		childIDsCache = null;
-		// Clear the lookup cache, in case the element being created is the same
-		// as for the last lookup.
-		lookupCache = lookupCacheIgnoreCase = null;
+		// Invalidate the cached lookups, in case the element being created is the same
+		// as for a previous lookup.
+		modificationCount++;
 		try {
 			/* don't copy the implicit root node of the subtree */
 			IPath[] children = subtree.getChildren(subtree.getRoot());
@@ -239,9 +247,9 @@ public class ElementTree {
 		// Clear the child IDs cache in case it's referring to this parent.
 		// This is conservative.
 		childIDsCache = null;
-		// Clear the lookup cache, in case the element being deleted is the same
-		// as for the last lookup.
-		lookupCache = lookupCacheIgnoreCase = null;
+		// Invalidate the cached lookups, in case the element being deleted is the same
+		// as for a previous lookup.
+		modificationCount++;
 		try {
 			tree.deleteChild(key.removeLastSegments(1), key.lastSegment());
 		} catch (ObjectNotFoundException e) {
@@ -312,8 +320,13 @@ public class ElementTree {
 	 * specified by the given path.
 	 * The given element must be present in this tree.
 	 */
-	public synchronized int getChildCount(IPath key) {
+	public int getChildCount(IPath key) {
 		Assert.isNotNull(key);
+		if (!isImmutable()) {
+			synchronized (this) {
+				return getChildIDs(key).length;
+			}
+		}
 		return getChildIDs(key).length;
 	}
 
@@ -343,8 +356,13 @@ public class ElementTree {
 	 * specified by the given path.
 	 * The given element must be present in this tree.
 	 */
-	public synchronized IPath[] getChildren(IPath key) {
+	public IPath[] getChildren(IPath key) {
 		Assert.isNotNull(key);
+		if (!isImmutable()) {
+			synchronized (this) {
+				return getChildIDs(key);
+			}
+		}
 		return getChildIDs(key);
 	}
 
@@ -355,17 +373,36 @@ public class ElementTree {
 		return tree;
 	}
 
+	/**
+	 * Returns the number of delta layers below this tree, that is, the number
+	 * of trees that lookups in this tree may have to search before reaching a
+	 * complete tree.
+	 */
+	public int getDeltaDepth() {
+		int depth = 0;
+		for (DeltaDataTree parent = tree.getParent(); parent != null; parent = parent.getParent())
+			depth++;
+		return depth;
+	}
+
 	/**
 	 * Returns the element data for the given element identifier.
 	 * The given element must be present in this tree.
 	 */
-	public synchronized Object getElementData(IPath key) {
+	public Object getElementData(IPath key) {
 		/* don't allow modification of the implicit root */
 		if (key.isRoot())
 			return null;
-		DataTreeLookup lookup = lookupCache; // Grab it in case it's replaced concurrently.
-		if (lookup == null || lookup.key != key)
-			lookupCache = lookup = tree.lookup(key);
+		if (!isImmutable()) {
+			synchronized (this) {
+				return basicGetElementData(key);
+			}
+		}
+		return basicGetElementData(key);
+	}
+
+	private Object basicGetElementData(IPath key) {
+		LookupCache.Entry lookup = lookup(key, false);
 		if (lookup.isPresent)
 			return lookup.data;
 		elementNotFound(key);
@@ -376,28 +413,69 @@ public class ElementTree {
 	 * Returns the element data for the given element identifier.
 	 * The given element must be present in this tree.
 	 */
-	public synchronized Object getElementDataIgnoreCase(IPath key) {
+	public Object getElementDataIgnoreCase(IPath key) {
 		/* don't allow modification of the implicit root */
 		if (key.isRoot())
 			return null;
-		DataTreeLookup lookup = lookupCacheIgnoreCase; // Grab it in case it's replaced concurrently.
-		if (lookup == null || lookup.key != key)
-			lookupCacheIgnoreCase = lookup = tree.lookupIgnoreCase(key);
+		if (!isImmutable()) {
+			synchronized (this) {
+				return basicGetElementDataIgnoreCase(key);
+			}
+		}
+		return basicGetElementDataIgnoreCase(key);
+	}
+
+	private Object basicGetElementDataIgnoreCase(IPath key) {
+		LookupCache.Entry lookup = lookup(key, true);
 		if (lookup.isPresent)
 			return lookup.data;
 		elementNotFound(key);
 		return null; // can't get here
 	}
 
+	/**
+	 * Returns the number of element lookups, in all trees and threads, that
+	 * were answered from the lookups cached by the looking up thread. The count
+	 * is updated periodically by each thread, and is therefore approximate.
+	 */
+	public static long getLookupCacheHits() {
+		return LookupCache.getHits();
+	}
+
+	/**
+	 * Returns the number of element lookups, in all trees and threads, that
+	 * had to search the delta chain of the tree. The count is updated
+	 * periodically by each thread, and is therefore approximate.
+	 */
+	public static long getLookupCacheMisses() {
+		return LookupCache.getMisses();
+	}
+
+	/**
+	 * Discards the counts of element lookup cache hits and misses.
+	 */
+	public static void resetLookupCacheStatistics() {
+		LookupCache.resetStatistics();
+	}
+
 	/**
 	 * Returns the names of the children of the specified element.
 	 * The specified element must exist in the tree.
 	 * If the specified element is null, returns the root element path.
 	 */
-	public synchronized String[] getNamesOfChildren(IPath key) {
+	public String[] getNamesOfChildren(IPath key) {
+		if (key == null)
+			return new String[] {""}; //$NON-NLS-1$
+		if (!isImmutable()) {
+			synchronized (this) {
+				return basicGetNamesOfChildren(key);
+			}
+		}
+		return basicGetNamesOfChildren(key);
+	}
+
+	private String[] basicGetNamesOfChildren(IPath key) {
 		try {
-			if (key == null)
-				return new String[] {""}; //$NON-NLS-1$
 			return tree.getNamesOfChildren(key);
 		} catch (ObjectNotFoundException e) {
 			elementNotFound(key);
@@ -448,6 +526,14 @@ public class ElementTree {
 		}
 	}
 
+	/**
+	 * Returns the stamp of this tree.  Each tree created in a session has a
+	 * different stamp, and trees created later have greater stamps.
+	 */
+	public int getTreeStamp() {
+		return treeStamp;
+	}
+
 	/**
 	 * Returns the user data associated with this tree.
 	 */
@@ -511,9 +597,9 @@ public class ElementTree {
 	public synchronized void immutable() {
 		if (!tree.isImmutable()) {
 			tree.immutable();
-			/* need to clear the lookup cache since it reports whether results were found
-			 in the topmost delta, and the order of deltas is changing */
-			lookupCache = lookupCacheIgnoreCase = null;
+			/* need to invalidate the cached lookups since they report whether results were
+			 found in the topmost delta, and the order of deltas is changing */
+			modificationCount++;
 			/* reroot the delta chain at this tree */
 			tree.reroot();
 		}
@@ -523,12 +609,17 @@ public class ElementTree {
 	 * Returns true if this element tree includes an element with the given
 	 * key, false otherwise.
 	 */
-	public synchronized boolean includes(IPath key) {
-		DataTreeLookup lookup = lookupCache; // Grab it in case it's replaced concurrently.
-		if (lookup == null || lookup.key != key) {
-			lookupCache = lookup = tree.lookup(key);
+	public boolean includes(IPath key) {
+		if (!isImmutable()) {
+			synchronized (this) {
+				return basicIncludes(key);
+			}
 		}
-		return lookup.isPresent;
+		return basicIncludes(key);
+	}
+
+	private boolean basicIncludes(IPath key) {
+		return lookup(key, false).isPresent;
 	}
 
 	/**
@@ -536,11 +627,24 @@ public class ElementTree {
 	 * key, ignoring the case of the key, and false otherwise.
 	 */
 	public boolean includesIgnoreCase(IPath key) {
-		DataTreeLookup lookup = lookupCacheIgnoreCase; // Grab it in case it's replaced concurrently.
-		if (lookup == null || lookup.key != key) {
-			lookupCacheIgnoreCase = lookup = tree.lookupIgnoreCase(key);
+		return lookup(key, true).isPresent;
+	}
+
+	/**
+	 * Looks up the given key in this tree, or in the lookups cached by the
+	 * current thread. The result is only valid until the next lookup of the
+	 * current thread.
+	 */
+	private LookupCache.Entry lookup(IPath key, boolean ignoreCase) {
+		LookupCache cache = LookupCache.getCache();
+		// read the count before looking up, so that a concurrent modification invalidates the result
+		int count = modificationCount;
+		LookupCache.Entry entry = cache.get(treeStamp, count, key, ignoreCase);
+		if (entry == null) {
+			DataTreeLookup lookup = ignoreCase ? tree.lookupIgnoreCase(key) : tree.lookup(key);
+			entry = cache.put(treeStamp, count, key, ignoreCase, lookup.isPresent, lookup.data, lookup.foundInFirstDelta);
 		}
-		return lookup.isPresent;
+		return entry;
 	}
 
 	protected void initialize(DataTreeNode rootNode) {
@@ -552,7 +656,7 @@ public class ElementTree {
 		// Keep this element tree as the data of the root node.
 		// Useful for canonical results for ElementTree.getParent().
 		// see getParent().
-		treeStamp = treeCounter++;
+		treeStamp = treeCounter.getAndIncrement();
 		newTree.setData(newTree.rootKey(), this);
 		this.tree = newTree;
 	}
@@ -625,8 +729,6 @@ public class ElementTree {
 	 * tree will not affect this one.
 	 */
 	public synchronized ElementTree newEmptyDelta() {
-		// Don't want old trees hanging onto cached infos.
-		lookupCache = lookupCacheIgnoreCase = null;
 		return new ElementTree(this);
 	}
 
@@ -643,10 +745,7 @@ public class ElementTree {
 		/* don't allow modification of the implicit root */
 		if (key.isRoot())
 			return null;
-		DataTreeLookup lookup = lookupCache; // Grab it in case it's replaced concurrently.
-		if (lookup == null || lookup.key != key) {
-			lookupCache = lookup = tree.lookup(key);
-		}
+		LookupCache.Entry lookup = lookup(key, false);
 		if (lookup.isPresent) {
 			if (lookup.foundInFirstDelta)
 				return lookup.data;
@@ -659,7 +758,7 @@ public class ElementTree {
 				try {
 					Object newData = oldData.clone();
 					tree.setData(key, newData);
-					lookupCache = lookupCacheIgnoreCase = null;
+					modificationCount++;
 					return newData;
 				} catch (ObjectNotFoundException e) {
 					elementNotFound(key);
@@ -683,9 +782,9 @@ public class ElementTree {
 			return;
 
 		Assert.isNotNull(key);
-		// Clear the lookup cache, in case the element being modified is the same
-		// as for the last lookup.
-		lookupCache = lookupCacheIgnoreCase = null;
+		// Invalidate the cached lookups, in case the element being modified is the same
+		// as for a previous lookup.
+		modificationCount++;
 		try {
 			tree.setData(key, data);
 		} catch (ObjectNotFoundException e) {
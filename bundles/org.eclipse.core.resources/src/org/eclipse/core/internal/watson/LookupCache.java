@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.watson;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * The most recent element lookups of a thread, in any element tree. Each
+ * thread has its own cache, so lookups from different threads never evict
+ * each other and need no synchronization.
+ * <p>
+ * Entries are kept in least recently used order, and are keyed by the stamp of
+ * the tree, its modification count, the path and whether the case of the path
+ * was ignored. A modification of a tree therefore invalidates the entries of
+ * that tree in the caches of all threads. Entries copy the results of the
+ * lookups, because the lookup objects of data trees are pooled and reused.
+ * </p>
+ * <p>
+ * The hits and misses of all threads are counted. The counts of each thread
+ * are added to the totals periodically, so the totals are approximate.
+ * </p>
+ */
+final class LookupCache {
+	/**
+	 * The result of a lookup, and the key it is valid for.
+	 */
+	static final class Entry {
+		int stamp;
+		int modificationCount;
+		IPath key;
+		int hash;
+		boolean ignoreCase;
+		boolean isPresent;
+		Object data;
+		boolean foundInFirstDelta;
+	}
+
+	/**
+	 * The number of entries of each cache.
+	 */
+	static final int SIZE = 8;
+	/**
+	 * The number of lookups of a thread after which its counts are added to
+	 * the totals.
+	 */
+	private static final int FLUSH_INTERVAL = 1024;
+
+	private static final ThreadLocal<LookupCache> caches = new ThreadLocal<LookupCache>() {
+		protected LookupCache initialValue() {
+			return new LookupCache();
+		}
+	};
+	private static final AtomicLong totalHits = new AtomicLong();
+	private static final AtomicLong totalMisses = new AtomicLong();
+
+	/**
+	 * The entries, most recently used first.
+	 */
+	private final Entry[] entries = new Entry[SIZE];
+	private int size;
+	private int hits;
+	private int misses;
+
+	/**
+	 * Returns the cache of the current thread.
+	 */
+	static LookupCache getCache() {
+		return caches.get();
+	}
+
+	/**
+	 * Returns the number of lookups found in the caches of all threads.
+	 */
+	static long getHits() {
+		return totalHits.get();
+	}
+
+	/**
+	 * Returns the number of lookups not found in the caches of all threads.
+	 */
+	static long getMisses() {
+		return totalMisses.get();
+	}
+
+	/**
+	 * Discards the counts of hits and misses.
+	 */
+	static void resetStatistics() {
+		totalHits.set(0);
+		totalMisses.set(0);
+	}
+
+	private void count(boolean hit) {
+		if (hit)
+			hits++;
+		else
+			misses++;
+		if (hits + misses >= FLUSH_INTERVAL) {
+			totalHits.addAndGet(hits);
+			totalMisses.addAndGet(misses);
+			hits = misses = 0;
+		}
+	}
+
+	/**
+	 * Returns the entry for the given key, or <code>null</code> if there is
+	 * none. The entry is only valid until the next call to this cache.
+	 */
+	Entry get(int stamp, int modificationCount, IPath key, boolean ignoreCase) {
+		int hash = key.hashCode();
+		for (int i = 0; i < size; i++) {
+			Entry entry = entries[i];
+			if (entry.stamp == stamp && entry.modificationCount == modificationCount && entry.hash == hash && entry.ignoreCase == ignoreCase && (entry.key == key || entry.key.equals(key))) {
+				if (i > 0) {
+					System.arraycopy(entries, 0, entries, 1, i);
+					entries[0] = entry;
+				}
+				count(true);
+				return entry;
+			}
+		}
+		count(false);
+		return null;
+	}
+
+	/**
+	 * Adds an entry for the given key and lookup result, evicting the least
+	 * recently used entry if the cache is full. Returns the new entry, which is
+	 * only valid until the next call to this cache.
+	 */
+	Entry put(int stamp, int modificationCount, IPath key, boolean ignoreCase, boolean isPresent, Object data, boolean foundInFirstDelta) {
+		Entry entry;
+		if (size < SIZE) {
+			entry = new Entry();
+			size++;
+		} else {
+			entry = entries[SIZE - 1];
+		}
+		System.arraycopy(entries, 0, entries, 1, size - 1);
+		entries[0] = entry;
+		entry.stamp = stamp;
+		entry.modificationCount = modificationCount;
+		entry.key = key;
+		entry.hash = key.hashCode();
+		entry.ignoreCase = ignoreCase;
+		entry.isPresent = isPresent;
+		entry.data = data;
+		entry.foundInFirstDelta = foundInFirstDelta;
+		return entry;
+	}
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ *  Copyright (c) 2014 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.resources;
+
+/**
+ * A resource change listener that can be notified of <code>POST_CHANGE</code>
+ * events concurrently with other listeners.
+ * <p>
+ * Listeners are normally notified one after the other, in the order in which
+ * they were registered, in the thread that changed the workspace. Listeners
+ * implementing this interface declare that they do not depend on this order,
+ * and are notified of <code>POST_CHANGE</code> events in a separate thread,
+ * while the other listeners are being notified. The notification still ends
+ * once all listeners have been notified. Events of other types are delivered
+ * as to any other listener.
+ * </p>
+ * <p>
+ * Since the notification runs in a different thread, such listeners must not
+ * make assumptions about the thread they run in, for instance by relying on
+ * thread local state or on locks held by the thread that changed the
+ * workspace. As for any other <code>POST_CHANGE</code> listener, the
+ * workspace cannot be changed during the notification.
+ * </p>
+ * <p>
+ * Clients may implement this interface.
+ * </p>
+ * @see IWorkspace#addResourceChangeListener(IResourceChangeListener, int)
+ * @since 3.9
+ */
+public interface IConcurrentResourceChangeListener extends IResourceChangeListener {
+	// no additional methods
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2000, 2011 IBM Corporation and others.
+ *  Copyright (c) 2000, 2014 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -81,6 +81,17 @@ public interface IWorkspace extends IAdaptable {
 	 */
 	public static final int AVOID_UPDATE = 1;
 
+	/**
+	 * flag constant (bit mask value 2) indicating that a compound operation
+	 * only reads the workspace. Read-only operations do not exclude each other,
+	 * even if their scheduling rules conflict, and only wait for operations
+	 * modifying the resources covered by their scheduling rules.
+	 * 
+	 * @see IWorkspace#run(IWorkspaceRunnable, ISchedulingRule, int, IProgressMonitor)
+	 * @since 3.9
+	 */
+	public static final int READ_ONLY = 2;
+
 	/**
 	 * Constant that can be passed to {@link #validateEdit(org.eclipse.core.resources.IFile[], Object)}
 	 * to indicate that the caller does not have access to a UI context but would still
@@ -149,6 +160,52 @@ public interface IWorkspace extends IAdaptable {
 	 */
 	public void addResourceChangeListener(IResourceChangeListener listener, int eventMask);
 
+	/**
+	 * Adds the given listener for the specified resource change events to this
+	 * workspace, limited to changes to the given resources and their
+	 * descendents. Has no effect if an identical listener is already registered
+	 * for these events and resources. After completion of this method, the
+	 * given listener will be registered for exactly the specified events and
+	 * resources.
+	 * <p>
+	 * The listener is only notified of events that involve the given resources.
+	 * The resource deltas in the events it receives are rooted at the workspace
+	 * root, but only include the deltas for the given resources, their
+	 * descendents and their ancestors. An event is only sent to the listener if
+	 * at least one of these deltas for one of the given resources or their
+	 * descendents is of a kind in the given kind mask, for a resource of a type
+	 * in the given type mask. These masks determine whether the listener is
+	 * notified, not the contents of the delta: all changes to the given
+	 * resources are included once it is. Events that describe a single
+	 * resource, such as <code>PRE_CLOSE</code> and <code>PRE_DELETE</code>, are
+	 * only sent if that resource is one of the given resources, one of their
+	 * descendents or one of their ancestors.
+	 * </p>
+	 * <p>
+	 * Note that unlike listeners registered for the whole workspace, such a
+	 * listener is not notified of builds that do not change any of the given
+	 * resources, and that the marker deltas returned by
+	 * {@link IResourceChangeEvent#findMarkerDeltas(String, boolean)} are not
+	 * limited to the given resources.
+	 * </p>
+	 * 
+	 * @param listener the listener
+	 * @param eventMask the bit-wise OR of all event types of interest to the
+	 * listener
+	 * @param resources the resources whose changes are of interest to the
+	 * listener
+	 * @param typeMask the bit-wise OR of all resource types of interest to the
+	 * listener, as defined by <code>IResource.getType()</code>
+	 * @param kindMask the bit-wise OR of all delta kinds of interest to the
+	 * listener, as defined by <code>IResourceDelta.getKind()</code>
+	 * @see IResourceChangeListener
+	 * @see IResourceChangeEvent
+	 * @see #addResourceChangeListener(IResourceChangeListener, int)
+	 * @see #removeResourceChangeListener(IResourceChangeListener)
+	 * @since 3.9
+	 */
+	public void addResourceChangeListener(IResourceChangeListener listener, int eventMask, IResource[] resources, int typeMask, int kindMask);
+
 	/**
 	 * Registers the given plug-in's workspace save participant, and returns an
 	 * object describing the workspace state at the time of the last save in
@@ -1095,15 +1152,24 @@ public interface IWorkspace extends IAdaptable {
 	 * periodic resource change notifications during the scope of this call.
 	 * </p>
 	 * <p>
-	 * Flags other than <code>AVOID_UPDATE</code> are ignored.
+	 * The READ_ONLY flag declares that the action only reads the workspace.
+	 * The action then runs at the same time as other read-only actions, even if
+	 * their scheduling rules conflict, but never at the same time as changes to
+	 * the resources covered by its scheduling rule. Any attempt of the action to
+	 * change the workspace fails, and no resource change notification or build
+	 * occurs at the end of this call. The AVOID_UPDATE flag is irrelevant for
+	 * read-only actions.
+	 * </p>
+	 * <p>
+	 * Flags other than <code>AVOID_UPDATE</code> and <code>READ_ONLY</code> are ignored.
 	 * </p>
 	 * 
 	 * @param action the action to perform
 	 * @param rule the scheduling rule to use when running this operation, or
 	 * <code>null</code> if there are no scheduling restrictions for this
 	 * operation.
-	 * @param flags bit-wise or of flag constants (only AVOID_UPDATE is relevant
-	 * here)
+	 * @param flags bit-wise or of flag constants (only AVOID_UPDATE and
+	 * READ_ONLY are relevant here)
 	 * @param monitor a progress monitor, or <code>null</code> if progress
 	 * reporting is not desired. 
 	 * @exception CoreException if the operation failed.
@@ -1112,6 +1178,7 @@ public interface IWorkspace extends IAdaptable {
 	 * even if no progress monitor is provided.
 	 * 
 	 * @see #AVOID_UPDATE
+	 * @see #READ_ONLY
 	 * @see IResourceRuleFactory
 	 * @since 3.0
 	 */
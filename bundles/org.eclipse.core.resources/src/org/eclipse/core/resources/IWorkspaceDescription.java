@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2000, 2009 IBM Corporation and others.
+ *  Copyright (c) 2000, 2014 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -61,6 +61,18 @@ public interface IWorkspaceDescription {
 	 */
 	public int getMaxBuildIterations();
 
+	/**
+	 * Returns the maximum number of project build configurations that the
+	 * workspace may build concurrently. A value of <code>1</code> means that
+	 * build configurations are built one after the other.
+	 * 
+	 * @return the maximum number of build configurations built concurrently
+	 * @see #setMaxConcurrentBuilds(int)
+	 * @see ResourcesPlugin#PREF_MAX_CONCURRENT_BUILDS
+	 * @since 3.9
+	 */
+	public int getMaxConcurrentBuilds();
+
 	/**
 	 * Returns the maximum number of states per file that can be stored in the local history.
 	 * This setting is ignored by the workspace when <code>isApplyFileStatePolicy()</code>
@@ -194,6 +206,38 @@ public interface IWorkspaceDescription {
 	 */
 	public void setMaxBuildIterations(int number);
 
+	/**
+	 * Sets the maximum number of project build configurations that the
+	 * workspace may build concurrently.
+	 * <p>
+	 * Build configurations are only built concurrently when they do not
+	 * reference each other, and when the scheduling rules of their builders
+	 * do not conflict. Build configurations involved in reference cycles are
+	 * always built one after the other.
+	 * </p>
+	 * <p>
+	 * Only explicit builds of the workspace, started by a thread that holds no
+	 * scheduling rule, are run concurrently. Auto-builds run with the
+	 * workspace root as their scheduling rule and so always build the
+	 * configurations one after the other. An explicit build is also sequential
+	 * as soon as one of the builders involved has a scheduling rule containing
+	 * the workspace root, which is the default rule of
+	 * {@link IncrementalProjectBuilder#getRule(int, java.util.Map)}.
+	 * </p>
+	 * <p>
+	 * Users must call <code>IWorkspace.setDescription</code> before changes 
+	 * made to this description take effect.
+	 * </p>
+	 *
+	 * @param number the maximum number of build configurations built
+	 * concurrently, <code>1</code> to build them one after the other
+	 * @see IWorkspace#setDescription(IWorkspaceDescription)
+	 * @see #getMaxConcurrentBuilds()
+	 * @see ResourcesPlugin#PREF_MAX_CONCURRENT_BUILDS
+	 * @since 3.9
+	 */
+	public void setMaxConcurrentBuilds(int number);
+
 	/**
 	 * Sets the maximum number of states per file that can be stored in the local history.
 	 * If the maximum number is reached, older states are removed in favor of
@@ -224,6 +224,16 @@ public final class ResourcesPlugin extends Plugin {
 	 */
 	public static final String PREF_MAX_BUILD_ITERATIONS = PREF_DESCRIPTION_PREFIX + "maxbuilditerations"; //$NON-NLS-1$
 
+	/**
+	 * Name of a preference for configuring the maximum number of project
+	 * build configurations that the workspace may build concurrently.
+	 * 
+	 * @see IWorkspaceDescription#getMaxConcurrentBuilds()
+	 * @see IWorkspaceDescription#setMaxConcurrentBuilds(int)
+	 * @since 3.9
+	 */
+	public static final String PREF_MAX_CONCURRENT_BUILDS = PREF_DESCRIPTION_PREFIX + "maxconcurrentbuilds"; //$NON-NLS-1$
+
 	/**
 	 * Name of a preference for configuring whether to apply the specified history size policy.
 	 * 
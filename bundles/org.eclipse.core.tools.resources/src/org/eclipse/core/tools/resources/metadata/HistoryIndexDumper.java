@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,14 +11,21 @@
 package org.eclipse.core.tools.resources.metadata;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
 import org.eclipse.core.internal.utils.UniversalUniqueIdentifier;
 import org.eclipse.core.tools.metadata.AbstractDumper;
 import org.eclipse.core.tools.metadata.DumpException;
 
+/**
+ * Dumps history.index files. Both the indexed format (version 3), where the
+ * entries are preceded by a table of their offsets, and the previous stream
+ * based format (version 2) are supported.
+ */
 public class HistoryIndexDumper extends AbstractDumper {
 
+	private final static int INDEXED_VERSION = 3;
+
+	private final static int STREAM_VERSION = 2;
+
 	private final static int LONG_LENGTH = 8;
 
 	private final static int UUID_LENGTH = UniversalUniqueIdentifier.BYTES_SIZE;
@@ -38,11 +45,16 @@ public class HistoryIndexDumper extends AbstractDumper {
 		contents.append("version: ");
 		contents.append(version);
 		contents.append('\n');
+		if (version != INDEXED_VERSION && version != STREAM_VERSION)
+			throw new DumpException("Unknown version: " + version);
 		int entryCount = source.readInt();
 		contents.append("entries: ");
 		contents.append(entryCount);
 		contents.append('\n');
-		List qualifierIndex = new ArrayList();
+		if (version == INDEXED_VERSION)
+			// entries follow their offsets, in the same order
+			for (int i = 0; i < entryCount; i++)
+				source.readInt();
 		// data holds a UUID (16 bytes) + timestamp (long - 8 bytes)
 		byte[] data = new byte[24];
 		for (int i = 0; i < entryCount; i++) {
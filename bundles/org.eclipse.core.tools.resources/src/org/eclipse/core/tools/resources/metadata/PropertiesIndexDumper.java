@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -17,19 +17,41 @@ import org.eclipse.core.internal.properties.PropertyBucket;
 import org.eclipse.core.tools.metadata.AbstractDumper;
 import org.eclipse.core.tools.metadata.DumpException;
 
+/**
+ * Dumps properties.index files. Both the indexed format (version 2), where
+ * all qualifiers are stored in a table before the entry offsets, and the
+ * previous stream based format (version 1) are supported.
+ */
 public class PropertiesIndexDumper extends AbstractDumper {
 
+	private final static int INDEXED_VERSION = 2;
+
+	private final static int STREAM_VERSION = 1;
+
 	protected void dumpContents(PushbackInputStream input, StringBuffer contents) throws IOException, Exception, DumpException {
 		DataInputStream source = new DataInputStream(input);
 		int version = source.readByte();
 		contents.append("version: ");
 		contents.append(version);
 		contents.append('\n');
+		if (version != INDEXED_VERSION && version != STREAM_VERSION)
+			throw new DumpException("Unknown version: " + version);
 		int entryCount = source.readInt();		
 		contents.append("entries: ");
 		contents.append(entryCount);
 		contents.append('\n');
 		List qualifierIndex = new ArrayList();		
+		if (version == INDEXED_VERSION) {
+			int qualifierCount = source.readInt();
+			contents.append("qualifiers: ");
+			contents.append(qualifierCount);
+			contents.append('\n');
+			for (int i = 0; i < qualifierCount; i++)
+				qualifierIndex.add(source.readUTF());
+			// entries follow their offsets, in the same order
+			for (int i = 0; i < entryCount; i++)
+				source.readInt();
+		}
 		for (int i = 0; i < entryCount; i++) {
 			contents.append("Key: ");
 			contents.append(source.readUTF());
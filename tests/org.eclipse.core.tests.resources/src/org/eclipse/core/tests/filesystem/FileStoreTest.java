@@ -318,6 +318,43 @@ public class FileStoreTest extends LocalStoreTest {
 		target.delete(EFS.NONE, null);
 	}
 
+	public void testFetchFileTree() throws Throwable {
+		/* build scenario */
+		IPath root = getWorkspace().getRoot().getLocation().append("" + new Date().getTime());
+		IFileStore temp = createDir(root.toString(), true);
+		try {
+			IFileStore target = temp.getChild("target");
+			createDir(target, true);
+			createTree(getTree(target));
+
+			IFileTree tree = target.getFileSystem().fetchFileTree(target, getMonitor());
+			assertNotNull("1.0", tree);
+			assertEquals("1.1", target, tree.getTreeRoot());
+			assertTrue("1.2", tree.getFileInfo(target).isDirectory());
+
+			//the tree must agree with the file system for every element
+			IFileStore[] elements = getTree(target);
+			for (int i = 0; i < elements.length; i++) {
+				IFileInfo expected = elements[i].fetchInfo();
+				IFileInfo actual = tree.getFileInfo(elements[i]);
+				assertTrue("2.0." + i, actual.exists());
+				assertEquals("2.1." + i, expected.isDirectory(), actual.isDirectory());
+				assertEquals("2.2." + i, expected.getLastModified(), actual.getLastModified());
+				if (expected.isDirectory())
+					assertEquals("2.3." + i, elements[i].childNames(EFS.NONE, null).length, tree.getChildInfos(elements[i]).length);
+			}
+
+			//the children of a directory are released once returned, later requests go to the file system
+			IFileStore late = target.getChild("late");
+			createFile(late, getRandomString());
+			assertTrue("3.0", tree.getFileInfo(late).exists());
+			assertEquals("3.1", target.childNames(EFS.NONE, null).length, tree.getChildStores(target).length);
+		} finally {
+			/* remove trash */
+			temp.delete(EFS.NONE, null);
+		}
+	}
+
 	public void testGetLength() throws Exception {
 		// evaluate test environment 
 		IPath root = getWorkspace().getRoot().getLocation().append("" + new Date().getTime());
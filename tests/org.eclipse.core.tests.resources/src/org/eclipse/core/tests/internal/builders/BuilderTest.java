@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2000, 2012 IBM Corporation and others.
+ *  Copyright (c) 2000, 2014 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -16,9 +16,15 @@ import java.util.HashMap;
 import java.util.Map;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.core.internal.events.ResourceMetrics;
+import org.eclipse.core.internal.resources.PreferenceInitializer;
+import org.eclipse.core.internal.resources.TreeCompactionJob;
+import org.eclipse.core.internal.resources.Workspace;
 import org.eclipse.core.resources.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.eclipse.core.runtime.preferences.InstanceScope;
 import org.eclipse.core.tests.harness.TestBarrier;
 import org.eclipse.core.tests.harness.TestJob;
 
@@ -117,6 +123,42 @@ public class BuilderTest extends AbstractBuilderTest {
 		}
 	}
 
+	/**
+	 * Tests that autobuild still catches up with a burst of changes when the
+	 * adaptive delay policy is used.
+	 */
+	public void testAdaptiveAutoBuildDelay() {
+		IProject project = getWorkspace().getRoot().getProject("PROJECT");
+		IFile file = project.getFile("File.txt");
+		IEclipsePreferences node = InstanceScope.INSTANCE.getNode(ResourcesPlugin.PI_RESOURCES);
+		ResourceMetrics metrics = ((Workspace) getWorkspace()).getResourceMetrics();
+		try {
+			node.put(PreferenceInitializer.PREF_AUTO_BUILD_DELAY_POLICY, PreferenceInitializer.AUTO_BUILD_DELAY_ADAPTIVE);
+			setAutoBuilding(true);
+			project.create(getMonitor());
+			project.open(getMonitor());
+			IProjectDescription desc = project.getDescription();
+			desc.setBuildSpec(new ICommand[] {createCommand(desc, "Build0")});
+			project.setDescription(desc, getMonitor());
+			file.create(getRandomContents(), IResource.NONE, getMonitor());
+			waitForBuild();
+			ResourceMetrics.Counters counters = metrics.getBuilderCounters(SortBuilder.BUILDER_NAME);
+			assertNotNull("1.0", counters);
+			long count = counters.getCount();
+
+			//a burst of changes, each in its own operation
+			for (int i = 0; i < 20; i++)
+				file.setContents(getRandomContents(), IResource.NONE, getMonitor());
+			waitForBuild();
+			assertTrue("2.0", counters.getCount() > count);
+			assertTrue("2.1", counters.getCount() <= count + 20);
+		} catch (CoreException e) {
+			fail("2.99", e);
+		} finally {
+			node.remove(PreferenceInitializer.PREF_AUTO_BUILD_DELAY_POLICY);
+		}
+	}
+
 	/**
 	 * Tests installing and running a builder that always fails during
 	 * instantation.
@@ -383,6 +425,156 @@ public class BuilderTest extends AbstractBuilderTest {
 		}
 	}
 
+	/**
+	 * Tests that the invocations of builders are counted.
+	 */
+	public void testBuilderMetrics() {
+		IProject project = getWorkspace().getRoot().getProject("PROJECT");
+		IFile file = project.getFolder(SortBuilder.DEFAULT_UNSORTED_FOLDER).getFile("File.txt");
+		ResourceMetrics metrics = ((Workspace) getWorkspace()).getResourceMetrics();
+		try {
+			setAutoBuilding(false);
+			project.create(getMonitor());
+			project.open(getMonitor());
+			IProjectDescription desc = project.getDescription();
+			desc.setBuildSpec(new ICommand[] {createCommand(desc, "Build0")});
+			project.setDescription(desc, getMonitor());
+			ensureExistsInWorkspace(file, getRandomContents());
+			project.build(IncrementalProjectBuilder.FULL_BUILD, getMonitor());
+		} catch (CoreException e) {
+			fail("0.99", e);
+		}
+		ResourceMetrics.Counters counters = metrics.getBuilderCounters(SortBuilder.BUILDER_NAME);
+		assertNotNull("1.0", counters);
+		long count = counters.getCount();
+		assertTrue("1.1", count > 0);
+
+		//an incremental build is given the changes
+		long deltaNodes = counters.getDeltaNodes();
+		try {
+			file.setContents(getRandomContents(), IResource.NONE, getMonitor());
+			project.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, getMonitor());
+		} catch (CoreException e) {
+			fail("2.99", e);
+		}
+		assertEquals("2.0", count + 1, counters.getCount());
+		assertTrue("2.1", counters.getDeltaNodes() > deltaNodes);
+		long total = 0;
+		long[] histogram = counters.getHistogram();
+		for (int i = 0; i < histogram.length; i++)
+			total += histogram[i];
+		assertEquals("2.2", counters.getCount(), total);
+	}
+
+	/**
+	 * Tests that the delta chains of the trees kept for builders are collapsed
+	 * once they get too deep, and that builders still get the right deltas.
+	 */
+	public void testTreeCompaction() {
+		IProject project = getWorkspace().getRoot().getProject("PROJECT");
+		IFile file = project.getFolder(SortBuilder.DEFAULT_UNSORTED_FOLDER).getFile("File.txt");
+		IEclipsePreferences node = InstanceScope.INSTANCE.getNode(ResourcesPlugin.PI_RESOURCES);
+		ResourceMetrics metrics = ((Workspace) getWorkspace()).getResourceMetrics();
+		long compactions = metrics.getTreeCompactions();
+		try {
+			node.putInt(PreferenceInitializer.PREF_MAX_TREE_DELTA_DEPTH, 2);
+			setAutoBuilding(false);
+			project.create(getMonitor());
+			project.open(getMonitor());
+			IProjectDescription desc = project.getDescription();
+			desc.setBuildSpec(new ICommand[] {createCommand(desc, "Build0")});
+			project.setDescription(desc, getMonitor());
+			ensureExistsInWorkspace(file, getRandomContents());
+			project.build(IncrementalProjectBuilder.FULL_BUILD, getMonitor());
+
+			//each change adds a layer below the last built tree
+			for (int i = 0; i < 20; i++)
+				file.setContents(getRandomContents(), IResource.NONE, getMonitor());
+			Job[] jobs = Job.getJobManager().find(null);
+			for (int i = 0; i < jobs.length; i++) {
+				if (jobs[i] instanceof TreeCompactionJob) {
+					jobs[i].wakeUp();
+					jobs[i].join();
+				}
+			}
+			assertTrue("1.0", metrics.getTreeCompactions() > compactions);
+			assertTrue("1.1", metrics.getTreeDepth() < 20);
+
+			//the builder is given the changes since its last build
+			ResourceMetrics.Counters counters = metrics.getBuilderCounters(SortBuilder.BUILDER_NAME);
+			long count = counters.getCount();
+			long deltaNodes = counters.getDeltaNodes();
+			project.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, getMonitor());
+			assertEquals("2.0", count + 1, counters.getCount());
+			assertTrue("2.1", counters.getDeltaNodes() > deltaNodes);
+		} catch (CoreException e) {
+			fail("2.99", e);
+		} catch (InterruptedException e) {
+			fail("3.99", e);
+		} finally {
+			node.remove(PreferenceInitializer.PREF_MAX_TREE_DELTA_DEPTH);
+		}
+	}
+
+	/**
+	 * Tests that the deltas of a build are computed once and reused, for the
+	 * built project and for a referenced project, and that discarding the
+	 * cached deltas, as done when the trees are collapsed, forces them to be
+	 * computed again.
+	 */
+	public void testDeltaCache() {
+		final IProject project = getWorkspace().getRoot().getProject("PROJECT");
+		final IProject referenced = getWorkspace().getRoot().getProject("REFERENCED");
+		IFile file = project.getFile("File.txt");
+		final IFile referencedFile = referenced.getFile("File.txt");
+		final IResourceDelta[] deltas = new IResourceDelta[5];
+		EmptyDeltaBuilder builder = null;
+		try {
+			setAutoBuilding(false);
+			ensureExistsInWorkspace(new IResource[] {project, referenced, file, referencedFile}, true);
+			addBuilder(project, EmptyDeltaBuilder.BUILDER_NAME);
+			project.build(IncrementalProjectBuilder.FULL_BUILD, getMonitor());
+			builder = EmptyDeltaBuilder.getInstance();
+			builder.setRuleCallback(new TestBuilder.BuilderRuleCallback() {
+				public IProject[] build(int kind, Map<String, String> args, IProgressMonitor monitor) {
+					if (kind == IncrementalProjectBuilder.INCREMENTAL_BUILD) {
+						deltas[0] = getDelta(project);
+						deltas[1] = getDelta(project);
+						deltas[2] = getDelta(referenced);
+						deltas[3] = getDelta(referenced);
+						((Workspace) getWorkspace()).getBuildManager().discardCachedDeltas();
+						deltas[4] = getDelta(referenced);
+					}
+					//ask for the deltas of the referenced project in the next build
+					return new IProject[] {referenced};
+				}
+			});
+			//the builder has not been interested in the referenced project yet
+			project.build(IncrementalProjectBuilder.FULL_BUILD, getMonitor());
+
+			file.setContents(getRandomContents(), IResource.NONE, getMonitor());
+			referencedFile.setContents(getRandomContents(), IResource.NONE, getMonitor());
+			project.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, getMonitor());
+		} catch (CoreException e) {
+			fail("0.99", e);
+		} finally {
+			if (builder != null)
+				builder.reset();
+		}
+		assertNotNull("1.0", deltas[0]);
+		assertSame("1.1", deltas[0], deltas[1]);
+		assertNotNull("1.2", deltas[0].findMember(file.getProjectRelativePath()));
+
+		assertNotNull("2.0", deltas[2]);
+		assertSame("2.1", deltas[2], deltas[3]);
+		assertNotNull("2.2", deltas[2].findMember(referencedFile.getProjectRelativePath()));
+
+		//the delta is computed again once the cache is discarded
+		assertNotNull("3.0", deltas[4]);
+		assertNotSame("3.1", deltas[2], deltas[4]);
+		assertNotNull("3.2", deltas[4].findMember(referencedFile.getProjectRelativePath()));
+	}
+
 	/**
 	 * Tests that a pre_build listener is not called if there have been no changes
 	 * since the last build of any kind occurred.  See https://bugs.eclipse.org/bugs/show_bug.cgi?id=154880.
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2010, 2012 Broadcom Corporation and others.
+ *  Copyright (c) 2010, 2014 Broadcom Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -12,6 +12,8 @@ package org.eclipse.core.tests.internal.builders;
 
 import java.io.ByteArrayInputStream;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.core.resources.*;
@@ -470,4 +472,123 @@ public class RelaxedSchedRuleBuilderTest extends AbstractBuilderTest {
 		tb1.waitForStatus(TestBarrier.STATUS_DONE);
 		tb2.waitForStatus(TestBarrier.STATUS_DONE);
 	}
+
+	/**
+	 * Tests that the builders of independent projects run concurrently
+	 * when the workspace allows concurrent builds.
+	 */
+	public void testConcurrentBuilds() throws Exception {
+		setAutoBuilding(false);
+		IProject project1 = getWorkspace().getRoot().getProject("testConcurrentBuilds1");
+		IProject project2 = getWorkspace().getRoot().getProject("testConcurrentBuilds2");
+		create(project1, false);
+		create(project2, false);
+		addBuilder(project1, EmptyDeltaBuilder.BUILDER_NAME);
+		addBuilder(project2, EmptyDeltaBuilder2.BUILDER_NAME);
+
+		// Ensure the builders are instantiated
+		getWorkspace().build(IncrementalProjectBuilder.CLEAN_BUILD, getMonitor());
+
+		// Each builder only requires its project, and waits for the other one to start
+		final CountDownLatch started = new CountDownLatch(2);
+		final boolean[] timedOut = new boolean[1];
+		BuilderRuleCallback callback = new BuilderRuleCallback() {
+			public ISchedulingRule getRule(String name, IncrementalProjectBuilder builder, int trigger, Map<String, String> args) {
+				return builder.getProject();
+			}
+
+			public IProject[] build(int kind, Map<String, String> args, IProgressMonitor monitor) throws CoreException {
+				started.countDown();
+				try {
+					if (!started.await(30, TimeUnit.SECONDS))
+						timedOut[0] = true;
+				} catch (InterruptedException e) {
+					// Don't care
+				}
+				return super.build(kind, args, monitor);
+			}
+		};
+		EmptyDeltaBuilder.getInstance().setRuleCallback(callback);
+		EmptyDeltaBuilder2.getInstance().setRuleCallback(callback);
+
+		IWorkspaceDescription description = getWorkspace().getDescription();
+		int maxConcurrentBuilds = description.getMaxConcurrentBuilds();
+		description.setMaxConcurrentBuilds(2);
+		getWorkspace().setDescription(description);
+		try {
+			getWorkspace().build(IncrementalProjectBuilder.FULL_BUILD, getMonitor());
+		} finally {
+			description.setMaxConcurrentBuilds(maxConcurrentBuilds);
+			getWorkspace().setDescription(description);
+		}
+		assertEquals("1.0", 0, started.getCount());
+		assertTrue("1.1", !timedOut[0]);
+	}
+
+	/**
+	 * Tests that canceling a concurrent build returns while the jobs building
+	 * some of the projects are still waiting to run.
+	 */
+	public void testCancelConcurrentBuilds() throws Exception {
+		setAutoBuilding(false);
+		final String prefix = "testCancelConcurrentBuilds";
+		IProject project1 = getWorkspace().getRoot().getProject(prefix + "1");
+		IProject project2 = getWorkspace().getRoot().getProject(prefix + "2");
+		IProject project3 = getWorkspace().getRoot().getProject(prefix + "3");
+		create(project1, false);
+		create(project2, false);
+		create(project3, false);
+		addBuilder(project1, EmptyDeltaBuilder.BUILDER_NAME);
+		addBuilder(project2, EmptyDeltaBuilder2.BUILDER_NAME);
+		addBuilder(project3, EmptyDeltaBuilder.BUILDER_NAME);
+
+		// Cancel the build once the jobs of two projects are scheduled
+		final CountDownLatch scheduled = new CountDownLatch(2);
+		IJobChangeListener listener = new JobChangeAdapter() {
+			public void scheduled(IJobChangeEvent event) {
+				if (event.getJob().getName().indexOf(prefix) >= 0)
+					scheduled.countDown();
+			}
+		};
+		final IProgressMonitor monitor = new NullProgressMonitor() {
+			public boolean isCanceled() {
+				return super.isCanceled() || scheduled.getCount() == 0;
+			}
+		};
+		final boolean[] canceled = new boolean[1];
+		final CoreException[] failure = new CoreException[1];
+		Thread builder = new Thread("Concurrent build") {
+			public void run() {
+				try {
+					getWorkspace().build(IncrementalProjectBuilder.FULL_BUILD, monitor);
+				} catch (OperationCanceledException e) {
+					canceled[0] = true;
+				} catch (CoreException e) {
+					failure[0] = e;
+				}
+			}
+		};
+
+		IWorkspaceDescription description = getWorkspace().getDescription();
+		int maxConcurrentBuilds = description.getMaxConcurrentBuilds();
+		description.setMaxConcurrentBuilds(2);
+		getWorkspace().setDescription(description);
+		// The scheduled jobs keep waiting until they are canceled
+		Job.getJobManager().addJobChangeListener(listener);
+		Job.getJobManager().suspend();
+		try {
+			builder.start();
+			builder.join(30000);
+		} finally {
+			Job.getJobManager().resume();
+			Job.getJobManager().removeJobChangeListener(listener);
+			description.setMaxConcurrentBuilds(maxConcurrentBuilds);
+			getWorkspace().setDescription(description);
+		}
+		assertTrue("1.0", !builder.isAlive());
+		if (failure[0] != null)
+			fail("1.1", failure[0]);
+		assertTrue("1.2", canceled[0]);
+		assertEquals("1.3", 0, scheduled.getCount());
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.tests.internal.dtree;
 
+import java.util.*;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.core.internal.dtree.*;
@@ -54,6 +55,19 @@ public class DeltaDataTreeTest extends DataTreeTest {
 		assertTrue("9", !originalTree.includes(leftKey.append("one")));
 	}
 
+	/**
+	 * Assert that the given comparison trees are the same below the given key.
+	 */
+	public void assertSameComparison(String message, DeltaDataTree expected, DeltaDataTree actual, IPath key) {
+		NodeComparison expectedComparison = (NodeComparison) expected.getData(key);
+		NodeComparison actualComparison = (NodeComparison) actual.getData(key);
+		assertEquals(message + " " + key, expectedComparison.toString(), actualComparison.toString());
+		String[] names = expected.getNamesOfChildren(key);
+		assertEquals(message + " " + key, Arrays.asList(names), Arrays.asList(actual.getNamesOfChildren(key)));
+		for (int i = 0; i < names.length; i++)
+			assertSameComparison(message, expected, actual, key.append(names[i]));
+	}
+
 	/**
 	 * Assert that the given tree is the same as the original "tree" created
 	 * during setup
@@ -130,8 +144,10 @@ public class DeltaDataTreeTest extends DataTreeTest {
 		suite.addTest(new DeltaDataTreeTest("testGetNameOfChild"));
 		suite.addTest(new DeltaDataTreeTest("testGetNamesOfChildren"));
 		suite.addTest(new DeltaDataTreeTest("testIncludes"));
+		suite.addTest(new DeltaDataTreeTest("testLargeFanOut"));
 		suite.addTest(new DeltaDataTreeTest("testLongDeltaChain"));
 		suite.addTest(new DeltaDataTreeTest("testNewEmptyDeltaTree"));
+		suite.addTest(new DeltaDataTreeTest("testParallelCompare"));
 		suite.addTest(new DeltaDataTreeTest("testRegression1FVVP6L"));
 		suite.addTest(new DeltaDataTreeTest("testRegression1FVVP6LWithChildren"));
 		suite.addTest(new DeltaDataTreeTest("testReroot"));
@@ -223,6 +239,58 @@ public class DeltaDataTreeTest extends DataTreeTest {
 
 	}
 
+	/**
+	 * Tests that comparing trees at the paths changed by their delta layers
+	 * gives the same result as comparing the trees.
+	 */
+	public void testCompareWithChanges() {
+		IPath project = Path.ROOT.append("project");
+		DeltaDataTree tree1 = new DeltaDataTree();
+		tree1.createChild(Path.ROOT, project.lastSegment(), "Data for project");
+		for (int i = 0; i < 100; i++) {
+			tree1.createChild(project, "folder" + i, "folder" + i);
+			for (int j = 0; j < 10; j++)
+				tree1.createChild(project.append("folder" + i), "file" + j, "file" + j);
+		}
+		tree1.immutable();
+
+		/* change, delete and add nodes in two new layers */
+		DeltaDataTree tree2 = tree1.newEmptyDeltaTree();
+		tree2.setData(project.append("folder3").append("file2"), "changed");
+		tree2.deleteChild(project, "folder5");
+		tree2.createChild(project.append("folder7"), "new", "new");
+		tree2.setData(project.append("folder9"), "changed");
+		tree2.immutable();
+		DeltaDataTree tree3 = tree2.newEmptyDeltaTree();
+		tree3.setData(project.append("folder3").append("file2"), "file2");
+		tree3.createChild(project, "folder5", "recreated");
+		tree3.deleteChild(project.append("folder7"), "file1");
+		tree3.immutable();
+
+		Set<IPath> nodes = new HashSet<IPath>();
+		Set<IPath> subtrees = new HashSet<IPath>();
+		assertTrue("1.0", tree2.collectChanges(nodes, subtrees, 100));
+		assertTrue("1.1", tree3.collectChanges(nodes, subtrees, 100));
+		assertTrue("1.2", nodes.contains(project.append("folder9")));
+		assertTrue("1.3", subtrees.contains(project.append("folder5")));
+		assertTrue("1.4", subtrees.contains(project.append("folder7").append("new")));
+
+		/* the collection stops beyond the limit */
+		assertTrue("1.5", tree2.collectChanges(new HashSet<IPath>(), new HashSet<IPath>(), 4));
+		assertTrue("1.6", !tree2.collectChanges(new HashSet<IPath>(), new HashSet<IPath>(), 3));
+
+		/* user comparisons are only normalized once the comparisons are reversed */
+		IComparator comparator = DefaultElementComparator.getComparator();
+		DeltaDataTree expected = tree3.compareWith(tree1, comparator, project).asReverseComparisonTree(comparator);
+		DeltaDataTree actual = tree3.compareWith(tree1, comparator, project, nodes, subtrees).asReverseComparisonTree(comparator);
+		assertSameComparison("2.0", expected, actual, Path.ROOT);
+
+		/* compare in the reverse direction */
+		expected = tree1.compareWith(tree3, comparator, project).asReverseComparisonTree(comparator);
+		actual = tree1.compareWith(tree3, comparator, project, nodes, subtrees).asReverseComparisonTree(comparator);
+		assertSameComparison("3.0", expected, actual, Path.ROOT);
+	}
+
 	/**
 	 * Create a child of the specified node and give it the specified local name.<p>
 	 * If a child with such a name exists, replace it with the new child
@@ -808,6 +876,60 @@ public class DeltaDataTreeTest extends DataTreeTest {
 		return;
 	}
 
+	/**
+	 * Tests adding, changing and deleting children of a node with enough
+	 * children to be kept in a child tree rather than an array.
+	 */
+	public void testLargeFanOut() {
+		final int count = 2000;
+		IPath folder = Path.ROOT.append("folder");
+		DeltaDataTree tree1 = new DeltaDataTree();
+		tree1.createChild(Path.ROOT, "folder", "Data for folder");
+		tree1.immutable();
+		tree1 = tree1.newEmptyDeltaTree();
+
+		/* add children in scrambled order */
+		TreeSet expected = new TreeSet();
+		for (int i = 0; i < count; i++) {
+			String name = "child" + (i * 7919 % count);
+			tree1.createChild(folder, name, name);
+			expected.add(name);
+		}
+		assertEquals("1.0", count, tree1.getChildCount(folder));
+		assertEquals("1.1", Arrays.asList(expected.toArray()), Arrays.asList(tree1.getNamesOfChildren(folder)));
+		tree1.immutable();
+
+		/* change, delete and add children in a new layer */
+		DeltaDataTree tree2 = tree1.newEmptyDeltaTree();
+		for (int i = 0; i < count; i += 10) {
+			tree2.setData(folder.append("child" + i), "changed");
+			tree2.deleteChild(folder, "child" + (i + 1));
+			expected.remove("child" + (i + 1));
+			tree2.createChild(folder, "new" + i, "new");
+			expected.add("new" + i);
+		}
+		tree2.createChild(folder.append("child2"), "grandchild", "Data for grandchild");
+		tree2.immutable();
+
+		assertEquals("2.0", expected.size(), tree2.getChildCount(folder));
+		assertEquals("2.1", Arrays.asList(expected.toArray()), Arrays.asList(tree2.getNamesOfChildren(folder)));
+		assertEquals("2.2", "changed", tree2.getData(folder.append("child10")));
+		assertEquals("2.3", "child12", tree2.getData(folder.append("child12")));
+		assertTrue("2.4", !tree2.includes(folder.append("child11")));
+		assertTrue("2.5", tree2.includes(folder.append("child2").append("grandchild")));
+
+		/* the parent layer must be unaffected */
+		assertEquals("3.0", count, tree1.getChildCount(folder));
+		assertEquals("3.1", "child10", tree1.getData(folder.append("child10")));
+		assertTrue("3.2", tree1.includes(folder.append("child11")));
+
+		/* collapse the layers and compare */
+		tree2.makeComplete();
+		assertEquals("4.0", Arrays.asList(expected.toArray()), Arrays.asList(tree2.getNamesOfChildren(folder)));
+		DeltaDataTree comparison = tree1.compareWith(tree2, DefaultElementComparator.getComparator());
+		assertEquals("4.1", count / 10 * 3 + 1, comparison.getChildCount(folder));
+	}
+
 	/**
 	 * Tests operations on a chain of deltas
 	 */
@@ -854,6 +976,55 @@ public class DeltaDataTreeTest extends DataTreeTest {
 
 	}
 
+	/**
+	 * Tests that comparing subtrees concurrently gives the same result as
+	 * comparing them sequentially.
+	 */
+	public void testParallelCompare() {
+		final int projectCount = 8;
+		final int count = 1000;
+		DeltaDataTree tree1 = new DeltaDataTree();
+		for (int i = 0; i < projectCount; i++) {
+			IPath project = Path.ROOT.append("project" + i);
+			tree1.createChild(Path.ROOT, project.lastSegment(), "Data for project");
+			for (int j = 0; j < count; j++)
+				tree1.createChild(project, "child" + j, "child" + j);
+		}
+		tree1.immutable();
+
+		/* change, delete and add children in two new layers */
+		DeltaDataTree tree2 = tree1.newEmptyDeltaTree();
+		for (int i = 0; i < projectCount; i += 2) {
+			IPath project = Path.ROOT.append("project" + i);
+			for (int j = 0; j < count; j += 7) {
+				tree2.setData(project.append("child" + j), "changed");
+				tree2.deleteChild(project, "child" + (j + 1));
+				tree2.createChild(project, "new" + j, "new");
+			}
+		}
+		tree2.immutable();
+		DeltaDataTree tree3 = tree2.newEmptyDeltaTree();
+		tree3.deleteChild(Path.ROOT, "project1");
+		tree3.createChild(Path.ROOT.append("project2").append("child3"), "grandchild", "new");
+		tree3.immutable();
+
+		DeltaDataTree expected = tree1.compareWith(tree3, DefaultElementComparator.getComparator());
+		DeltaDataTree actual = tree1.compareWith(tree3, DefaultElementComparator.getComparator(), true);
+		assertEquals("1.0", projectCount / 2 + 1, actual.getChildCount(Path.ROOT));
+		assertSameComparison("1.1", expected, actual, Path.ROOT);
+
+		/* compare in the reverse direction */
+		expected = tree3.compareWith(tree1, DefaultElementComparator.getComparator());
+		actual = tree3.compareWith(tree1, DefaultElementComparator.getComparator(), true);
+		assertSameComparison("2.0", expected, actual, Path.ROOT);
+
+		/* compare from a path */
+		IPath project = Path.ROOT.append("project2");
+		expected = tree1.compareWith(tree3, DefaultElementComparator.getComparator(), project);
+		actual = tree1.compareWith(tree3, DefaultElementComparator.getComparator(), project, true);
+		assertSameComparison("3.0", expected, actual, Path.ROOT);
+	}
+
 	/**
 	 * Test for problem deleting and re-adding in same delta layer.
 	 */
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.internal.events;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.internal.events.AutoBuildDelay;
+import org.eclipse.core.internal.utils.Policy;
+import org.eclipse.core.tests.resources.ResourceTest;
+
+public class AutoBuildDelayTest extends ResourceTest {
+	/**
+	 * An arbitrary current time, long after the last build.
+	 */
+	private static final long NOW = 1000000L;
+	private static final long LAST_BUILD = NOW - 60000L;
+
+	public static Test suite() {
+		return new TestSuite(AutoBuildDelayTest.class);
+	}
+
+	public AutoBuildDelayTest() {
+		super();
+	}
+
+	public AutoBuildDelayTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Records changes at the given interval, ending at {@link #NOW}.
+	 */
+	private void recordChanges(AutoBuildDelay delay, int count, long interval) {
+		for (int i = count - 1; i >= 0; i--)
+			delay.recordChange(NOW - i * interval);
+	}
+
+	public void testBurstOfChanges() {
+		AutoBuildDelay delay = new AutoBuildDelay();
+		long fixed = delay.computeDelay(NOW, LAST_BUILD, false);
+		assertEquals("1.0", Policy.MIN_BUILD_DELAY, fixed);
+		//a single change after an idle period is built as soon as with the fixed policy
+		delay.recordChange(NOW);
+		assertEquals("1.1", fixed, delay.computeDelay(NOW, LAST_BUILD, true));
+
+		//changes keep coming every 300ms: wait for a gap of about twice that
+		recordChanges(delay, 20, 300);
+		long adaptive = delay.computeDelay(NOW, LAST_BUILD, true);
+		assertTrue("2.0", adaptive > fixed);
+		assertTrue("2.1", adaptive >= 600);
+		assertTrue("2.2", adaptive < Policy.MAX_BUILD_DELAY);
+		assertEquals("2.3", fixed, delay.computeDelay(NOW, LAST_BUILD, false));
+
+		//changes coming slower than the fixed delay do not stretch it
+		delay = new AutoBuildDelay();
+		recordChanges(delay, 20, Policy.MAX_BUILD_DELAY + 500);
+		assertEquals("3.0", fixed, delay.computeDelay(NOW, LAST_BUILD, true));
+
+		//an idle period ends the burst
+		delay = new AutoBuildDelay();
+		recordChanges(delay, 20, 300);
+		delay.recordChange(NOW + Policy.MAX_ADAPTIVE_BUILD_DELAY);
+		assertEquals("4.0", fixed, delay.computeDelay(NOW + Policy.MAX_ADAPTIVE_BUILD_DELAY, LAST_BUILD, true));
+	}
+
+	public void testInterruptedBuilds() {
+		AutoBuildDelay delay = new AutoBuildDelay();
+		long fixed = delay.computeDelay(NOW, LAST_BUILD, false);
+		delay.recordBuild(40, true);
+		assertEquals("1.0", fixed, delay.computeDelay(NOW, LAST_BUILD, true));
+
+		//each interruption in a row doubles the delay
+		long previous = fixed;
+		for (int i = 1; i <= 5; i++) {
+			delay.recordBuild(0, false);
+			long adaptive = delay.computeDelay(NOW, LAST_BUILD, true);
+			assertEquals("2." + i, Policy.MIN_BUILD_DELAY << i, adaptive);
+			assertTrue("3." + i, adaptive > previous);
+			assertEquals("4." + i, fixed, delay.computeDelay(NOW, LAST_BUILD, false));
+			previous = adaptive;
+		}
+
+		//a long build that gets interrupted is not restarted right away
+		delay = new AutoBuildDelay();
+		delay.recordBuild(4000, false);
+		assertEquals("5.0", 500, delay.computeDelay(NOW, LAST_BUILD, true));
+
+		//a completed build resets the backoff
+		delay.recordBuild(0, true);
+		assertEquals("6.0", fixed, delay.computeDelay(NOW, LAST_BUILD, true));
+	}
+
+	public void testMaximumDelay() {
+		AutoBuildDelay delay = new AutoBuildDelay();
+		//many interruptions in a row
+		for (int i = 0; i < 20; i++)
+			delay.recordBuild(0, false);
+		assertEquals("1.0", Policy.MAX_ADAPTIVE_BUILD_DELAY, delay.computeDelay(NOW, LAST_BUILD, true));
+
+		//interrupted builds that take very long
+		delay = new AutoBuildDelay();
+		for (int i = 0; i < 20; i++)
+			delay.recordBuild(600000, false);
+		assertEquals("2.0", Policy.MAX_ADAPTIVE_BUILD_DELAY, delay.computeDelay(NOW, LAST_BUILD, true));
+
+		//the fixed policy is bounded by the usual maximum, even right after a build
+		assertEquals("3.0", Policy.MAX_BUILD_DELAY, delay.computeDelay(NOW, NOW, false));
+		assertEquals("3.1", Policy.MAX_ADAPTIVE_BUILD_DELAY, delay.computeDelay(NOW, NOW, true));
+	}
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.internal.events;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.internal.events.NodeIDMap;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.tests.resources.ResourceTest;
+
+public class NodeIDMapTest extends ResourceTest {
+
+	public static Test suite() {
+		return new TestSuite(NodeIDMapTest.class);
+	}
+
+	public NodeIDMapTest() {
+		super();
+	}
+
+	public NodeIDMapTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Returns the given number of IDs that hash to the same slot of a new map.
+	 */
+	private long[] collidingIDs(int count) {
+		long[] result = new long[count];
+		int found = 0;
+		for (long id = 1; found < count; id++) {
+			//the hash of the map for its initial capacity of 16
+			if (((id * 0x9E3779B97F4A7C15L) >>> 60) == 0)
+				result[found++] = id;
+		}
+		return result;
+	}
+
+	private IPath pathFor(String prefix, long id) {
+		return new Path(prefix).append(Long.toString(id));
+	}
+
+	public void testCollisions() {
+		NodeIDMap map = new NodeIDMap();
+		long[] ids = collidingIDs(7);
+		for (int i = 0; i < ids.length; i++)
+			map.putOldPath(ids[i], pathFor("/old", ids[i]));
+		for (int i = ids.length - 1; i >= 0; i--)
+			map.putNewPath(ids[i], pathFor("/new", ids[i]));
+		for (int i = 0; i < ids.length; i++) {
+			assertTrue("1.0." + i, map.containsID(ids[i]));
+			assertEquals("1.1." + i, pathFor("/old", ids[i]), map.getOldPath(ids[i]));
+			assertEquals("1.2." + i, pathFor("/new", ids[i]), map.getNewPath(ids[i]));
+		}
+		//an ID hashing to the same slot that was never added
+		long missing = collidingIDs(8)[7];
+		assertTrue("2.0", !map.containsID(missing));
+		assertNull("2.1", map.getOldPath(missing));
+		assertNull("2.2", map.getNewPath(missing));
+	}
+
+	public void testGrowth() {
+		NodeIDMap map = new NodeIDMap();
+		assertTrue("1.0", map.isEmpty());
+		int count = 5000;
+		for (long id = 1; id <= count; id++) {
+			map.putNewPath(id, pathFor("/new", id));
+			if (id % 2 == 0)
+				map.putOldPath(id, pathFor("/old", id));
+		}
+		assertTrue("2.0", !map.isEmpty());
+		for (long id = 1; id <= count; id++) {
+			assertEquals("2.1." + id, pathFor("/new", id), map.getNewPath(id));
+			if (id % 2 == 0)
+				assertEquals("2.2." + id, pathFor("/old", id), map.getOldPath(id));
+			else
+				assertNull("2.3." + id, map.getOldPath(id));
+		}
+		assertTrue("3.0", !map.containsID(count + 1));
+
+		//a copy has the same entries, and is independent of the original
+		NodeIDMap copy = map.copy();
+		map.putOldPath(1, pathFor("/old", 1));
+		for (long id = 1; id <= count; id++)
+			assertEquals("4.0." + id, pathFor("/new", id), copy.getNewPath(id));
+		assertNull("4.1", copy.getOldPath(1));
+	}
+
+	public void testPooling() {
+		NodeIDMap map = NodeIDMap.acquire();
+		for (long id = 1; id <= 100; id++) {
+			map.putOldPath(id, pathFor("/old", id));
+			map.addRemovedID(id);
+		}
+		map.release();
+		//maps are shared with other notifications, so only check that a
+		//map taken from the pool is empty
+		NodeIDMap map1 = NodeIDMap.acquire();
+		NodeIDMap map2 = NodeIDMap.acquire();
+		assertTrue("1.0", map1 != map2);
+		assertTrue("1.1", map1.isEmpty());
+		assertTrue("1.2", !map1.hasRemovedIDs());
+		assertTrue("1.3", !map1.containsID(1));
+		assertTrue("1.4", !map1.mayBeRemovedID(1));
+		assertTrue("1.5", map2.isEmpty());
+		assertTrue("1.6", !map2.hasRemovedIDs());
+		map1.release();
+		map2.release();
+	}
+
+	public void testRemovedIDs() {
+		NodeIDMap map = new NodeIDMap();
+		assertTrue("1.0", !map.hasRemovedIDs());
+		assertTrue("1.1", !map.mayBeRemovedID(1));
+		int count = 1000;
+		for (long id = 1; id <= count; id++)
+			map.addRemovedID(id * 3);
+		assertTrue("2.0", map.hasRemovedIDs());
+		//removed IDs are never reported as not removed
+		for (long id = 1; id <= count; id++)
+			assertTrue("2.1." + id, map.mayBeRemovedID(id * 3));
+		//few other IDs are reported as possibly removed
+		int falsePositives = 0;
+		for (long id = 1; id <= count; id++) {
+			if (map.mayBeRemovedID(id * 3 + 1))
+				falsePositives++;
+		}
+		assertTrue("3.0", falsePositives < count / 10);
+		//the filter does not add entries to the map
+		assertTrue("4.0", map.isEmpty());
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,6 +11,7 @@
 package org.eclipse.core.tests.internal.localstore;
 
 import java.io.InputStream;
+import java.util.*;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.core.filesystem.*;
@@ -158,6 +159,135 @@ public class BlobStoreTest extends LocalStoreTest {
 		assertTrue("4.1", compareContent(getContents(content), input));
 	}
 
+	/**
+	 * Ensures compressed blobs and reverse deltas against newer blobs can be
+	 * read back, and that a delta keeps its base alive.
+	 */
+	public void testDeltaBlobs() throws CoreException {
+		IFileStore root = createStore();
+		BlobStore store = new BlobStore(root, 64);
+		store.setCompression(6, 3);
+		StringBuffer buffer = new StringBuffer();
+		for (int i = 0; i < 1000; i++)
+			buffer.append("line ").append(i).append('\n');
+		List<UniversalUniqueIdentifier> uuids = new ArrayList<UniversalUniqueIdentifier>();
+		List<String> contents = new ArrayList<String>();
+		UniversalUniqueIdentifier previous = null;
+		for (int i = 0; i < 8; i++) {
+			buffer.insert(100 * i, "change " + i);
+			IFileStore target = root.getChild("target");
+			createFile(target, buffer.toString());
+			previous = store.addBlob(target, i % 2 == 0, previous);
+			uuids.add(previous);
+			contents.add(buffer.toString());
+		}
+		for (int i = 0; i < uuids.size(); i++)
+			assertTrue("1." + i, compareContent(getContents(contents.get(i)), store.getBlob(uuids.get(i))));
+		// older states are much smaller than the newest one
+		assertTrue("2.0", store.fileFor(uuids.get(0)).fetchInfo().getLength() * 10 < store.fileFor(uuids.get(3)).fetchInfo().getLength());
+
+		// delete the newest states first, the older ones must remain readable
+		store.save();
+		store = new BlobStore(root, 64);
+		for (int i = uuids.size() - 1; i > 0; i--)
+			store.deleteBlob(uuids.get(i));
+		assertTrue("3.0", compareContent(getContents(contents.get(0)), store.getBlob(uuids.get(0))));
+		store.deleteBlob(uuids.get(0));
+		for (int i = 0; i < uuids.size(); i++)
+			assertTrue("3." + (i + 1), !store.fileFor(uuids.get(i)).fetchInfo().exists());
+	}
+
+	/**
+	 * Ensures contents that look like an encoded blob are read back as they
+	 * were added, whether compression is enabled or not.
+	 */
+	public void testEncodedLookingContents() throws CoreException {
+		IFileStore root = createStore();
+		BlobStore store = new BlobStore(root, 64);
+		String[] contents = {"\u0000HBS\u0001 not really a blob", "\u0001\u0000\u0000\u0000\u0000", "\u0000HB", "", "plain"};
+		for (int i = 0; i < contents.length; i++) {
+			IFileStore target = root.getChild("target");
+			createFile(target, contents[i]);
+			UniversalUniqueIdentifier uuid = store.addBlob(target, i % 2 == 0);
+			assertTrue("1." + i, compareContent(getContents(contents[i]), store.getBlob(uuid)));
+			assertTrue("2." + i, !store.fileFor(uuid).getName().endsWith(BlobStore.ENCODED_SUFFIX));
+		}
+		root = createStore();
+		store = new BlobStore(root, 64);
+		store.setCompression(6, 3);
+		for (int i = 0; i < contents.length; i++) {
+			IFileStore target = root.getChild("target");
+			createFile(target, contents[i]);
+			UniversalUniqueIdentifier uuid = store.addBlob(target, i % 2 == 0);
+			assertTrue("3." + i, compareContent(getContents(contents[i]), store.getBlob(uuid)));
+			assertTrue("4." + i, store.fileFor(uuid).getName().endsWith(BlobStore.ENCODED_SUFFIX));
+		}
+	}
+
+	/**
+	 * Ensures identical contents share a blob, which is only deleted once
+	 * all its references are.
+	 */
+	public void testSharedBlob() throws CoreException {
+		IFileStore root = createStore();
+		BlobStore store = new BlobStore(root, 64);
+		String content = "shared contents";
+		IFileStore target1 = root.getChild("target1");
+		IFileStore target2 = root.getChild("target2");
+		createFile(target1, content);
+		createFile(target2, content);
+		UniversalUniqueIdentifier uuid1 = store.addBlob(target1, false);
+		UniversalUniqueIdentifier uuid2 = store.addBlob(target2, true);
+		assertEquals("1.0", uuid1, uuid2);
+		assertTrue("1.1", target1.fetchInfo().exists());
+		assertTrue("1.2", !target2.fetchInfo().exists());
+		assertTrue("1.3", compareContent(getContents(content), store.getBlob(uuid1)));
+
+		// the reference count must survive a new store instance once saved
+		store.save();
+		store = new BlobStore(root, 64);
+		assertTrue("2.0", !store.hasStaleReferences());
+		store.deleteBlob(uuid1);
+		assertTrue("2.1", store.fileFor(uuid1).fetchInfo().exists());
+		store.deleteBlob(uuid1);
+		assertTrue("2.2", !store.fileFor(uuid1).fetchInfo().exists());
+	}
+
+	/**
+	 * Ensures reference counts that changed without being saved, as before
+	 * a crash, are reported as stale until they are replaced.
+	 */
+	public void testStaleReferences() throws CoreException {
+		IFileStore root = createStore();
+		BlobStore store = new BlobStore(root, 64);
+		String content = "shared contents";
+		IFileStore target = root.getChild("target");
+		createFile(target, content);
+		UniversalUniqueIdentifier uuid = store.addBlob(target, false);
+		assertEquals("1.0", uuid, store.addBlob(target, false));
+		assertTrue("1.1", !store.hasStaleReferences());
+
+		// not saved
+		store = new BlobStore(root, 64);
+		assertTrue("2.0", store.hasStaleReferences());
+		// stale references are not saved
+		store.save();
+		store = new BlobStore(root, 64);
+		assertTrue("2.1", store.hasStaleReferences());
+
+		// recounted
+		Map<UniversalUniqueIdentifier, Integer> counts = new HashMap<UniversalUniqueIdentifier, Integer>();
+		counts.put(uuid, new Integer(2));
+		store.setReferences(counts);
+		assertTrue("3.0", !store.hasStaleReferences());
+		store = new BlobStore(root, 64);
+		assertTrue("3.1", !store.hasStaleReferences());
+		store.deleteBlob(uuid);
+		assertTrue("3.2", store.fileFor(uuid).fetchInfo().exists());
+		store.deleteBlob(uuid);
+		assertTrue("3.3", !store.fileFor(uuid).fetchInfo().exists());
+	}
+
 	public void testSetBlob() {
 		/* initialize common objects */
 		IFileStore root = createStore();
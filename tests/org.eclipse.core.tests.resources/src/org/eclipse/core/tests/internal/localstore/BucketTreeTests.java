@@ -63,7 +63,7 @@ public class BucketTreeTests extends ResourceTest {
 			return new SimpleEntry(path, (Map) value);
 		}
 
-		public Map getValue(IPath key) {
+		public Map getValue(IPath key) throws CoreException {
 			return (Map) getEntryValue(key.toString());
 		}
 
@@ -79,7 +79,7 @@ public class BucketTreeTests extends ResourceTest {
 			return value;
 		}
 
-		public void set(IPath path, String key, String value) {
+		public void set(IPath path, String key, String value) throws CoreException {
 			String pathAsString = path.toString();
 			Map<String, String> existing = (Map<String, String>) getEntryValue(pathAsString);
 			if (existing == null) {
@@ -111,6 +111,15 @@ public class BucketTreeTests extends ResourceTest {
 		}
 	}
 
+	/**
+	 * A bucket that allows the tree to keep several buckets loaded.
+	 */
+	static class CachingBucket extends SimpleBucket {
+		protected Bucket newBucket() {
+			return new CachingBucket();
+		}
+	}
+
 	public static Test suite() {
 		return new TestSuite(BucketTreeTests.class);
 	}
@@ -119,7 +128,45 @@ public class BucketTreeTests extends ResourceTest {
 		super(name);
 	}
 
-	public void testVisitor() {
+	/**
+	 * Alternates between buckets of different folders, and ensures changes
+	 * made to cached buckets are not lost, and are written when the tree is saved.
+	 */
+	public void testCache() throws CoreException {
+		BucketTree tree = new BucketTree((Workspace) getWorkspace(), new CachingBucket());
+		IProject proj1 = getWorkspace().getRoot().getProject("proj1");
+		IFolder folder1 = proj1.getFolder("folder1");
+		IFolder folder2 = proj1.getFolder("folder2");
+		ensureExistsInWorkspace(new IResource[] {folder1, folder2}, true);
+		IPath[] paths = new IPath[20];
+		for (int i = 0; i < paths.length; i++)
+			paths[i] = (i % 2 == 0 ? folder1 : folder2).getFile("file" + i).getFullPath();
+		for (int i = 0; i < paths.length; i++) {
+			tree.loadBucketFor(paths[i]);
+			((SimpleBucket) tree.getCurrent()).set(paths[i], "path", paths[i].toString());
+		}
+		for (int i = 0; i < paths.length; i++) {
+			tree.loadBucketFor(paths[i]);
+			Map value = ((SimpleBucket) tree.getCurrent()).getValue(paths[i]);
+			assertNotNull("1.0." + i, value);
+			assertEquals("1.1." + i, paths[i].toString(), value.get("path"));
+		}
+		tree.save();
+		// a new tree must read the changes from disk
+		BucketTree other = new BucketTree((Workspace) getWorkspace(), new CachingBucket());
+		for (int i = 0; i < paths.length; i++) {
+			other.loadBucketFor(paths[i]);
+			Map value = ((SimpleBucket) other.getCurrent()).getValue(paths[i]);
+			assertNotNull("2.0." + i, value);
+			assertEquals("2.1." + i, paths[i].toString(), value.get("path"));
+		}
+		// flushing discards the loaded buckets
+		tree.flush();
+		tree.loadBucketFor(paths[0]);
+		assertEquals("3.0", paths[0].toString(), ((SimpleBucket) tree.getCurrent()).getValue(paths[0]).get("path"));
+	}
+
+	public void testVisitor() throws CoreException {
 		IPath baseLocation = getRandomLocation();
 		try {
 			// keep the reference around - it is the same returned by tree.getCurrent()
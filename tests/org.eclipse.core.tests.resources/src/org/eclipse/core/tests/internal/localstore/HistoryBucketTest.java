@@ -32,7 +32,7 @@ public class HistoryBucketTest extends ResourceTest {
 	 * Ensures that if another entry having exactly the same UUID is added,
 	 * the original one is not replaced.
 	 */
-	public void testDuplicates() {
+	public void testDuplicates() throws CoreException {
 		IPath baseLocation = getRandomLocation();
 		try {
 			HistoryBucket index1 = new HistoryBucket();
@@ -60,7 +60,48 @@ public class HistoryBucketTest extends ResourceTest {
 		}
 	}
 
-	public void testPersistence() {
+	/**
+	 * Ensures entries can be looked up individually after being reloaded
+	 * from an indexed bucket file, and that modifying one keeps the others.
+	 */
+	public void testIndexedLookup() throws CoreException {
+		IPath baseLocation = getRandomLocation();
+		try {
+			HistoryBucket index1 = new HistoryBucket();
+			IPath location = baseLocation.append("location");
+			index1.load("foo", location.toFile());
+			int count = 500;
+			UniversalUniqueIdentifier[] uuids = new UniversalUniqueIdentifier[count];
+			for (int i = 0; i < count; i++) {
+				uuids[i] = new UniversalUniqueIdentifier();
+				index1.addBlob(new Path("/foo/file" + i), uuids[i], i);
+			}
+			index1.addBlob(new Path("/foo"), new UniversalUniqueIdentifier(), 0);
+			index1.save();
+			HistoryBucket index2 = new HistoryBucket();
+			index2.load("foo", location.toFile());
+			assertEquals("1.0", count + 1, index2.getEntryCount());
+			assertNotNull("1.1", index2.getEntry(new Path("/foo")));
+			assertNull("1.2", index2.getEntry(new Path("/foo/missing")));
+			assertNull("1.3", index2.getEntry(new Path("/bar/file0")));
+			for (int i = count - 1; i >= 0; i -= 7) {
+				HistoryBucket.HistoryEntry entry = index2.getEntry(new Path("/foo/file" + i));
+				assertNotNull("2.0." + i, entry);
+				assertEquals("2.1." + i, uuids[i], entry.getUUID(0));
+				assertEquals("2.2." + i, i, entry.getTimestamp(0));
+			}
+			index2.addBlob(new Path("/foo/file0"), new UniversalUniqueIdentifier(), count);
+			index2.save();
+			index1.load("foo", location.toFile(), true);
+			assertEquals("3.0", count + 1, index1.getEntryCount());
+			assertEquals("3.1", 2, index1.getEntry(new Path("/foo/file0")).getOccurrences());
+			assertEquals("3.2", uuids[1], index1.getEntry(new Path("/foo/file1")).getUUID(0));
+		} finally {
+			ensureDoesNotExistInFileSystem(baseLocation.toFile());
+		}
+	}
+
+	public void testPersistence() throws CoreException {
 		IPath baseLocation = getRandomLocation();
 		try {
 			HistoryBucket index1 = new HistoryBucket();
@@ -141,7 +182,7 @@ public class HistoryBucketTest extends ResourceTest {
 	/**
 	 * This test does not cause any data to be written.
 	 */
-	public void testSort() {
+	public void testSort() throws CoreException {
 		HistoryBucket index = new HistoryBucket();
 		IPath path = new Path("/foo");
 		assertNull("1.0", index.getEntry(path));
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2013 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,9 +14,10 @@ import java.io.*;
 import java.util.*;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.filesystem.IFileStore;
 import org.eclipse.core.filesystem.provider.FileInfo;
-import org.eclipse.core.internal.localstore.IHistoryStore;
+import org.eclipse.core.internal.localstore.*;
 import org.eclipse.core.internal.resources.*;
 import org.eclipse.core.internal.utils.UniversalUniqueIdentifier;
 import org.eclipse.core.resources.*;
@@ -601,6 +602,151 @@ public class HistoryStoreTest extends ResourceTest {
 		}
 	}
 
+	/**
+	 * Ensures a clean run in slices of a single bucket, and resumed by another
+	 * cleaner as in a new session, has the same result as a one-shot clean.
+	 * States are added by another thread between slices, which requires the
+	 * history store not to be locked.
+	 */
+	public void testCleanInSlices() throws Throwable {
+		Workspace workspace = (Workspace) getWorkspace();
+		HistoryStore2 store = (HistoryStore2) workspace.getFileSystemManager().getHistoryStore();
+		IFileStore location = EFS.getLocalFileSystem().getStore(workspace.getMetaArea().getHistoryStoreLocation());
+		IWorkspaceDescription description = getWorkspace().getDescription();
+		description.setMaxFileStates(500);
+		getWorkspace().setDescription(description);
+
+		/* files in several folders of several projects, each folder has its own bucket */
+		List<IFile> files = new ArrayList<IFile>();
+		for (int i = 0; i < 3; i++) {
+			IProject project = getWorkspace().getRoot().getProject("Project" + i);
+			ensureExistsInWorkspace(project, true);
+			for (int j = 0; j < 4; j++)
+				for (int k = 0; k < 2; k++)
+					files.add(project.getFolder("folder" + j).getFile("file" + k + ".txt"));
+		}
+		ensureExistsInWorkspace(files.toArray(new IResource[files.size()]), true);
+		for (int i = 0; i < 4; i++)
+			for (IFile file : files)
+				file.setContents(getRandomContents(), true, true, getMonitor());
+		description.setMaxFileStates(2);
+		getWorkspace().setDescription(description);
+
+		HistoryCleaner cleaner = new HistoryCleaner(store, location);
+		cleaner.begin();
+		assertTrue("1.0", !cleaner.cleanSlice(0, getMonitor()));
+		assertTrue("1.1", !cleaner.cleanSlice(0, getMonitor()));
+
+		// the last project has not been visited yet
+		final IFile late = files.get(files.size() - 1);
+		final CoreException[] failure = new CoreException[1];
+		Thread writer = new Thread("History writer") {
+			public void run() {
+				try {
+					late.setContents(getRandomContents(), true, true, getMonitor());
+				} catch (CoreException e) {
+					failure[0] = e;
+				}
+			}
+		};
+		writer.start();
+		writer.join(30000);
+		assertTrue("2.0", !writer.isAlive());
+		if (failure[0] != null)
+			fail("2.1", failure[0]);
+
+		// a one-shot clean keeps the newest states, getHistory() hides the
+		// others already so look at the bucket entries
+		List<List<UniversalUniqueIdentifier>> expected = new ArrayList<List<UniversalUniqueIdentifier>>();
+		for (IFile file : files)
+			expected.add(getRecordedStates(store, file).subList(0, 2));
+		assertEquals("2.2", 5, getRecordedStates(store, late).size());
+
+		// resume the pass in a new cleaner, as after a restart
+		cleaner.shutdown();
+		HistoryCleaner resumed = new HistoryCleaner(store, location);
+		resumed.restore();
+		// run the slices here rather than after the resume delay
+		resumed.cancel();
+		int slices = 1;
+		while (!resumed.cleanSlice(0, getMonitor()))
+			slices++;
+		assertTrue("3.0", slices > 1);
+		resumed.shutdown();
+		assertTrue("3.1", !location.getChild(".cleaner").fetchInfo().exists());
+		for (int i = 0; i < expected.size(); i++)
+			assertEquals("3.2." + i, expected.get(i), getRecordedStates(store, files.get(i)));
+
+		// a one-shot clean has nothing left to do
+		store.clean(getMonitor());
+		for (int i = 0; i < expected.size(); i++)
+			assertEquals("4.0." + i, expected.get(i), getRecordedStates(store, files.get(i)));
+	}
+
+	/**
+	 * Returns the states of the given file recorded in the history store,
+	 * from the newest to the oldest, including those not applying to the
+	 * history policy that have not been cleaned yet.
+	 */
+	private List<UniversalUniqueIdentifier> getRecordedStates(HistoryStore2 store, IFile file) throws CoreException {
+		List<UniversalUniqueIdentifier> result = new ArrayList<UniversalUniqueIdentifier>();
+		synchronized (store) {
+			BucketTree tree = store.getTree();
+			tree.loadBucketFor(file.getFullPath());
+			HistoryBucket.HistoryEntry entry = ((HistoryBucket) tree.getCurrent()).getEntry(file.getFullPath());
+			for (int i = 0; entry != null && i < entry.getOccurrences(); i++)
+				result.add(entry.getUUID(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Ensures changes to the compression preferences apply to the states
+	 * added afterwards, without restarting the history store.
+	 */
+	public void testCompressionPreferences() throws Throwable {
+		Workspace workspace = (Workspace) getWorkspace();
+		File location = workspace.getMetaArea().getHistoryStoreLocation().toFile();
+		IProject project = getWorkspace().getRoot().getProject("CompressionProject");
+		IFile file = project.getFile("file.txt");
+		ensureExistsInWorkspace(file, true);
+
+		WorkspaceDescription description = (WorkspaceDescription) getWorkspace().getDescription();
+		description.setHistoryCompressionLevel(0);
+		getWorkspace().setDescription(description);
+		for (int i = 0; i < 3; i++)
+			file.setContents(getContents("stored verbatim " + i), true, true, getMonitor());
+		assertEquals("1.0", 0, countEncodedBlobs(location));
+
+		description.setHistoryCompressionLevel(6);
+		description.setMaxHistoryDeltaChain(3);
+		getWorkspace().setDescription(description);
+		for (int i = 0; i < 3; i++)
+			file.setContents(getContents("stored compressed " + i), true, true, getMonitor());
+		assertTrue("2.0", countEncodedBlobs(location) > 0);
+
+		// all states remain readable
+		IFileState[] states = file.getHistory(getMonitor());
+		assertEquals("3.0", 6, states.length);
+		for (int i = 0; i < 2; i++)
+			assertTrue("3.1." + i, compareContent(getContents("stored compressed " + (1 - i)), states[i].getContents()));
+		for (int i = 0; i < 3; i++)
+			assertTrue("3.2." + i, compareContent(getContents("stored verbatim " + (2 - i)), states[i + 2].getContents()));
+	}
+
+	private int countEncodedBlobs(File dir) {
+		int count = 0;
+		File[] children = dir.listFiles();
+		if (children == null)
+			return 0;
+		for (File child : children)
+			if (child.isDirectory())
+				count += countEncodedBlobs(child);
+			else if (child.getName().endsWith(BlobStore.ENCODED_SUFFIX))
+				count++;
+		return count;
+	}
+
 	/**
 	 * Copy case for History Store of folder when the local history is being
 	 * copied.
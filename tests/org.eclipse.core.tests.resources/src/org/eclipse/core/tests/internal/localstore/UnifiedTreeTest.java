@@ -204,6 +204,54 @@ public class UnifiedTreeTest extends LocalStoreTest {
 		assertTrue("2.1", set.size() != initialSize);
 	}
 
+	/**
+	 * Creates some resources in the file system and some in the workspace, and
+	 * makes sure a traversal in parallel mode visits all of them, always on the
+	 * thread running the traversal.
+	 */
+	public void testTraverseMechanismInFolderParallel() throws Throwable {
+		/* create common objects */
+		IProject project = projects[0];
+		IFolder folder = project.getFolder("root");
+		folder.create(true, true, null);
+
+		/* Create a hash table to hold all resources the tree should visit.
+		 The resources are going to be removed from the hash table as
+		 the visitor visits it. */
+		final Hashtable set = new Hashtable();
+
+		/* create some workspace structure */
+		createResourcesInWorkspace(folder, set);
+
+		/* create some file system structure */
+		createResourcesInFileSystem(((Resource) folder).getStore(), set);
+
+		/* the visitor must always be called on the thread running the traversal */
+		final Thread thread = Thread.currentThread();
+		IUnifiedTreeVisitor visitor = new IUnifiedTreeVisitor() {
+			public boolean visit(UnifiedTreeNode node) {
+				assertEquals("1.0", thread, Thread.currentThread());
+				final IResource resource = node.getResource();
+				final IFileStore store = ((Resource) resource).getStore();
+				if (node.existsInFileSystem())
+					assertEquals("1.1", store.fetchInfo().getName(), node.getLocalName());
+				assertEquals("1.2", store, node.getStore());
+
+				/* remove from the hash table the resource we're visiting */
+				set.remove(resource.getLocation().toOSString());
+				return true;
+			}
+		};
+
+		/* instantiate a unified tree in parallel mode and use the visitor */
+		UnifiedTree tree = new UnifiedTree(folder);
+		tree.setParallel(true);
+		tree.accept(visitor);
+
+		/* if the hash table is empty, we walked through all resources */
+		assertTrue("2.0", set.isEmpty());
+	}
+
 	/**
 	 * Creates some resources in the file system and some in the workspace. After that,
 	 * makes sure the visitor is going to walk through all of them.
@@ -24,6 +24,7 @@ public class AllTests extends TestCase {
 	public static Test suite() {
 		TestSuite suite = new TestSuite(AllTests.class.getName());
 		suite.addTest(PropertyManagerTest.suite());
+		suite.addTest(PropertyBucketTest.suite());
 		return suite;
 	}
 }
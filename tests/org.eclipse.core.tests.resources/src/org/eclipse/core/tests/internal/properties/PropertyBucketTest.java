@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.internal.properties;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.internal.properties.PropertyBucket;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.tests.resources.ResourceTest;
+
+public class PropertyBucketTest extends ResourceTest {
+
+	public static Test suite() {
+		return new TestSuite(PropertyBucketTest.class);
+	}
+
+	public PropertyBucketTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Ensures several entries can be read one after the other from a
+	 * reloaded bucket, including after loads that find the file unchanged.
+	 */
+	public void testIndexedLookup() throws CoreException {
+		IPath baseLocation = getRandomLocation();
+		try {
+			IPath location = baseLocation.append("location");
+			PropertyBucket bucket1 = new PropertyBucket();
+			bucket1.load("foo", location.toFile());
+			int count = 50;
+			QualifiedName[] names = {new QualifiedName("q0", "n"), new QualifiedName("q1", "n"), new QualifiedName("q2", "n")};
+			for (int i = 0; i < count; i++)
+				for (int j = 0; j < names.length; j++)
+					bucket1.setProperty(new Path("/foo/file" + i), names[j], "value" + i + "." + j);
+			bucket1.save();
+
+			PropertyBucket bucket2 = new PropertyBucket();
+			bucket2.load("foo", location.toFile());
+			assertEquals("1.0", count, bucket2.getEntryCount());
+			for (int i = count - 1; i >= 0; i -= 3) {
+				assertEquals("1.1." + i, "value" + i + ".2", bucket2.getProperty(new Path("/foo/file" + i), names[2]));
+				assertEquals("1.2." + i, "value" + i + ".0", bucket2.getProperty(new Path("/foo/file" + i), names[0]));
+				//the file has not changed, so it is not read again
+				bucket2.load("foo", location.toFile());
+			}
+			String[][] properties = bucket2.getProperties(new Path("/foo/file7"));
+			assertEquals("1.3", names.length, properties.length);
+			assertNull("1.4", bucket2.getProperty(new Path("/foo/missing"), names[0]));
+
+			//modifying the bucket decodes all other entries
+			bucket2.setProperty(new Path("/foo/file0"), names[1], "changed");
+			bucket2.save();
+			bucket1.load("foo", location.toFile(), true);
+			assertEquals("2.0", "changed", bucket1.getProperty(new Path("/foo/file0"), names[1]));
+			assertEquals("2.1", "value0.2", bucket1.getProperty(new Path("/foo/file0"), names[2]));
+			assertEquals("2.2", "value1.1", bucket1.getProperty(new Path("/foo/file1"), names[1]));
+			assertEquals("2.3", "value49.0", bucket1.getProperty(new Path("/foo/file49"), names[0]));
+		} finally {
+			ensureDoesNotExistInFileSystem(baseLocation.toFile());
+		}
+	}
+}
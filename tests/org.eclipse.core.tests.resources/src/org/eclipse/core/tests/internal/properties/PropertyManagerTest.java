@@ -429,6 +429,59 @@ public class PropertyManagerTest extends LocalStoreTest {
 		}
 	}
 
+	/**
+	 * Ensures changes that have only been logged are recovered by a new
+	 * property manager, as after a crash.
+	 */
+	public void testLogRecovery() throws CoreException {
+		IFile target = projects[0].getFile("target");
+		ensureExistsInWorkspace(target, true);
+		QualifiedName name1 = new QualifiedName("test", "prop1");
+		QualifiedName name2 = new QualifiedName("test", "prop2");
+
+		IPropertyManager manager = new PropertyManager2((Workspace) ResourcesPlugin.getWorkspace());
+		manager.setProperty(target, name1, "value1");
+		manager.setProperty(target, name2, "value2");
+		manager.setProperty(target, name1, null);
+		assertNull("1.0", manager.getProperty(target, name1));
+		assertEquals("1.1", "value2", manager.getProperty(target, name2));
+
+		// not shut down: the new manager must replay the log
+		IPropertyManager recovered = new PropertyManager2((Workspace) ResourcesPlugin.getWorkspace());
+		assertNull("2.0", recovered.getProperty(target, name1));
+		assertEquals("2.1", "value2", recovered.getProperty(target, name2));
+		assertEquals("2.2", 1, recovered.getProperties(target).size());
+		recovered.deleteProperties(target, IResource.DEPTH_ZERO);
+		assertNull("2.3", recovered.getProperty(target, name2));
+	}
+
+	/**
+	 * Ensures properties are kept when they are used in more projects than
+	 * the property manager keeps loaded at once.
+	 */
+	public void testManyProjects() throws CoreException {
+		IProject[] many = new IProject[20];
+		for (int i = 0; i < many.length; i++)
+			many[i] = getWorkspace().getRoot().getProject("many" + i);
+		ensureExistsInWorkspace(many, true);
+		QualifiedName name = new QualifiedName("test", "prop");
+
+		IPropertyManager manager = new PropertyManager2((Workspace) ResourcesPlugin.getWorkspace());
+		for (int i = 0; i < many.length; i++)
+			manager.setProperty(many[i], name, "value" + i);
+		for (int i = 0; i < many.length; i++)
+			assertEquals("1." + i, "value" + i, manager.getProperty(many[i], name));
+
+		// not shut down: the new manager must find all changes
+		IPropertyManager recovered = new PropertyManager2((Workspace) ResourcesPlugin.getWorkspace());
+		for (int i = 0; i < many.length; i++)
+			assertEquals("2." + i, "value" + i, recovered.getProperty(many[i], name));
+		for (int i = 0; i < many.length; i++)
+			recovered.deleteProperties(many[i], IResource.DEPTH_INFINITE);
+		recovered.shutdown(getMonitor());
+		ensureDoesNotExistInWorkspace(many);
+	}
+
 	/**
 	 * See bug 93849.
 	 */
@@ -505,6 +558,35 @@ public class PropertyManagerTest extends LocalStoreTest {
 		target.delete(false, monitor);
 	}
 
+	/**
+	 * Ensures several properties can be read from a bucket written by a
+	 * previous property manager, after the bucket has been loaded once.
+	 */
+	public void testReadReloadedBucket() throws CoreException {
+		IFile target1 = projects[0].getFile("target1");
+		IFile target2 = projects[0].getFile("target2");
+		ensureExistsInWorkspace(new IResource[] {target1, target2}, true);
+		QualifiedName name1 = new QualifiedName("test1", "prop");
+		QualifiedName name2 = new QualifiedName("test2", "prop");
+
+		IPropertyManager manager = new PropertyManager2((Workspace) ResourcesPlugin.getWorkspace());
+		manager.setProperty(target1, name1, "value1.1");
+		manager.setProperty(target1, name2, "value1.2");
+		manager.setProperty(target2, name1, "value2.1");
+		manager.setProperty(target2, name2, "value2.2");
+		manager.shutdown(getMonitor());
+
+		// both files are in the same bucket, which is only read once
+		IPropertyManager reloaded = new PropertyManager2((Workspace) ResourcesPlugin.getWorkspace());
+		assertEquals("1.0", "value1.1", reloaded.getProperty(target1, name1));
+		assertEquals("1.1", "value1.2", reloaded.getProperty(target1, name2));
+		assertEquals("1.2", "value2.2", reloaded.getProperty(target2, name2));
+		assertEquals("1.3", "value2.1", reloaded.getProperty(target2, name1));
+		assertEquals("1.4", 2, reloaded.getProperties(target2).size());
+		reloaded.deleteProperties(projects[0], IResource.DEPTH_INFINITE);
+		reloaded.shutdown(getMonitor());
+	}
+
 	public void testSimpleUpdate() {
 
 		// create common objects
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2012 IBM Corporation and others.
+ * Copyright (c) 2004, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipse.core.tests.internal.resources;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.core.resources.*;
@@ -137,6 +139,117 @@ public class WorkspaceConcurrencyTest extends ResourceTest {
 		}
 	}
 
+	/**
+	 * Tests that read-only operations with conflicting rules run at the same
+	 * time, and that they cannot modify the workspace.
+	 */
+	public void testReadOnlyOperations() {
+		final IWorkspace workspace = getWorkspace();
+		final IProject project = workspace.getRoot().getProject("testReadOnlyOperations");
+		ensureExistsInWorkspace(project, true);
+		final int[] status = new int[] {TestBarrier.STATUS_WAIT_FOR_START};
+		final Job reader = new Job("reader") {
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					workspace.run(new IWorkspaceRunnable() {
+						public void run(IProgressMonitor monitor) {
+							status[0] = TestBarrier.STATUS_RUNNING;
+						}
+					}, workspace.getRoot(), IWorkspace.READ_ONLY, null);
+				} catch (CoreException e) {
+					return e.getStatus();
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		try {
+			workspace.run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor monitor) throws CoreException {
+					//a reader with a conflicting rule is not blocked by this one
+					reader.schedule();
+					TestBarrier.waitForStatus(status, TestBarrier.STATUS_RUNNING);
+					assertTrue("1.0", project.exists());
+				}
+			}, project, IWorkspace.READ_ONLY, getMonitor());
+		} catch (CoreException e) {
+			fail("1.99", e);
+		}
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			fail("2.99", e);
+		}
+		assertTrue("2.0", reader.getResult().isOK());
+
+		//modifications are not allowed
+		try {
+			workspace.run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor monitor) throws CoreException {
+					project.touch(getMonitor());
+				}
+			}, project, IWorkspace.READ_ONLY, getMonitor());
+			fail("3.0");
+		} catch (CoreException e) {
+			assertEquals("3.1", IResourceStatus.WORKSPACE_LOCKED, e.getStatus().getCode());
+		}
+		//the workspace can be modified again once the read-only operation ends
+		try {
+			project.touch(getMonitor());
+		} catch (CoreException e) {
+			fail("4.99", e);
+		}
+	}
+
+	/**
+	 * Tests that an operation on another project can run while the contents
+	 * of a file are written.
+	 */
+	public void testSetContentsConcurrently() {
+		IWorkspace workspace = getWorkspace();
+		IProject project1 = workspace.getRoot().getProject("testSetContentsConcurrently1");
+		IProject project2 = workspace.getRoot().getProject("testSetContentsConcurrently2");
+		IFile file = project1.getFile("file.txt");
+		final IFile created = project2.getFile("created.txt");
+		ensureExistsInWorkspace(new IResource[] {project1, project2, file}, true);
+		final int[] status = new int[] {TestBarrier.STATUS_WAIT_FOR_START};
+		final Job creator = new Job("creator") {
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					created.create(getRandomContents(), true, null);
+				} catch (CoreException e) {
+					return e.getStatus();
+				} finally {
+					status[0] = TestBarrier.STATUS_DONE;
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		//contents that can only be read once the other operation is done
+		InputStream contents = new ByteArrayInputStream(getRandomString().getBytes()) {
+			public synchronized int read(byte[] b, int off, int len) {
+				if (status[0] == TestBarrier.STATUS_WAIT_FOR_START) {
+					status[0] = TestBarrier.STATUS_RUNNING;
+					creator.schedule();
+					TestBarrier.waitForStatus(status, TestBarrier.STATUS_DONE);
+				}
+				return super.read(b, off, len);
+			}
+		};
+		try {
+			file.setContents(contents, IResource.NONE, getMonitor());
+		} catch (CoreException e) {
+			fail("1.99", e);
+		}
+		try {
+			creator.join();
+		} catch (InterruptedException e) {
+			fail("2.99", e);
+		}
+		assertTrue("2.0", creator.getResult().isOK());
+		assertTrue("2.1", created.exists());
+		assertTrue("2.2", file.isSynchronized(IResource.DEPTH_ZERO));
+	}
+
 	/**
 	 * Tests calling IWorkspace.run with a non-workspace rule.  This should be
 	 * allowed. This is a regression test for bug 60114.
@@ -59,7 +59,7 @@ public class WorkspacePreferencesTest extends ResourceTest {
 		// appear as non-default-default properties in the property store  
 		// Don't include the default build order here as it is equivalent to the 
 		// String default-default (ResourcesPlugin.PREF_BUILD_ORDER).
-		String[] descriptionProperties = {ResourcesPlugin.PREF_AUTO_BUILDING, ResourcesPlugin.PREF_DEFAULT_BUILD_ORDER, ResourcesPlugin.PREF_FILE_STATE_LONGEVITY, ResourcesPlugin.PREF_MAX_BUILD_ITERATIONS, ResourcesPlugin.PREF_MAX_FILE_STATE_SIZE, ResourcesPlugin.PREF_MAX_FILE_STATES, ResourcesPlugin.PREF_SNAPSHOT_INTERVAL};
+		String[] descriptionProperties = {ResourcesPlugin.PREF_AUTO_BUILDING, ResourcesPlugin.PREF_DEFAULT_BUILD_ORDER, ResourcesPlugin.PREF_FILE_STATE_LONGEVITY, ResourcesPlugin.PREF_MAX_BUILD_ITERATIONS, ResourcesPlugin.PREF_MAX_CONCURRENT_BUILDS, ResourcesPlugin.PREF_MAX_FILE_STATE_SIZE, ResourcesPlugin.PREF_MAX_FILE_STATES, ResourcesPlugin.PREF_SNAPSHOT_INTERVAL};
 		List defaultPropertiesList = Arrays.asList(preferences.defaultPropertyNames());
 		for (int i = 0; i < descriptionProperties.length; i++) {
 			String property = descriptionProperties[i];
@@ -238,6 +238,7 @@ public class WorkspacePreferencesTest extends ResourceTest {
 		description.setBuildOrder(new String[] {"a", "b,c", "c"});
 		description.setFileStateLongevity(60000 * 5);
 		description.setMaxBuildIterations(35);
+		description.setMaxConcurrentBuilds(3);
 		description.setMaxFileStates(16);
 		description.setMaxFileStateSize(100050);
 		description.setSnapshotInterval(1234567);
@@ -303,6 +304,7 @@ public class WorkspacePreferencesTest extends ResourceTest {
 		assertEquals(message + " - 7", description.getMaxFileStateSize(), preferences.getLong(ResourcesPlugin.PREF_MAX_FILE_STATE_SIZE));
 		assertEquals(message + " - 8", description.getSnapshotInterval(), preferences.getLong(ResourcesPlugin.PREF_SNAPSHOT_INTERVAL));
 		assertEquals(message + " - 9", description.getMaxBuildIterations(), preferences.getLong(ResourcesPlugin.PREF_MAX_BUILD_ITERATIONS));
+		assertEquals(message + " - 10", description.getMaxConcurrentBuilds(), preferences.getInt(ResourcesPlugin.PREF_MAX_CONCURRENT_BUILDS));
 	}
 
 	/**
@@ -318,6 +320,7 @@ public class WorkspacePreferencesTest extends ResourceTest {
 		assertEquals(message + " - 7", description1.getMaxFileStateSize(), description2.getMaxFileStateSize());
 		assertEquals(message + " - 8", description1.getSnapshotInterval(), description2.getSnapshotInterval());
 		assertEquals(message + " - 9", description1.getMaxBuildIterations(), description2.getMaxBuildIterations());
+		assertEquals(message + " - 10", description1.getMaxConcurrentBuilds(), description2.getMaxConcurrentBuilds());
 	}
 
 	public static Test suite() {
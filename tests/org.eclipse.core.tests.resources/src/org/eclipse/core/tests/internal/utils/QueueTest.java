@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -74,6 +74,30 @@ public class QueueTest extends TestCase {
 		assertTrue("2.0", queue.size() == 11);
 	}
 
+	public void testIndexFromTail() {
+		/* head < tail */
+		Queue<String> queue = new Queue<String>(10, false);
+		for (int i = 0; i < 8; i++)
+			queue.add(String.valueOf(i));
+		assertTrue("1.0", queue.elementAt(queue.indexFromTail(1)).equals("7"));
+		assertTrue("1.1", queue.elementAt(queue.indexFromTail(8)).equals("0"));
+
+		/* head > tail */
+		queue = new Queue<String>(5, false);
+		for (int i = 0; i < 5; i++)
+			queue.add(String.valueOf(i));
+		for (int i = 0; i < 4; i++)
+			queue.remove();
+		for (int i = 0; i < 10; i++) {
+			queue.add(String.valueOf(i));
+		}
+		for (int i = 0; i < 10; i++) {
+			int index = queue.indexFromTail(10 - i);
+			assertTrue("2." + i, queue.elementAt(index).equals(String.valueOf(i)));
+		}
+		assertTrue("3.0", queue.elementAt(queue.indexFromTail(11)).equals("4"));
+	}
+
 	public void testRemoveTail() {
 		/* head < tail */
 		Queue<String> queue = new Queue<String>(10, false);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -16,7 +16,7 @@ import org.eclipse.core.internal.watson.ElementTree;
 import org.eclipse.core.runtime.IPath;
 
 /**
- * Tests the ElementTree.mergeDeltaChain() method.
+ * Tests the ElementTree.mergeDeltaChain() method, and reads along delta chains.
  */
 public class ElementTreeDeltaChainTest extends WatsonTest implements IPathConstants {
 	protected ElementTree fTree;
@@ -47,6 +47,55 @@ public class ElementTreeDeltaChainTest extends WatsonTest implements IPathConsta
 		//ElementTree tests don't use the CoreTest infrastructure
 	}
 
+	/**
+	 * Tests that an immutable tree can be read while newer trees of its delta
+	 * chain are created and rerooted.
+	 */
+	public void testConcurrentReads() throws InterruptedException {
+		final ElementTree oldTree = new ElementTree();
+		final int count = 100;
+		oldTree.createElement(solution, "solution");
+		for (int i = 0; i < count; i++)
+			oldTree.createElement(solution.append("project" + i), "data" + i);
+		oldTree.immutable();
+		final boolean[] done = new boolean[1];
+		final int[] failures = new int[1];
+		Thread reader = new Thread("Reader") {
+			public void run() {
+				for (int i = 0; !isDone(); i = (i + 1) % count) {
+					IPath path = solution.append("project" + i);
+					try {
+						if (!oldTree.includes(path) || !("data" + i).equals(oldTree.getElementData(path)) || oldTree.getChildCount(solution) != count)
+							failures[0]++;
+					} catch (RuntimeException e) {
+						failures[0]++;
+					}
+				}
+			}
+
+			private boolean isDone() {
+				synchronized (done) {
+					return done[0];
+				}
+			}
+		};
+		reader.start();
+		ElementTree tree = oldTree;
+		for (int i = 0; i < 200; i++) {
+			tree = tree.newEmptyDelta();
+			tree.setElementData(solution.append("project" + (i % count)), "changed" + i);
+			if (i % 10 == 0)
+				tree.deleteElement(solution.append("project" + (i % count)));
+			tree.immutable();
+		}
+		synchronized (done) {
+			done[0] = true;
+		}
+		reader.join();
+		assertEquals("1.0", 0, failures[0]);
+		assertEquals("1.1", "data0", oldTree.getElementData(solution.append("project0")));
+	}
+
 	/**
 	 * Tries some bogus merges and makes sure an exception is thrown.
 	 */
@@ -109,6 +158,45 @@ public class ElementTreeDeltaChainTest extends WatsonTest implements IPathConsta
 		}
 	}
 
+	/**
+	 * Interleaves lookups of several paths in several trees, and makes
+	 * sure modifications are seen by later lookups.
+	 */
+	public void testLookupCache() {
+		ElementTree oldTree = new ElementTree();
+		oldTree.createElement(solution, "solution");
+		oldTree.createElement(project1, "old1");
+		oldTree.createElement(project2, "old2");
+		oldTree.immutable();
+		ElementTree newTree = oldTree.newEmptyDelta();
+		newTree.setElementData(project1, "new1");
+		long hits = ElementTree.getLookupCacheHits();
+		for (int i = 0; i < 2000; i++) {
+			assertEquals("1.0", "old1", oldTree.getElementData(project1));
+			assertEquals("1.1", "new1", newTree.getElementData(project1));
+			assertEquals("1.2", "old2", oldTree.getElementData(project2));
+			assertEquals("1.3", "old2", newTree.getElementData(project2));
+			//equal paths that are not identical
+			assertEquals("1.4", "new1", newTree.getElementData(solution.append(project1.lastSegment())));
+		}
+		assertTrue("1.5", ElementTree.getLookupCacheHits() > hits);
+
+		//modifications invalidate cached lookups
+		newTree.setElementData(project2, "new2");
+		assertEquals("2.0", "new2", newTree.getElementData(project2));
+		assertEquals("2.1", "old2", oldTree.getElementData(project2));
+		assertEquals("2.2", "new2", newTree.openElementData(project2));
+		newTree.deleteElement(project1);
+		assertTrue("2.3", !newTree.includes(project1));
+		assertTrue("2.4", oldTree.includes(project1));
+		newTree.createElement(project1, "created1");
+		assertTrue("2.5", newTree.includes(project1));
+		assertEquals("2.6", "created1", newTree.getElementData(project1));
+		newTree.immutable();
+		assertEquals("2.7", "created1", newTree.getElementData(project1));
+		assertEquals("2.8", "old1", oldTree.getElementData(project1));
+	}
+
 	/**
 	 * Tests the mergeDeltaChain method
 	 */
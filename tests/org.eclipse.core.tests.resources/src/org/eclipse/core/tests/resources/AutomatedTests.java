@@ -37,6 +37,7 @@ public class AutomatedTests extends TestCase {
 		suite.addTest(org.eclipse.core.tests.internal.alias.AllTests.suite());
 		suite.addTest(org.eclipse.core.tests.internal.builders.AllTests.suite());
 		suite.addTest(org.eclipse.core.tests.internal.dtree.AllTests.suite());
+		suite.addTest(org.eclipse.core.tests.internal.events.AllTests.suite());
 		suite.addTest(org.eclipse.core.tests.internal.localstore.AllTests.suite());
 		suite.addTest(org.eclipse.core.tests.internal.mapping.AllTests.suite());
 		suite.addTest(org.eclipse.core.tests.internal.properties.AllTests.suite());
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -15,6 +15,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.core.internal.events.ResourceMetrics;
 import org.eclipse.core.internal.resources.Workspace;
 import org.eclipse.core.resources.*;
 import org.eclipse.core.runtime.*;
@@ -628,6 +629,40 @@ public class IResourceChangeListenerTest extends ResourceTest {
 		}
 	}
 
+	/**
+	 * Tests listeners that are notified concurrently with others.
+	 */
+	public void testConcurrentListener() {
+		final Thread[] notifying = new Thread[1];
+		final boolean[] done = new boolean[2];
+		IResourceChangeListener listener = new IConcurrentResourceChangeListener() {
+			public void resourceChanged(IResourceChangeEvent event) {
+				notifying[0] = Thread.currentThread();
+				done[1] = getWorkspace().isTreeLocked();
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				done[0] = event.getDelta().findMember(file2.getFullPath()) != null;
+			}
+		};
+		getWorkspace().addResourceChangeListener(listener, IResourceChangeEvent.POST_CHANGE);
+		try {
+			verifier.addExpectedChange(file2, IResourceDelta.ADDED, 0);
+			file2.create(getRandomContents(), true, getMonitor());
+			assertDelta();
+			//the notification waits for the listener
+			assertTrue("1.0", done[0]);
+			assertTrue("1.1", notifying[0] != null && notifying[0] != Thread.currentThread());
+			assertTrue("1.2", done[1]);
+		} catch (CoreException e) {
+			handleCoreException(e);
+		} finally {
+			getWorkspace().removeResourceChangeListener(listener);
+		}
+	}
+
 	public void testCopyChangeFile() {
 		try {
 			verifier.addExpectedChange(folder2, IResourceDelta.ADDED, 0);
@@ -1155,6 +1190,128 @@ public class IResourceChangeListenerTest extends ResourceTest {
 		}
 	}
 
+	/**
+	 * Tests that moves are reported to a listener that looks up the destination
+	 * of the move directly, without visiting the rest of the delta.
+	 */
+	public void testMoveFileFindMember() {
+		final IResourceDelta[] found = new IResourceDelta[2];
+		final int[] flags = new int[2];
+		IResourceChangeListener listener = new IResourceChangeListener() {
+			public void resourceChanged(IResourceChangeEvent event) {
+				found[0] = event.getDelta().findMember(file3.getFullPath());
+				if (found[0] != null)
+					flags[0] = found[0].getFlags();
+				found[1] = event.getDelta().findMember(file1.getFullPath());
+				if (found[1] != null)
+					flags[1] = found[1].getFlags();
+			}
+		};
+		getWorkspace().addResourceChangeListener(listener, IResourceChangeEvent.POST_CHANGE);
+		try {
+			getWorkspace().run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor m) throws CoreException {
+					folder2.create(true, true, null);
+					file1.move(file3.getFullPath(), true, null);
+				}
+			}, getMonitor());
+			assertNotNull("1.0", found[0]);
+			assertEquals("1.1", IResourceDelta.ADDED, found[0].getKind());
+			assertEquals("1.2", IResourceDelta.MOVED_FROM, flags[0]);
+			assertEquals("1.3", file1.getFullPath(), found[0].getMovedFromPath());
+			assertNotNull("2.0", found[1]);
+			assertEquals("2.1", IResourceDelta.REMOVED, found[1].getKind());
+			assertEquals("2.2", IResourceDelta.MOVED_TO, flags[1]);
+			assertEquals("2.3", file3.getFullPath(), found[1].getMovedToPath());
+		} catch (CoreException e) {
+			handleCoreException(e);
+		} finally {
+			getWorkspace().removeResourceChangeListener(listener);
+		}
+	}
+
+	/**
+	 * Tests that the moves of a delta kept by a listener are still reported
+	 * after the notification.
+	 */
+	public void testMoveFileDeltaKept() {
+		final IResourceDelta[] kept = new IResourceDelta[1];
+		IResourceChangeListener listener = new IResourceChangeListener() {
+			public void resourceChanged(IResourceChangeEvent event) {
+				kept[0] = event.getDelta();
+				//compute the moves during the notification
+				kept[0].findMember(file3.getFullPath()).getFlags();
+			}
+		};
+		getWorkspace().addResourceChangeListener(listener, IResourceChangeEvent.POST_CHANGE);
+		try {
+			getWorkspace().run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor m) throws CoreException {
+					folder2.create(true, true, null);
+					file1.move(file3.getFullPath(), true, null);
+				}
+			}, getMonitor());
+			getWorkspace().removeResourceChangeListener(listener);
+			//another notification releases the map used for recognizing moves
+			file3.touch(getMonitor());
+			IResourceDelta added = kept[0].findMember(file3.getFullPath());
+			assertNotNull("1.0", added);
+			assertEquals("1.1", IResourceDelta.MOVED_FROM, added.getFlags());
+			assertEquals("1.2", file1.getFullPath(), added.getMovedFromPath());
+			IResourceDelta removed = kept[0].findMember(file1.getFullPath());
+			assertNotNull("2.0", removed);
+			assertEquals("2.1", IResourceDelta.MOVED_TO, removed.getFlags());
+			assertEquals("2.2", file3.getFullPath(), removed.getMovedToPath());
+		} catch (CoreException e) {
+			handleCoreException(e);
+		} finally {
+			getWorkspace().removeResourceChangeListener(listener);
+		}
+	}
+
+	/**
+	 * Tests that a pre-build delta kept by a listener can still be visited
+	 * after the workspace tree it was computed against has changed.
+	 */
+	public void testPreBuildDeltaVisitedLater() {
+		final IResourceDelta[] kept = new IResourceDelta[1];
+		IResourceChangeListener listener = new IResourceChangeListener() {
+			public void resourceChanged(IResourceChangeEvent event) {
+				kept[0] = event.getDelta();
+			}
+		};
+		final IWorkspace workspace = getWorkspace();
+		try {
+			setAutoBuilding(false);
+			workspace.addResourceChangeListener(listener, IResourceChangeEvent.PRE_BUILD);
+			workspace.run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor monitor) throws CoreException {
+					file1.setContents(getRandomContents(), true, true, null);
+					workspace.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, monitor);
+				}
+			}, getMonitor());
+			workspace.removeResourceChangeListener(listener);
+			folder1.delete(true, getMonitor());
+			assertNotNull("1.0", kept[0]);
+			final IResourceDelta[] found = new IResourceDelta[1];
+			kept[0].accept(new IResourceDeltaVisitor() {
+				public boolean visit(IResourceDelta delta) {
+					if (delta.getResource().equals(file1))
+						found[0] = delta;
+					return true;
+				}
+			});
+			assertNotNull("2.0", found[0]);
+			assertEquals("2.1", IResourceDelta.CHANGED, found[0].getKind());
+			assertTrue("2.2", (found[0].getFlags() & IResourceDelta.CONTENT) != 0);
+		} catch (CoreException e) {
+			handleCoreException(e);
+		} finally {
+			workspace.removeResourceChangeListener(listener);
+			setAutoBuilding(true);
+		}
+	}
+
 	public void testMoveFileAddMarker() {
 		try {
 			verifier.addExpectedChange(folder2, IResourceDelta.ADDED, 0);
@@ -1534,6 +1691,111 @@ public class IResourceChangeListenerTest extends ResourceTest {
 		}
 	}
 
+	/**
+	 * Tests listeners registered for changes to some resources only.
+	 */
+	public void testScopedListener() {
+		final IResourceDelta[] received = new IResourceDelta[1];
+		final IResource[] deleted = new IResource[1];
+		final int[] count = new int[2];
+		IResourceChangeListener listener = new IResourceChangeListener() {
+			public void resourceChanged(IResourceChangeEvent event) {
+				received[0] = event.getDelta();
+				count[0]++;
+			}
+		};
+		IResourceChangeListener deleteListener = new IResourceChangeListener() {
+			public void resourceChanged(IResourceChangeEvent event) {
+				deleted[0] = event.getResource();
+				count[1]++;
+			}
+		};
+		getWorkspace().addResourceChangeListener(listener, IResourceChangeEvent.POST_CHANGE, new IResource[] {folder2}, IResource.FILE, IResourceDelta.ADDED);
+		getWorkspace().addResourceChangeListener(deleteListener, IResourceChangeEvent.PRE_DELETE, new IResource[] {project2}, IResource.FILE, IResourceDelta.ALL_WITH_PHANTOMS);
+		try {
+			//changes outside the scope
+			file1.setContents(getRandomContents(), true, true, getMonitor());
+			assertEquals("1.0", 0, count[0]);
+
+			//changes of no interest in the scope
+			folder2.create(true, true, getMonitor());
+			assertEquals("2.0", 0, count[0]);
+
+			//changes of interest in and out of the scope
+			getWorkspace().run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor m) throws CoreException {
+					file1.setContents(getRandomContents(), true, true, null);
+					file3.create(getRandomContents(), true, null);
+				}
+			}, getMonitor());
+			assertEquals("3.0", 1, count[0]);
+			assertEquals("3.1", getWorkspace().getRoot(), received[0].getResource());
+			IResourceDelta delta = received[0].findMember(file3.getFullPath());
+			assertNotNull("3.2", delta);
+			assertEquals("3.3", IResourceDelta.ADDED, delta.getKind());
+			assertNull("3.4", received[0].findMember(file1.getFullPath()));
+			assertEquals("3.5", 1, received[0].getAffectedChildren().length);
+
+			//deleting another project
+			ensureExistsInWorkspace(project2, true);
+			project1.delete(true, getMonitor());
+			assertEquals("4.0", 0, count[1]);
+
+			//deleting the project in the scope
+			project2.delete(true, getMonitor());
+			assertEquals("5.0", 1, count[1]);
+			assertEquals("5.1", project2, deleted[0]);
+		} catch (CoreException e) {
+			handleCoreException(e);
+		} finally {
+			getWorkspace().removeResourceChangeListener(listener);
+			getWorkspace().removeResourceChangeListener(deleteListener);
+		}
+	}
+
+	/**
+	 * Tests that the metrics of a scoped listener only count the part of the
+	 * delta it is given.
+	 */
+	public void testScopedListenerMetrics() {
+		IResourceChangeListener listener = new IResourceChangeListener() {
+			public void resourceChanged(IResourceChangeEvent event) {
+				//nothing to do
+			}
+		};
+		IResourceChangeListener scopedListener = new IResourceChangeListener() {
+			public void resourceChanged(IResourceChangeEvent event) {
+				//nothing to do
+			}
+		};
+		getWorkspace().addResourceChangeListener(listener, IResourceChangeEvent.POST_CHANGE);
+		getWorkspace().addResourceChangeListener(scopedListener, IResourceChangeEvent.POST_CHANGE, new IResource[] {folder2}, IResource.FILE, IResourceDelta.ADDED);
+		try {
+			getWorkspace().run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor m) throws CoreException {
+					folder2.create(true, true, null);
+					file3.create(getRandomContents(), true, null);
+					for (int i = 0; i < 10; i++)
+						folder1.getFile("Other" + i).create(getRandomContents(), true, null);
+				}
+			}, getMonitor());
+		} catch (CoreException e) {
+			handleCoreException(e);
+		} finally {
+			getWorkspace().removeResourceChangeListener(listener);
+			getWorkspace().removeResourceChangeListener(scopedListener);
+		}
+		ResourceMetrics metrics = ((Workspace) getWorkspace()).getResourceMetrics();
+		ResourceMetrics.Counters counters = metrics.getListenerCounters(listener.getClass().getName());
+		ResourceMetrics.Counters scopedCounters = metrics.getListenerCounters(scopedListener.getClass().getName());
+		assertNotNull("1.0", counters);
+		assertNotNull("1.1", scopedCounters);
+		assertEquals("1.2", 1, scopedCounters.getCount());
+		//the root, project, folder1, folder2 and file3
+		assertEquals("1.3", 5, scopedCounters.getDeltaNodes());
+		assertTrue("1.4", counters.getDeltaNodes() >= scopedCounters.getDeltaNodes() + 10);
+	}
+
 	public void testSetLocal() {
 		try {
 			verifier.reset();
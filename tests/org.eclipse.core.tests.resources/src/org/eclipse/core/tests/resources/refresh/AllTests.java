@@ -26,6 +26,7 @@ public class AllTests extends TestCase {
 
 	public static Test suite() {
 		TestSuite suite = new TestSuite(AllTests.class.getName());
+		suite.addTest(RefreshJobTest.suite());
 		suite.addTest(RefreshProviderTest.suite());
 		return suite;
 	}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ *  Copyright (c) 2014 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.resources.refresh;
+
+import junit.framework.TestSuite;
+import org.eclipse.core.filesystem.EFS;
+import org.eclipse.core.internal.refresh.RefreshJob;
+import org.eclipse.core.resources.*;
+import org.eclipse.core.tests.resources.ResourceTest;
+
+/**
+ * Tests the queue of requests of the RefreshJob
+ */
+public class RefreshJobTest extends ResourceTest {
+
+	public static TestSuite suite() {
+		return new TestSuite(RefreshJobTest.class);
+	}
+
+	public RefreshJobTest() {
+		super();
+	}
+
+	public RefreshJobTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Creates a file two levels below the given folder in the file system
+	 * only, and returns its handle.
+	 */
+	private IFile createOutOfSyncFile(IFolder folder) {
+		IFile file = folder.getFolder("new").getFile("file.txt");
+		createFileInFileSystem(EFS.getLocalFileSystem().getStore(file.getLocation()));
+		assertTrue("0.0", !file.exists());
+		return file;
+	}
+
+	/**
+	 * Tests that a deep request below a pending shallow request is not
+	 * swallowed by the shallow request.
+	 */
+	public void testDeepRequestBelowShallowRequest() throws InterruptedException {
+		IProject project = getWorkspace().getRoot().getProject("Project");
+		IFolder parent = project.getFolder("parent");
+		IFolder child = parent.getFolder("child");
+		ensureExistsInWorkspace(new IResource[] {project, parent, child}, true);
+		IFile file = createOutOfSyncFile(child);
+
+		RefreshJob job = new RefreshJob();
+		job.refresh(parent, IResource.DEPTH_ONE);
+		job.refresh(child);
+		job.join();
+		assertTrue("1.0", file.exists());
+	}
+
+	/**
+	 * Tests that a deep request replacing a pending shallow request of the
+	 * same resource is refreshed to infinite depth.
+	 */
+	public void testDeepRequestReplacesShallowRequest() throws InterruptedException {
+		IProject project = getWorkspace().getRoot().getProject("Project");
+		IFolder folder = project.getFolder("folder");
+		ensureExistsInWorkspace(new IResource[] {project, folder}, true);
+		IFile file = createOutOfSyncFile(folder);
+
+		RefreshJob job = new RefreshJob();
+		job.refresh(folder, IResource.DEPTH_ONE);
+		job.refresh(folder);
+		job.join();
+		assertTrue("1.0", file.exists());
+	}
+
+	/**
+	 * Tests that a shallow request does not descend into member folders.
+	 */
+	public void testShallowRequest() throws InterruptedException {
+		IProject project = getWorkspace().getRoot().getProject("Project");
+		IFolder folder = project.getFolder("folder");
+		ensureExistsInWorkspace(new IResource[] {project, folder}, true);
+		IFile file = createOutOfSyncFile(folder);
+
+		RefreshJob job = new RefreshJob();
+		job.refresh(folder, IResource.DEPTH_ONE);
+		job.join();
+		assertTrue("1.0", file.getParent().exists());
+		assertTrue("1.1", !file.exists());
+	}
+}